@@ -15,14 +15,45 @@
 package com.codex.gerrit;
 
 import static com.google.gerrit.server.change.RevisionResource.REVISION_KIND;
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
+import static com.google.gerrit.server.project.BranchResource.BRANCH_KIND;
+import static com.google.gerrit.server.project.ProjectResource.PROJECT_KIND;
 
+import com.codex.gerrit.rest.CodexBatchCancelRest;
+import com.codex.gerrit.rest.CodexBatchReviewRest;
+import com.codex.gerrit.rest.CodexBatchReviewStatusRest;
+import com.codex.gerrit.rest.CodexChatHeartbeatRest;
 import com.codex.gerrit.rest.CodexChatRest;
 import com.codex.gerrit.rest.CodexChatStopRest;
 import com.codex.gerrit.rest.CodexConfigRest;
+import com.codex.gerrit.rest.CodexFilesRest;
 import com.codex.gerrit.rest.CodexGraphRest;
+import com.codex.gerrit.rest.CodexHealthRest;
+import com.codex.gerrit.rest.CodexInsightArtifactRest;
 import com.codex.gerrit.rest.CodexInsightRest;
+import com.codex.gerrit.rest.CodexOutputRest;
 import com.codex.gerrit.rest.CodexPatchsetFilesRest;
 import com.codex.gerrit.rest.CodexSandboxRest;
+import com.codex.gerrit.rest.CodexUsageRest;
+import com.codex.gerrit.service.CodexAutoReviewListener;
+import com.codex.gerrit.service.CodexAutoReviewQueue;
+import com.codex.gerrit.service.CodexBatchReview;
+import com.codex.gerrit.service.CodexBranchInsight;
+import com.codex.gerrit.service.CodexDeadlines;
+import com.codex.gerrit.service.CodexGraphEngine;
+import com.codex.gerrit.service.CodexHealth;
+import com.codex.gerrit.service.CodexHedging;
+import com.codex.gerrit.service.CodexInFlightRegistry;
+import com.codex.gerrit.service.CodexInsightArtifactStore;
+import com.codex.gerrit.service.CodexOutputStore;
+import com.codex.gerrit.service.CodexPools;
+import com.codex.gerrit.service.CodexReviewPoster;
+import com.codex.gerrit.service.CodexShardedReview;
+import com.codex.gerrit.service.CodexTrafficRecorder;
+import com.codex.gerrit.service.CodexUsageLedger;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.RevisionCreatedListener;
+import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.extensions.restapi.RestApiModule;
 import com.google.gerrit.extensions.webui.JavaScriptPlugin;
@@ -35,17 +66,52 @@ public class Module extends AbstractModule {
     // Register PolyGerrit UI plugin script explicitly (same loading model used by coder-workspace).
     DynamicSet.bind(binder(), WebUiPlugin.class).toInstance(new JavaScriptPlugin("codex-gerrit.js"));
 
+    DynamicSet.bind(binder(), RevisionCreatedListener.class).to(CodexAutoReviewListener.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(CodexBranchInsight.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(CodexPools.class);
+
+    install(
+        new LifecycleModule() {
+          @Override
+          protected void configure() {
+            listener().to(CodexReviewPoster.class);
+            listener().to(CodexAutoReviewQueue.class);
+            listener().to(CodexInFlightRegistry.class);
+            listener().to(CodexOutputStore.class);
+            listener().to(CodexInsightArtifactStore.class);
+            listener().to(CodexGraphEngine.class);
+            listener().to(CodexBranchInsight.class);
+            listener().to(CodexShardedReview.class);
+            listener().to(CodexHedging.class);
+            listener().to(CodexDeadlines.class);
+            listener().to(CodexUsageLedger.class);
+            listener().to(CodexHealth.class);
+            listener().to(CodexBatchReview.class);
+            listener().to(CodexTrafficRecorder.class);
+          }
+        });
+
     install(
         new RestApiModule() {
           @Override
           protected void configure() {
             post(REVISION_KIND, "codex-chat").to(CodexChatRest.class);
             post(REVISION_KIND, "codex-chat-stop").to(CodexChatStopRest.class);
+            post(REVISION_KIND, "codex-chat-heartbeat").to(CodexChatHeartbeatRest.class);
             post(REVISION_KIND, "codex-graph").to(CodexGraphRest.class);
             post(REVISION_KIND, "codex-insight").to(CodexInsightRest.class);
             post(REVISION_KIND, "codex-sandbox").to(CodexSandboxRest.class);
             get(REVISION_KIND, "codex-config").to(CodexConfigRest.class);
+            get(REVISION_KIND, "codex-files").to(CodexFilesRest.class);
+            get(REVISION_KIND, "codex-health").to(CodexHealthRest.class);
+            get(REVISION_KIND, "codex-insight-artifact").to(CodexInsightArtifactRest.class);
+            get(REVISION_KIND, "codex-output").to(CodexOutputRest.class);
             get(REVISION_KIND, "codex-patchset-files").to(CodexPatchsetFilesRest.class);
+            get(CONFIG_KIND, "codex-usage").to(CodexUsageRest.class);
+            post(PROJECT_KIND, "codex-batch-review").to(CodexBatchReviewRest.class);
+            post(BRANCH_KIND, "codex-batch-review").to(CodexBatchReviewRest.Branch.class);
+            get(PROJECT_KIND, "codex-batch-review").to(CodexBatchReviewStatusRest.class);
+            post(PROJECT_KIND, "codex-batch-review-cancel").to(CodexBatchCancelRest.class);
           }
         });
   }
@@ -0,0 +1,129 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.config;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Per-project automatic review rules, read from the {@code [plugin "codex-gerrit"]} section of
+ * {@code project.config} with inheritance from parent projects.
+ */
+@Singleton
+public class CodexAutoReviewConfig {
+  private static final Logger logger = LoggerFactory.getLogger(CodexAutoReviewConfig.class);
+  private static final String DEFAULT_PROMPT =
+      "Review this patch set. Report concrete issues with file paths and line numbers.";
+
+  private final PluginConfigFactory configFactory;
+  private final String pluginName;
+  private final CodexGerritConfig config;
+
+  @Inject
+  CodexAutoReviewConfig(
+      PluginConfigFactory configFactory, @PluginName String pluginName, CodexGerritConfig config) {
+    this.configFactory = configFactory;
+    this.pluginName = pluginName;
+    this.config = config;
+  }
+
+  /** Returns the rule that applies to a change on {@code branch}, or null if none does. */
+  public Rule ruleFor(Project.NameKey project, String branch) {
+    PluginConfig projectConfig;
+    try {
+      projectConfig = configFactory.getFromProjectConfigWithInheritance(project, pluginName);
+    } catch (NoSuchProjectException ex) {
+      return null;
+    }
+    if (!projectConfig.getBoolean("autoReview", false)) {
+      return null;
+    }
+    String[] branches = projectConfig.getStringList("autoReviewBranch");
+    if (branches.length > 0 && !matchesAny(branches, branch)) {
+      return null;
+    }
+    return new Rule(
+        config.normalizeAgentOrDefault(projectConfig.getString("autoReviewAgent")),
+        trimToNull(projectConfig.getString("autoReviewModel")),
+        trimToDefault(projectConfig.getString("autoReviewPrompt"), DEFAULT_PROMPT),
+        projectConfig.getBoolean("autoReviewSkipWip", true));
+  }
+
+  /**
+   * True if {@code branch} matches one of {@code patterns}: a full ref name, a prefix ending in
+   * {@code *}, or a regular expression starting with {@code ^}.
+   */
+  static boolean matchesAny(String[] patterns, String branch) {
+    String ref = branch.startsWith("refs/") ? branch : "refs/heads/" + branch;
+    for (String pattern : patterns) {
+      String trimmed = pattern.trim();
+      if (trimmed.isEmpty()) {
+        continue;
+      }
+      if (trimmed.startsWith("^")) {
+        try {
+          if (Pattern.matches(trimmed, ref)) {
+            return true;
+          }
+        } catch (PatternSyntaxException ex) {
+          logger.warn("Ignoring invalid branch pattern {}", trimmed);
+        }
+      } else if (trimmed.endsWith("*")) {
+        if (ref.startsWith(trimmed.substring(0, trimmed.length() - 1))) {
+          return true;
+        }
+      } else if (trimmed.equals(ref)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String trimToNull(String value) {
+    if (value == null) {
+      return null;
+    }
+    String trimmed = value.trim();
+    return trimmed.isEmpty() ? null : trimmed;
+  }
+
+  private static String trimToDefault(String value, String defaultValue) {
+    String trimmed = trimToNull(value);
+    return trimmed == null ? defaultValue : trimmed;
+  }
+
+  public static class Rule {
+    public final String agent;
+    public final String model;
+    public final String prompt;
+    public final boolean skipWorkInProgress;
+
+    Rule(String agent, String model, String prompt, boolean skipWorkInProgress) {
+      this.agent = agent;
+      this.model = model;
+      this.prompt = prompt;
+      this.skipWorkInProgress = skipWorkInProgress;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.config;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-project insight settings, read from the {@code [plugin "codex-gerrit"]} section of {@code
+ * project.config} with inheritance from parent projects.
+ */
+@Singleton
+public class CodexBranchInsightConfig {
+  private final PluginConfigFactory configFactory;
+  private final String pluginName;
+
+  @Inject
+  CodexBranchInsightConfig(PluginConfigFactory configFactory, @PluginName String pluginName) {
+    this.configFactory = configFactory;
+    this.pluginName = pluginName;
+  }
+
+  /** Returns the settings of {@code project}, or null if the project does not exist. */
+  public Settings settingsFor(Project.NameKey project) {
+    PluginConfig projectConfig;
+    try {
+      projectConfig = configFactory.getFromProjectConfigWithInheritance(project, pluginName);
+    } catch (NoSuchProjectException ex) {
+      return null;
+    }
+    return new Settings(
+        projectConfig.getBoolean("insightPrecompute", false),
+        projectConfig.getStringList("insightPrecomputeBranch"),
+        nonBlank(projectConfig.getStringList("insightInclude")),
+        nonBlank(projectConfig.getStringList("insightExclude")));
+  }
+
+  private static List<String> nonBlank(String[] values) {
+    List<String> result = new ArrayList<>();
+    for (String value : values) {
+      if (value != null && !value.trim().isEmpty()) {
+        result.add(value.trim());
+      }
+    }
+    return result.isEmpty() ? null : result;
+  }
+
+  public static class Settings {
+    private final boolean precompute;
+    private final String[] branches;
+    /** Globs applied when insight input is read from the repository; null if unset. */
+    public final List<String> include;
+    public final List<String> exclude;
+
+    Settings(boolean precompute, String[] branches, List<String> include, List<String> exclude) {
+      this.precompute = precompute;
+      this.branches = branches;
+      this.include = include;
+      this.exclude = exclude;
+    }
+
+    /** True if insight is precomputed when {@code ref} is updated. */
+    public boolean precomputes(String ref) {
+      return precompute
+          && (branches.length == 0 || CodexAutoReviewConfig.matchesAny(branches, ref));
+    }
+  }
+}
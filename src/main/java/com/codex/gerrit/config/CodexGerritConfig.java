@@ -16,20 +16,96 @@ package com.codex.gerrit.config;
 
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
 
 @Singleton
 public class CodexGerritConfig {
   private static final int DEFAULT_MAX_FILES = 200;
   private static final String DEFAULT_AGENT = "codex";
   private static final String DEFAULT_BASH_PATH = "/bin/bash";
+  private static final int DEFAULT_MENTION_INLINE_FILE_LIMIT = 1000;
+  private static final long DEFAULT_TRAFFIC_RECORD_MAX_BYTES = 512L * 1024 * 1024;
+  private static final int DEFAULT_AUTO_REVIEW_THREADS = 2;
+  private static final int DEFAULT_OUTPUT_MEMORY_CHARS = 20_000;
+  private static final long DEFAULT_OUTPUT_SPILL_MAX_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_INSIGHT_CACHE_MAX_BYTES = 256L * 1024 * 1024;
+  private static final int DEFAULT_GRAPH_THREADS = 4;
+  private static final long DEFAULT_SOURCE_MAX_FILE_BYTES = 1024L * 1024;
+  private static final long DEFAULT_SOURCE_MAX_BYTES = 32L * 1024 * 1024;
+  private static final int DEFAULT_INSIGHT_PRECOMPUTE_THREADS = 1;
+  private static final int DEFAULT_INSIGHT_PRECOMPUTE_DELAY_SECONDS = 60;
+  private static final int DEFAULT_REVIEW_SHARD_THREADS = 4;
+  private static final int DEFAULT_REVIEW_SHARD_MAX_FILES = 20;
+  private static final long DEFAULT_REVIEW_SHARD_MAX_CHARS = 150_000;
+  private static final long DEFAULT_CONNECT_TIMEOUT_MS = 10_000;
+  private static final long DEFAULT_CONTROL_TIMEOUT_MS = 15_000;
+  private static final long DEFAULT_FIRST_EVENT_TIMEOUT_MS = 300_000;
+  private static final long DEFAULT_IDLE_TIMEOUT_MS = 300_000;
+  private static final int DEFAULT_HEDGE_THREADS = 2;
+  private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+  private static final int DEFAULT_HEDGE_MIN_DELAY_MS = 2_000;
+  private static final int DEFAULT_HEDGE_MAX_PERCENT = 5;
+  private static final int DEFAULT_USAGE_RETENTION_DAYS = 90;
+  private static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+  private static final long DEFAULT_MEMORY_BUDGET_WAIT_MS = 10_000;
+  private static final long DEFAULT_HEALTH_CHECK_INTERVAL_MS = 10_000;
+  private static final long DEFAULT_HEALTH_CHECK_TIMEOUT_MS = 2_000;
+  private static final long DEFAULT_HEALTH_SLOW_THRESHOLD_MS = 2_000;
+  private static final int DEFAULT_HEALTH_DOWN_AFTER = 3;
+  private static final int DEFAULT_HEALTH_UP_AFTER = 2;
+  private static final int DEFAULT_BATCH_REVIEW_THREADS = 4;
+  private static final int DEFAULT_BATCH_REVIEW_CONCURRENCY = 2;
+  private static final int DEFAULT_BATCH_REVIEW_MAX_CHANGES = 300;
 
   private final String gerritBotUser;
   private final int maxFiles;
   private final String bashPath;
   private final String codexServeUrl;
+  private final boolean trafficRecordingEnabled;
+  private final String trafficRecordDir;
+  private final long trafficRecordMaxBytes;
+  private final int mentionInlineFileLimit;
+  private final int autoReviewThreads;
+  private final int outputMemoryChars;
+  private final long outputSpillMaxBytes;
+  private final long insightCacheMaxBytes;
+  private final int graphThreads;
+  private final long sourceMaxFileBytes;
+  private final long sourceMaxBytes;
+  private final int insightPrecomputeThreads;
+  private final int insightPrecomputeDelaySeconds;
+  private final int reviewShardThreads;
+  private final int reviewShardMaxFiles;
+  private final long reviewShardMaxChars;
+  private final long connectTimeoutMs;
+  private final long controlTimeoutMs;
+  private final long firstEventTimeoutMs;
+  private final long idleTimeoutMs;
+  private final boolean adaptiveTimeouts;
+  private final String hedgeModel;
+  private final int hedgeThreads;
+  private final int hedgePercentile;
+  private final int hedgeMinDelayMs;
+  private final int hedgeMaxPercent;
+  private final long accountRequestsPerHour;
+  private final long accountTokensPerHour;
+  private final long projectRequestsPerHour;
+  private final long projectTokensPerHour;
+  private final int usageRetentionDays;
+  private final long memoryBudget;
+  private final long memoryBudgetWaitMs;
+  private final long healthCheckIntervalMs;
+  private final long healthCheckTimeoutMs;
+  private final long healthSlowThresholdMs;
+  private final int healthDownAfter;
+  private final int healthUpAfter;
+  private final int batchReviewThreads;
+  private final int batchReviewConcurrency;
+  private final int batchReviewMaxChanges;
 
   @Inject
   CodexGerritConfig(PluginConfigFactory configFactory, @PluginName String pluginName) {
@@ -38,6 +114,87 @@ public class CodexGerritConfig {
     this.maxFiles = config.getInt("maxFiles", DEFAULT_MAX_FILES);
     this.bashPath = trimToDefault(config.getString("bashPath"), DEFAULT_BASH_PATH);
     this.codexServeUrl = trimToEmpty(config.getString("codexServeUrl"));
+    this.trafficRecordingEnabled = config.getBoolean("recordTraffic", false);
+    this.trafficRecordDir = trimToEmpty(config.getString("trafficRecordDir"));
+    this.trafficRecordMaxBytes =
+        config.getLong("trafficRecordMaxBytes", DEFAULT_TRAFFIC_RECORD_MAX_BYTES);
+    this.mentionInlineFileLimit =
+        config.getInt("mentionInlineFileLimit", DEFAULT_MENTION_INLINE_FILE_LIMIT);
+    this.autoReviewThreads =
+        Math.max(1, config.getInt("autoReviewThreads", DEFAULT_AUTO_REVIEW_THREADS));
+    this.outputMemoryChars =
+        Math.max(1024, config.getInt("outputMemoryChars", DEFAULT_OUTPUT_MEMORY_CHARS));
+    this.outputSpillMaxBytes =
+        Math.max(
+            outputMemoryChars,
+            config.getLong("outputSpillMaxBytes", DEFAULT_OUTPUT_SPILL_MAX_BYTES));
+    this.insightCacheMaxBytes =
+        Math.max(0, config.getLong("insightCacheMaxBytes", DEFAULT_INSIGHT_CACHE_MAX_BYTES));
+    this.graphThreads = Math.max(1, config.getInt("graphThreads", DEFAULT_GRAPH_THREADS));
+    this.sourceMaxFileBytes =
+        Math.min(
+            Integer.MAX_VALUE - 8,
+            Math.max(1, config.getLong("sourceMaxFileBytes", DEFAULT_SOURCE_MAX_FILE_BYTES)));
+    this.sourceMaxBytes = Math.max(1, config.getLong("sourceMaxBytes", DEFAULT_SOURCE_MAX_BYTES));
+    this.insightPrecomputeThreads =
+        Math.max(
+            1, config.getInt("insightPrecomputeThreads", DEFAULT_INSIGHT_PRECOMPUTE_THREADS));
+    this.insightPrecomputeDelaySeconds =
+        Math.max(
+            0,
+            config.getInt(
+                "insightPrecomputeDelaySeconds", DEFAULT_INSIGHT_PRECOMPUTE_DELAY_SECONDS));
+    this.reviewShardThreads =
+        Math.max(1, config.getInt("reviewShardThreads", DEFAULT_REVIEW_SHARD_THREADS));
+    this.reviewShardMaxFiles =
+        Math.max(1, config.getInt("reviewShardMaxFiles", DEFAULT_REVIEW_SHARD_MAX_FILES));
+    this.reviewShardMaxChars =
+        Math.max(1, config.getLong("reviewShardMaxChars", DEFAULT_REVIEW_SHARD_MAX_CHARS));
+    this.connectTimeoutMs = timeout(config, "connectTimeout", DEFAULT_CONNECT_TIMEOUT_MS);
+    this.controlTimeoutMs = timeout(config, "controlTimeout", DEFAULT_CONTROL_TIMEOUT_MS);
+    this.firstEventTimeoutMs =
+        timeout(config, "firstEventTimeout", DEFAULT_FIRST_EVENT_TIMEOUT_MS);
+    this.idleTimeoutMs = timeout(config, "idleTimeout", DEFAULT_IDLE_TIMEOUT_MS);
+    this.adaptiveTimeouts = config.getBoolean("adaptiveTimeouts", true);
+    this.hedgeModel = trimToEmpty(config.getString("hedgeModel"));
+    this.hedgeThreads = Math.max(1, config.getInt("hedgeThreads", DEFAULT_HEDGE_THREADS));
+    this.hedgePercentile =
+        Math.min(99, Math.max(50, config.getInt("hedgePercentile", DEFAULT_HEDGE_PERCENTILE)));
+    this.hedgeMinDelayMs =
+        Math.max(100, config.getInt("hedgeMinDelayMs", DEFAULT_HEDGE_MIN_DELAY_MS));
+    this.hedgeMaxPercent =
+        Math.min(100, Math.max(0, config.getInt("hedgeMaxPercent", DEFAULT_HEDGE_MAX_PERCENT)));
+    this.accountRequestsPerHour = Math.max(0, config.getLong("accountRequestsPerHour", 0));
+    this.accountTokensPerHour = Math.max(0, config.getLong("accountTokensPerHour", 0));
+    this.projectRequestsPerHour = Math.max(0, config.getLong("projectRequestsPerHour", 0));
+    this.projectTokensPerHour = Math.max(0, config.getLong("projectTokensPerHour", 0));
+    this.usageRetentionDays =
+        Math.max(1, config.getInt("usageRetentionDays", DEFAULT_USAGE_RETENTION_DAYS));
+    this.memoryBudget = Math.max(0, config.getLong("memoryBudget", DEFAULT_MEMORY_BUDGET));
+    this.memoryBudgetWaitMs = timeout(config, "memoryBudgetWait", DEFAULT_MEMORY_BUDGET_WAIT_MS);
+    long healthCheckInterval =
+        ConfigUtil.getTimeUnit(
+            config.getString("healthCheckInterval"),
+            DEFAULT_HEALTH_CHECK_INTERVAL_MS,
+            TimeUnit.MILLISECONDS);
+    this.healthCheckIntervalMs =
+        healthCheckInterval <= 0 ? 0 : Math.max(1_000, healthCheckInterval);
+    this.healthCheckTimeoutMs =
+        timeout(config, "healthCheckTimeout", DEFAULT_HEALTH_CHECK_TIMEOUT_MS);
+    this.healthSlowThresholdMs =
+        timeout(config, "healthSlowThreshold", DEFAULT_HEALTH_SLOW_THRESHOLD_MS);
+    this.healthDownAfter =
+        Math.max(1, config.getInt("healthDownAfter", DEFAULT_HEALTH_DOWN_AFTER));
+    this.healthUpAfter = Math.max(1, config.getInt("healthUpAfter", DEFAULT_HEALTH_UP_AFTER));
+    this.batchReviewThreads =
+        Math.max(1, config.getInt("batchReviewThreads", DEFAULT_BATCH_REVIEW_THREADS));
+    this.batchReviewConcurrency =
+        Math.min(
+            batchReviewThreads,
+            Math.max(
+                1, config.getInt("batchReviewConcurrency", DEFAULT_BATCH_REVIEW_CONCURRENCY)));
+    this.batchReviewMaxChanges =
+        Math.max(1, config.getInt("batchReviewMaxChanges", DEFAULT_BATCH_REVIEW_MAX_CHANGES));
   }
 
   public String getGerritBotUser() {
@@ -60,6 +217,190 @@ public class CodexGerritConfig {
     return codexServeUrl;
   }
 
+  public boolean isTrafficRecordingEnabled() {
+    return trafficRecordingEnabled;
+  }
+
+  public String getTrafficRecordDir() {
+    return trafficRecordDir;
+  }
+
+  public long getTrafficRecordMaxBytes() {
+    return trafficRecordMaxBytes;
+  }
+
+  public int getMentionInlineFileLimit() {
+    return mentionInlineFileLimit;
+  }
+
+  public int getAutoReviewThreads() {
+    return autoReviewThreads;
+  }
+
+  public int getOutputMemoryChars() {
+    return outputMemoryChars;
+  }
+
+  public long getOutputSpillMaxBytes() {
+    return outputSpillMaxBytes;
+  }
+
+  /** Size limit of the {@code #insight} result cache; 0 disables it. */
+  public long getInsightCacheMaxBytes() {
+    return insightCacheMaxBytes;
+  }
+
+  public int getGraphThreads() {
+    return graphThreads;
+  }
+
+  /** Largest file read from the repository for {@code #graph} and {@code #insight}. */
+  public long getSourceMaxFileBytes() {
+    return sourceMaxFileBytes;
+  }
+
+  public long getSourceMaxBytes() {
+    return sourceMaxBytes;
+  }
+
+  public int getInsightPrecomputeThreads() {
+    return insightPrecomputeThreads;
+  }
+
+  /** Quiet period after a branch update before its insight is precomputed. */
+  public int getInsightPrecomputeDelaySeconds() {
+    return insightPrecomputeDelaySeconds;
+  }
+
+  public int getReviewShardThreads() {
+    return reviewShardThreads;
+  }
+
+  public int getReviewShardMaxFiles() {
+    return reviewShardMaxFiles;
+  }
+
+  /** Context characters per review shard; a single larger file still gets a shard of its own. */
+  public long getReviewShardMaxChars() {
+    return reviewShardMaxChars;
+  }
+
+  public long getConnectTimeoutMs() {
+    return connectTimeoutMs;
+  }
+
+  /** Read timeout of short calls such as {@code /models} and {@code /sessions/{id}/stop}. */
+  public long getControlTimeoutMs() {
+    return controlTimeoutMs;
+  }
+
+  /** Default time an agent run may take to emit its first event. */
+  public long getFirstEventTimeoutMs() {
+    return firstEventTimeoutMs;
+  }
+
+  /** Default time an agent run may stay silent between two events. */
+  public long getIdleTimeoutMs() {
+    return idleTimeoutMs;
+  }
+
+  /** Whether agent run timeouts are tightened from observed latencies. */
+  public boolean getAdaptiveTimeouts() {
+    return adaptiveTimeouts;
+  }
+
+  /** Model a stalled agent run is duplicated to; empty disables hedging. */
+  public String getHedgeModel() {
+    return hedgeModel;
+  }
+
+  public int getHedgeThreads() {
+    return hedgeThreads;
+  }
+
+  /** First-event latency percentile after which a run is hedged. */
+  public int getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  public int getHedgeMinDelayMs() {
+    return hedgeMinDelayMs;
+  }
+
+  /** Upper bound of hedges, in percent of agent runs. */
+  public int getHedgeMaxPercent() {
+    return hedgeMaxPercent;
+  }
+
+  /** Requests one account may start per hour; 0 is unlimited. */
+  public long getAccountRequestsPerHour() {
+    return accountRequestsPerHour;
+  }
+
+  /** Tokens one account may use per hour; 0 is unlimited. */
+  public long getAccountTokensPerHour() {
+    return accountTokensPerHour;
+  }
+
+  public long getProjectRequestsPerHour() {
+    return projectRequestsPerHour;
+  }
+
+  public long getProjectTokensPerHour() {
+    return projectTokensPerHour;
+  }
+
+  public int getUsageRetentionDays() {
+    return usageRetentionDays;
+  }
+
+  /** Payload bytes all requests together may hold on the heap; 0 disables the budget. */
+  public long getMemoryBudget() {
+    return memoryBudget;
+  }
+
+  public long getMemoryBudgetWaitMs() {
+    return memoryBudgetWaitMs;
+  }
+
+  /** Time between health probes of each codex.serve pool; 0 disables probing. */
+  public long getHealthCheckIntervalMs() {
+    return healthCheckIntervalMs;
+  }
+
+  public long getHealthCheckTimeoutMs() {
+    return healthCheckTimeoutMs;
+  }
+
+  /** Probes slower than this mark a pool degraded. */
+  public long getHealthSlowThresholdMs() {
+    return healthSlowThresholdMs;
+  }
+
+  /** Consecutive failed probes after which a pool is down. */
+  public int getHealthDownAfter() {
+    return healthDownAfter;
+  }
+
+  /** Consecutive fast probes after which a pool is healthy again. */
+  public int getHealthUpAfter() {
+    return healthUpAfter;
+  }
+
+  /** Threads running batch reviews, shared by all batches. */
+  public int getBatchReviewThreads() {
+    return batchReviewThreads;
+  }
+
+  /** Changes of one batch reviewed at the same time unless the batch asks for fewer. */
+  public int getBatchReviewConcurrency() {
+    return batchReviewConcurrency;
+  }
+
+  public int getBatchReviewMaxChanges() {
+    return batchReviewMaxChanges;
+  }
+
   private String normalizeAgent(String rawAgent) {
     if (rawAgent == null) {
       return DEFAULT_AGENT;
@@ -71,6 +412,14 @@ public class CodexGerritConfig {
     return normalized;
   }
 
+  private static long timeout(PluginConfig config, String name, long defaultMs) {
+    String value = config.getString(name);
+    if (value == null) {
+      return defaultMs;
+    }
+    return Math.max(1_000, ConfigUtil.getTimeUnit(value, defaultMs, TimeUnit.MILLISECONDS));
+  }
+
   private static String trimToEmpty(String value) {
     return value == null ? "" : value.trim();
   }
@@ -0,0 +1,251 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.config;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.PluginConfig;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.project.NoSuchProjectException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * codex.serve backend pools and the rules that route projects to them.
+ *
+ * <p>Pools are {@code [pool "<name>"]} sections of {@code etc/codex-gerrit.config}. The {@code
+ * default} pool is {@code codexServeUrl}; a {@code [pool "default"]} section only tunes its limits.
+ * Routes are read from the {@code [plugin "codex-gerrit"]} section of {@code project.config} with
+ * inheritance: the first {@code poolRoute} that matches the branch and agent wins, else {@code
+ * pool}, else the default pool. {@code schedulingWeight} sets the project's share of a busy pool.
+ */
+@Singleton
+public class CodexPoolConfig {
+  private static final Logger logger = LoggerFactory.getLogger(CodexPoolConfig.class);
+  public static final String DEFAULT_POOL = "default";
+  private static final String SECTION = "pool";
+  private static final long DEFAULT_QUEUE_TIMEOUT_MS = 60_000;
+  private static final int MAX_SCHEDULING_WEIGHT = 100;
+
+  private final PluginConfigFactory configFactory;
+  private final String pluginName;
+  private final Map<String, Pool> pools = new LinkedHashMap<>();
+
+  @Inject
+  CodexPoolConfig(
+      CodexGerritConfig config, PluginConfigFactory configFactory, @PluginName String pluginName) {
+    this.configFactory = configFactory;
+    this.pluginName = pluginName;
+    Config pluginConfig = configFactory.getGlobalPluginConfig(pluginName);
+    pools.put(DEFAULT_POOL, pool(config, pluginConfig, DEFAULT_POOL, config.getCodexServeUrl()));
+    for (String name : pluginConfig.getSubsections(SECTION)) {
+      if (DEFAULT_POOL.equals(name)) {
+        continue;
+      }
+      String url = trimTrailingSlash(pluginConfig.getString(SECTION, name, "url"));
+      if (url.isEmpty()) {
+        logger.warn("Ignoring pool {}: no url", name);
+        continue;
+      }
+      pools.put(name, pool(config, pluginConfig, name, url));
+    }
+  }
+
+  public Pool defaultPool() {
+    return pools.get(DEFAULT_POOL);
+  }
+
+  /** Returns the pool called {@code name}, or null if it is not configured. */
+  public Pool get(String name) {
+    return pools.get(name);
+  }
+
+  public Collection<Pool> pools() {
+    return Collections.unmodifiableCollection(pools.values());
+  }
+
+  /** Returns the routing of {@code project}, or null if the project does not exist. */
+  public Routing routingFor(Project.NameKey project) {
+    PluginConfig projectConfig;
+    try {
+      projectConfig = configFactory.getFromProjectConfigWithInheritance(project, pluginName);
+    } catch (NoSuchProjectException ex) {
+      return null;
+    }
+    List<Route> routes = new ArrayList<>();
+    for (String value : projectConfig.getStringList("poolRoute")) {
+      Route route = Route.parse(value);
+      if (route == null) {
+        logger.warn("Ignoring invalid poolRoute \"{}\" of project {}", value, project);
+      } else {
+        routes.add(route);
+      }
+    }
+    String pool = projectConfig.getString("pool");
+    int weight =
+        Math.min(MAX_SCHEDULING_WEIGHT, Math.max(1, projectConfig.getInt("schedulingWeight", 1)));
+    return new Routing(
+        routes, pool == null || pool.trim().isEmpty() ? null : pool.trim(), weight);
+  }
+
+  private static Pool pool(CodexGerritConfig config, Config pluginConfig, String name, String url) {
+    return new Pool(
+        name,
+        url,
+        Math.max(0, pluginConfig.getInt(SECTION, name, "maxConcurrent", 0)),
+        timeout(pluginConfig, name, "queueTimeout", DEFAULT_QUEUE_TIMEOUT_MS),
+        timeout(pluginConfig, name, "connectTimeout", config.getConnectTimeoutMs()),
+        timeout(pluginConfig, name, "controlTimeout", config.getControlTimeoutMs()),
+        timeout(pluginConfig, name, "firstEventTimeout", config.getFirstEventTimeoutMs()),
+        timeout(pluginConfig, name, "idleTimeout", config.getIdleTimeoutMs()));
+  }
+
+  private static long timeout(Config pluginConfig, String name, String key, long defaultMs) {
+    if (pluginConfig.getString(SECTION, name, key) == null) {
+      return defaultMs;
+    }
+    return Math.max(
+        1_000,
+        ConfigUtil.getTimeUnit(pluginConfig, SECTION, name, key, defaultMs, TimeUnit.MILLISECONDS));
+  }
+
+  private static String trimTrailingSlash(String value) {
+    String trimmed = value == null ? "" : value.trim();
+    while (trimmed.endsWith("/")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 1);
+    }
+    return trimmed;
+  }
+
+  /** One codex.serve endpoint with its own limits. */
+  public static class Pool {
+    public final String name;
+    public final String url;
+    /** Concurrent runs on the pool; 0 is unlimited. */
+    public final int maxConcurrent;
+    /** Time a run waits for a free slot before it is rejected. */
+    public final long queueTimeoutMs;
+    public final long connectTimeoutMs;
+    public final long controlTimeoutMs;
+    public final long firstEventTimeoutMs;
+    public final long idleTimeoutMs;
+
+    Pool(
+        String name,
+        String url,
+        int maxConcurrent,
+        long queueTimeoutMs,
+        long connectTimeoutMs,
+        long controlTimeoutMs,
+        long firstEventTimeoutMs,
+        long idleTimeoutMs) {
+      this.name = name;
+      this.url = url;
+      this.maxConcurrent = maxConcurrent;
+      this.queueTimeoutMs = queueTimeoutMs;
+      this.connectTimeoutMs = connectTimeoutMs;
+      this.controlTimeoutMs = controlTimeoutMs;
+      this.firstEventTimeoutMs = firstEventTimeoutMs;
+      this.idleTimeoutMs = idleTimeoutMs;
+    }
+  }
+
+  /** Pool rules of one project. */
+  public static class Routing {
+    private final List<Route> routes;
+    private final String pool;
+    private final int weight;
+
+    Routing(List<Route> routes, String pool, int weight) {
+      this.routes = routes;
+      this.pool = pool;
+      this.weight = weight;
+    }
+
+    /** Share of a busy pool relative to other projects waiting in the same priority class. */
+    public int weight() {
+      return weight;
+    }
+
+    /**
+     * Returns the pool name for a request on {@code branch} (null if not branch-bound) by {@code
+     * agent} (null for non-agent requests such as {@code #insight}).
+     */
+    public String poolFor(String branch, String agent) {
+      for (Route route : routes) {
+        if (route.matches(branch, agent)) {
+          return route.pool;
+        }
+      }
+      return pool != null ? pool : DEFAULT_POOL;
+    }
+  }
+
+  /** A {@code poolRoute} value: {@code pool=<name> [branch=<pattern>]... [agent=<name>]}. */
+  static class Route {
+    private final String pool;
+    private final String[] branches;
+    private final String agent;
+
+    private Route(String pool, String[] branches, String agent) {
+      this.pool = pool;
+      this.branches = branches;
+      this.agent = agent;
+    }
+
+    static Route parse(String value) {
+      String pool = null;
+      String agent = null;
+      List<String> branches = new ArrayList<>();
+      for (String token : value.trim().split("\\s+")) {
+        int eq = token.indexOf('=');
+        if (eq <= 0 || eq == token.length() - 1) {
+          return null;
+        }
+        String key = token.substring(0, eq);
+        String tokenValue = token.substring(eq + 1);
+        if ("pool".equals(key)) {
+          pool = tokenValue;
+        } else if ("branch".equals(key)) {
+          branches.add(tokenValue);
+        } else if ("agent".equals(key)) {
+          agent = tokenValue.toLowerCase();
+        } else {
+          return null;
+        }
+      }
+      return pool == null ? null : new Route(pool, branches.toArray(new String[0]), agent);
+    }
+
+    boolean matches(String branch, String requestAgent) {
+      if (agent != null && !agent.equals(requestAgent)) {
+        return false;
+      }
+      return branches.length == 0
+          || (branch != null && CodexAutoReviewConfig.matchesAny(branches, branch));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.config;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Agent run timeouts per agent and model, read from {@code [timeout "<agent>"]} and {@code
+ * [timeout "<agent>/<model>"]} in {@code etc/codex-gerrit.config}. A model section overrides its
+ * agent section, which overrides the {@code firstEventTimeout} and {@code idleTimeout} of the
+ * pool the run goes to.
+ */
+@Singleton
+public class CodexTimeoutConfig {
+  private static final String SECTION = "timeout";
+
+  private final Config pluginConfig;
+  private final ConcurrentMap<String, Timeouts> resolved = new ConcurrentHashMap<>();
+
+  @Inject
+  CodexTimeoutConfig(PluginConfigFactory configFactory, @PluginName String pluginName) {
+    this.pluginConfig = configFactory.getGlobalPluginConfig(pluginName);
+  }
+
+  public Timeouts forRun(CodexPoolConfig.Pool pool, String agent, String model) {
+    String normalizedModel = model == null ? "" : model.trim();
+    String subsection = normalizedModel.isEmpty() ? agent : agent + "/" + normalizedModel;
+    return resolved.computeIfAbsent(
+        pool.name + ":" + subsection,
+        key -> {
+          long firstEvent = get(agent, "firstEvent", pool.firstEventTimeoutMs);
+          long idle = get(agent, "idle", pool.idleTimeoutMs);
+          if (!normalizedModel.isEmpty()) {
+            firstEvent = get(subsection, "firstEvent", firstEvent);
+            idle = get(subsection, "idle", idle);
+          }
+          return new Timeouts(firstEvent, idle);
+        });
+  }
+
+  private long get(String subsection, String name, long defaultMs) {
+    if (pluginConfig.getString(SECTION, subsection, name) == null) {
+      return defaultMs;
+    }
+    return Math.max(
+        1_000,
+        ConfigUtil.getTimeUnit(
+            pluginConfig, SECTION, subsection, name, defaultMs, TimeUnit.MILLISECONDS));
+  }
+
+  public static class Timeouts {
+    public final long firstEventMs;
+    public final long idleMs;
+
+    Timeouts(long firstEventMs, long idleMs) {
+      this.firstEventMs = firstEventMs;
+      this.idleMs = idleMs;
+    }
+  }
+}
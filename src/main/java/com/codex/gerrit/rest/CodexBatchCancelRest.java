@@ -0,0 +1,49 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexBatchReview;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Cancels a whole batch review: {@code POST /projects/<project>/codex-batch-review-cancel}. */
+@Singleton
+public class CodexBatchCancelRest
+    implements RestModifyView<ProjectResource, CodexBatchCancelInput> {
+  private final CodexBatchReview batchReview;
+
+  @Inject
+  CodexBatchCancelRest(CodexBatchReview batchReview) {
+    this.batchReview = batchReview;
+  }
+
+  @Override
+  public Response<CodexBatchReview.Status> apply(
+      ProjectResource resource, CodexBatchCancelInput input) throws RestApiException {
+    if (input == null || input.id == null || input.id.trim().isEmpty()) {
+      throw new BadRequestException("id is required");
+    }
+    return Response.ok(
+        batchReview.cancel(
+            input.id,
+            resource.getNameKey(),
+            CodexBatchReviewRest.accountOf(resource.getUser())));
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.google.gson.annotations.SerializedName;
+
+public class CodexBatchReviewInput {
+  /** Change query, restricted to the project (and branch) of the request; open changes if unset. */
+  public String query;
+  /**
+   * Prompt sent for every change. {@code ${change}}, {@code ${project}}, {@code ${branch}}, {@code
+   * ${subject}} and {@code ${owner}} are replaced with the values of the reviewed change.
+   */
+  @SerializedName(value = "prompt", alternate = {"template", "promptTemplate"})
+  public String prompt;
+  /** Only on project level: restricts the query to this branch. */
+  public String branch;
+  public String agent;
+  public String model;
+  /** Number of changes to review at most; defaults to {@code batchReviewMaxChanges}. */
+  public Integer limit;
+  /** Changes reviewed at the same time; at most {@code batchReviewConcurrency}. */
+  public Integer concurrency;
+  /** Posts each reply as a review of its change; otherwise replies are kept in the batch status. */
+  public Boolean post;
+}
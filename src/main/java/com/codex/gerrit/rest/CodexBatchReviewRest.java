@@ -0,0 +1,88 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexBatchReview;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.project.BranchResource;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Queues a review of every change matching a query: {@code POST
+ * /projects/<project>/codex-batch-review}, or {@code .../branches/<branch>/codex-batch-review} for
+ * one branch. Returns at once; progress is read with {@link CodexBatchReviewStatusRest}.
+ */
+@Singleton
+public class CodexBatchReviewRest
+    implements RestModifyView<ProjectResource, CodexBatchReviewInput> {
+  private final CodexBatchReview batchReview;
+
+  @Inject
+  CodexBatchReviewRest(CodexBatchReview batchReview) {
+    this.batchReview = batchReview;
+  }
+
+  @Override
+  public Response<CodexBatchReview.Status> apply(
+      ProjectResource resource, CodexBatchReviewInput input) throws RestApiException {
+    if (input == null) {
+      throw new BadRequestException("prompt is required");
+    }
+    String branch = input.branch == null ? "" : input.branch.trim();
+    return Response.ok(
+        batchReview.submit(
+            resource.getNameKey(),
+            branch.isEmpty() ? null : RefNames.shortName(branch),
+            accountOf(resource.getUser()),
+            input));
+  }
+
+  static Account.Id accountOf(CurrentUser user) throws AuthException {
+    if (!user.isIdentifiedUser()) {
+      throw new AuthException("Authentication required");
+    }
+    return user.getAccountId();
+  }
+
+  /** The same view on a branch. */
+  @Singleton
+  public static class Branch implements RestModifyView<BranchResource, CodexBatchReviewInput> {
+    private final CodexBatchReviewRest projectView;
+
+    @Inject
+    Branch(CodexBatchReviewRest projectView) {
+      this.projectView = projectView;
+    }
+
+    @Override
+    public Response<CodexBatchReview.Status> apply(
+        BranchResource resource, CodexBatchReviewInput input) throws RestApiException {
+      if (input == null) {
+        input = new CodexBatchReviewInput();
+      }
+      input.branch = resource.getBranchKey().shortName();
+      return projectView.apply(resource, input);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexBatchReview;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Progress of a batch review: {@code GET /projects/<project>/codex-batch-review?id=<id>}. Pass the
+ * returned {@code next} as {@code since} to receive only newer per-change events, and {@code wait}
+ * to hold the request until there is one. Without {@code id}, lists the caller's batches.
+ */
+public class CodexBatchReviewStatusRest implements RestReadView<ProjectResource> {
+  private final CodexBatchReview batchReview;
+
+  @Option(name = "--id", usage = "batch id, as returned when the batch was submitted")
+  private String id;
+
+  @Option(name = "--since", usage = "only return events after this cursor")
+  private long since;
+
+  @Option(name = "--wait", usage = "seconds to wait for a new event, at most 30")
+  private int waitSeconds;
+
+  @Inject
+  CodexBatchReviewStatusRest(CodexBatchReview batchReview) {
+    this.batchReview = batchReview;
+  }
+
+  @Override
+  public Response<?> apply(ProjectResource resource) throws RestApiException {
+    if (since < 0 || waitSeconds < 0) {
+      throw new BadRequestException("since and wait must be >= 0");
+    }
+    if (id == null || id.trim().isEmpty()) {
+      return Response.ok(
+          batchReview.list(
+              resource.getNameKey(), CodexBatchReviewRest.accountOf(resource.getUser())));
+    }
+    return Response.ok(
+        batchReview.status(
+            id,
+            resource.getNameKey(),
+            CodexBatchReviewRest.accountOf(resource.getUser()),
+            since,
+            TimeUnit.SECONDS.toMillis(waitSeconds)));
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexInFlightRegistry;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Keeps a chat request started with {@code heartbeat: true} from being reaped. */
+@Singleton
+public class CodexChatHeartbeatRest implements RestModifyView<RevisionResource, CodexChatStopInput> {
+  private final CodexInFlightRegistry inFlight;
+
+  @Inject
+  CodexChatHeartbeatRest(CodexInFlightRegistry inFlight) {
+    this.inFlight = inFlight;
+  }
+
+  @Override
+  public Response<CodexChatStopResponse> apply(RevisionResource resource, CodexChatStopInput input)
+      throws RestApiException {
+    String sessionId =
+        input == null || input.sessionId == null ? null : input.sessionId.trim();
+
+    if (sessionId == null || sessionId.isEmpty()) {
+      throw new BadRequestException("sessionId is required");
+    }
+
+    if (!inFlight.heartbeat(sessionId)) {
+      throw new ResourceNotFoundException("Session not running: " + sessionId);
+    }
+    return Response.ok(new CodexChatStopResponse(sessionId, "running"));
+  }
+}
@@ -21,6 +21,11 @@ public class CodexChatInput {
   public String prompt;
   public String mode;
   public boolean postAsReview;
+  /**
+   * Identifies the reply posted for {@code postAsReview}; a retried request with the same id is
+   * posted once. A fresh id is used when unset.
+   */
+  public String runId;
   public String agent;
   public String cli;
   public String model;
@@ -28,6 +33,18 @@ public class CodexChatInput {
   public String sessionId;
   public List<String> contextFiles;
   public boolean selectAllContextFiles;
+  /** Review every file of an {@code @all} review even if it was reviewed before. */
+  public boolean fullReview;
+  /**
+   * Splits a large {@code @all} review into shards reviewed concurrently. Unset shards when the
+   * files exceed one shard; {@code false} always sends a single request.
+   */
+  public Boolean shard;
+  /**
+   * The client calls {@code codex-chat-heartbeat} while waiting; the request is cancelled when the
+   * heartbeats stop.
+   */
+  public boolean heartbeat;
   /** Arbitrary files attached by the user in the chat panel UI. */
   @SerializedName(
       value = "attachedFiles",
@@ -14,10 +14,31 @@
 
 package com.codex.gerrit.rest;
 
+import com.codex.gerrit.service.CodexShardedReview;
+import java.util.List;
+
 public class CodexChatResponse {
   public String reply;
   public String mode;
   public String botUser;
+  /** Patchset files resolved from the prompt's {@code @} mentions; omitted for {@code @all}. */
+  public List<String> contextFiles;
+  /** Number of patchset files used as context. */
+  public int contextFileCount;
+  /** Files left out of an incremental {@code @all} review because they did not change. */
+  public List<String> unchangedFiles;
+  /** Id of the queued review post when {@code postAsReview} was requested. */
+  public String reviewRunId;
+  /** Per-shard files and timing when the review was sharded. */
+  public List<CodexShardedReview.ShardSummary> shards;
+  /**
+   * Set when the reply exceeded {@code outputMemoryChars}: {@link #reply} is then only its first
+   * {@link #outputHeadBytes} bytes, and the rest is read through {@code codex-output}.
+   */
+  public String outputHandle;
+  /** Size of the complete reply in UTF-8 bytes. */
+  public Long outputBytes;
+  public Long outputHeadBytes;
 
   public CodexChatResponse(String reply, String mode, String botUser) {
     this.reply = reply;
@@ -16,92 +16,309 @@ package com.codex.gerrit.rest;
 
 import com.codex.gerrit.config.CodexGerritConfig;
 import com.codex.gerrit.service.CodexAgentClient;
+import com.codex.gerrit.service.CodexContextFileLoader;
+import com.codex.gerrit.service.CodexInFlightRegistry;
+import com.codex.gerrit.service.CodexIncrementalReview;
+import com.codex.gerrit.service.CodexMemoryBudget;
+import com.codex.gerrit.service.CodexMentionScanner;
+import com.codex.gerrit.service.CodexOutputBuffer;
+import com.codex.gerrit.service.CodexOutputStore;
+import com.codex.gerrit.service.CodexPathIndex;
+import com.codex.gerrit.service.CodexPool;
+import com.codex.gerrit.service.CodexPools;
 import com.codex.gerrit.service.CodexPromptBuilder;
 import com.codex.gerrit.service.CodexReviewPoster;
-import com.google.gerrit.extensions.api.GerritApi;
-import com.google.gerrit.extensions.api.changes.ChangeApi;
-import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.codex.gerrit.service.CodexRevisionFileCache;
+import com.codex.gerrit.service.CodexRevisionFiles;
+import com.codex.gerrit.service.CodexRevisionResolver;
+import com.codex.gerrit.service.CodexShardedReview;
+import com.codex.gerrit.service.CodexUsage;
+import com.google.gerrit.entities.Account;
 import com.google.gerrit.extensions.common.ChangeInfo;
-import com.google.gerrit.extensions.common.FileInfo;
-import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
-import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.util.UUID;
 
 @Singleton
 public class CodexChatRest implements RestModifyView<RevisionResource, CodexChatInput> {
-  private static final Logger logger = LoggerFactory.getLogger(CodexChatRest.class);
   private static final String CONTEXT_ALL_KEYWORD = "all";
   private static final int MAX_CONTEXT_FILES_TO_READ = 20;
-  private static final int MAX_CONTEXT_FILE_CHARS = 12_000;
 
   private final CodexGerritConfig config;
-  private final GerritApi gerritApi;
+  private final CodexRevisionResolver revisionResolver;
   private final CodexAgentClient agentClient;
   private final CodexPromptBuilder promptBuilder;
   private final CodexReviewPoster reviewPoster;
+  private final CodexRevisionFileCache fileCache;
+  private final CodexIncrementalReview incrementalReview;
+  private final CodexInFlightRegistry inFlight;
+  private final CodexOutputStore outputStore;
+  private final CodexShardedReview shardedReview;
+  private final CodexMemoryBudget memoryBudget;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final Provider<CurrentUser> userProvider;
 
   @Inject
   CodexChatRest(
       CodexGerritConfig config,
-      GerritApi gerritApi,
+      CodexRevisionResolver revisionResolver,
       CodexAgentClient agentClient,
       CodexPromptBuilder promptBuilder,
-      CodexReviewPoster reviewPoster) {
+      CodexReviewPoster reviewPoster,
+      CodexRevisionFileCache fileCache,
+      CodexIncrementalReview incrementalReview,
+      CodexInFlightRegistry inFlight,
+      CodexOutputStore outputStore,
+      CodexShardedReview shardedReview,
+      CodexMemoryBudget memoryBudget,
+      CodexPools pools,
+      CodexUsage usage,
+      Provider<CurrentUser> userProvider) {
     this.config = config;
-    this.gerritApi = gerritApi;
+    this.revisionResolver = revisionResolver;
     this.agentClient = agentClient;
     this.promptBuilder = promptBuilder;
     this.reviewPoster = reviewPoster;
+    this.fileCache = fileCache;
+    this.incrementalReview = incrementalReview;
+    this.inFlight = inFlight;
+    this.outputStore = outputStore;
+    this.shardedReview = shardedReview;
+    this.memoryBudget = memoryBudget;
+    this.pools = pools;
+    this.usage = usage;
+    this.userProvider = userProvider;
   }
 
   @Override
+  @SuppressWarnings("try")
   public Response<CodexChatResponse> apply(RevisionResource resource, CodexChatInput input)
       throws RestApiException {
-    String changeId = String.valueOf(resource.getChangeResource().getId().get());
+    CurrentUser user = userProvider.get();
+    CodexUsage.Charge charge =
+        usage.admit(user.isIdentifiedUser() ? user.getAccountId() : null, resource.getProject());
+    CodexRevisionResolver.Revision revision = revisionResolver.resolve(resource);
+    ChangeInfo changeInfo = revision.changeApi().get();
+    CodexRevisionFiles files = fileCache.get(revision);
+    CodexPathIndex pathIndex = files.mentionIndex();
+    CodexChatInput normalized = normalizeInput(input, pathIndex);
+    CodexPool pool = pools.forRevision(resource, normalized.agent);
+    long payloadBytes =
+        CodexContextFileLoader.estimate(
+                files,
+                normalized.contextFiles,
+                normalized.selectAllContextFiles ? Integer.MAX_VALUE : MAX_CONTEXT_FILES_TO_READ)
+            + attachedBytes(normalized.attachedFiles);
+    CodexInFlightRegistry.Operation operation =
+        normalized.sessionId == null
+            ? null
+            : inFlight.register(normalized.sessionId, normalized.heartbeat);
+    try (CodexMemoryBudget.Lease lease = memoryBudget.acquire(payloadBytes, "chat context")) {
+      return Response.ok(
+          chat(pool, charge, revision, changeInfo, pathIndex, normalized, operation));
+    } finally {
+      if (operation != null) {
+        operation.close();
+      }
+    }
+  }
 
-    ChangeApi changeApi = gerritApi.changes().id(changeId);
-    RevisionApi revisionApi = resolveRevisionApi(resource, changeApi);
-    ChangeInfo changeInfo = changeApi.get();
-    Map<String, FileInfo> files = revisionApi.files();
-    CodexChatInput normalized = normalizeInput(input, files);
-    List<CodexAgentClient.ContextFile> contextFiles =
-      loadContextFiles(revisionApi, normalized.contextFiles, normalized.selectAllContextFiles);
+  private CodexChatResponse chat(
+      CodexPool pool,
+      CodexUsage.Charge charge,
+      CodexRevisionResolver.Revision revision,
+      ChangeInfo changeInfo,
+      CodexPathIndex pathIndex,
+      CodexChatInput normalized,
+      CodexInFlightRegistry.Operation operation)
+      throws RestApiException {
+    String changeId = revision.changeId();
+    List<String> mentionedFiles = normalized.contextFiles;
+    CodexIncrementalReview.Plan reviewPlan = null;
+    List<CodexAgentClient.ContextFile> contextFiles;
+    if ("review".equals(normalized.mode) && normalized.selectAllContextFiles) {
+      reviewPlan =
+          incrementalReview.plan(
+              changeId,
+              revision.revisionApi(),
+              mentionedFiles,
+              Integer.MAX_VALUE,
+              normalized.fullReview);
+      if (!reviewPlan.hasChanges()) {
+        // Nothing changed since the last review; the user asked again, so review everything.
+        reviewPlan = reviewPlan.asFull();
+      }
+      contextFiles = reviewPlan.contextFiles();
+      normalized.contextFiles = reviewPlan.changedPaths();
+    } else {
+      contextFiles =
+          CodexContextFileLoader.load(
+              revision.revisionApi(),
+              normalized.contextFiles,
+              normalized.selectAllContextFiles ? Integer.MAX_VALUE : MAX_CONTEXT_FILES_TO_READ);
+    }
     List<CodexAgentClient.ContextFile> attachedContextFiles = buildAttachedContextFiles(normalized.attachedFiles);
     List<CodexAgentClient.ContextFile> allContextFiles = mergeContextFileLists(contextFiles, attachedContextFiles);
+    if (operation != null && operation.isCancelled()) {
+      throw new ResourceConflictException(
+          "Session " + operation.sessionId() + " was cancelled: " + operation.cancelReason());
+    }
+
+    String reviewNote = reviewPlan == null ? null : reviewPlan.promptNote();
+    List<List<CodexAgentClient.ContextFile>> shards =
+        reviewPlan != null && !Boolean.FALSE.equals(normalized.shard)
+            ? shardedReview.partition(contextFiles)
+            : Collections.emptyList();
+    CurrentUser user = userProvider.get();
+    Account.Id accountId = user.isIdentifiedUser() ? user.getAccountId() : null;
+    String reply;
+    // The complete reply; differs from reply only when that is the first page of a spilled one.
+    String fullReply;
+    String outputHandle = null;
+    long outputBytes = 0;
+    long outputHeadBytes = 0;
+    CodexShardedReview.Result sharded = null;
+    if (shards.size() > 1) {
+      sharded =
+          shardedReview.run(
+              pool,
+              shards,
+              attachedContextFiles,
+              shard ->
+                  promptBuilder.buildPrompt(
+                      changeInfo, shardInput(normalized, shard), shardNote(reviewNote, shard)),
+              normalized.model,
+              normalized.agent,
+              pathIndex,
+              operation);
+      reply = sharded.reply;
+      fullReply = reply;
+      charge.tokens(sharded.tokens);
+    } else {
+      String prompt = promptBuilder.buildPrompt(changeInfo, normalized, reviewNote);
+      try (CodexOutputBuffer output =
+          agentClient.runOutput(
+              pool,
+              prompt, normalized.model, normalized.agent, normalized.sessionId, allContextFiles)) {
+        // A spilled reply is returned as its first page; trimming it would shift the page offsets.
+        reply = output.isSpilled() ? output.head() : output.head().trim();
+        fullReply =
+            output.isSpilled() && normalized.postAsReview ? output.fullText().trim() : reply;
+        charge.tokens(output.tokens());
+        outputBytes = output.size();
+        outputHeadBytes = output.headBytes();
+        if (output.isSpilled()) {
+          outputHandle = outputStore.publish(output, changeId, accountId);
+        }
+      } catch (IOException e) {
+        throw new ResourceConflictException("Failed to keep agent output: " + e.getMessage());
+      }
+    }
 
-    String prompt = promptBuilder.buildPrompt(changeInfo, normalized);
-    String reply =
-      agentClient.run(prompt, normalized.model, normalized.agent, normalized.sessionId, allContextFiles);
-
+    CodexChatResponse response =
+        new CodexChatResponse(reply, normalized.mode, config.getGerritBotUser());
+    response.contextFileCount = mentionedFiles.size();
+    // @all would send the whole file list of the change back to the browser.
+    if (!normalized.selectAllContextFiles) {
+      response.contextFiles = mentionedFiles;
+    }
+    if (outputHandle != null) {
+      response.outputHandle = outputHandle;
+      response.outputBytes = outputBytes;
+      response.outputHeadBytes = outputHeadBytes;
+    }
+    if (reviewPlan != null && reviewPlan.isIncremental()) {
+      response.unchangedFiles = reviewPlan.unchangedPaths();
+    }
+    if (sharded != null) {
+      response.shards = sharded.shards;
+    }
     if (normalized.postAsReview) {
-      try {
-        reviewPoster.postReview(changeId, reply, normalized.mode);
-      } catch (RestApiException ex) {
-        logger.warn("Failed to post review for change {}", changeId, ex);
+      // A session spans the whole conversation, so each posted reply needs its own run id. A
+      // client id is scoped to the change and caller, so it cannot suppress anyone else's post.
+      String runId;
+      if (normalized.runId != null) {
+        runId =
+            changeId
+                + "-"
+                + (accountId == null ? "anonymous" : accountId.get())
+                + "-"
+                + normalized.runId;
+      } else if (normalized.sessionId != null) {
+        runId = normalized.sessionId + "-" + UUID.randomUUID();
+      } else {
+        runId = UUID.randomUUID().toString();
+      }
+      // Only a review that reached the change moves the incremental state; otherwise the next
+      // automatic review would skip files whose findings were never published.
+      Runnable onPosted = null;
+      if (reviewPlan != null) {
+        CodexIncrementalReview.Plan plan = reviewPlan;
+        String revisionId = revision.revisionId();
+        String reviewed = fullReply;
+        List<String> unreviewed =
+            sharded == null ? Collections.<String>emptyList() : sharded.failedPaths;
+        onPosted =
+            () -> incrementalReview.record(plan, revisionId, reviewed, pathIndex, unreviewed);
+      }
+      if (reviewPoster.submit(
+          runId,
+          accountId,
+          changeId,
+          revision.revisionId(),
+          fullReply,
+          normalized.mode,
+          pathIndex,
+          onPosted)) {
+        response.reviewRunId = runId;
       }
     }
+    return response;
+  }
 
-    return Response.ok(new CodexChatResponse(reply, normalized.mode, config.getGerritBotUser()));
+  /** The request as seen by one shard: only the shard's files are in scope. */
+  private static CodexChatInput shardInput(
+      CodexChatInput normalized, CodexShardedReview.Shard shard) {
+    CodexChatInput input = new CodexChatInput();
+    input.prompt = normalized.prompt;
+    input.mode = normalized.mode;
+    input.agent = normalized.agent;
+    input.model = normalized.model;
+    input.contextFiles = shard.paths();
+    input.selectAllContextFiles = true;
+    return input;
   }
 
-  private CodexChatInput normalizeInput(CodexChatInput input, Map<String, FileInfo> files)
+  private static String shardNote(String reviewNote, CodexShardedReview.Shard shard) {
+    StringBuilder note = new StringBuilder();
+    if (reviewNote != null) {
+      note.append(reviewNote);
+    }
+    note.append("Sharded review: this is part ")
+        .append(shard.index)
+        .append(" of ")
+        .append(shard.count)
+        .append(". The other files of the change are reviewed separately; report findings only")
+        .append(" for the context files listed above.\n");
+    return note.toString();
+  }
+
+  private CodexChatInput normalizeInput(CodexChatInput input, CodexPathIndex pathIndex)
       throws BadRequestException {
     if (input == null) {
       throw new BadRequestException("Missing request body");
@@ -114,13 +331,17 @@ public class CodexChatRest implements RestModifyView<RevisionResource, CodexChat
     normalized.prompt = prompt;
     normalized.mode = normalizeMode(input.mode);
     normalized.postAsReview = input.postAsReview;
+    normalized.runId = normalizeOptionalText(input.runId);
     String requestedAgent = input.agent != null ? input.agent : input.cli;
     normalized.agent = config.normalizeAgentOrDefault(requestedAgent);
     normalized.model = normalizeModel(input.model);
     normalized.sessionId = normalizeSessionId(input.sessionId);
-    MentionedContextFiles mentionedContextFiles = normalizeContextFilesFromPrompt(prompt, files);
+    MentionedContextFiles mentionedContextFiles = normalizeContextFilesFromPrompt(prompt, pathIndex);
     normalized.contextFiles = mentionedContextFiles.files;
     normalized.selectAllContextFiles = mentionedContextFiles.selectAll;
+    normalized.fullReview = input.fullReview;
+    normalized.shard = input.shard;
+    normalized.heartbeat = input.heartbeat;
     normalized.attachedFiles = normalizeAttachedFiles(input.attachedFiles);
     return normalized;
   }
@@ -153,6 +374,15 @@ public class CodexChatRest implements RestModifyView<RevisionResource, CodexChat
     return normalized;
   }
 
+  private static long attachedBytes(List<CodexChatInput.AttachedFile> attachedFiles) {
+    long bytes = 0;
+    for (CodexChatInput.AttachedFile af : attachedFiles) {
+      bytes += af.content == null ? 0 : af.content.length();
+      bytes += af.base64Content == null ? 0 : af.base64Content.length();
+    }
+    return bytes;
+  }
+
   private static String normalizeSessionId(String sessionId) {
     return normalizeOptionalText(sessionId);
   }
@@ -166,72 +396,29 @@ public class CodexChatRest implements RestModifyView<RevisionResource, CodexChat
   }
 
   private static MentionedContextFiles normalizeContextFilesFromPrompt(
-      String prompt, Map<String, FileInfo> files) {
+      String prompt, CodexPathIndex pathIndex) {
     if (prompt == null || prompt.isEmpty()) {
       return MentionedContextFiles.none();
     }
-    List<String> availableFiles = collectAvailableFiles(files);
-    Set<String> availableSet = new HashSet<>(availableFiles);
     List<String> normalized = new ArrayList<>();
     Set<String> seen = new HashSet<>();
     boolean selectAll = false;
-    String[] tokens = prompt.split("\\s+");
-    for (String token : tokens) {
-      if (token == null || token.isEmpty() || !token.startsWith("@")) {
-        continue;
-      }
-      String candidate = token.substring(1).replaceAll("[\\]\\[(){}.,!?;:]+$", "");
-      if (candidate.isEmpty()) {
-        continue;
-      }
+    for (String candidate : CodexMentionScanner.scan(prompt)) {
       if (CONTEXT_ALL_KEYWORD.equalsIgnoreCase(candidate)) {
         selectAll = true;
         continue;
       }
-      if (availableSet.contains(candidate) && seen.add(candidate)) {
-        normalized.add(candidate);
+      String resolved = pathIndex.resolve(candidate);
+      if (resolved != null && seen.add(resolved)) {
+        normalized.add(resolved);
       }
     }
     if (selectAll) {
-      return MentionedContextFiles.all(availableFiles);
+      return MentionedContextFiles.all(new ArrayList<>(pathIndex.paths()));
     }
     return MentionedContextFiles.selected(normalized);
   }
 
-  private static List<String> collectAvailableFiles(Map<String, FileInfo> files) {
-    List<String> availableFiles = new ArrayList<>();
-    if (files == null || files.isEmpty()) {
-      return availableFiles;
-    }
-    for (Map.Entry<String, FileInfo> entry : files.entrySet()) {
-      String file = entry.getKey();
-      if (file == null || file.isEmpty() || file.startsWith("/")) {
-        continue;
-      }
-      if (isDeletedFile(entry.getValue())) {
-        continue;
-      }
-      availableFiles.add(file);
-    }
-    return availableFiles;
-  }
-
-  private static boolean isDeletedFile(FileInfo fileInfo) {
-    if (fileInfo == null) {
-      return false;
-    }
-    try {
-      Object statusValue = FileInfo.class.getField("status").get(fileInfo);
-      if (statusValue == null) {
-        return false;
-      }
-      String status = String.valueOf(statusValue).trim();
-      return "D".equalsIgnoreCase(status) || "DELETED".equalsIgnoreCase(status);
-    } catch (NoSuchFieldException | IllegalAccessException ex) {
-      return false;
-    }
-  }
-
   private static class MentionedContextFiles {
     private final List<String> files;
     private final boolean selectAll;
@@ -309,10 +496,7 @@ public class CodexChatRest implements RestModifyView<RevisionResource, CodexChat
         continue;
       }
 
-      if (text != null && text.length() > MAX_CONTEXT_FILE_CHARS) {
-        text = text.substring(0, MAX_CONTEXT_FILE_CHARS)
-            + "\n\n[truncated by codex.gerrit context limit]";
-      }
+      text = CodexContextFileLoader.truncate(text);
 
       if (base64Content != null) {
         resolved.add(CodexAgentClient.ContextFile.withBase64(name, base64Content));
@@ -340,122 +524,4 @@ public class CodexChatRest implements RestModifyView<RevisionResource, CodexChat
     }
     return merged;
   }
-
-  private List<CodexAgentClient.ContextFile> loadContextFiles(
-      RevisionApi revisionApi, List<String> selectedFiles, boolean selectAllContextFiles) {
-    if (selectedFiles == null || selectedFiles.isEmpty()) {
-      return new ArrayList<>();
-    }
-
-    List<CodexAgentClient.ContextFile> resolved = new ArrayList<>();
-    int limit =
-        selectAllContextFiles ? selectedFiles.size() : Math.min(selectedFiles.size(), MAX_CONTEXT_FILES_TO_READ);
-    for (int index = 0; index < limit; index++) {
-      String filePath = selectedFiles.get(index);
-      if (filePath == null || filePath.trim().isEmpty()) {
-        continue;
-      }
-      try {
-        String content = readRevisionFileText(revisionApi, filePath);
-        resolved.add(new CodexAgentClient.ContextFile(filePath, content));
-      } catch (ResourceNotFoundException ex) {
-        logger.info("Skip context file {} because content is unavailable", filePath);
-      } catch (RestApiException ex) {
-        logger.warn("Failed to load context file {}", filePath, ex);
-      }
-    }
-    return resolved;
-  }
-
-  private String readRevisionFileText(RevisionApi revisionApi, String filePath) throws RestApiException {
-    ByteArrayOutputStream output = new ByteArrayOutputStream();
-    try (BinaryResult binaryResult = revisionApi.file(filePath).content()) {
-      binaryResult.writeTo(output);
-    } catch (IOException ioException) {
-      throw new ResourceConflictException(
-          "Failed to read file content for " + filePath + ": " + ioException.getMessage());
-    }
-
-    String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
-    if (text.length() <= MAX_CONTEXT_FILE_CHARS) {
-      return text;
-    }
-    return text.substring(0, MAX_CONTEXT_FILE_CHARS)
-        + "\n\n[truncated by codex.gerrit context limit]";
-  }
-
-  private RevisionApi resolveRevisionApi(RevisionResource resource, ChangeApi changeApi)
-      throws RestApiException {
-    String revisionId = resolveRevisionId(resource);
-    if (revisionId == null || revisionId.isEmpty()) {
-      return changeApi.current();
-    }
-    return changeApi.revision(revisionId);
-  }
-
-  private String resolveRevisionId(RevisionResource resource) {
-    if (resource == null) {
-      return null;
-    }
-
-    Object patchSet = invokeNoArg(resource, "getPatchSet", "patchSet");
-    Object commitId = invokeNoArg(patchSet, "commitId", "getCommitId");
-    String revisionFromCommit = normalizeRevisionId(invokeNoArg(commitId, "name", "getName"));
-    if (revisionFromCommit != null) {
-      return revisionFromCommit;
-    }
-
-    Object patchSetId = invokeNoArg(patchSet, "id", "getId");
-    String revisionFromPatchsetNumber = normalizeRevisionId(invokeNoArg(patchSetId, "get", "id", "getId"));
-    if (revisionFromPatchsetNumber != null) {
-      return revisionFromPatchsetNumber;
-    }
-
-    return null;
-  }
-
-  private static Object invokeNoArg(Object target, String... methodNames) {
-    if (target == null || methodNames == null || methodNames.length == 0) {
-      return null;
-    }
-
-    for (String methodName : methodNames) {
-      if (methodName == null || methodName.isEmpty()) {
-        continue;
-      }
-      Object result = invokeNoArgSingle(target, methodName);
-      if (result != null) {
-        return result;
-      }
-    }
-    return null;
-  }
-
-  private static Object invokeNoArgSingle(Object target, String methodName) {
-    try {
-      return target.getClass().getMethod(methodName).invoke(target);
-    } catch (ReflectiveOperationException ignored) {
-      // Fall through and retry declared methods.
-    }
-
-    Class<?> currentClass = target.getClass();
-    while (currentClass != null) {
-      try {
-        java.lang.reflect.Method declaredMethod = currentClass.getDeclaredMethod(methodName);
-        declaredMethod.setAccessible(true);
-        return declaredMethod.invoke(target);
-      } catch (ReflectiveOperationException | RuntimeException ignored) {
-        currentClass = currentClass.getSuperclass();
-      }
-    }
-    return null;
-  }
-
-  private static String normalizeRevisionId(Object value) {
-    if (value == null) {
-      return null;
-    }
-    String normalized = String.valueOf(value).trim();
-    return normalized.isEmpty() ? null : normalized;
-  }
 }
@@ -15,6 +15,7 @@
 package com.codex.gerrit.rest;
 
 import com.codex.gerrit.service.CodexAgentClient;
+import com.codex.gerrit.service.CodexInFlightRegistry;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
@@ -26,10 +27,12 @@ import com.google.inject.Singleton;
 @Singleton
 public class CodexChatStopRest implements RestModifyView<RevisionResource, CodexChatStopInput> {
   private final CodexAgentClient agentClient;
+  private final CodexInFlightRegistry inFlight;
 
   @Inject
-  CodexChatStopRest(CodexAgentClient agentClient) {
+  CodexChatStopRest(CodexAgentClient agentClient, CodexInFlightRegistry inFlight) {
     this.agentClient = agentClient;
+    this.inFlight = inFlight;
   }
 
   @Override
@@ -42,7 +45,15 @@ public class CodexChatStopRest implements RestModifyView<RevisionResource, Codex
       throw new BadRequestException("sessionId is required");
     }
 
-    agentClient.stopSession(sessionId);
+    boolean stoppedLocally = inFlight.cancel(sessionId, "stopped by user");
+    try {
+      agentClient.stopSession(sessionId);
+    } catch (RestApiException ex) {
+      if (!stoppedLocally) {
+        throw ex;
+      }
+      // The plugin-side request is already gone; a finished remote session is not an error.
+    }
     return Response.ok(new CodexChatStopResponse(sessionId, "stopped"));
   }
 }
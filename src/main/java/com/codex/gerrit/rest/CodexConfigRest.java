@@ -16,20 +16,19 @@ package com.codex.gerrit.rest;
 
 import com.codex.gerrit.config.CodexGerritConfig;
 import com.codex.gerrit.service.CodexAgentClient;
-import com.google.gerrit.extensions.api.GerritApi;
-import com.google.gerrit.extensions.api.changes.ChangeApi;
-import com.google.gerrit.extensions.api.changes.RevisionApi;
-import com.google.gerrit.extensions.common.FileInfo;
+import com.codex.gerrit.service.CodexPathIndex;
+import com.codex.gerrit.service.CodexPool;
+import com.codex.gerrit.service.CodexPools;
+import com.codex.gerrit.service.CodexRevisionFileCache;
+import com.codex.gerrit.service.CodexRevisionResolver;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestReadView;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,53 +38,54 @@ public class CodexConfigRest implements RestReadView<RevisionResource> {
   private static final List<String> HASH_COMMANDS = List.of("insight", "graph");
 
   private final CodexGerritConfig config;
-  private final GerritApi gerritApi;
+  private final CodexRevisionResolver revisionResolver;
   private final CodexAgentClient agentClient;
+  private final CodexRevisionFileCache fileCache;
+  private final CodexPools pools;
 
   @Inject
-  CodexConfigRest(CodexGerritConfig config, GerritApi gerritApi, CodexAgentClient agentClient) {
+  CodexConfigRest(
+      CodexGerritConfig config,
+      CodexRevisionResolver revisionResolver,
+      CodexAgentClient agentClient,
+      CodexRevisionFileCache fileCache,
+      CodexPools pools) {
     this.config = config;
-    this.gerritApi = gerritApi;
+    this.revisionResolver = revisionResolver;
     this.agentClient = agentClient;
+    this.fileCache = fileCache;
+    this.pools = pools;
   }
 
   @Override
   public Response<CodexConfigResponse> apply(RevisionResource resource) throws RestApiException {
-    String changeId = String.valueOf(resource.getChangeResource().getId().get());
-    ChangeApi changeApi = gerritApi.changes().id(changeId);
-    RevisionApi revisionApi = resolveRevisionApi(resource, changeApi);
-    Map<String, FileInfo> files = revisionApi.files();
+    CodexRevisionResolver.Revision revision = revisionResolver.resolve(resource);
+    CodexPathIndex pathIndex = fileCache.get(revision).mentionIndex();
 
-    List<String> models;
+    CodexPool pool = pools.forRevision(resource, null);
+    List<String> models = Collections.emptyList();
+    List<String> agents = Collections.emptyList();
     try {
-      models = agentClient.getModels();
+      models = agentClient.getModels(pool);
+      // Only asked once models answered, so an unreachable backend is waited for once.
+      agents = agentClient.getAgents(pool);
     } catch (RestApiException e) {
-      logger.warn("Failed to fetch models from codex.serve", e);
-      models = Collections.emptyList();
+      logger.warn("Failed to fetch models and agents from codex.serve", e);
     }
 
-    List<String> agents;
-    try {
-      agents = agentClient.getAgents();
-    } catch (RestApiException e) {
-      logger.warn("Failed to fetch agents from codex.serve", e);
-      agents = Collections.emptyList();
-    }
-
-    return Response.ok(
-      new CodexConfigResponse(models, agents, getPluginVersion(), normalizeFiles(files), HASH_COMMANDS));
-  }
-
-  private static List<String> normalizeFiles(Map<String, FileInfo> files) {
-    List<String> result = new ArrayList<>();
-    for (String file : files.keySet()) {
-      if (file == null || file.isEmpty() || file.startsWith("/")) {
-        continue;
-      }
-      result.add(file);
-    }
-    Collections.sort(result);
-    return result;
+    // Large changes are served through the codex-files prefix query instead of shipping the
+    // full list to the browser.
+    boolean inline = pathIndex.size() <= config.getMentionInlineFileLimit();
+    CodexConfigResponse response =
+        new CodexConfigResponse(
+            models,
+            agents,
+            getPluginVersion(),
+            inline ? pathIndex.paths() : Collections.emptyList(),
+            HASH_COMMANDS);
+    response.patchsetFileCount = pathIndex.size();
+    response.patchsetFilesComplete = inline;
+    return Response.ok(response);
   }
 
   private String getPluginVersion() {
@@ -93,86 +93,13 @@ public class CodexConfigRest implements RestReadView<RevisionResource> {
     return implementationVersion == null ? "" : implementationVersion;
   }
 
-  private RevisionApi resolveRevisionApi(RevisionResource resource, ChangeApi changeApi)
-      throws RestApiException {
-    String revisionId = resolveRevisionId(resource);
-    if (revisionId == null || revisionId.isEmpty()) {
-      return changeApi.current();
-    }
-    return changeApi.revision(revisionId);
-  }
-
-  private String resolveRevisionId(RevisionResource resource) {
-    if (resource == null) {
-      return null;
-    }
-
-    Object patchSet = invokeNoArg(resource, "getPatchSet", "patchSet");
-    Object commitId = invokeNoArg(patchSet, "commitId", "getCommitId");
-    String revisionFromCommit = normalizeRevisionId(invokeNoArg(commitId, "name", "getName"));
-    if (revisionFromCommit != null) {
-      return revisionFromCommit;
-    }
-
-    Object patchSetId = invokeNoArg(patchSet, "id", "getId");
-    String revisionFromPatchsetNumber = normalizeRevisionId(invokeNoArg(patchSetId, "get", "id", "getId"));
-    if (revisionFromPatchsetNumber != null) {
-      return revisionFromPatchsetNumber;
-    }
-
-    return null;
-  }
-
-  private static Object invokeNoArg(Object target, String... methodNames) {
-    if (target == null || methodNames == null || methodNames.length == 0) {
-      return null;
-    }
-
-    for (String methodName : methodNames) {
-      if (methodName == null || methodName.isEmpty()) {
-        continue;
-      }
-      Object result = invokeNoArgSingle(target, methodName);
-      if (result != null) {
-        return result;
-      }
-    }
-    return null;
-  }
-
-  private static Object invokeNoArgSingle(Object target, String methodName) {
-    try {
-      return target.getClass().getMethod(methodName).invoke(target);
-    } catch (ReflectiveOperationException ignored) {
-      // Fall through and retry declared methods.
-    }
-
-    Class<?> currentClass = target.getClass();
-    while (currentClass != null) {
-      try {
-        java.lang.reflect.Method declaredMethod = currentClass.getDeclaredMethod(methodName);
-        declaredMethod.setAccessible(true);
-        return declaredMethod.invoke(target);
-      } catch (ReflectiveOperationException | RuntimeException ignored) {
-        currentClass = currentClass.getSuperclass();
-      }
-    }
-    return null;
-  }
-
-  private static String normalizeRevisionId(Object value) {
-    if (value == null) {
-      return null;
-    }
-    String normalized = String.valueOf(value).trim();
-    return normalized.isEmpty() ? null : normalized;
-  }
-
   public static class CodexConfigResponse {
     public List<String> models;
     public List<String> agents;
     public String pluginVersion;
     public List<String> patchsetFiles;
+    public int patchsetFileCount;
+    public boolean patchsetFilesComplete;
     public List<String> hashCommands;
 
     public CodexConfigResponse(
@@ -0,0 +1,75 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexPathIndex;
+import com.codex.gerrit.service.CodexRevisionFileCache;
+import com.codex.gerrit.service.CodexRevisionResolver;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import java.util.List;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Prefix query over the mentionable files of a revision, backing the {@code @} mention dropdown.
+ *
+ * <p>Not a singleton: query options are bound per request.
+ */
+public class CodexFilesRest implements RestReadView<RevisionResource> {
+  private static final int DEFAULT_LIMIT = 20;
+  private static final int MAX_LIMIT = 200;
+
+  private final CodexRevisionResolver revisionResolver;
+  private final CodexRevisionFileCache fileCache;
+
+  private String prefix = "";
+  private int limit = DEFAULT_LIMIT;
+
+  @Inject
+  CodexFilesRest(CodexRevisionResolver revisionResolver, CodexRevisionFileCache fileCache) {
+    this.revisionResolver = revisionResolver;
+    this.fileCache = fileCache;
+  }
+
+  @Option(name = "--prefix", aliases = {"-q"}, metaVar = "PREFIX", usage = "path or file name prefix")
+  public void setPrefix(String prefix) {
+    this.prefix = prefix == null ? "" : prefix.trim();
+  }
+
+  @Option(name = "--limit", aliases = {"-n"}, metaVar = "CNT", usage = "maximum number of files")
+  public void setLimit(int limit) {
+    this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+  }
+
+  @Override
+  public Response<CodexFilesResponse> apply(RevisionResource resource) throws RestApiException {
+    CodexRevisionResolver.Revision revision = revisionResolver.resolve(resource);
+    CodexPathIndex pathIndex = fileCache.get(revision).mentionIndex();
+    return Response.ok(new CodexFilesResponse(pathIndex.query(prefix, limit), pathIndex.size()));
+  }
+
+  public static class CodexFilesResponse {
+    public List<String> files;
+    public int total;
+
+    public CodexFilesResponse(List<String> files, int total) {
+      this.files = files;
+      this.total = total;
+    }
+  }
+}
@@ -30,4 +30,8 @@ public class CodexGraphInput {
   public JsonElement httpConnections;
   @SerializedName(value = "env", alternate = {"environment"})
   public Map<String, String> env;
+  /** Reads {@code code} from the revision instead, filtered by {@code include}/{@code exclude}. */
+  public Boolean fromRevision;
+  public List<String> include;
+  public List<String> exclude;
 }
\ No newline at end of file
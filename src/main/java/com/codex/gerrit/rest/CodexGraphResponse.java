@@ -20,4 +20,13 @@ public class CodexGraphResponse {
   public JsonElement graph;
   public JsonElement usage;
   public JsonElement cost;
+  /** Files sent to codex.serve for this result. */
+  public Integer graphedFiles;
+  /** Files whose graph fragment was taken from the cache. */
+  public Integer cachedFiles;
+  /** Set when the source was read from the revision: files read and files skipped. */
+  public Integer sourceFiles;
+  public Integer skippedFiles;
+  /** True if reading the revision stopped at {@code sourceMaxBytes}. */
+  public Boolean sourceTruncated;
 }
\ No newline at end of file
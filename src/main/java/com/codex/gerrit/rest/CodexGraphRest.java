@@ -14,30 +14,106 @@
 
 package com.codex.gerrit.rest;
 
-import com.codex.gerrit.service.CodexAgentClient;
+import com.codex.gerrit.service.CodexGraphEngine;
+import com.codex.gerrit.service.CodexMemoryBudget;
+import com.codex.gerrit.service.CodexPools;
+import com.codex.gerrit.service.CodexPriority;
+import com.codex.gerrit.service.CodexSourceReader;
+import com.codex.gerrit.service.CodexUsage;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 @Singleton
 public class CodexGraphRest implements RestModifyView<RevisionResource, CodexGraphInput> {
-  private final CodexAgentClient agentClient;
+  private final CodexGraphEngine graphEngine;
+  private final CodexSourceReader sourceReader;
+  private final CodexMemoryBudget memoryBudget;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final Provider<CurrentUser> userProvider;
 
   @Inject
-  CodexGraphRest(CodexAgentClient agentClient) {
-    this.agentClient = agentClient;
+  CodexGraphRest(
+      CodexGraphEngine graphEngine,
+      CodexSourceReader sourceReader,
+      CodexMemoryBudget memoryBudget,
+      CodexPools pools,
+      CodexUsage usage,
+      Provider<CurrentUser> userProvider) {
+    this.graphEngine = graphEngine;
+    this.sourceReader = sourceReader;
+    this.memoryBudget = memoryBudget;
+    this.pools = pools;
+    this.usage = usage;
+    this.userProvider = userProvider;
   }
 
   @Override
+  @SuppressWarnings("try")
   public Response<CodexGraphResponse> apply(RevisionResource resource, CodexGraphInput input)
       throws RestApiException {
     if (input == null) {
       throw new BadRequestException("Missing request body");
     }
-    return Response.ok(agentClient.runGraph(input));
+    CurrentUser user = userProvider.get();
+    CodexUsage.Charge charge =
+        usage.admit(user.isIdentifiedUser() ? user.getAccountId() : null, resource.getProject());
+    if (!Boolean.TRUE.equals(input.fromRevision)) {
+      long bytes = input.code == null ? 0 : input.code.length();
+      try (CodexMemoryBudget.Lease lease = memoryBudget.acquire(bytes, "graph code")) {
+        CodexGraphResponse response =
+            graphEngine.run(pools.forRevision(resource, null, CodexPriority.INSIGHT), input);
+        charge.usage(response.usage);
+        return Response.ok(response);
+      }
+    }
+
+    CodexSourceReader.Sources sources;
+    try {
+      sources = sourceReader.read(resource, input.include, input.exclude);
+    } catch (IOException e) {
+      throw new ResourceConflictException("Failed to read revision sources: " + e.getMessage());
+    }
+    try (CodexSourceReader.Sources held = sources) {
+      CodexGraphResponse response = runOnSources(resource, input, sources);
+      charge.usage(response.usage);
+      return Response.ok(response);
+    }
+  }
+
+  private CodexGraphResponse runOnSources(
+      RevisionResource resource, CodexGraphInput input, CodexSourceReader.Sources sources)
+      throws RestApiException {
+    if (sources.files.isEmpty()) {
+      throw new BadRequestException("No text files in the revision match include/exclude");
+    }
+    StringBuilder code = new StringBuilder();
+    List<String> filePaths = new ArrayList<>();
+    for (CodexSourceReader.SourceFile file : sources.files) {
+      if (code.length() > 0) {
+        code.append("\n\n");
+      }
+      code.append("// FILE: ").append(file.path).append('\n').append(file.content);
+      filePaths.add(file.path);
+    }
+    input.code = code.toString();
+    input.filePaths = filePaths;
+    CodexGraphResponse response =
+        graphEngine.run(pools.forRevision(resource, null, CodexPriority.INSIGHT), input);
+    response.sourceFiles = sources.files.size();
+    response.skippedFiles = sources.skippedFiles;
+    response.sourceTruncated = sources.truncated;
+    return response;
   }
 }
\ No newline at end of file
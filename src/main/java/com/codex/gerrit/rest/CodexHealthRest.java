@@ -0,0 +1,42 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexHealth;
+import com.codex.gerrit.service.CodexPools;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/** Last probed state of the pool serving a revision; never contacts codex.serve itself. */
+@Singleton
+public class CodexHealthRest implements RestReadView<RevisionResource> {
+  private final CodexHealth health;
+  private final CodexPools pools;
+
+  @Inject
+  CodexHealthRest(CodexHealth health, CodexPools pools) {
+    this.health = health;
+    this.pools = pools;
+  }
+
+  @Override
+  public Response<CodexHealth.Status> apply(RevisionResource resource) throws RestApiException {
+    return Response.ok(health.status(pools.forRevision(resource, null)));
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexInsightArtifactStore;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.CacheControl;
+import com.google.gerrit.extensions.restapi.ETagView;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Returns one generated insight file of the change's project: {@code GET
+ * .../codex-insight-artifact?id=<sha256>}.
+ */
+public class CodexInsightArtifactRest implements ETagView<RevisionResource> {
+  private final CodexInsightArtifactStore artifactStore;
+
+  @Option(name = "--id", usage = "sha256 of the artifact, as listed by codex-insight")
+  private String id;
+
+  @Inject
+  CodexInsightArtifactRest(CodexInsightArtifactStore artifactStore) {
+    this.artifactStore = artifactStore;
+  }
+
+  @Override
+  public String getETag(RevisionResource resource) {
+    // Artifacts are content-addressed, so the id is a strong validator.
+    return CodexInsightArtifactStore.isId(id) ? id : null;
+  }
+
+  @Override
+  public Response<Artifact> apply(RevisionResource resource) throws RestApiException {
+    if (id == null || id.trim().isEmpty()) {
+      throw new BadRequestException("id is required");
+    }
+    String normalizedId = id.trim();
+    Artifact artifact = new Artifact();
+    artifact.sha256 = normalizedId;
+    try {
+      artifact.content = artifactStore.read(resource.getProject(), normalizedId);
+    } catch (IOException e) {
+      throw new ResourceConflictException(
+          "Failed to read insight artifact " + normalizedId + ": " + e.getMessage());
+    }
+    return Response.ok(artifact).caching(CacheControl.PRIVATE(1, TimeUnit.DAYS));
+  }
+
+  public static class Artifact {
+    public String sha256;
+    public String content;
+  }
+}
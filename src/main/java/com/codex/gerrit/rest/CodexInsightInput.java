@@ -26,6 +26,12 @@ public class CodexInsightInput {
   public Integer maxFilesPerModule;
   public Integer maxCharsPerFile;
   public Boolean dryRun;
+  /** Returns generated file contents inline instead of as artifact references. */
+  public Boolean inlineContent;
+  /** Ignores cached results and runs every module again. */
+  public Boolean refresh;
+  /** Reads {@code files} from the revision, filtered by {@code include}/{@code exclude}. */
+  public Boolean fromRevision;
   @SerializedName(value = "env", alternate = {"environment"})
   public Map<String, String> env;
 
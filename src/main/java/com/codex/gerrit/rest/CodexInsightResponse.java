@@ -14,6 +14,7 @@
 
 package com.codex.gerrit.rest;
 
+import com.google.gson.JsonElement;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,6 +25,19 @@ public class CodexInsightResponse {
   public String outputDir;
   public List<GeneratedFile> files;
   public int count;
+  /** Usage reported by codex.serve; absent for results served from the cache. */
+  public JsonElement usage;
+  /** True if the whole result came from the insight cache. */
+  public Boolean cached;
+  /** Modules whose generated files were taken from the cache instead of being run again. */
+  public List<String> reusedModules;
+  /** Branch whose precomputed insight answered this request, if any. */
+  public String precomputedBranch;
+  /** Set when the input was read from the revision: files read and files skipped. */
+  public Integer sourceFiles;
+  public Integer skippedFiles;
+  /** True if reading the revision stopped at {@code sourceMaxBytes}. */
+  public Boolean sourceTruncated;
 
   public CodexInsightResponse() {
     this.files = new ArrayList<>();
@@ -31,7 +45,12 @@ public class CodexInsightResponse {
 
   public static class GeneratedFile {
     public String path;
+    /** Omitted unless {@code inlineContent} was requested; fetch it by {@link #sha256}. */
     public String content;
+    /** Id of the file in {@code codex-insight-artifact}. */
+    public String sha256;
+    /** Size of the content in UTF-8 bytes. */
+    public Long size;
 
     public GeneratedFile() {}
 
@@ -14,30 +14,156 @@
 
 package com.codex.gerrit.rest;
 
-import com.codex.gerrit.service.CodexAgentClient;
+import com.codex.gerrit.config.CodexBranchInsightConfig;
+import com.codex.gerrit.service.CodexBranchInsight;
+import com.codex.gerrit.service.CodexInsightArtifactStore;
+import com.codex.gerrit.service.CodexInsightCache;
+import com.codex.gerrit.service.CodexMemoryBudget;
+import com.codex.gerrit.service.CodexPools;
+import com.codex.gerrit.service.CodexPriority;
+import com.codex.gerrit.service.CodexSourceReader;
+import com.codex.gerrit.service.CodexUsage;
+import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.io.IOException;
+import org.eclipse.jgit.lib.ObjectId;
 
 @Singleton
 public class CodexInsightRest implements RestModifyView<RevisionResource, CodexInsightInput> {
-  private final CodexAgentClient agentClient;
+  private final CodexInsightCache insightCache;
+  private final CodexInsightArtifactStore artifactStore;
+  private final CodexSourceReader sourceReader;
+  private final CodexBranchInsight branchInsight;
+  private final CodexBranchInsightConfig branchConfig;
+  private final CodexMemoryBudget memoryBudget;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final Provider<CurrentUser> userProvider;
 
   @Inject
-  CodexInsightRest(CodexAgentClient agentClient) {
-    this.agentClient = agentClient;
+  CodexInsightRest(
+      CodexInsightCache insightCache,
+      CodexInsightArtifactStore artifactStore,
+      CodexSourceReader sourceReader,
+      CodexBranchInsight branchInsight,
+      CodexBranchInsightConfig branchConfig,
+      CodexMemoryBudget memoryBudget,
+      CodexPools pools,
+      CodexUsage usage,
+      Provider<CurrentUser> userProvider) {
+    this.insightCache = insightCache;
+    this.artifactStore = artifactStore;
+    this.sourceReader = sourceReader;
+    this.branchInsight = branchInsight;
+    this.branchConfig = branchConfig;
+    this.memoryBudget = memoryBudget;
+    this.pools = pools;
+    this.usage = usage;
+    this.userProvider = userProvider;
   }
 
   @Override
+  @SuppressWarnings("try")
   public Response<CodexInsightResponse> apply(RevisionResource resource, CodexInsightInput input)
       throws RestApiException {
     if (input == null) {
       throw new BadRequestException("Missing request body");
     }
-    return Response.ok(agentClient.runInsight(input));
+    CurrentUser user = userProvider.get();
+    CodexUsage.Charge charge =
+        usage.admit(user.isIdentifiedUser() ? user.getAccountId() : null, resource.getProject());
+    CodexInsightResponse response;
+    if (Boolean.TRUE.equals(input.fromRevision)) {
+      response = runFromRevision(resource, input);
+    } else {
+      try (CodexMemoryBudget.Lease lease =
+          memoryBudget.acquire(payloadBytes(input), "insight files")) {
+        response =
+            insightCache.run(
+                resource.getProject(),
+                pools.forRevision(resource, null, CodexPriority.INSIGHT),
+                input);
+      }
+    }
+    charge.usage(response.usage);
+    boolean inline = Boolean.TRUE.equals(input.inlineContent);
+    for (CodexInsightResponse.GeneratedFile file : response.files) {
+      if (!inline) {
+        file.content = null;
+      } else if (file.content == null) {
+        try {
+          file.content = artifactStore.read(resource.getProject(), file.sha256);
+        } catch (IOException e) {
+          throw new ResourceConflictException(
+              "Failed to read insight file " + file.path + ": " + e.getMessage());
+        }
+      }
+    }
+    return Response.ok(response);
+  }
+
+  /**
+   * Runs on the revision's own files. Without explicit globs the project's {@code insightInclude}
+   * and {@code insightExclude} apply, matching what branch precompute used, so that a tree it
+   * already covered is answered at once and other trees reuse its unchanged modules.
+   */
+  @SuppressWarnings("try")
+  private CodexInsightResponse runFromRevision(RevisionResource resource, CodexInsightInput input)
+      throws RestApiException {
+    Project.NameKey project = resource.getProject();
+    if (input.include == null && input.exclude == null) {
+      CodexBranchInsightConfig.Settings settings = branchConfig.settingsFor(project);
+      if (settings != null) {
+        input.include = settings.include;
+        input.exclude = settings.exclude;
+      }
+    }
+    ObjectId commit = CodexSourceReader.commitOf(resource);
+    CodexSourceReader.Sources sources;
+    try {
+      CodexInsightResponse precomputed =
+          branchInsight.lookup(project, sourceReader.treeOf(project, commit), input);
+      if (precomputed != null) {
+        return precomputed;
+      }
+      sources = sourceReader.read(project, commit, input.include, input.exclude);
+    } catch (IOException e) {
+      throw new ResourceConflictException("Failed to read revision sources: " + e.getMessage());
+    }
+    try (CodexSourceReader.Sources held = sources) {
+      if (sources.files.isEmpty()) {
+        throw new BadRequestException("No text files in the revision match include/exclude");
+      }
+      input.files = sources.toInsightFiles();
+      CodexInsightResponse response =
+          insightCache.run(
+              project, pools.forRevision(resource, null, CodexPriority.INSIGHT), input);
+      response.sourceFiles = sources.files.size();
+      response.skippedFiles = sources.skippedFiles;
+      response.sourceTruncated = sources.truncated;
+      return response;
+    }
+  }
+
+  private static long payloadBytes(CodexInsightInput input) {
+    long bytes = 0;
+    if (input.files != null) {
+      for (CodexInsightInput.InsightFile file : input.files) {
+        if (file != null) {
+          bytes += file.content == null ? 0 : file.content.length();
+          bytes += file.base64Content == null ? 0 : file.base64Content.length();
+        }
+      }
+    }
+    return bytes;
   }
 }
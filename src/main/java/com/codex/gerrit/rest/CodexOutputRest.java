@@ -0,0 +1,82 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.service.CodexOutputStore;
+import com.codex.gerrit.service.CodexRevisionResolver;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import java.io.IOException;
+import org.kohsuke.args4j.Option;
+
+/** Pages through a spooled chat reply: {@code GET .../codex-output?handle=&offset=&length=}. */
+public class CodexOutputRest implements RestReadView<RevisionResource> {
+  private static final int DEFAULT_PAGE_BYTES = 256 * 1024;
+
+  private final CodexOutputStore outputStore;
+  private final CodexRevisionResolver revisionResolver;
+  private final Provider<CurrentUser> userProvider;
+
+  @Option(name = "--handle", usage = "output handle returned by codex-chat")
+  private String handle;
+
+  @Option(name = "--offset", usage = "byte offset to read from")
+  private long offset;
+
+  @Option(name = "--length", usage = "maximum number of bytes to read")
+  private int length = DEFAULT_PAGE_BYTES;
+
+  @Inject
+  CodexOutputRest(
+      CodexOutputStore outputStore,
+      CodexRevisionResolver revisionResolver,
+      Provider<CurrentUser> userProvider) {
+    this.outputStore = outputStore;
+    this.revisionResolver = revisionResolver;
+    this.userProvider = userProvider;
+  }
+
+  @Override
+  public Response<CodexOutputStore.Page> apply(RevisionResource resource) throws RestApiException {
+    if (handle == null || handle.trim().isEmpty()) {
+      throw new BadRequestException("handle is required");
+    }
+    if (offset < 0 || length <= 0) {
+      throw new BadRequestException("offset must be >= 0 and length > 0");
+    }
+    CurrentUser user = userProvider.get();
+    Account.Id accountId = user.isIdentifiedUser() ? user.getAccountId() : null;
+    try {
+      return Response.ok(
+          outputStore.read(
+              handle.trim(),
+              revisionResolver.resolve(resource).changeId(),
+              accountId,
+              offset,
+              length));
+    } catch (IOException e) {
+      throw new ResourceConflictException(
+          "Failed to read output " + handle + ": " + e.getMessage());
+    }
+  }
+}
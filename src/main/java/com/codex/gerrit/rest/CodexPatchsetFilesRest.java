@@ -14,10 +14,11 @@
 
 package com.codex.gerrit.rest;
 
-import com.google.gerrit.extensions.api.GerritApi;
-import com.google.gerrit.extensions.api.changes.ChangeApi;
+import com.codex.gerrit.service.CodexMemoryBudget;
+import com.codex.gerrit.service.CodexRevisionFileCache;
+import com.codex.gerrit.service.CodexRevisionFiles;
+import com.codex.gerrit.service.CodexRevisionResolver;
 import com.google.gerrit.extensions.api.changes.RevisionApi;
-import com.google.gerrit.extensions.common.FileInfo;
 import com.google.gerrit.extensions.restapi.BinaryResult;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
@@ -30,9 +31,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,26 +39,39 @@ import org.slf4j.LoggerFactory;
 public class CodexPatchsetFilesRest implements RestReadView<RevisionResource> {
   private static final Logger logger = LoggerFactory.getLogger(CodexPatchsetFilesRest.class);
 
-  private final GerritApi gerritApi;
+  private final CodexRevisionResolver revisionResolver;
+  private final CodexRevisionFileCache fileCache;
+  private final CodexMemoryBudget memoryBudget;
 
   @Inject
-  CodexPatchsetFilesRest(GerritApi gerritApi) {
-    this.gerritApi = gerritApi;
+  CodexPatchsetFilesRest(
+      CodexRevisionResolver revisionResolver,
+      CodexRevisionFileCache fileCache,
+      CodexMemoryBudget memoryBudget) {
+    this.revisionResolver = revisionResolver;
+    this.fileCache = fileCache;
+    this.memoryBudget = memoryBudget;
   }
 
   @Override
+  @SuppressWarnings("try")
   public Response<CodexPatchsetFilesResponse> apply(RevisionResource resource) throws RestApiException {
-    String changeId = String.valueOf(resource.getChangeResource().getId().get());
-    ChangeApi changeApi = gerritApi.changes().id(changeId);
-    RevisionApi revisionApi = resolveRevisionApi(resource, changeApi);
-    Map<String, FileInfo> files = revisionApi.files();
-
-    List<String> normalizedFiles = normalizeFiles(files);
+    CodexRevisionResolver.Revision revision = revisionResolver.resolve(resource);
+    RevisionApi revisionApi = revision.revisionApi();
+    CodexRevisionFiles files = fileCache.get(revision);
+    List<String> normalizedFiles = files.paths();
     List<CodexPatchsetFileContent> resultFiles = new ArrayList<>();
 
+    // Each file is held as raw bytes while it is encoded and as base64 afterwards.
+    long bytes = 0;
     for (String filePath : normalizedFiles) {
-      String base64Content = readFileAsBase64(revisionApi, filePath);
-      resultFiles.add(new CodexPatchsetFileContent(filePath, base64Content));
+      bytes += files.get(filePath).size() * 7 / 3;
+    }
+    try (CodexMemoryBudget.Lease lease = memoryBudget.acquire(bytes, "patch set files")) {
+      for (String filePath : normalizedFiles) {
+        String base64Content = readFileAsBase64(revisionApi, filePath);
+        resultFiles.add(new CodexPatchsetFileContent(filePath, base64Content));
+      }
     }
 
     return Response.ok(new CodexPatchsetFilesResponse(resultFiles));
@@ -80,93 +92,6 @@ public class CodexPatchsetFilesRest implements RestReadView<RevisionResource> {
     }
   }
 
-  private static List<String> normalizeFiles(Map<String, FileInfo> files) {
-    List<String> result = new ArrayList<>();
-    for (String file : files.keySet()) {
-      if (file == null || file.isEmpty() || file.startsWith("/")) {
-        continue;
-      }
-      result.add(file);
-    }
-    Collections.sort(result);
-    return result;
-  }
-
-  private RevisionApi resolveRevisionApi(RevisionResource resource, ChangeApi changeApi)
-      throws RestApiException {
-    String revisionId = resolveRevisionId(resource);
-    if (revisionId == null || revisionId.isEmpty()) {
-      return changeApi.current();
-    }
-    return changeApi.revision(revisionId);
-  }
-
-  private String resolveRevisionId(RevisionResource resource) {
-    if (resource == null) {
-      return null;
-    }
-
-    Object patchSet = invokeNoArg(resource, "getPatchSet", "patchSet");
-    Object commitId = invokeNoArg(patchSet, "commitId", "getCommitId");
-    String revisionFromCommit = normalizeRevisionId(invokeNoArg(commitId, "name", "getName"));
-    if (revisionFromCommit != null) {
-      return revisionFromCommit;
-    }
-
-    Object patchSetId = invokeNoArg(patchSet, "id", "getId");
-    String revisionFromPatchsetNumber = normalizeRevisionId(invokeNoArg(patchSetId, "get", "id", "getId"));
-    if (revisionFromPatchsetNumber != null) {
-      return revisionFromPatchsetNumber;
-    }
-
-    return null;
-  }
-
-  private static Object invokeNoArg(Object target, String... methodNames) {
-    if (target == null || methodNames == null || methodNames.length == 0) {
-      return null;
-    }
-
-    for (String methodName : methodNames) {
-      if (methodName == null || methodName.isEmpty()) {
-        continue;
-      }
-      Object result = invokeNoArgSingle(target, methodName);
-      if (result != null) {
-        return result;
-      }
-    }
-    return null;
-  }
-
-  private static Object invokeNoArgSingle(Object target, String methodName) {
-    try {
-      return target.getClass().getMethod(methodName).invoke(target);
-    } catch (ReflectiveOperationException ignored) {
-      // Fall through and retry declared methods.
-    }
-
-    Class<?> currentClass = target.getClass();
-    while (currentClass != null) {
-      try {
-        java.lang.reflect.Method declaredMethod = currentClass.getDeclaredMethod(methodName);
-        declaredMethod.setAccessible(true);
-        return declaredMethod.invoke(target);
-      } catch (ReflectiveOperationException | RuntimeException ignored) {
-        currentClass = currentClass.getSuperclass();
-      }
-    }
-    return null;
-  }
-
-  private static String normalizeRevisionId(Object value) {
-    if (value == null) {
-      return null;
-    }
-    String normalized = String.valueOf(value).trim();
-    return normalized.isEmpty() ? null : normalized;
-  }
-
   public static class CodexPatchsetFilesResponse {
     public List<CodexPatchsetFileContent> files;
 
@@ -15,21 +15,35 @@
 package com.codex.gerrit.rest;
 
 import com.codex.gerrit.service.CodexAgentClient;
+import com.codex.gerrit.service.CodexPools;
+import com.codex.gerrit.service.CodexUsage;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.RevisionResource;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 @Singleton
 public class CodexSandboxRest implements RestModifyView<RevisionResource, CodexSandboxInput> {
   private final CodexAgentClient agentClient;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final Provider<CurrentUser> userProvider;
 
   @Inject
-  CodexSandboxRest(CodexAgentClient agentClient) {
+  CodexSandboxRest(
+      CodexAgentClient agentClient,
+      CodexPools pools,
+      CodexUsage usage,
+      Provider<CurrentUser> userProvider) {
     this.agentClient = agentClient;
+    this.pools = pools;
+    this.usage = usage;
+    this.userProvider = userProvider;
   }
 
   @Override
@@ -38,6 +52,8 @@ public class CodexSandboxRest implements RestModifyView<RevisionResource, CodexS
     if (input == null) {
       throw new BadRequestException("Missing request body");
     }
-    return Response.ok(agentClient.runSandbox(input));
+    CurrentUser user = userProvider.get();
+    usage.admit(user.isIdentifiedUser() ? user.getAccountId() : null, resource.getProject());
+    return Response.ok(agentClient.runSandbox(pools.forRevision(resource, null), input));
   }
 }
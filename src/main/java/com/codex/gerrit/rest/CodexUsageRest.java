@@ -0,0 +1,65 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.rest;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.service.CodexUsageLedger;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.CapabilityScope;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import org.kohsuke.args4j.Option;
+
+/** Usage per account and project: {@code GET /config/server/codex-gerrit~codex-usage}. */
+@RequiresCapability(value = GlobalCapability.ADMINISTRATE_SERVER, scope = CapabilityScope.CORE)
+public class CodexUsageRest implements RestReadView<ConfigResource> {
+  private final CodexUsageLedger ledger;
+  private final CodexGerritConfig config;
+
+  @Option(name = "--days", usage = "number of days to sum, today included")
+  private int days = 30;
+
+  @Option(name = "--account", usage = "only count this account id")
+  private Integer account;
+
+  @Option(name = "--project", usage = "only count this project")
+  private String project;
+
+  @Inject
+  CodexUsageRest(CodexUsageLedger ledger, CodexGerritConfig config) {
+    this.ledger = ledger;
+    this.config = config;
+  }
+
+  @Override
+  public Response<CodexUsageLedger.Report> apply(ConfigResource resource)
+      throws RestApiException {
+    if (days <= 0) {
+      throw new BadRequestException("days must be > 0");
+    }
+    return Response.ok(
+        ledger.report(
+            Math.min(days, config.getUsageRetentionDays()),
+            account == null ? null : Account.id(account),
+            project == null || project.trim().isEmpty() ? null : Project.nameKey(project.trim())));
+  }
+}
@@ -15,6 +15,7 @@
 package com.codex.gerrit.service;
 
 import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.config.CodexPoolConfig;
 import com.codex.gerrit.rest.CodexGraphInput;
 import com.codex.gerrit.rest.CodexGraphResponse;
 import com.codex.gerrit.rest.CodexInsightInput;
@@ -22,6 +23,7 @@ import com.codex.gerrit.rest.CodexInsightResponse;
 import com.codex.gerrit.rest.CodexSandboxInput;
 import com.codex.gerrit.rest.CodexSandboxResponse;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
@@ -30,12 +32,13 @@ import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Reader;
 import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -43,20 +46,67 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Singleton
 public class CodexAgentClient {
-  private static final int MAX_OUTPUT_CHARS = 20000;
-  private static final int CONNECT_TIMEOUT_MS = 10_000;
+  private static final Logger logger = LoggerFactory.getLogger(CodexAgentClient.class);
+  private static final int MAX_ERROR_CHARS = 20000;
   private static final int RUN_READ_TIMEOUT_MS = 300_000;
-  private static final int CONTROL_READ_TIMEOUT_MS = 15_000;
+  /** Milliseconds the plugin will still wait for the response, or for the next event. */
+  private static final String DEADLINE_HEADER = "X-Codex-Deadline-Ms";
+  /** Milliseconds an agent run may stay silent between events. */
+  private static final String IDLE_TIMEOUT_HEADER = "X-Codex-Idle-Timeout-Ms";
+  private static final long CAPABILITIES_TTL_MS = 5 * 60_000;
+  private static final String CONTEXT_REFS_CAPABILITY = "context-refs";
+  private static final int MAX_SESSION_POOLS = 10_000;
   private static final Gson GSON = new Gson();
 
   private final CodexGerritConfig config;
+  private final CodexTrafficRecorder recorder;
+  private final CodexContextStore contextStore;
+  private final CodexInFlightRegistry inFlight;
+  private final CodexOutputStore outputStore;
+  private final CodexHedging hedging;
+  private final CodexDeadlines deadlines;
+  private final CodexPools pools;
+  private final CodexHealth health;
+  private final ConcurrentMap<String, Capabilities> capabilities = new ConcurrentHashMap<>();
+  /** Pool each recent session ran on, so that stopping it reaches the right backend. */
+  private final Map<String, CodexPool> sessionPools =
+      Collections.synchronizedMap(
+          new LinkedHashMap<String, CodexPool>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CodexPool> eldest) {
+              return size() > MAX_SESSION_POOLS;
+            }
+          });
 
   @Inject
-  CodexAgentClient(CodexGerritConfig config) {
+  CodexAgentClient(
+      CodexGerritConfig config,
+      CodexTrafficRecorder recorder,
+      CodexContextStore contextStore,
+      CodexInFlightRegistry inFlight,
+      CodexOutputStore outputStore,
+      CodexHedging hedging,
+      CodexDeadlines deadlines,
+      CodexPools pools,
+      CodexHealth health) {
     this.config = config;
+    this.recorder = recorder;
+    this.contextStore = contextStore;
+    this.inFlight = inFlight;
+    this.outputStore = outputStore;
+    this.hedging = hedging;
+    this.deadlines = deadlines;
+    this.pools = pools;
+    this.health = health;
   }
 
   public String run(String prompt) throws RestApiException {
@@ -82,62 +132,178 @@ public class CodexAgentClient {
       String sessionId,
       List<ContextFile> contextFiles)
       throws RestApiException {
-    String normalizedAgent = config.normalizeAgentOrDefault(agent);
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
+    return run(pools.defaultPool(), prompt, model, agent, sessionId, contextFiles);
+  }
+
+  /** Runs the agent; output beyond {@code outputMemoryChars} is cut and marked as truncated. */
+  public String run(
+      CodexPool pool,
+      String prompt,
+      String model,
+      String agent,
+      String sessionId,
+      List<ContextFile> contextFiles)
+      throws RestApiException {
+    try (CodexOutputBuffer output =
+        runOutput(pool, prompt, model, agent, sessionId, contextFiles)) {
+      return output.text().trim();
     }
+  }
+
+  /**
+   * Runs the agent and returns its complete stdout, spooled to disk past {@code
+   * outputMemoryChars}. The caller must close the buffer, or publish it through {@link
+   * CodexOutputStore#publish}.
+   */
+  public CodexOutputBuffer runOutput(
+      CodexPool pool,
+      String prompt,
+      String model,
+      String agent,
+      String sessionId,
+      List<ContextFile> contextFiles)
+      throws RestApiException {
+    String normalizedAgent = config.normalizeAgentOrDefault(agent);
+    requireAvailable(pool);
 
     try {
-      return runOnServer(prompt, model, normalizedAgent, sessionId, contextFiles);
+      String normalizedSessionId = normalizeOptionalPath(sessionId);
+      if (normalizedSessionId == null
+          || contextFiles == null
+          || contextFiles.isEmpty()
+          || !supportsContextRefs(pool)) {
+        return runOnServer(
+            pool, prompt, model, normalizedAgent, sessionId, inline(contextFiles), contextFiles);
+      }
+      return runWithContextRefs(
+          pool, prompt, model, normalizedAgent, normalizedSessionId, contextFiles);
     } catch (IOException e) {
+      CodexInFlightRegistry.Operation operation = inFlight.get(normalizeOptionalPath(sessionId));
+      if (operation != null && operation.isCancelled()) {
+        throw new ResourceConflictException(
+            "Session " + operation.sessionId() + " was cancelled: " + operation.cancelReason());
+      }
       throw new BadRequestException("Remote execution failed: " + e.getMessage());
     }
   }
 
-  public void stopSession(String sessionId) throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
+  private CodexOutputBuffer runWithContextRefs(
+      CodexPool pool,
+      String prompt,
+      String model,
+      String agent,
+      String sessionId,
+      List<ContextFile> contextFiles)
+      throws IOException, RestApiException {
+    CodexContextStore.Upload upload = contextStore.prepare(sessionId, contextFiles);
+    try {
+      CodexOutputBuffer output =
+          runOnServer(pool, prompt, model, agent, sessionId, upload.entries(), contextFiles);
+      contextStore.commit(upload);
+      return output;
+    } catch (UnknownContextRefsException e) {
+      // codex.serve lost the session context (e.g. it restarted); send everything inline again.
+      contextStore.forget(sessionId);
+      upload = contextStore.prepare(sessionId, contextFiles);
+      CodexOutputBuffer output =
+          runOnServer(pool, prompt, model, agent, sessionId, upload.entries(), contextFiles);
+      contextStore.commit(upload);
+      return output;
+    }
+  }
+
+  private static JsonArray inline(List<ContextFile> contextFiles) {
+    return contextFiles == null || contextFiles.isEmpty()
+        ? null
+        : GSON.toJsonTree(contextFiles).getAsJsonArray();
+  }
+
+  /**
+   * Whether the pool accepts {@code contextFiles} entries that reference content by {@code
+   * sha256}. Negotiated through {@code GET /capabilities} and cached; any failure means no.
+   */
+  private boolean supportsContextRefs(CodexPool pool) {
+    Capabilities current = capabilities.get(pool.name());
+    long now = System.currentTimeMillis();
+    if (current != null && current.expiresAt > now) {
+      return current.contextRefs;
+    }
+    boolean contextRefs = false;
+    try {
+      contextRefs = fetchCapabilitiesFromServer(pool).contains(CONTEXT_REFS_CAPABILITY);
+    } catch (IOException | RuntimeException e) {
+      // Older codex.serve builds have no /capabilities endpoint.
     }
+    capabilities.put(pool.name(), new Capabilities(contextRefs, now + CAPABILITIES_TTL_MS));
+    return contextRefs;
+  }
+
+  /** Fails unless {@code pool} is configured and not known to be down. */
+  private void requireAvailable(CodexPool pool) throws RestApiException {
+    if (pool.url().isEmpty()) {
+      throw new BadRequestException(
+          CodexPoolConfig.DEFAULT_POOL.equals(pool.name())
+              ? "codexServeUrl is not configured"
+              : "url of pool " + pool.name() + " is not configured");
+    }
+    health.check(pool);
+  }
+
+  /** Stops a session on the pool it last ran on, or on the default pool. */
+  public void stopSession(String sessionId) throws RestApiException {
     String normalizedSessionId = sessionId == null ? "" : sessionId.trim();
+    CodexPool pool = sessionPools.get(normalizedSessionId);
+    if (pool == null) {
+      pool = pools.defaultPool();
+    }
+    requireAvailable(pool);
     if (normalizedSessionId.isEmpty()) {
       throw new BadRequestException("sessionId is required");
     }
 
     try {
-      stopSessionOnServer(normalizedSessionId);
+      stopSessionOnServer(pool, normalizedSessionId);
     } catch (IOException e) {
       throw new BadRequestException("Failed to stop session: " + e.getMessage());
     }
   }
 
   public List<String> getModels() throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
-    }
+    return getModels(pools.defaultPool());
+  }
+
+  public List<String> getModels(CodexPool pool) throws RestApiException {
+    requireAvailable(pool);
 
     try {
-      return fetchModelsFromServer();
+      return fetchModelsFromServer(pool);
     } catch (IOException e) {
       throw new BadRequestException("Failed to fetch models: " + e.getMessage());
     }
   }
 
   public List<String> getAgents() throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
-    }
+    return getAgents(pools.defaultPool());
+  }
+
+  public List<String> getAgents(CodexPool pool) throws RestApiException {
+    requireAvailable(pool);
 
     try {
-      return fetchAgentsFromServer();
+      return fetchAgentsFromServer(pool);
     } catch (IOException e) {
       throw new BadRequestException("Failed to fetch agents: " + e.getMessage());
     }
   }
 
   public CodexInsightResponse runInsight(CodexInsightInput input) throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
-    }
+    return runInsight(pools.defaultPool(), input);
+  }
+
+  @SuppressWarnings("try")
+  public CodexInsightResponse runInsight(CodexPool pool, CodexInsightInput input)
+      throws RestApiException {
+    requireAvailable(pool);
     if (input == null) {
       throw new BadRequestException("input is required");
     }
@@ -147,17 +313,21 @@ public class CodexAgentClient {
     }
     String outPath = normalizeOptionalPath(input.outPath);
 
-    try {
-      return runInsightOnServer(outPath, input);
+    try (CodexPool.Slot slot = pool.acquire()) {
+      return runInsightOnServer(pool, outPath, input);
     } catch (IOException e) {
       throw new BadRequestException("Failed to run insight: " + e.getMessage());
     }
   }
 
   public CodexGraphResponse runGraph(CodexGraphInput input) throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
-    }
+    return runGraph(pools.defaultPool(), input);
+  }
+
+  @SuppressWarnings("try")
+  public CodexGraphResponse runGraph(CodexPool pool, CodexGraphInput input)
+      throws RestApiException {
+    requireAvailable(pool);
     if (input == null) {
       throw new BadRequestException("input is required");
     }
@@ -180,17 +350,21 @@ public class CodexAgentClient {
       throw new BadRequestException("file_paths is required");
     }
 
-    try {
-      return runGraphOnServer(code, normalizedFilePaths, input);
+    try (CodexPool.Slot slot = pool.acquire()) {
+      return runGraphOnServer(pool, code, normalizedFilePaths, input);
     } catch (IOException e) {
       throw new BadRequestException("Failed to run graph: " + e.getMessage());
     }
   }
 
   public CodexSandboxResponse runSandbox(CodexSandboxInput input) throws RestApiException {
-    if (config.getCodexServeUrl().isEmpty()) {
-      throw new BadRequestException("codexServeUrl is not configured");
-    }
+    return runSandbox(pools.defaultPool(), input);
+  }
+
+  @SuppressWarnings("try")
+  public CodexSandboxResponse runSandbox(CodexPool pool, CodexSandboxInput input)
+      throws RestApiException {
+    requireAvailable(pool);
     if (input == null) {
       throw new BadRequestException("input is required");
     }
@@ -200,27 +374,96 @@ public class CodexAgentClient {
       throw new BadRequestException("command is required");
     }
 
-    try {
-      return runSandboxOnServer(command, input);
+    try (CodexPool.Slot slot = pool.acquire()) {
+      return runSandboxOnServer(pool, command, input);
     } catch (IOException e) {
       throw new BadRequestException("Failed to run sandbox command: " + e.getMessage());
     }
   }
 
-  private String runOnServer(
+  /**
+   * Runs the agent, hedged to {@code hedgeModel} if its first event is late (see {@link
+   * CodexHedging}). The hedge is a session of its own, so it is sent {@code hedgeContext} inline
+   * instead of the primary's context refs. The primary waits for a slot of the pool; the hedge is
+   * only sent if one is free.
+   */
+  @SuppressWarnings("try")
+  private CodexOutputBuffer runOnServer(
+      CodexPool pool,
       String prompt,
       String model,
       String agent,
       String sessionId,
-      List<ContextFile> contextFiles)
+      JsonArray contextFiles,
+      List<ContextFile> hedgeContext)
+      throws IOException, RestApiException {
+    String normalizedSessionId = normalizeOptionalPath(sessionId);
+    try (CodexPool.Slot slot = pool.acquire()) {
+      CodexHedging.Race race =
+          normalizedSessionId == null
+              ? null
+              : hedging.race(pool.name(), agent, model, this::stopLosingSession);
+      if (race == null) {
+        return runStream(pool, prompt, model, agent, sessionId, contextFiles, null);
+      }
+
+      String hedgeModel = config.getHedgeModel();
+      String hedgeSessionId = normalizedSessionId + CodexHedging.SESSION_SUFFIX;
+      CodexHedging.Stream primary =
+          race.start(
+              normalizedSessionId,
+              hedge -> {
+                try (CodexPool.Slot hedgeSlot = pool.tryAcquire()) {
+                  if (hedgeSlot == null) {
+                    throw new IOException("pool " + pool.name() + " has no free slot to hedge");
+                  }
+                  return runStream(
+                      pool, prompt, hedgeModel, agent, hedgeSessionId, inline(hedgeContext), hedge);
+                }
+              });
+      CodexOutputBuffer output;
+      try {
+        output = runStream(pool, prompt, model, agent, sessionId, contextFiles, primary);
+      } catch (IOException | RestApiException | RuntimeException e) {
+        CodexInFlightRegistry.Operation operation = inFlight.get(normalizedSessionId);
+        if (!race.hedgeWon() || (operation != null && operation.isCancelled())) {
+          race.abandon();
+          throw e;
+        }
+        return race.awaitHedge();
+      }
+      race.abandon();
+      return output;
+    }
+  }
+
+  private void stopLosingSession(String sessionId) {
+    try {
+      stopSession(sessionId);
+    } catch (RestApiException | RuntimeException e) {
+      logger.warn("Failed to stop session {} after losing a hedged run", sessionId, e);
+    }
+  }
+
+  private CodexOutputBuffer runStream(
+      CodexPool pool,
+      String prompt,
+      String model,
+      String agent,
+      String sessionId,
+      JsonArray contextFiles,
+      CodexHedging.Stream stream)
       throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/agent/run");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("POST");
+    HttpURLConnection conn = openConnection(pool, "/agent/run", "POST", RUN_READ_TIMEOUT_MS);
     conn.setRequestProperty("Content-Type", "application/json");
     conn.setDoOutput(true);
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(RUN_READ_TIMEOUT_MS);
+    if (stream != null) {
+      stream.connected(conn);
+    }
+    CodexInFlightRegistry.Operation operation = inFlight.get(normalizeOptionalPath(sessionId));
+    if (operation != null) {
+      operation.attach(conn);
+    }
 
     ArrayList<String> args = new ArrayList<>();
     if (model != null && !model.trim().isEmpty()) {
@@ -234,85 +477,136 @@ public class CodexAgentClient {
     String normalizedSessionId = sessionId == null ? "" : sessionId.trim();
     if (!normalizedSessionId.isEmpty()) {
       json.addProperty("sessionId", normalizedSessionId);
+      sessionPools.put(normalizedSessionId, pool);
     }
 
     json.add("args", GSON.toJsonTree(args));
-    if (contextFiles != null && !contextFiles.isEmpty()) {
-      json.add("contextFiles", GSON.toJsonTree(contextFiles));
+    if (contextFiles != null && contextFiles.size() > 0) {
+      json.add("contextFiles", contextFiles);
     }
 
     String jsonInputString = GSON.toJson(json);
-
-    try (OutputStream os = conn.getOutputStream()) {
-      byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
-      os.write(input, 0, input.length);
-    }
-
-    int responseCode = conn.getResponseCode();
-    InputStream is = (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-
-    StringBuilder stdoutBuilder = new StringBuilder();
+    CodexTrafficRecorder.Exchange exchange = recorder.begin("POST", "/agent/run", json);
+
+    CodexDeadlines.Watch watch = deadlines.watch(pool, agent, model);
+    conn.setReadTimeout(watch.readTimeoutMs());
+    conn.setRequestProperty(DEADLINE_HEADER, Long.toString(watch.remainingMs()));
+    conn.setRequestProperty(IDLE_TIMEOUT_HEADER, Long.toString(watch.idleMs()));
+    watch.attach(conn);
+    CodexOutputBuffer stdout = outputStore.newBuffer();
     StringBuilder stderrBuilder = new StringBuilder();
+    String errorBody = null;
     int exitCode = 0;
+    int responseCode;
+    boolean succeeded = false;
 
-    if (is != null) {
-      try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
-        String line;
-        while ((line = br.readLine()) != null) {
-          if (line.trim().isEmpty()) {
-            continue;
-          }
-          try {
-            JsonObject event = GSON.fromJson(line, JsonObject.class);
-            if (event.has("type")) {
-              String type = event.get("type").getAsString();
-              if ("stdout".equals(type)) {
-                if (stdoutBuilder.length() < MAX_OUTPUT_CHARS) {
-                  stdoutBuilder.append(event.get("data").getAsString());
-                }
-              } else if ("stderr".equals(type)) {
-                if (stderrBuilder.length() < MAX_OUTPUT_CHARS) {
-                  stderrBuilder.append(event.get("data").getAsString());
-                }
-              } else if ("exit".equals(type)) {
-                exitCode = event.get("code").getAsInt();
-              }
-            }
-          } catch (Exception e) {
-            stderrBuilder.append(line).append("\n");
-          }
+    try {
+      try {
+        try (OutputStream os = conn.getOutputStream()) {
+          byte[] input = jsonInputString.getBytes(StandardCharsets.UTF_8);
+          os.write(input, 0, input.length);
         }
-      }
-    }
 
-    if (responseCode != 200) {
-      throw new BadRequestException("Remote server error " + responseCode + ": " + stderrBuilder.toString());
-    }
+        responseCode = conn.getResponseCode();
+        exchange.response(responseCode);
+        if (responseCode >= 200 && responseCode < 300) {
+          exitCode =
+              readEvents(conn.getInputStream(), stdout, stderrBuilder, exchange, watch, stream);
+        } else {
+          // Errors are a plain JSON object, not an event stream.
+          errorBody = readErrorBody(conn.getErrorStream(), exchange);
+        }
+        stdout.finish();
+      } catch (IOException e) {
+        exchange.finish(e.getMessage());
+        throw watch.failure(e);
+      } finally {
+        exchange.finish(null);
+        if (operation != null) {
+          operation.detach(conn);
+        }
+      }
 
-    String stdout = stdoutBuilder.toString();
-    String stderr = stderrBuilder.toString();
+      if (errorBody != null) {
+        if (responseCode == 409 && UnknownContextRefsException.ERROR.equals(errorCode(errorBody))) {
+          throw new UnknownContextRefsException();
+        }
+        throw new BadRequestException(
+            "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(errorBody));
+      }
+      if (responseCode != 200) {
+        throw new BadRequestException("Remote server error " + responseCode + ": " + stderrBuilder.toString());
+      }
 
-    if (exitCode != 0) {
-      throw new BadRequestException(agent + " exited with status " + exitCode + "\n" + stderr + "\n" + stdout);
+      if (exitCode != 0) {
+        throw new BadRequestException(
+            agent + " exited with status " + exitCode + "\n" + stderrBuilder + "\n" + stdout.text());
+      }
+      succeeded = true;
+      return stdout;
+    } finally {
+      watch.close();
+      if (!succeeded) {
+        stdout.close();
+      }
     }
+  }
 
-    if (stdout.length() > MAX_OUTPUT_CHARS) {
-      stdout = stdout.substring(0, MAX_OUTPUT_CHARS) + "\n[truncated]";
+  private static int readEvents(
+      InputStream is,
+      CodexOutputBuffer stdout,
+      StringBuilder stderrBuilder,
+      CodexTrafficRecorder.Exchange exchange,
+      CodexDeadlines.Watch watch,
+      CodexHedging.Stream stream)
+      throws IOException {
+    int exitCode = 0;
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        exchange.chunk(line + "\n");
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        watch.event();
+        if (stream != null) {
+          stream.started();
+        }
+        String stdoutData = null;
+        try {
+          JsonObject event = GSON.fromJson(line, JsonObject.class);
+          if (event.has("type")) {
+            String type = event.get("type").getAsString();
+            if ("stdout".equals(type)) {
+              stdoutData = event.get("data").getAsString();
+            } else if ("stderr".equals(type)) {
+              if (stderrBuilder.length() < MAX_ERROR_CHARS) {
+                stderrBuilder.append(event.get("data").getAsString());
+              }
+            } else if ("exit".equals(type)) {
+              exitCode = event.get("code").getAsInt();
+              stdout.addTokens(CodexUsage.tokens(event.get("usage")));
+            } else if ("usage".equals(type)) {
+              stdout.addTokens(CodexUsage.tokens(event));
+            }
+          }
+        } catch (Exception e) {
+          stderrBuilder.append(line).append("\n");
+        }
+        // Outside the parse guard: a failing spool write must fail the run, not land in stderr.
+        stdout.append(stdoutData);
+      }
     }
-
-    return stdout.trim();
+    return exitCode;
   }
 
-  private CodexInsightResponse runInsightOnServer(String outPath, CodexInsightInput input)
+  private CodexInsightResponse runInsightOnServer(
+      CodexPool pool, String outPath, CodexInsightInput input)
       throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/insight/run");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("POST");
+    HttpURLConnection conn = openConnection(pool, "/insight/run", "POST", RUN_READ_TIMEOUT_MS);
     conn.setRequestProperty("Content-Type", "application/json");
     conn.setRequestProperty("Accept", "application/json");
     conn.setDoOutput(true);
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(RUN_READ_TIMEOUT_MS);
 
     JsonObject json = new JsonObject();
     if (outPath != null && !outPath.isEmpty()) {
@@ -371,26 +665,18 @@ public class CodexAgentClient {
       }
     }
 
-    String jsonInputString = GSON.toJson(json);
-    try (OutputStream os = conn.getOutputStream()) {
-      byte[] payload = jsonInputString.getBytes(StandardCharsets.UTF_8);
-      os.write(payload, 0, payload.length);
-    }
-
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
-
-    if (responseCode < 200 || responseCode >= 300) {
-      throw new BadRequestException(
-          "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(body));
-    }
-    if (body.trim().isEmpty()) {
-      throw new BadRequestException("Invalid /insight/run response from codex.serve: empty body");
+    JsonObject jsonBody;
+    try (RemoteResponse remote = execute(conn, "/insight/run", json)) {
+      int responseCode = remote.code;
+      if (responseCode < 200 || responseCode >= 300) {
+        throw new BadRequestException(
+            "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(remote.text()));
+      }
+      if (remote.isBlank()) {
+        throw new BadRequestException("Invalid /insight/run response from codex.serve: empty body");
+      }
+      jsonBody = remote.json();
     }
-
-    JsonObject jsonBody = GSON.fromJson(body, JsonObject.class);
     if (jsonBody == null) {
       throw new BadRequestException("Invalid /insight/run response from codex.serve");
     }
@@ -399,6 +685,7 @@ public class CodexAgentClient {
     response.stdout = getAsString(jsonBody, "stdout");
     response.stderr = getAsString(jsonBody, "stderr");
     response.outputDir = getAsString(jsonBody, "outputDir");
+    response.usage = jsonBody.has("usage") ? jsonBody.get("usage") : null;
     response.exitCode = getAsInt(jsonBody, "exit_code", 0);
     if (jsonBody.has("exitCode") && jsonBody.get("exitCode").isJsonPrimitive()) {
       response.exitCode = jsonBody.get("exitCode").getAsInt();
@@ -426,16 +713,13 @@ public class CodexAgentClient {
     return response;
   }
 
-  private CodexGraphResponse runGraphOnServer(String code, List<String> filePaths, CodexGraphInput input)
+  private CodexGraphResponse runGraphOnServer(
+      CodexPool pool, String code, List<String> filePaths, CodexGraphInput input)
       throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/graph/run");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("POST");
+    HttpURLConnection conn = openConnection(pool, "/graph/run", "POST", RUN_READ_TIMEOUT_MS);
     conn.setRequestProperty("Content-Type", "application/json");
     conn.setRequestProperty("Accept", "application/json");
     conn.setDoOutput(true);
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(RUN_READ_TIMEOUT_MS);
 
     JsonObject json = new JsonObject();
     json.addProperty("code", code);
@@ -466,26 +750,18 @@ public class CodexAgentClient {
       }
     }
 
-    String jsonInputString = GSON.toJson(json);
-    try (OutputStream os = conn.getOutputStream()) {
-      byte[] payload = jsonInputString.getBytes(StandardCharsets.UTF_8);
-      os.write(payload, 0, payload.length);
-    }
-
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
-
-    if (responseCode < 200 || responseCode >= 300) {
-      throw new BadRequestException(
-          "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(body));
-    }
-    if (body.trim().isEmpty()) {
-      throw new BadRequestException("Invalid /graph/run response from codex.serve: empty body");
+    JsonObject jsonBody;
+    try (RemoteResponse remote = execute(conn, "/graph/run", json)) {
+      int responseCode = remote.code;
+      if (responseCode < 200 || responseCode >= 300) {
+        throw new BadRequestException(
+            "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(remote.text()));
+      }
+      if (remote.isBlank()) {
+        throw new BadRequestException("Invalid /graph/run response from codex.serve: empty body");
+      }
+      jsonBody = remote.json();
     }
-
-    JsonObject jsonBody = GSON.fromJson(body, JsonObject.class);
     if (jsonBody == null) {
       throw new BadRequestException("Invalid /graph/run response from codex.serve");
     }
@@ -497,19 +773,19 @@ public class CodexAgentClient {
     return response;
   }
 
-  private void stopSessionOnServer(String sessionId) throws IOException, RestApiException {
+  private void stopSessionOnServer(CodexPool pool, String sessionId)
+      throws IOException, RestApiException {
     String encodedSessionId = URLEncoder.encode(sessionId, StandardCharsets.UTF_8);
-    URL url = new URL(config.getCodexServeUrl() + "/sessions/" + encodedSessionId + "/stop");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("POST");
+    String path = "/sessions/" + encodedSessionId + "/stop";
+    HttpURLConnection conn = openConnection(pool, path, "POST", controlTimeoutMs(pool));
     conn.setRequestProperty("Accept", "application/json");
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(CONTROL_READ_TIMEOUT_MS);
 
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
+    int responseCode;
+    String body;
+    try (RemoteResponse remote = execute(conn, path, null)) {
+      responseCode = remote.code;
+      body = remote.text();
+    }
 
     if (responseCode >= 200 && responseCode < 300) {
       return;
@@ -522,16 +798,13 @@ public class CodexAgentClient {
     throw new BadRequestException("Remote server error " + responseCode + ": " + body);
   }
 
-  private CodexSandboxResponse runSandboxOnServer(String command, CodexSandboxInput input)
+  private CodexSandboxResponse runSandboxOnServer(
+      CodexPool pool, String command, CodexSandboxInput input)
       throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/sandbox/run");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("POST");
+    HttpURLConnection conn = openConnection(pool, "/sandbox/run", "POST", RUN_READ_TIMEOUT_MS);
     conn.setRequestProperty("Content-Type", "application/json");
     conn.setRequestProperty("Accept", "application/json");
     conn.setDoOutput(true);
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(RUN_READ_TIMEOUT_MS);
 
     JsonObject json = new JsonObject();
     json.addProperty("command", command);
@@ -565,26 +838,18 @@ public class CodexAgentClient {
       }
     }
 
-    String jsonInputString = GSON.toJson(json);
-    try (OutputStream os = conn.getOutputStream()) {
-      byte[] payload = jsonInputString.getBytes(StandardCharsets.UTF_8);
-      os.write(payload, 0, payload.length);
-    }
-
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
-
-    if (responseCode < 200 || responseCode >= 300) {
-      throw new BadRequestException(
-          "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(body));
-    }
-    if (body.trim().isEmpty()) {
-      throw new BadRequestException("Invalid /sandbox/run response from codex.serve: empty body");
+    JsonObject jsonBody;
+    try (RemoteResponse remote = execute(conn, "/sandbox/run", json)) {
+      int responseCode = remote.code;
+      if (responseCode < 200 || responseCode >= 300) {
+        throw new BadRequestException(
+            "Remote server error " + responseCode + ": " + extractRemoteErrorDetail(remote.text()));
+      }
+      if (remote.isBlank()) {
+        throw new BadRequestException("Invalid /sandbox/run response from codex.serve: empty body");
+      }
+      jsonBody = remote.json();
     }
-
-    JsonObject jsonBody = GSON.fromJson(body, JsonObject.class);
     if (jsonBody == null) {
       throw new BadRequestException("Invalid /sandbox/run response from codex.serve");
     }
@@ -620,18 +885,17 @@ public class CodexAgentClient {
     return response;
   }
 
-  private List<String> fetchModelsFromServer() throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/models");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("GET");
+  private List<String> fetchModelsFromServer(CodexPool pool)
+      throws IOException, RestApiException {
+    HttpURLConnection conn = openConnection(pool, "/models", "GET", controlTimeoutMs(pool));
     conn.setRequestProperty("Accept", "application/json");
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(CONTROL_READ_TIMEOUT_MS);
 
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
+    int responseCode;
+    String body;
+    try (RemoteResponse remote = execute(conn, "/models", null)) {
+      responseCode = remote.code;
+      body = remote.text();
+    }
 
     if (responseCode != 200) {
       throw new BadRequestException("Remote server error " + responseCode + ": " + body);
@@ -663,18 +927,40 @@ public class CodexAgentClient {
     return models;
   }
 
-  private List<String> fetchAgentsFromServer() throws IOException, RestApiException {
-    URL url = new URL(config.getCodexServeUrl() + "/agents");
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setRequestMethod("GET");
+  private List<String> fetchCapabilitiesFromServer(CodexPool pool) throws IOException {
+    HttpURLConnection conn = openConnection(pool, "/capabilities", "GET", controlTimeoutMs(pool));
+    conn.setRequestProperty("Accept", "application/json");
+
+    List<String> result = new ArrayList<>();
+    JsonObject json;
+    try (RemoteResponse remote = execute(conn, "/capabilities", null)) {
+      if (remote.code != 200 || remote.isBlank()) {
+        return result;
+      }
+      json = remote.json();
+    }
+    if (json == null || !json.has("capabilities") || !json.get("capabilities").isJsonArray()) {
+      return result;
+    }
+    for (JsonElement element : json.getAsJsonArray("capabilities")) {
+      if (element.isJsonPrimitive()) {
+        result.add(element.getAsString().trim());
+      }
+    }
+    return result;
+  }
+
+  private List<String> fetchAgentsFromServer(CodexPool pool)
+      throws IOException, RestApiException {
+    HttpURLConnection conn = openConnection(pool, "/agents", "GET", controlTimeoutMs(pool));
     conn.setRequestProperty("Accept", "application/json");
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-    conn.setReadTimeout(CONTROL_READ_TIMEOUT_MS);
 
-    int responseCode = conn.getResponseCode();
-    InputStream is =
-        (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
-    String body = readText(is);
+    int responseCode;
+    String body;
+    try (RemoteResponse remote = execute(conn, "/agents", null)) {
+      responseCode = remote.code;
+      body = remote.text();
+    }
 
     if (responseCode != 200) {
       throw new BadRequestException("Remote server error " + responseCode + ": " + body);
@@ -707,25 +993,110 @@ public class CodexAgentClient {
     return agents;
   }
 
-  private static String readText(InputStream is) throws IOException {
+  private HttpURLConnection openConnection(
+      CodexPool pool, String path, String method, int readTimeoutMs) throws IOException {
+    HttpURLConnection conn = CodexUnixConnection.open(pool.url(), path);
+    conn.setRequestMethod(method);
+    conn.setConnectTimeout((int) pool.config().connectTimeoutMs);
+    conn.setReadTimeout(readTimeoutMs);
+    conn.setRequestProperty(DEADLINE_HEADER, Integer.toString(readTimeoutMs));
+    return conn;
+  }
+
+  private static int controlTimeoutMs(CodexPool pool) {
+    return (int) pool.config().controlTimeoutMs;
+  }
+
+  private RemoteResponse execute(HttpURLConnection conn, String path, JsonObject json)
+      throws IOException {
+    CodexTrafficRecorder.Exchange exchange = recorder.begin(conn.getRequestMethod(), path, json);
+    try {
+      if (json != null) {
+        String jsonInputString = GSON.toJson(json);
+        try (OutputStream os = conn.getOutputStream()) {
+          byte[] payload = jsonInputString.getBytes(StandardCharsets.UTF_8);
+          os.write(payload, 0, payload.length);
+        }
+      }
+
+      int responseCode = conn.getResponseCode();
+      exchange.response(responseCode);
+      InputStream is =
+          (responseCode >= 200 && responseCode < 300) ? conn.getInputStream() : conn.getErrorStream();
+      CodexOutputBuffer body = outputStore.newBuffer();
+      try {
+        readBody(is, exchange, body);
+      } catch (IOException | RuntimeException e) {
+        body.close();
+        throw e;
+      }
+      return new RemoteResponse(responseCode, body);
+    } catch (IOException e) {
+      exchange.finish(e.getMessage());
+      throw e;
+    } finally {
+      exchange.finish(null);
+    }
+  }
+
+  private static void readBody(
+      InputStream is, CodexTrafficRecorder.Exchange exchange, CodexOutputBuffer output)
+      throws IOException {
+    if (is == null) {
+      return;
+    }
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      char[] buffer = new char[2048];
+      int read;
+      while ((read = reader.read(buffer)) != -1) {
+        String chunk = new String(buffer, 0, read);
+        exchange.chunk(chunk);
+        output.append(chunk);
+      }
+    }
+    output.finish();
+  }
+
+  /** Reads an error response body, keeping at most {@link #MAX_ERROR_CHARS} characters. */
+  private static String readErrorBody(InputStream is, CodexTrafficRecorder.Exchange exchange)
+      throws IOException {
     if (is == null) {
       return "";
     }
-    StringBuilder output = new StringBuilder();
+    StringBuilder body = new StringBuilder();
     try (BufferedReader reader =
         new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
       char[] buffer = new char[2048];
       int read;
       while ((read = reader.read(buffer)) != -1) {
-        output.append(buffer, 0, read);
-        if (output.length() >= MAX_OUTPUT_CHARS) {
-          output.setLength(MAX_OUTPUT_CHARS);
-          output.append("\n[truncated]");
-          break;
+        String chunk = new String(buffer, 0, read);
+        exchange.chunk(chunk);
+        if (body.length() < MAX_ERROR_CHARS) {
+          body.append(chunk, 0, Math.min(chunk.length(), MAX_ERROR_CHARS - body.length()));
         }
       }
     }
-    return output.toString();
+    return body.toString();
+  }
+
+  /** The {@code error} code of a codex.serve error body, also when nested in {@code detail}. */
+  private static String errorCode(String body) {
+    JsonElement current;
+    try {
+      current = GSON.fromJson(body, JsonElement.class);
+    } catch (RuntimeException e) {
+      return null;
+    }
+    for (int i = 0; i < 3 && current != null && current.isJsonObject(); i++) {
+      JsonObject object = current.getAsJsonObject();
+      String error = getAsString(object, "error");
+      if (error != null) {
+        return error;
+      }
+      current = object.get("detail");
+    }
+    return null;
   }
 
   private static String normalizeRequiredPath(String value, String fieldName) throws BadRequestException {
@@ -806,6 +1177,62 @@ public class CodexAgentClient {
     return current == null ? "(empty error detail)" : current.toString();
   }
 
+  private static class Capabilities {
+    private final boolean contextRefs;
+    private final long expiresAt;
+
+    private Capabilities(boolean contextRefs, long expiresAt) {
+      this.contextRefs = contextRefs;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /** codex.serve answered 409 because it no longer holds content referenced by hash. */
+  private static class UnknownContextRefsException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private static final String ERROR = "unknown_context_ref";
+
+    private UnknownContextRefsException() {
+      super("codex.serve does not hold the referenced context");
+    }
+  }
+
+  /** Status and body of a codex.serve call; closing it discards a spooled body. */
+  private static class RemoteResponse implements Closeable {
+    private final int code;
+    private final CodexOutputBuffer body;
+
+    private RemoteResponse(int code, CodexOutputBuffer body) {
+      this.code = code;
+      this.body = body;
+    }
+
+    /** The body for messages and small control responses; marked if it was cut. */
+    private String text() {
+      return body.text();
+    }
+
+    private boolean isBlank() {
+      return body.isBlank();
+    }
+
+    /** Parses the complete body, streaming it from disk if it was spooled. */
+    private JsonObject json() throws IOException {
+      if (body.isTruncated()) {
+        throw new IOException(
+            "response exceeds outputSpillMaxBytes (" + body.size() + " bytes kept)");
+      }
+      try (Reader reader = body.openReader()) {
+        return GSON.fromJson(reader, JsonObject.class);
+      }
+    }
+
+    @Override
+    public void close() {
+      body.close();
+    }
+  }
+
   public static class ContextFile {
     public String path;
     public String content;
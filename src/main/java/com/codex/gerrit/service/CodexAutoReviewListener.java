@@ -0,0 +1,113 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexAutoReviewConfig;
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
+import com.google.gerrit.extensions.events.RevisionCreatedListener;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.account.AccountState;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Queues an automatic review for every new patch set of a project that opted in. */
+@Singleton
+public class CodexAutoReviewListener implements RevisionCreatedListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexAutoReviewListener.class);
+
+  private final CodexGerritConfig config;
+  private final CodexAutoReviewConfig autoReviewConfig;
+  private final CodexAutoReviewQueue queue;
+  private final AccountCache accountCache;
+
+  @Inject
+  CodexAutoReviewListener(
+      CodexGerritConfig config,
+      CodexAutoReviewConfig autoReviewConfig,
+      CodexAutoReviewQueue queue,
+      AccountCache accountCache) {
+    this.config = config;
+    this.autoReviewConfig = autoReviewConfig;
+    this.queue = queue;
+    this.accountCache = accountCache;
+  }
+
+  @Override
+  public void onRevisionCreated(Event event) {
+    ChangeInfo change = event.getChange();
+    RevisionInfo revision = event.getRevision();
+    if (change == null || revision == null || change.project == null) {
+      return;
+    }
+    CodexAutoReviewConfig.Rule rule =
+        autoReviewConfig.ruleFor(Project.nameKey(change.project), change.branch);
+    if (rule == null) {
+      return;
+    }
+    if (rule.skipWorkInProgress && Boolean.TRUE.equals(change.workInProgress)) {
+      return;
+    }
+
+    CodexAutoReviewQueue.Task task = new CodexAutoReviewQueue.Task();
+    task.changeId = String.valueOf(change._number);
+    task.project = change.project;
+    task.branch = change.branch;
+    task.patchset = revision._number;
+    task.revisionId = revisionId(change, revision);
+    task.accountId = reviewerAccountId(event);
+    task.agent = rule.agent;
+    task.model = rule.model;
+    task.prompt = rule.prompt;
+    logger.debug(
+        "Queueing automatic review of change {} patch set {}", task.changeId, task.patchset);
+    queue.enqueue(task);
+  }
+
+  private static String revisionId(ChangeInfo change, RevisionInfo revision) {
+    if (revision.commit != null && revision.commit.commit != null) {
+      return revision.commit.commit;
+    }
+    if (change.currentRevision != null) {
+      return change.currentRevision;
+    }
+    return String.valueOf(revision._number);
+  }
+
+  /** Reviews run as the configured bot account, falling back to the uploader. */
+  private int reviewerAccountId(Event event) {
+    String botUser = config.getGerritBotUser();
+    if (!botUser.isEmpty()) {
+      Integer botId =
+          accountCache
+              .getByUsername(botUser)
+              .map(AccountState::account)
+              .map(account -> account.id().get())
+              .orElse(null);
+      if (botId != null) {
+        return botId;
+      }
+      logger.warn("gerritBotUser {} has no account; posting as the uploader", botUser);
+    }
+    if (event.getWho() != null && event.getWho()._accountId != null) {
+      return event.getWho()._accountId;
+    }
+    return 0;
+  }
+}
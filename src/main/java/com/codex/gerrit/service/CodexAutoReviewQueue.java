@@ -0,0 +1,385 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexChatInput;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable queue of automatic patch set reviews.
+ *
+ * <p>At most one review is kept per change: enqueuing a newer patch set supersedes the older one,
+ * and an older review that is already running has its upstream session stopped and its reply
+ * discarded. Every queued review is stored as {@code <change>.json} under {@code
+ * <plugin-data>/auto-review} until it finishes, and is re-queued when the plugin starts again.
+ * A review refused by the rate limits stays queued and is retried once they allow it.
+ */
+@Singleton
+public class CodexAutoReviewQueue implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexAutoReviewQueue.class);
+  private static final String QUEUE_NAME = "Codex-Auto-Review";
+  private static final String TASK_SUFFIX = ".json";
+
+  private final CodexGerritConfig config;
+  private final CodexRevisionResolver revisionResolver;
+  private final CodexRevisionFileCache fileCache;
+  private final CodexMemoryBudget memoryBudget;
+  private final CodexPromptBuilder promptBuilder;
+  private final CodexAgentClient agentClient;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final CodexReviewPoster reviewPoster;
+  private final CodexIncrementalReview incrementalReview;
+  private final CodexInFlightRegistry inFlight;
+  private final OneOffRequestContext requestContext;
+  private final WorkQueue workQueue;
+  private final Path queueDir;
+  private final Map<String, Task> latestByChange = new ConcurrentHashMap<>();
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  CodexAutoReviewQueue(
+      CodexGerritConfig config,
+      CodexRevisionResolver revisionResolver,
+      CodexRevisionFileCache fileCache,
+      CodexMemoryBudget memoryBudget,
+      CodexPromptBuilder promptBuilder,
+      CodexAgentClient agentClient,
+      CodexPools pools,
+      CodexUsage usage,
+      CodexReviewPoster reviewPoster,
+      CodexIncrementalReview incrementalReview,
+      CodexInFlightRegistry inFlight,
+      OneOffRequestContext requestContext,
+      WorkQueue workQueue,
+      @PluginData Path pluginData) {
+    this.config = config;
+    this.revisionResolver = revisionResolver;
+    this.fileCache = fileCache;
+    this.memoryBudget = memoryBudget;
+    this.promptBuilder = promptBuilder;
+    this.agentClient = agentClient;
+    this.pools = pools;
+    this.usage = usage;
+    this.reviewPoster = reviewPoster;
+    this.incrementalReview = incrementalReview;
+    this.inFlight = inFlight;
+    this.requestContext = requestContext;
+    this.workQueue = workQueue;
+    this.queueDir = pluginData.resolve("auto-review");
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.getAutoReviewThreads(), QUEUE_NAME);
+    List<Task> pending = loadPersistedTasks();
+    pending.sort(Comparator.comparingLong(t -> t.enqueuedAt));
+    for (Task task : pending) {
+      latestByChange.put(task.changeId, task);
+      schedule(task);
+    }
+    if (!pending.isEmpty()) {
+      logger.info("Resumed {} queued automatic reviews", pending.size());
+    }
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+    // Task files stay on disk and are picked up by the next start().
+    latestByChange.clear();
+  }
+
+  /** Queues a review of one patch set, superseding any older review of the same change. */
+  public void enqueue(Task task) {
+    task.id = UUID.randomUUID().toString();
+    task.enqueuedAt = System.currentTimeMillis();
+    Task previous;
+    synchronized (this) {
+      Task existing = latestByChange.get(task.changeId);
+      if (existing != null && existing.patchset >= task.patchset) {
+        return;
+      }
+      persist(task);
+      previous = latestByChange.put(task.changeId, task);
+    }
+    if (previous != null) {
+      cancel(previous);
+    }
+    schedule(task);
+  }
+
+  private void cancel(Task task) {
+    task.cancelled = true;
+    if (!task.running) {
+      logger.info(
+          "Superseded queued review of change {} patch set {}", task.changeId, task.patchset);
+      return;
+    }
+    logger.info(
+        "Stopping running review of change {} patch set {}: newer patch set uploaded",
+        task.changeId,
+        task.patchset);
+    inFlight.cancel(task.sessionId(), "superseded by a newer patch set");
+    // Stop the upstream session off the caller's thread; it may be a push in progress.
+    workQueue
+        .getDefaultQueue()
+        .execute(
+            () -> {
+              try {
+                agentClient.stopSession(task.sessionId());
+              } catch (RestApiException ex) {
+                logger.debug("Failed to stop session {}", task.sessionId(), ex);
+              }
+            });
+  }
+
+  private void schedule(Task task) {
+    schedule(task, 0);
+  }
+
+  private void schedule(Task task, long delaySeconds) {
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.schedule(() -> run(task), delaySeconds, TimeUnit.SECONDS);
+    } catch (RejectedExecutionException ex) {
+      logger.warn("Automatic review queue rejected change {}", task.changeId, ex);
+    }
+  }
+
+  @SuppressWarnings("try")
+  private void run(Task task) {
+    if (task.cancelled || latestByChange.get(task.changeId) != task) {
+      return;
+    }
+    task.running = true;
+    boolean done = true;
+    Account.Id accountId = task.accountId > 0 ? Account.id(task.accountId) : null;
+    try (ManualRequestContext ctx =
+            accountId == null ? requestContext.open() : requestContext.openAs(accountId);
+        CodexInFlightRegistry.Operation operation = inFlight.register(task.sessionId(), false)) {
+      if (task.cancelled) {
+        return;
+      }
+      CodexUsage.Charge charge = usage.admit(accountId, Project.nameKey(task.project));
+      CodexRevisionResolver.Revision revision =
+          revisionResolver.resolve(task.changeId, task.revisionId);
+      ChangeInfo changeInfo = revision.changeApi().get();
+      CodexRevisionFiles files = fileCache.get(revision);
+      CodexPathIndex pathIndex = files.mentionIndex();
+      long contextBytes =
+          CodexContextFileLoader.estimate(files, pathIndex.paths(), config.getMaxFiles());
+      CodexIncrementalReview.Plan plan;
+      String reply;
+      try (CodexMemoryBudget.Lease lease =
+          memoryBudget.acquire(contextBytes, "review of change " + task.changeId)) {
+        plan =
+            incrementalReview.plan(
+                task.changeId,
+                revision.revisionApi(),
+                pathIndex.paths(),
+                config.getMaxFiles(),
+                false);
+        if (!plan.hasChanges()) {
+          logger.info(
+              "Skipping review of change {} patch set {}: no file changed since the last review",
+              task.changeId,
+              task.patchset);
+          return;
+        }
+
+        CodexChatInput input = new CodexChatInput();
+        input.prompt = task.prompt;
+        input.mode = "review";
+        input.contextFiles = plan.changedPaths();
+        CodexPool pool =
+            pools.route(
+                Project.nameKey(task.project),
+                task.branch,
+                task.agent,
+                CodexPriority.REVIEW,
+                accountId);
+        try (CodexOutputBuffer output =
+            agentClient.runOutput(
+                pool,
+                promptBuilder.buildPrompt(changeInfo, input, plan.promptNote()),
+                task.model,
+                task.agent,
+                task.sessionId(),
+                plan.contextFiles())) {
+          charge.tokens(output.tokens());
+          reply = output.fullText().trim();
+        }
+      }
+
+      if (task.cancelled) {
+        logger.info(
+            "Discarding review of change {} patch set {}: superseded",
+            task.changeId,
+            task.patchset);
+        return;
+      }
+      // The state moves only once the review is on the change, so that findings which were never
+      // published are not treated as reviewed.
+      CodexIncrementalReview.Plan reviewed = plan;
+      String posted = reply;
+      reviewPoster.submit(
+          task.id,
+          accountId,
+          task.changeId,
+          task.revisionId,
+          reply,
+          "review",
+          pathIndex,
+          () -> incrementalReview.record(reviewed, task.revisionId, posted, pathIndex));
+    } catch (CodexUsage.LimitExceededException ex) {
+      // Keep the task file; the review runs once the limit allows it, or after a restart.
+      done = false;
+      logger.info(
+          "Automatic review of change {} patch set {} is rate limited, retrying in {} s",
+          task.changeId,
+          task.patchset,
+          ex.retryAfterSeconds());
+      schedule(task, ex.retryAfterSeconds());
+    } catch (RestApiException | IOException | RuntimeException ex) {
+      if (executor == null) {
+        // Interrupted by shutdown; keep the task file so the review resumes on restart.
+        done = false;
+        return;
+      }
+      if (!task.cancelled) {
+        logger.warn(
+            "Automatic review of change {} patch set {} failed",
+            task.changeId,
+            task.patchset,
+            ex);
+      }
+    } finally {
+      task.running = false;
+      if (done) {
+        finish(task);
+      }
+    }
+  }
+
+  private synchronized void finish(Task task) {
+    if (latestByChange.remove(task.changeId, task)) {
+      try {
+        Files.deleteIfExists(taskFile(task.changeId));
+      } catch (IOException ex) {
+        logger.warn("Failed to delete queued review of change {}", task.changeId, ex);
+      }
+    }
+  }
+
+  private void persist(Task task) {
+    try {
+      CodexJsonFiles.write(taskFile(task.changeId), task);
+    } catch (IOException ex) {
+      // The review still runs; it is only lost if Gerrit restarts before it finishes.
+      logger.warn("Failed to persist queued review of change {}", task.changeId, ex);
+    }
+  }
+
+  private List<Task> loadPersistedTasks() {
+    List<Task> tasks = new ArrayList<>();
+    if (!Files.isDirectory(queueDir)) {
+      return tasks;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(queueDir)) {
+      for (Path file : files) {
+        if (CodexJsonFiles.isTempFile(file)) {
+          Files.deleteIfExists(file);
+          continue;
+        }
+        if (!file.getFileName().toString().endsWith(TASK_SUFFIX)) {
+          continue;
+        }
+        try {
+          Task task = CodexJsonFiles.read(file, Task.class);
+          if (task != null && task.changeId != null && task.id != null) {
+            tasks.add(task);
+          }
+        } catch (IOException ex) {
+          logger.warn("Dropping unreadable queued review {}", file, ex);
+          Files.deleteIfExists(file);
+        }
+      }
+    } catch (IOException ex) {
+      logger.warn("Failed to read queued reviews from {}", queueDir, ex);
+    }
+    return tasks;
+  }
+
+  private Path taskFile(String changeId) {
+    return queueDir.resolve(changeId + TASK_SUFFIX);
+  }
+
+  /** One automatic review; public fields are persisted as JSON. */
+  public static class Task {
+    public String id;
+    public String changeId;
+    public String project;
+    public String branch;
+    public int patchset;
+    public String revisionId;
+    /** Account the review runs and posts as; 0 runs as the internal user. */
+    public int accountId;
+    public String agent;
+    public String model;
+    public String prompt;
+    public long enqueuedAt;
+
+    private transient volatile boolean cancelled;
+    private transient volatile boolean running;
+
+    String sessionId() {
+      return "auto-review-" + id;
+    }
+  }
+}
@@ -0,0 +1,970 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexBatchReviewInput;
+import com.codex.gerrit.rest.CodexChatInput;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.client.ListChangesOption;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reviews of many changes of one project, e.g. all open changes of a branch before a release.
+ *
+ * <p>The change query runs as the caller when the batch is submitted. The changes are then
+ * reviewed in the background on the {@code Codex-Batch-Review} queue, as the caller and at {@link
+ * CodexPriority#BATCH}, at most {@code concurrency} of them at a time. Before the first review the
+ * files of every change are resolved to blob ids, so that a file several changes share is read
+ * from the repository once and handed to every review that needs it; shared contents are kept
+ * until the last of their changes is reviewed, within {@link #SHARED_FILES_BYTES} leased from the
+ * {@link CodexMemoryBudget}. A change refused by the caller's rate limits goes back to the queue,
+ * and its worker waits until the limit allows the next request instead of failing the rest.
+ *
+ * <p>Progress is a numbered list of per-change events which clients read from a cursor. Batches
+ * are kept in memory only: they end when Gerrit stops and are forgotten {@link #RETENTION_MS}
+ * after they finish.
+ */
+@Singleton
+public class CodexBatchReview implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexBatchReview.class);
+  private static final String QUEUE_NAME = "Codex-Batch-Review";
+  private static final long RETENTION_MS = TimeUnit.HOURS.toMillis(1);
+  private static final long SHARED_FILES_BYTES = 8L * 1024 * 1024;
+  /** Enough UTF-8 bytes for {@link CodexContextFileLoader#MAX_CONTEXT_FILE_CHARS} characters. */
+  private static final int READ_LIMIT_BYTES = 4 * CodexContextFileLoader.MAX_CONTEXT_FILE_CHARS;
+  public static final long MAX_WAIT_MS = 30_000;
+
+  private final CodexGerritConfig config;
+  private final GerritApi gerritApi;
+  private final GitRepositoryManager repoManager;
+  private final CodexRevisionResolver revisionResolver;
+  private final CodexRevisionFileCache fileCache;
+  private final CodexMemoryBudget memoryBudget;
+  private final CodexPromptBuilder promptBuilder;
+  private final CodexAgentClient agentClient;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final CodexReviewPoster reviewPoster;
+  private final CodexInFlightRegistry inFlight;
+  private final OneOffRequestContext requestContext;
+  private final WorkQueue workQueue;
+  private final ConcurrentMap<String, Batch> batches = new ConcurrentHashMap<>();
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  CodexBatchReview(
+      CodexGerritConfig config,
+      GerritApi gerritApi,
+      GitRepositoryManager repoManager,
+      CodexRevisionResolver revisionResolver,
+      CodexRevisionFileCache fileCache,
+      CodexMemoryBudget memoryBudget,
+      CodexPromptBuilder promptBuilder,
+      CodexAgentClient agentClient,
+      CodexPools pools,
+      CodexUsage usage,
+      CodexReviewPoster reviewPoster,
+      CodexInFlightRegistry inFlight,
+      OneOffRequestContext requestContext,
+      WorkQueue workQueue) {
+    this.config = config;
+    this.gerritApi = gerritApi;
+    this.repoManager = repoManager;
+    this.revisionResolver = revisionResolver;
+    this.fileCache = fileCache;
+    this.memoryBudget = memoryBudget;
+    this.promptBuilder = promptBuilder;
+    this.agentClient = agentClient;
+    this.pools = pools;
+    this.usage = usage;
+    this.reviewPoster = reviewPoster;
+    this.inFlight = inFlight;
+    this.requestContext = requestContext;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.getBatchReviewThreads(), QUEUE_NAME);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    for (Batch batch : batches.values()) {
+      batch.cancel("Gerrit is stopping");
+    }
+    if (current != null) {
+      current.shutdownNow();
+    }
+    batches.clear();
+  }
+
+  /**
+   * Queries the changes of {@code project}, optionally only of {@code branch}, as the caller and
+   * queues their review. Must be called in the request context of {@code account}.
+   */
+  public Status submit(
+      Project.NameKey project, String branch, Account.Id account, CodexBatchReviewInput input)
+      throws RestApiException {
+    String template = input.prompt == null ? "" : input.prompt.trim();
+    if (template.isEmpty()) {
+      throw new BadRequestException("prompt is required");
+    }
+    int maxChanges = config.getBatchReviewMaxChanges();
+    int limit = input.limit == null ? maxChanges : input.limit;
+    if (limit <= 0 || limit > maxChanges) {
+      throw new BadRequestException("limit must be between 1 and " + maxChanges);
+    }
+    int concurrency =
+        input.concurrency == null ? config.getBatchReviewConcurrency() : input.concurrency;
+    if (concurrency <= 0) {
+      throw new BadRequestException("concurrency must be > 0");
+    }
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      throw new ResourceConflictException("Batch review queue is not running");
+    }
+    sweep();
+
+    String query = query(project, branch, input.query);
+    List<ChangeInfo> changes =
+        gerritApi
+            .changes()
+            .query(query)
+            .withLimit(limit)
+            .withOptions(ListChangesOption.CURRENT_REVISION, ListChangesOption.DETAILED_ACCOUNTS)
+            .get();
+    Batch batch =
+        new Batch(
+            UUID.randomUUID().toString(),
+            project,
+            branch,
+            account,
+            query,
+            template,
+            input.agent == null || input.agent.trim().isEmpty()
+                ? null
+                : config.normalizeAgentOrDefault(input.agent),
+            input.model,
+            input.post == null || input.post,
+            Math.min(concurrency, config.getBatchReviewConcurrency()),
+            changes);
+    batches.put(batch.id, batch);
+    logger.info(
+        "Batch review {} of {} changes submitted by account {}: {}",
+        batch.id,
+        changes.size(),
+        account.get(),
+        query);
+    if (batch.items.isEmpty()) {
+      batch.started();
+      return batch.status(0, true);
+    }
+    try {
+      current.execute(() -> plan(batch));
+    } catch (RejectedExecutionException ex) {
+      batch.fail("batch review queue is not running");
+    }
+    return batch.status(0, true);
+  }
+
+  /**
+   * Status of a batch of {@code account} with the events after {@code since}. Waits up to {@code
+   * waitMs} for a new event if there is none yet.
+   */
+  public Status status(
+      String id, Project.NameKey project, Account.Id account, long since, long waitMs)
+      throws RestApiException {
+    Batch batch = find(id, project, account);
+    try {
+      batch.await(since, Math.min(waitMs, MAX_WAIT_MS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return batch.status(since, true);
+  }
+
+  /** The batches of {@code account} on {@code project}, newest first, without their changes. */
+  public List<Status> list(Project.NameKey project, Account.Id account) {
+    sweep();
+    List<Status> result = new ArrayList<>();
+    batches.values().stream()
+        .filter(b -> b.project.equals(project) && b.account.equals(account))
+        .sorted(Comparator.comparingLong((Batch b) -> b.createdAt).reversed())
+        .forEach(b -> result.add(b.status(Long.MAX_VALUE, false)));
+    return result;
+  }
+
+  /** Cancels a batch: queued changes are dropped and running reviews are stopped. */
+  public Status cancel(String id, Project.NameKey project, Account.Id account)
+      throws RestApiException {
+    Batch batch = find(id, project, account);
+    for (String sessionId : batch.cancel("cancelled by user")) {
+      inFlight.cancel(sessionId, "batch review cancelled");
+      // Stopping the upstream session may block; the caller only waits for the local cancel.
+      workQueue
+          .getDefaultQueue()
+          .execute(
+              () -> {
+                try {
+                  agentClient.stopSession(sessionId);
+                } catch (RestApiException ex) {
+                  logger.debug("Failed to stop session {}", sessionId, ex);
+                }
+              });
+    }
+    logger.info("Batch review {} cancelled by account {}", batch.id, account.get());
+    return batch.status(Long.MAX_VALUE, true);
+  }
+
+  private Batch find(String id, Project.NameKey project, Account.Id account)
+      throws RestApiException {
+    String normalizedId = id == null ? "" : id.trim();
+    if (normalizedId.isEmpty()) {
+      throw new BadRequestException("id is required");
+    }
+    Batch batch = batches.get(normalizedId);
+    if (batch == null || !batch.project.equals(project) || !batch.account.equals(account)) {
+      throw new ResourceNotFoundException("Batch review " + normalizedId + " not found");
+    }
+    return batch;
+  }
+
+  private void sweep() {
+    long before = System.currentTimeMillis() - RETENTION_MS;
+    batches.values().removeIf(b -> b.finishedAt > 0 && b.finishedAt < before);
+  }
+
+  /** Resolves the files of every change to blobs, then starts the reviews. */
+  @SuppressWarnings("try")
+  private void plan(Batch batch) {
+    try (ManualRequestContext ctx = requestContext.openAs(batch.account);
+        Repository repo = repoManager.openRepository(batch.project);
+        ObjectReader reader = repo.newObjectReader();
+        RevWalk rw = new RevWalk(reader)) {
+      batch.hold(
+          memoryBudget.acquire(SHARED_FILES_BYTES, "shared files of batch review " + batch.id));
+      for (Item item : batch.items) {
+        if (batch.cancelled) {
+          break;
+        }
+        try {
+          planItem(batch, item, reader, rw);
+        } catch (RestApiException | IOException | RuntimeException ex) {
+          logger.warn("Cannot list files of change {} for batch {}", item.number, batch.id, ex);
+          batch.complete(item, State.FAILED, "cannot list files: " + ex.getMessage());
+        }
+      }
+      batch.uniqueFiles = batch.blobUsers.size();
+    } catch (RestApiException | IOException | RuntimeException ex) {
+      logger.warn("Batch review {} failed", batch.id, ex);
+      batch.fail(ex.getMessage());
+      return;
+    }
+    batch.started();
+    for (int worker = 0; worker < batch.concurrency; worker++) {
+      scheduleNext(batch);
+    }
+  }
+
+  private void planItem(Batch batch, Item item, ObjectReader reader, RevWalk rw)
+      throws RestApiException, IOException {
+    if (item.revision == null || !ObjectId.isId(item.revision)) {
+      throw new ResourceConflictException("current revision is unknown");
+    }
+    CodexRevisionFiles files =
+        fileCache.get(revisionResolver.resolve(String.valueOf(item.number), item.revision));
+    item.pathIndex = files.mentionIndex();
+    List<String> paths = item.pathIndex.paths();
+    if (paths.size() > config.getMaxFiles()) {
+      paths = paths.subList(0, config.getMaxFiles());
+    }
+    if (paths.isEmpty()) {
+      return;
+    }
+    try (TreeWalk tw = new TreeWalk(reader)) {
+      tw.addTree(rw.parseCommit(ObjectId.fromString(item.revision)).getTree());
+      tw.setRecursive(true);
+      tw.setFilter(PathFilterGroup.createFromStrings(paths));
+      while (tw.next()) {
+        int mode = tw.getRawMode(0);
+        if (mode != FileMode.REGULAR_FILE.getBits()
+            && mode != FileMode.EXECUTABLE_FILE.getBits()) {
+          continue;
+        }
+        ObjectId blob = tw.getObjectId(0).copy();
+        long size = reader.getObjectSize(blob, Constants.OBJ_BLOB);
+        item.files.add(new FileRef(tw.getPathString(), blob, size));
+        batch.share(blob);
+      }
+    }
+  }
+
+  private void scheduleNext(Batch batch) {
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.execute(() -> runNext(batch));
+    } catch (RejectedExecutionException ex) {
+      logger.warn("Batch review queue rejected batch {}", batch.id, ex);
+    }
+  }
+
+  /** Reviews the next queued change, then requeues itself so that batches share the threads. */
+  private void runNext(Batch batch) {
+    Item item = batch.next();
+    if (item == null) {
+      return;
+    }
+    long retryAfterSeconds = 0;
+    try {
+      retryAfterSeconds = review(batch, item);
+    } finally {
+      if (retryAfterSeconds > 0) {
+        retryLater(batch, item, retryAfterSeconds);
+      } else {
+        batch.release(item);
+        scheduleNext(batch);
+      }
+    }
+  }
+
+  /** Takes the worker off the batch until the rate limit allows {@code item} again. */
+  private void retryLater(Batch batch, Item item, long retryAfterSeconds) {
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      return;
+    }
+    try {
+      current.schedule(
+          () -> {
+            batch.retry(item);
+            runNext(batch);
+          },
+          retryAfterSeconds,
+          TimeUnit.SECONDS);
+    } catch (RejectedExecutionException ex) {
+      logger.warn("Batch review queue rejected batch {}", batch.id, ex);
+    }
+  }
+
+  /**
+   * Reviews one change. Returns the seconds to wait before trying it again if the rate limits
+   * refused it, else 0.
+   */
+  @SuppressWarnings("try")
+  private long review(Batch batch, Item item) {
+    String sessionId = batch.sessionId(item);
+    long startedAt = System.nanoTime();
+    try (ManualRequestContext ctx = requestContext.openAs(batch.account);
+        CodexInFlightRegistry.Operation operation = inFlight.register(sessionId, false)) {
+      CodexUsage.Charge charge;
+      try {
+        charge = usage.admit(batch.account, batch.project);
+      } catch (CodexUsage.LimitExceededException ex) {
+        long retryAfterSeconds = ex.retryAfterSeconds();
+        batch.requeue(item, "rate limited; retry in " + retryAfterSeconds + " s");
+        return retryAfterSeconds;
+      }
+      String reply;
+      try (CodexMemoryBudget.Lease lease =
+          memoryBudget.acquire(item.contextBytes(), "batch review of change " + item.number)) {
+        List<CodexAgentClient.ContextFile> contextFiles = load(batch, item);
+        CodexChatInput input = new CodexChatInput();
+        input.prompt = render(batch.template, item.change);
+        input.mode = "review";
+        input.contextFiles = new ArrayList<>();
+        for (CodexAgentClient.ContextFile file : contextFiles) {
+          input.contextFiles.add(file.path);
+        }
+        CodexPool pool =
+            pools.route(
+                batch.project, item.change.branch, batch.agent, CodexPriority.BATCH, batch.account);
+        try (CodexOutputBuffer output =
+            agentClient.runOutput(
+                pool,
+                promptBuilder.buildPrompt(item.change, input),
+                batch.model,
+                batch.agent,
+                sessionId,
+                contextFiles)) {
+          charge.tokens(output.tokens());
+          item.tokens = output.tokens();
+          reply = output.fullText().trim();
+        }
+      }
+      item.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+      if (batch.cancelled) {
+        batch.complete(item, State.CANCELLED, batch.cancelReason);
+        return 0;
+      }
+      if (batch.post
+          && !reviewPoster.submit(
+              sessionId,
+              batch.account,
+              String.valueOf(item.number),
+              item.revision,
+              reply,
+              "review",
+              item.pathIndex)) {
+        // Keep the reply in the status so that it is not lost with the post.
+        item.reply = reply;
+        batch.complete(item, State.FAILED, "review could not be queued for posting");
+        return 0;
+      }
+      if (!batch.post) {
+        item.reply = reply;
+      }
+      batch.complete(item, State.DONE, null);
+    } catch (RestApiException | IOException | RuntimeException ex) {
+      item.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+      if (batch.cancelled) {
+        batch.complete(item, State.CANCELLED, batch.cancelReason);
+        return 0;
+      }
+      logger.warn("Batch review {} of change {} failed", batch.id, item.number, ex);
+      batch.complete(item, State.FAILED, ex.getMessage());
+    }
+    return 0;
+  }
+
+  /** Context files of one change; shared blobs come from the batch instead of the repository. */
+  private List<CodexAgentClient.ContextFile> load(Batch batch, Item item) throws IOException {
+    List<CodexAgentClient.ContextFile> loaded = new ArrayList<>(item.files.size());
+    try (Repository repo = repoManager.openRepository(batch.project);
+        ObjectReader reader = repo.newObjectReader()) {
+      for (FileRef file : item.files) {
+        if (Thread.currentThread().isInterrupted()) {
+          break;
+        }
+        String content = batch.content(file.blob, reader);
+        if (!content.isEmpty()) {
+          loaded.add(new CodexAgentClient.ContextFile(file.path, content));
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Heap held while reading a blob of {@code size} bytes as context: the bytes read, plus the text
+   * kept, at two bytes per UTF-16 character.
+   */
+  private static long heldBytes(long size) {
+    return Math.min(size, READ_LIMIT_BYTES)
+        + 2 * Math.min(size, CodexContextFileLoader.MAX_CONTEXT_FILE_CHARS);
+  }
+
+  /** Reads a blob as context text; binary files read as empty. */
+  private static String readText(ObjectReader reader, ObjectId blob) throws IOException {
+    byte[] bytes;
+    try (InputStream in = reader.open(blob, Constants.OBJ_BLOB).openStream()) {
+      bytes = in.readNBytes(READ_LIMIT_BYTES);
+    }
+    if (RawText.isBinary(bytes)) {
+      return "";
+    }
+    return CodexContextFileLoader.truncate(new String(bytes, StandardCharsets.UTF_8));
+  }
+
+  static String query(Project.NameKey project, String branch, String query) {
+    StringBuilder builder = new StringBuilder("project:").append(quote(project.get()));
+    if (branch != null && !branch.isEmpty()) {
+      builder.append(" branch:").append(quote(branch));
+    }
+    String filter = query == null || query.trim().isEmpty() ? "status:open" : query.trim();
+    return builder.append(" (").append(filter).append(')').toString();
+  }
+
+  private static String quote(String value) {
+    return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+  }
+
+  /** Fills the {@code ${...}} placeholders of a prompt template. */
+  static String render(String template, ChangeInfo change) {
+    return template
+        .replace("${change}", String.valueOf(change._number))
+        .replace("${project}", safe(change.project))
+        .replace("${branch}", safe(change.branch))
+        .replace("${subject}", safe(change.subject))
+        .replace("${owner}", owner(change));
+  }
+
+  private static String owner(ChangeInfo change) {
+    if (change.owner == null) {
+      return "";
+    }
+    if (change.owner.name != null) {
+      return change.owner.name;
+    }
+    return change.owner.email != null ? change.owner.email : safe(change.owner.username);
+  }
+
+  private static String safe(String value) {
+    return value == null ? "" : value;
+  }
+
+  private enum State {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+    CANCELLED;
+
+    boolean isFinal() {
+      return this != QUEUED && this != RUNNING;
+    }
+  }
+
+  private static final class FileRef {
+    final String path;
+    final ObjectId blob;
+    final long size;
+
+    FileRef(String path, ObjectId blob, long size) {
+      this.path = path;
+      this.blob = blob;
+      this.size = size;
+    }
+  }
+
+  private static final class Item {
+    final ChangeInfo change;
+    final int number;
+    final String revision;
+    final List<FileRef> files = new ArrayList<>();
+    CodexPathIndex pathIndex;
+    volatile State state = State.QUEUED;
+    volatile String message;
+    volatile long tokens;
+    volatile long durationMs;
+    volatile String reply;
+
+    Item(ChangeInfo change) {
+      this.change = change;
+      this.number = change._number;
+      this.revision = change.currentRevision;
+    }
+
+    /** Heap a review of the change holds for its files; see {@link #heldBytes}. */
+    long contextBytes() {
+      long bytes = 0;
+      for (FileRef file : files) {
+        bytes += heldBytes(file.size);
+      }
+      return bytes;
+    }
+
+    Change toChange() {
+      Change result = new Change();
+      result.change = number;
+      result.subject = change.subject;
+      result.branch = change.branch;
+      result.state = state.name();
+      result.message = message;
+      result.files = files.size();
+      if (state.isFinal() && durationMs > 0) {
+        result.tokens = tokens;
+        result.durationMs = durationMs;
+      }
+      result.reply = reply;
+      return result;
+    }
+  }
+
+  private static final class Batch {
+    final String id;
+    final Project.NameKey project;
+    final String branch;
+    final Account.Id account;
+    final String query;
+    final String template;
+    final String agent;
+    final String model;
+    final boolean post;
+    final int concurrency;
+    final long createdAt = System.currentTimeMillis();
+    final List<Item> items = new ArrayList<>();
+    /** Changes of the batch that still need each blob. */
+    final ConcurrentMap<ObjectId, AtomicInteger> blobUsers = new ConcurrentHashMap<>();
+    final Cache<ObjectId, String> sharedFiles =
+        CacheBuilder.newBuilder()
+            .maximumWeight(SHARED_FILES_BYTES)
+            .<ObjectId, String>weigher((blob, content) -> 2 * content.length())
+            .build();
+    final AtomicInteger filesRead = new AtomicInteger();
+    final AtomicInteger filesReused = new AtomicInteger();
+    /** Distinct blobs once planned; {@link #blobUsers} empties as changes are reviewed. */
+    volatile int uniqueFiles;
+    private final List<Event> events = new ArrayList<>();
+    private final Deque<Item> queue = new ArrayDeque<>();
+    private String state = "PLANNING";
+    volatile boolean cancelled;
+    volatile String cancelReason;
+    volatile long finishedAt;
+    private CodexMemoryBudget.Lease sharedLease;
+
+    Batch(
+        String id,
+        Project.NameKey project,
+        String branch,
+        Account.Id account,
+        String query,
+        String template,
+        String agent,
+        String model,
+        boolean post,
+        int concurrency,
+        List<ChangeInfo> changes) {
+      this.id = id;
+      this.project = project;
+      this.branch = branch;
+      this.account = account;
+      this.query = query;
+      this.template = template;
+      this.agent = agent;
+      this.model = model;
+      this.post = post;
+      this.concurrency = concurrency;
+      for (ChangeInfo change : changes) {
+        items.add(new Item(change));
+      }
+      queue.addAll(items);
+    }
+
+    String sessionId(Item item) {
+      return "batch-review-" + id + "-" + item.number;
+    }
+
+    void share(ObjectId blob) {
+      blobUsers.computeIfAbsent(blob, b -> new AtomicInteger()).incrementAndGet();
+    }
+
+    String content(ObjectId blob, ObjectReader reader) throws IOException {
+      boolean[] read = new boolean[1];
+      try {
+        String content =
+            sharedFiles.get(
+                blob,
+                () -> {
+                  read[0] = true;
+                  return readText(reader, blob);
+                });
+        (read[0] ? filesRead : filesReused).incrementAndGet();
+        return content;
+      } catch (ExecutionException ex) {
+        if (ex.getCause() instanceof IOException) {
+          throw (IOException) ex.getCause();
+        }
+        throw new IOException(ex.getCause());
+      }
+    }
+
+    /** Drops the shared content a reviewed change held once no other change needs it. */
+    void release(Item item) {
+      for (FileRef file : item.files) {
+        AtomicInteger users = blobUsers.get(file.blob);
+        if (users != null && users.decrementAndGet() <= 0) {
+          sharedFiles.invalidate(file.blob);
+        }
+      }
+    }
+
+    /** Keeps the lease of the shared files until the batch finishes. */
+    synchronized void hold(CodexMemoryBudget.Lease lease) {
+      if (finishedAt > 0) {
+        lease.close();
+      } else {
+        sharedLease = lease;
+      }
+    }
+
+    synchronized void started() {
+      if (!cancelled && finishedAt == 0) {
+        state = "RUNNING";
+        completeIfIdle();
+      }
+    }
+
+    /** Takes the next queued change and marks it running; null once there is none. */
+    synchronized Item next() {
+      while (!cancelled && !queue.isEmpty()) {
+        Item item = queue.poll();
+        if (item.state == State.QUEUED) {
+          item.state = State.RUNNING;
+          item.message = null;
+          record(item, null);
+          return item;
+        }
+      }
+      return null;
+    }
+
+    /** Puts a running change back to queued until {@link #retry} makes it the next one taken. */
+    synchronized void requeue(Item item, String message) {
+      if (item.state != State.RUNNING) {
+        return;
+      }
+      if (cancelled) {
+        complete(item, State.CANCELLED, cancelReason);
+        return;
+      }
+      item.state = State.QUEUED;
+      item.message = message;
+      record(item, message);
+    }
+
+    synchronized void retry(Item item) {
+      if (item.state == State.QUEUED) {
+        queue.addFirst(item);
+      }
+    }
+
+    synchronized void complete(Item item, State state, String message) {
+      if (item.state.isFinal()) {
+        return;
+      }
+      item.state = state;
+      item.message = message;
+      record(item, message);
+      if (!"PLANNING".equals(this.state)) {
+        completeIfIdle();
+      }
+    }
+
+    /** Marks queued changes cancelled; returns the sessions of the running ones. */
+    synchronized List<String> cancel(String reason) {
+      List<String> running = new ArrayList<>();
+      if (finishedAt > 0) {
+        return running;
+      }
+      cancelReason = reason;
+      cancelled = true;
+      for (Item item : items) {
+        if (item.state == State.QUEUED) {
+          item.state = State.CANCELLED;
+          item.message = reason;
+          record(item, reason);
+        } else if (item.state == State.RUNNING) {
+          running.add(sessionId(item));
+        }
+      }
+      state = "CANCELLED";
+      completeIfIdle();
+      return running;
+    }
+
+    synchronized void fail(String message) {
+      for (Item item : items) {
+        if (!item.state.isFinal()) {
+          item.state = State.FAILED;
+          item.message = message;
+          record(item, message);
+        }
+      }
+      finish("FAILED");
+    }
+
+    private void completeIfIdle() {
+      for (Item item : items) {
+        if (!item.state.isFinal()) {
+          return;
+        }
+      }
+      finish(cancelled ? "CANCELLED" : "DONE");
+    }
+
+    private void finish(String finalState) {
+      if (finishedAt > 0) {
+        return;
+      }
+      state = finalState;
+      finishedAt = System.currentTimeMillis();
+      sharedFiles.invalidateAll();
+      blobUsers.clear();
+      if (sharedLease != null) {
+        sharedLease.close();
+      }
+      notifyAll();
+    }
+
+    private void record(Item item, String message) {
+      Event event = new Event();
+      event.seq = events.size() + 1;
+      event.change = item.number;
+      event.state = item.state.name();
+      event.message = message;
+      event.at = System.currentTimeMillis();
+      events.add(event);
+      notifyAll();
+    }
+
+    synchronized void await(long since, long waitMs) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + waitMs;
+      while (events.size() <= since && finishedAt == 0) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          return;
+        }
+        wait(remaining);
+      }
+    }
+
+    synchronized Status status(long since, boolean detailed) {
+      Status status = new Status();
+      status.id = id;
+      status.project = project.get();
+      status.branch = branch;
+      status.query = query;
+      status.state = state;
+      status.createdAt = createdAt;
+      status.finishedAt = finishedAt > 0 ? finishedAt : null;
+      status.total = items.size();
+      status.uniqueFiles = uniqueFiles;
+      status.filesRead = filesRead.get();
+      status.filesReused = filesReused.get();
+      for (Item item : items) {
+        status.referencedFiles += item.files.size();
+        switch (item.state) {
+          case QUEUED:
+            status.queued++;
+            break;
+          case RUNNING:
+            status.running++;
+            break;
+          case DONE:
+            status.done++;
+            break;
+          case FAILED:
+            status.failed++;
+            break;
+          case CANCELLED:
+            status.cancelled++;
+            break;
+        }
+      }
+      status.next = events.size();
+      if (detailed) {
+        status.changes = new ArrayList<>(items.size());
+        for (Item item : items) {
+          status.changes.add(item.toChange());
+        }
+        int from = (int) Math.max(0, Math.min(since, events.size()));
+        status.events = new ArrayList<>(events.subList(from, events.size()));
+      }
+      return status;
+    }
+  }
+
+  /** One batch; {@code changes} and {@code events} are omitted from listings. */
+  public static class Status {
+    public String id;
+    public String project;
+    public String branch;
+    public String query;
+    /** {@code PLANNING}, {@code RUNNING}, {@code DONE}, {@code CANCELLED} or {@code FAILED}. */
+    public String state;
+    /** Epoch milliseconds. */
+    public long createdAt;
+    public Long finishedAt;
+    public int total;
+    public int queued;
+    public int running;
+    public int done;
+    public int failed;
+    public int cancelled;
+    /** Context files over all changes, and the distinct blobs among them. */
+    public int referencedFiles;
+    public int uniqueFiles;
+    /** Blobs read from the repository, and context files served from a shared read instead. */
+    public int filesRead;
+    public int filesReused;
+    /** Cursor to pass as {@code since} to receive only newer events. */
+    public long next;
+    public List<Change> changes;
+    public List<Event> events;
+  }
+
+  public static class Change {
+    public int change;
+    public String subject;
+    public String branch;
+    /** {@code QUEUED}, {@code RUNNING}, {@code DONE}, {@code FAILED} or {@code CANCELLED}. */
+    public String state;
+    public String message;
+    public int files;
+    public Long tokens;
+    public Long durationMs;
+    /** The reply, unless it was posted as a review. */
+    public String reply;
+  }
+
+  /** A change entering a state; {@code seq} counts from 1. */
+  public static class Event {
+    public long seq;
+    public int change;
+    public String state;
+    public String message;
+    /** Epoch milliseconds. */
+    public long at;
+  }
+}
@@ -0,0 +1,345 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexBranchInsightConfig;
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexInsightInput;
+import com.codex.gerrit.rest.CodexInsightResponse;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precomputes {@code #insight} for branch heads of projects that set {@code insightPrecompute}.
+ *
+ * <p>A branch update is acted on once the branch has been quiet for {@code
+ * insightPrecomputeDelaySeconds}, so a burst of submits costs one run. Runs go through {@link
+ * CodexInsightCache} on a pool of {@code insightPrecomputeThreads}, which leaves every module of
+ * the branch in that cache: {@code #insight} on a change then only runs the modules the change
+ * touches. The result is also stored as {@code <tree-id>.json} under {@code
+ * <plugin-data>/insight-branch}, so a revision whose tree equals a precomputed one is answered
+ * without reading its files. Results unused for {@link #RETENTION_DAYS} days are deleted.
+ */
+@Singleton
+public class CodexBranchInsight implements GitReferenceUpdatedListener, LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexBranchInsight.class);
+  private static final String QUEUE_NAME = "Codex-Insight-Precompute";
+  private static final String BRANCH_PREFIX = "refs/heads/";
+  private static final long RETENTION_DAYS = 7;
+  private static final long SWEEP_INTERVAL_HOURS = 6;
+
+  private final CodexGerritConfig config;
+  private final CodexBranchInsightConfig branchConfig;
+  private final CodexSourceReader sourceReader;
+  private final CodexInsightCache insightCache;
+  private final CodexPools pools;
+  private final CodexUsage usage;
+  private final CodexInsightArtifactStore artifactStore;
+  private final WorkQueue workQueue;
+  private final Path resultDir;
+  private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+  private volatile ScheduledExecutorService executor;
+  private volatile ScheduledFuture<?> sweeper;
+
+  @Inject
+  CodexBranchInsight(
+      CodexGerritConfig config,
+      CodexBranchInsightConfig branchConfig,
+      CodexSourceReader sourceReader,
+      CodexInsightCache insightCache,
+      CodexPools pools,
+      CodexUsage usage,
+      CodexInsightArtifactStore artifactStore,
+      WorkQueue workQueue,
+      @PluginData Path pluginData) {
+    this.config = config;
+    this.branchConfig = branchConfig;
+    this.sourceReader = sourceReader;
+    this.insightCache = insightCache;
+    this.pools = pools;
+    this.usage = usage;
+    this.artifactStore = artifactStore;
+    this.workQueue = workQueue;
+    this.resultDir = pluginData.resolve("insight-branch");
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.getInsightPrecomputeThreads(), QUEUE_NAME);
+    sweeper =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(this::sweep, 0, SWEEP_INTERVAL_HOURS, TimeUnit.HOURS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> currentSweeper = sweeper;
+    sweeper = null;
+    if (currentSweeper != null) {
+      currentSweeper.cancel(false);
+    }
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+    pending.clear();
+  }
+
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    String ref = event.getRefName();
+    if (ref == null || !ref.startsWith(BRANCH_PREFIX) || event.isDelete()) {
+      return;
+    }
+    Project.NameKey project = Project.nameKey(event.getProjectName());
+    CodexBranchInsightConfig.Settings settings = branchConfig.settingsFor(project);
+    if (settings == null || !settings.precomputes(ref)) {
+      return;
+    }
+    schedule(project, ref, ObjectId.fromString(event.getNewObjectId()));
+  }
+
+  /** (Re)starts the quiet period of {@code ref}; only its latest head is computed. */
+  private void schedule(Project.NameKey project, String ref, ObjectId commit) {
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      return;
+    }
+    String key = project.get() + ":" + ref;
+    Pending next = new Pending(project, ref, commit);
+    Pending previous = pending.put(key, next);
+    if (previous != null && previous.future != null) {
+      previous.future.cancel(false);
+    }
+    try {
+      next.future =
+          current.schedule(
+              () -> {
+                if (pending.remove(key, next)) {
+                  precompute(next);
+                }
+              },
+              config.getInsightPrecomputeDelaySeconds(),
+              TimeUnit.SECONDS);
+    } catch (RejectedExecutionException ex) {
+      pending.remove(key, next);
+      logger.warn("Insight precompute queue rejected {} {}", project, ref, ex);
+    }
+  }
+
+  private void precompute(Pending task) {
+    CodexBranchInsightConfig.Settings settings = branchConfig.settingsFor(task.project);
+    if (settings == null || !settings.precomputes(task.ref)) {
+      return;
+    }
+    try {
+      ObjectId tree = sourceReader.treeOf(task.project, task.commit);
+      Path file = resultFile(tree);
+      Result existing = readResult(file);
+      if (existing != null
+          && Objects.equals(existing.include, settings.include)
+          && Objects.equals(existing.exclude, settings.exclude)) {
+        touch(file);
+        return;
+      }
+
+      CodexInsightResponse response;
+      int sourceFiles;
+      long started = System.currentTimeMillis();
+      try (CodexSourceReader.Sources sources =
+          sourceReader.read(task.project, task.commit, settings.include, settings.exclude)) {
+        if (sources.files.isEmpty()) {
+          return;
+        }
+        sourceFiles = sources.files.size();
+        CodexInsightInput input = new CodexInsightInput();
+        input.include = settings.include;
+        input.exclude = settings.exclude;
+        input.files = sources.toInsightFiles();
+        response =
+            insightCache.run(
+                task.project,
+                pools.route(task.project, task.ref, null, CodexPriority.BATCH, null),
+                input);
+      }
+      usage.charge(task.project).usage(response.usage);
+      if (response.exitCode != 0) {
+        logger.warn(
+            "Insight precompute of {} {} exited with {}",
+            task.project,
+            task.ref,
+            response.exitCode);
+        return;
+      }
+
+      Result result = new Result();
+      result.project = task.project.get();
+      result.branch = task.ref;
+      result.commit = task.commit.name();
+      result.include = settings.include;
+      result.exclude = settings.exclude;
+      result.files = new ArrayList<>();
+      for (CodexInsightResponse.GeneratedFile generated : response.files) {
+        CodexInsightResponse.GeneratedFile stored =
+            new CodexInsightResponse.GeneratedFile(generated.path, null);
+        stored.sha256 = generated.sha256;
+        stored.size = generated.size;
+        result.files.add(stored);
+      }
+      CodexJsonFiles.write(file, result);
+      logger.info(
+          "Precomputed insight of {} {} at {} ({} files, {} reused modules) in {} ms",
+          task.project,
+          task.ref,
+          task.commit.name(),
+          sourceFiles,
+          response.reusedModules == null ? 0 : response.reusedModules.size(),
+          System.currentTimeMillis() - started);
+    } catch (IOException | RestApiException | RuntimeException ex) {
+      if (executor != null) {
+        logger.warn("Insight precompute of {} {} failed", task.project, task.ref, ex);
+      }
+    }
+  }
+
+  /**
+   * Returns the precomputed insight of {@code tree} in {@code project} if {@code input} asks for
+   * nothing beyond the project's defaults, or null. Every listed artifact must still exist.
+   */
+  public CodexInsightResponse lookup(
+      Project.NameKey project, ObjectId tree, CodexInsightInput input) {
+    if (Boolean.TRUE.equals(input.dryRun)
+        || Boolean.TRUE.equals(input.refresh)
+        || (input.outPath != null && !input.outPath.trim().isEmpty())
+        || input.maxFilesPerModule != null
+        || input.maxCharsPerFile != null
+        || (input.env != null && !input.env.isEmpty())) {
+      return null;
+    }
+    Path file = resultFile(tree);
+    Result result = readResult(file);
+    if (result == null
+        || !project.get().equals(result.project)
+        || !Objects.equals(result.include, input.include)
+        || !Objects.equals(result.exclude, input.exclude)) {
+      return null;
+    }
+    for (CodexInsightResponse.GeneratedFile generated : result.files) {
+      if (!artifactStore.touch(project, generated.sha256)) {
+        return null;
+      }
+    }
+    touch(file);
+    CodexInsightResponse response = new CodexInsightResponse();
+    response.files.addAll(result.files);
+    response.count = response.files.size();
+    response.cached = true;
+    response.precomputedBranch = result.branch;
+    return response;
+  }
+
+  private Result readResult(Path file) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try {
+      Result result = CodexJsonFiles.read(file, Result.class);
+      return result != null && result.files != null ? result : null;
+    } catch (IOException ex) {
+      logger.warn("Ignoring unreadable precomputed insight {}", file, ex);
+      return null;
+    }
+  }
+
+  private Path resultFile(ObjectId tree) {
+    return resultDir.resolve(tree.name() + ".json");
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException ex) {
+      logger.debug("Failed to touch {}", file, ex);
+    }
+  }
+
+  private void sweep() {
+    if (!Files.isDirectory(resultDir)) {
+      return;
+    }
+    long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(resultDir)) {
+      for (Path file : files) {
+        try {
+          if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+            Files.deleteIfExists(file);
+          }
+        } catch (IOException ex) {
+          logger.warn("Failed to expire precomputed insight {}", file, ex);
+        }
+      }
+    } catch (IOException ex) {
+      logger.warn("Failed to sweep precomputed insight in {}", resultDir, ex);
+    }
+  }
+
+  private static class Pending {
+    private final Project.NameKey project;
+    private final String ref;
+    private final ObjectId commit;
+    private volatile ScheduledFuture<?> future;
+
+    private Pending(Project.NameKey project, String ref, ObjectId commit) {
+      this.project = project;
+      this.ref = ref;
+      this.commit = commit;
+    }
+  }
+
+  /** Precomputed insight of one tree, persisted as JSON. */
+  static class Result {
+    String project;
+    String branch;
+    String commit;
+    List<String> include;
+    List<String> exclude;
+    List<CodexInsightResponse.GeneratedFile> files;
+  }
+}
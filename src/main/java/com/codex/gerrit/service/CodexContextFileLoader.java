@@ -0,0 +1,108 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Reads revision files as agent context, bounded per file. */
+public final class CodexContextFileLoader {
+  private static final Logger logger = LoggerFactory.getLogger(CodexContextFileLoader.class);
+  public static final int MAX_CONTEXT_FILE_CHARS = 12_000;
+  public static final String TRUNCATION_MARKER = "\n\n[truncated by codex.gerrit context limit]";
+
+  private CodexContextFileLoader() {}
+
+  /**
+   * Loads up to {@code limit} of {@code paths}; unreadable files are skipped. Stops early when the
+   * calling thread is interrupted, e.g. because its session was cancelled.
+   */
+  public static List<CodexAgentClient.ContextFile> load(
+      RevisionApi revisionApi, List<String> paths, int limit) {
+    List<CodexAgentClient.ContextFile> resolved = new ArrayList<>();
+    if (paths == null || paths.isEmpty()) {
+      return resolved;
+    }
+    int count = Math.min(paths.size(), limit);
+    for (int index = 0; index < count && !Thread.currentThread().isInterrupted(); index++) {
+      String filePath = paths.get(index);
+      if (filePath == null || filePath.trim().isEmpty()) {
+        continue;
+      }
+      try {
+        resolved.add(new CodexAgentClient.ContextFile(filePath, readText(revisionApi, filePath)));
+      } catch (ResourceNotFoundException ex) {
+        logger.info("Skip context file {} because content is unavailable", filePath);
+      } catch (RestApiException ex) {
+        logger.warn("Failed to load context file {}", filePath, ex);
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Bytes that {@link #load} will hold for the same arguments, from the sizes Gerrit lists for the
+   * revision; files it does not list count as a full {@link #MAX_CONTEXT_FILE_CHARS}.
+   */
+  public static long estimate(CodexRevisionFiles files, List<String> paths, int limit) {
+    if (paths == null) {
+      return 0;
+    }
+    long bytes = 0;
+    int count = Math.min(paths.size(), limit);
+    for (int index = 0; index < count; index++) {
+      String filePath = paths.get(index);
+      CodexRevisionFiles.Entry entry = filePath == null ? null : files.get(filePath);
+      long size = entry == null ? MAX_CONTEXT_FILE_CHARS : entry.size();
+      bytes += Math.min(size, MAX_CONTEXT_FILE_CHARS);
+    }
+    return bytes;
+  }
+
+  /** Reads one file as UTF-8, truncated to {@link #MAX_CONTEXT_FILE_CHARS}. */
+  public static String readText(RevisionApi revisionApi, String filePath)
+      throws RestApiException {
+    return truncate(new String(readBytes(revisionApi, filePath), StandardCharsets.UTF_8));
+  }
+
+  public static byte[] readBytes(RevisionApi revisionApi, String filePath)
+      throws RestApiException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (BinaryResult binaryResult = revisionApi.file(filePath).content()) {
+      binaryResult.writeTo(output);
+    } catch (IOException ioException) {
+      throw new ResourceConflictException(
+          "Failed to read file content for " + filePath + ": " + ioException.getMessage());
+    }
+    return output.toByteArray();
+  }
+
+  public static String truncate(String text) {
+    if (text == null || text.length() <= MAX_CONTEXT_FILE_CHARS) {
+      return text;
+    }
+    return text.substring(0, MAX_CONTEXT_FILE_CHARS) + TRUNCATION_MARKER;
+  }
+}
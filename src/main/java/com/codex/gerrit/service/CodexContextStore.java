@@ -0,0 +1,141 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session-scoped context handles for {@code POST /agent/run}.
+ *
+ * <p>The first time a session sends a file, the entry carries the content and its {@code sha256};
+ * codex.serve registers it for the session. Later turns of the same session send only {@code
+ * {path, sha256, ref: true}}. The plugin only keeps the hashes each session holds; content always
+ * comes from the current request, so a session codex.serve reports as incomplete is simply
+ * forgotten and its files are sent inline again.
+ */
+@Singleton
+public class CodexContextStore {
+  private final Cache<String, Set<String>> hashesBySession =
+      CacheBuilder.newBuilder().maximumSize(10_000).expireAfterAccess(2, TimeUnit.HOURS).build();
+
+  @Inject
+  CodexContextStore() {}
+
+  /** Builds the {@code contextFiles} array, using references for content the session holds. */
+  public Upload prepare(String sessionId, List<CodexAgentClient.ContextFile> files) {
+    Set<String> known = sessionId == null ? null : hashesBySession.getIfPresent(sessionId);
+    Upload upload = new Upload(sessionId);
+    for (CodexAgentClient.ContextFile file : files) {
+      if (file == null || file.path == null) {
+        continue;
+      }
+      String hash = sha256(file);
+      upload.hashes.add(hash);
+      if (known != null && known.contains(hash)) {
+        upload.entries.add(reference(file.path, hash));
+        upload.references++;
+      } else {
+        upload.entries.add(inline(file.path, hash, file.content, file.base64Content));
+      }
+    }
+    return upload;
+  }
+
+  /** Records that codex.serve accepted the upload, so its content is held by the session. */
+  public void commit(Upload upload) {
+    if (upload.sessionId == null) {
+      return;
+    }
+    Set<String> known = hashesBySession.getIfPresent(upload.sessionId);
+    if (known == null) {
+      known = ConcurrentHashMap.newKeySet();
+      hashesBySession.put(upload.sessionId, known);
+    }
+    known.addAll(upload.hashes);
+  }
+
+  /** Forgets what codex.serve holds for a session, e.g. after it reported unknown references. */
+  public void forget(String sessionId) {
+    if (sessionId != null) {
+      hashesBySession.invalidate(sessionId);
+    }
+  }
+
+  static String sha256(CodexAgentClient.ContextFile file) {
+    byte[] bytes;
+    if (file.base64Content != null) {
+      try {
+        bytes = Base64.getDecoder().decode(file.base64Content);
+      } catch (IllegalArgumentException ex) {
+        bytes = file.base64Content.getBytes(StandardCharsets.UTF_8);
+      }
+    } else {
+      bytes = (file.content == null ? "" : file.content).getBytes(StandardCharsets.UTF_8);
+    }
+    return Hashing.sha256().hashBytes(bytes).toString();
+  }
+
+  private static JsonObject reference(String path, String hash) {
+    JsonObject entry = new JsonObject();
+    entry.addProperty("path", path);
+    entry.addProperty("sha256", hash);
+    entry.addProperty("ref", true);
+    return entry;
+  }
+
+  private static JsonObject inline(String path, String hash, String content, String base64) {
+    JsonObject entry = new JsonObject();
+    entry.addProperty("path", path);
+    if (base64 != null) {
+      entry.addProperty("base64Content", base64);
+    } else {
+      entry.addProperty("content", content == null ? "" : content);
+    }
+    entry.addProperty("sha256", hash);
+    return entry;
+  }
+
+  public static class Upload {
+    private final String sessionId;
+    private final JsonArray entries = new JsonArray();
+    private final List<String> hashes = new ArrayList<>();
+    private int references;
+
+    private Upload(String sessionId) {
+      this.sessionId = sessionId;
+    }
+
+    public JsonArray entries() {
+      return entries;
+    }
+
+    public int references() {
+      return references;
+    }
+  }
+}
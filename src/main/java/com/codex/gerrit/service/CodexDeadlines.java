@@ -0,0 +1,223 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.config.CodexTimeoutConfig;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Enforces the deadlines of agent runs: a run must emit its first event within its first-event
+ * timeout and may then stay silent for at most its idle timeout. Both come from {@link
+ * CodexTimeoutConfig}. With {@code adaptiveTimeouts}, each is tightened to {@link
+ * #ADAPTIVE_FACTOR} times the {@link #ADAPTIVE_PERCENTILE}th percentile of what {@link
+ * CodexLatencies} observed for the agent and model, but never below {@link #ADAPTIVE_FLOOR_MS}.
+ *
+ * <p>A watchdog disconnects runs that miss their deadline, so a stalled backend frees its request
+ * thread as soon as the deadline passes instead of after a fixed socket timeout.
+ */
+@Singleton
+public class CodexDeadlines implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexDeadlines.class);
+  private static final int ADAPTIVE_PERCENTILE = 99;
+  private static final int ADAPTIVE_FACTOR = 4;
+  private static final int ADAPTIVE_MIN_SAMPLES = 50;
+  private static final long ADAPTIVE_FLOOR_MS = 30_000;
+  private static final long CHECK_INTERVAL_MS = 1_000;
+
+  private final CodexGerritConfig config;
+  private final CodexTimeoutConfig timeoutConfig;
+  private final CodexLatencies latencies;
+  private final WorkQueue workQueue;
+  private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+  private volatile ScheduledFuture<?> watchdog;
+
+  @Inject
+  CodexDeadlines(
+      CodexGerritConfig config,
+      CodexTimeoutConfig timeoutConfig,
+      CodexLatencies latencies,
+      WorkQueue workQueue) {
+    this.config = config;
+    this.timeoutConfig = timeoutConfig;
+    this.latencies = latencies;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    watchdog =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> current = watchdog;
+    watchdog = null;
+    if (current != null) {
+      current.cancel(false);
+    }
+  }
+
+  /** Starts watching a run of {@code agent} on {@code model}; close the watch when it ends. */
+  Watch watch(CodexPool pool, String agent, String model) {
+    CodexTimeoutConfig.Timeouts configured = timeoutConfig.forRun(pool.config(), agent, model);
+    long firstEventMs = configured.firstEventMs;
+    long idleMs = configured.idleMs;
+    if (config.getAdaptiveTimeouts()) {
+      firstEventMs =
+          tighten(
+              firstEventMs,
+              latencies.firstEventPercentile(
+                  pool.name(), agent, model, ADAPTIVE_PERCENTILE, ADAPTIVE_MIN_SAMPLES));
+      idleMs =
+          tighten(
+              idleMs,
+              latencies.maxGapPercentile(
+                  pool.name(), agent, model, ADAPTIVE_PERCENTILE, ADAPTIVE_MIN_SAMPLES));
+    }
+    Watch watch = new Watch(pool.name(), agent, model, firstEventMs, idleMs);
+    watches.add(watch);
+    return watch;
+  }
+
+  private static long tighten(long configuredMs, long percentileMs) {
+    if (percentileMs < 0) {
+      return configuredMs;
+    }
+    return Math.min(configuredMs, Math.max(ADAPTIVE_FLOOR_MS, percentileMs * ADAPTIVE_FACTOR));
+  }
+
+  private void check() {
+    long now = System.currentTimeMillis();
+    for (Watch watch : watches) {
+      if (now >= watch.deadline) {
+        watch.expire();
+      }
+    }
+  }
+
+  /** Deadline of one agent run. */
+  final class Watch implements AutoCloseable {
+    private final String pool;
+    private final String agent;
+    private final String model;
+    private final long startedAt = System.currentTimeMillis();
+    private final long firstEventMs;
+    private final long idleMs;
+    private volatile long deadline;
+    private volatile HttpURLConnection conn;
+    private volatile String expired;
+    private volatile long lastEvent;
+    private long maxGap;
+
+    private Watch(String pool, String agent, String model, long firstEventMs, long idleMs) {
+      this.pool = pool;
+      this.agent = agent;
+      this.model = model;
+      this.firstEventMs = firstEventMs;
+      this.idleMs = idleMs;
+      this.deadline = startedAt + firstEventMs;
+    }
+
+    /** Socket read timeout, a backstop should the watchdog not run. */
+    int readTimeoutMs() {
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(firstEventMs, idleMs) + CHECK_INTERVAL_MS);
+    }
+
+    /** Time the caller will still wait for the next event; sent upstream with the request. */
+    long remainingMs() {
+      return Math.max(0, deadline - System.currentTimeMillis());
+    }
+
+    long idleMs() {
+      return idleMs;
+    }
+
+    /** Disconnects {@code conn} once the deadline passes. */
+    void attach(HttpURLConnection conn) {
+      this.conn = conn;
+      if (expired != null) {
+        conn.disconnect();
+      }
+    }
+
+    /** Records an event and moves the deadline to the end of the idle timeout. */
+    void event() {
+      long now = System.currentTimeMillis();
+      if (lastEvent == 0) {
+        latencies.recordFirstEvent(pool, agent, model, now - startedAt);
+      } else {
+        maxGap = Math.max(maxGap, now - lastEvent);
+      }
+      lastEvent = now;
+      deadline = now + idleMs;
+    }
+
+    private void expire() {
+      long now = System.currentTimeMillis();
+      if (lastEvent == 0) {
+        expired = "no event from " + describe() + " within " + seconds(now - startedAt) + " s";
+      } else {
+        expired = describe() + " sent no event for " + seconds(now - lastEvent) + " s";
+      }
+      watches.remove(this);
+      logger.warn("Disconnecting agent run: {}", expired);
+      HttpURLConnection current = conn;
+      if (current != null) {
+        current.disconnect();
+      }
+    }
+
+    /**
+     * Returns the error to report for {@code cause}: a deadline error if the watchdog cut the run,
+     * else {@code cause} itself.
+     */
+    IOException failure(IOException cause) {
+      String reason = expired;
+      return reason == null ? cause : new IOException("Deadline exceeded: " + reason, cause);
+    }
+
+    @Override
+    public void close() {
+      watches.remove(this);
+      if (expired == null && lastEvent != 0) {
+        latencies.recordMaxGap(pool, agent, model, maxGap);
+      }
+    }
+
+    private String describe() {
+      return model == null || model.trim().isEmpty() ? agent : agent + " (" + model.trim() + ")";
+    }
+
+    private long seconds(long ms) {
+      return TimeUnit.MILLISECONDS.toSeconds(ms);
+    }
+  }
+}
@@ -0,0 +1,144 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts located findings from an agent reply.
+ *
+ * <p>A finding is a bullet, numbered item or paragraph of the reply that references a file of the
+ * revision with a line or line range, e.g. {@code src/Foo.java:12-20}, {@code Foo.java line 7} or
+ * {@code `src/Foo.java` (lines 3-5)}. File references are resolved through the revision's {@link
+ * CodexPathIndex}, so unknown paths never produce inline comments. Fenced code blocks are skipped.
+ */
+public final class CodexFindingParser {
+  private static final String PATH = "([\\w@.+\\-]+(?:/[\\w@.+\\-]+)*\\.[\\w]+)";
+  private static final Pattern COLON_LOCATION =
+      Pattern.compile("`?" + PATH + "`?:L?(\\d+)(?:\\s*(?:-|\\u2013|to)\\s*L?(\\d+))?");
+  private static final Pattern WORD_LOCATION =
+      Pattern.compile(
+          "`?" + PATH + "`?\\s*[,(]?\\s*(?:lines?|L)\\s*(\\d+)(?:\\s*(?:-|\\u2013|to)\\s*L?(\\d+))?",
+          Pattern.CASE_INSENSITIVE);
+  private static final Pattern ITEM_START = Pattern.compile("^\\s*(?:[-*+]|\\d+[.)]|#{1,6})\\s+");
+
+  private CodexFindingParser() {}
+
+  public static List<CodexFinding> parse(String reply, CodexPathIndex pathIndex) {
+    List<CodexFinding> findings = new ArrayList<>();
+    if (reply == null || reply.isEmpty() || pathIndex == null || pathIndex.size() == 0) {
+      return findings;
+    }
+    for (String block : splitBlocks(reply, false)) {
+      CodexFinding finding = locate(block, pathIndex);
+      if (finding != null) {
+        findings.add(finding);
+      }
+    }
+    return findings;
+  }
+
+  /** The blocks of {@code reply} that {@link #parse} does not turn into findings, in order. */
+  public static List<String> remarks(String reply, CodexPathIndex pathIndex) {
+    List<String> remarks = new ArrayList<>();
+    if (reply == null || reply.isEmpty()) {
+      return remarks;
+    }
+    for (String block : splitBlocks(reply, true)) {
+      if (block.startsWith("```")
+          || pathIndex == null
+          || pathIndex.size() == 0
+          || locate(block, pathIndex) == null) {
+        remarks.add(block);
+      }
+    }
+    return remarks;
+  }
+
+  private static CodexFinding locate(String block, CodexPathIndex pathIndex) {
+    for (Pattern pattern : new Pattern[] {COLON_LOCATION, WORD_LOCATION}) {
+      Matcher matcher = pattern.matcher(block);
+      while (matcher.find()) {
+        String path = pathIndex.resolve(matcher.group(1));
+        if (path == null) {
+          continue;
+        }
+        int startLine = parseLine(matcher.group(2));
+        int endLine = matcher.group(3) == null ? startLine : parseLine(matcher.group(3));
+        if (startLine <= 0) {
+          continue;
+        }
+        if (endLine < startLine) {
+          endLine = startLine;
+        }
+        String text = ITEM_START.matcher(block).replaceFirst("").trim();
+        return new CodexFinding(path, startLine, endLine, text);
+      }
+    }
+    return null;
+  }
+
+  /** Splits into items and paragraphs; fenced code is dropped, or kept whole as one block. */
+  private static List<String> splitBlocks(String reply, boolean keepFences) {
+    List<String> blocks = new ArrayList<>();
+    StringBuilder current = new StringBuilder();
+    boolean inFence = false;
+    for (String line : reply.split("\n")) {
+      if (line.trim().startsWith("```")) {
+        if (keepFences && inFence) {
+          current.append(line).append('\n');
+        }
+        flush(blocks, current);
+        inFence = !inFence;
+        if (keepFences && inFence) {
+          current.append(line).append('\n');
+        }
+        continue;
+      }
+      if (inFence) {
+        if (keepFences) {
+          current.append(line).append('\n');
+        }
+        continue;
+      }
+      if (line.trim().isEmpty() || ITEM_START.matcher(line).find()) {
+        flush(blocks, current);
+      }
+      if (!line.trim().isEmpty()) {
+        current.append(line).append('\n');
+      }
+    }
+    flush(blocks, current);
+    return blocks;
+  }
+
+  private static void flush(List<String> blocks, StringBuilder current) {
+    if (current.length() > 0) {
+      blocks.add(current.toString().trim());
+      current.setLength(0);
+    }
+  }
+
+  private static int parseLine(String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,410 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexGraphInput;
+import com.codex.gerrit.rest.CodexGraphResponse;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds {@code #graph} results from per-file fragments.
+ *
+ * <p>The {@code code} of a graph request is split at its {@code // FILE: <path>} markers. Each
+ * file is graphed on its own and its fragment is cached under {@code <plugin-data>/graph-cache} by
+ * the SHA-256 of its path, content and the request options, so only files that changed since an
+ * earlier request are sent to {@code /graph/run}. Fragments are merged locally: nodes are
+ * deduplicated by {@code id}, edges by {@code id} or by source, target and label, and other arrays
+ * by value. Positional node ids such as {@code n1} are prefixed with the file path first, so that
+ * unrelated nodes of different files do not collide. Requests whose code has no file markers are
+ * sent through unchanged. Fragments unused for {@link #RETENTION_DAYS} days are deleted.
+ */
+@Singleton
+public class CodexGraphEngine implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexGraphEngine.class);
+  private static final String QUEUE_NAME = "Codex-Graph";
+  private static final Pattern FILE_MARKER = Pattern.compile("(?m)^// FILE: (.+)$");
+  private static final Pattern POSITIONAL_ID = Pattern.compile("(?i)(n|node|e|edge)?[_-]?\\d+");
+  private static final long RETENTION_DAYS = 7;
+
+  private final CodexAgentClient agentClient;
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final Path cacheDir;
+  private volatile ScheduledExecutorService executor;
+  private volatile ScheduledFuture<?> sweeper;
+
+  @Inject
+  CodexGraphEngine(
+      CodexAgentClient agentClient,
+      CodexGerritConfig config,
+      WorkQueue workQueue,
+      @PluginData Path pluginData) {
+    this.agentClient = agentClient;
+    this.config = config;
+    this.workQueue = workQueue;
+    this.cacheDir = pluginData.resolve("graph-cache");
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.getGraphThreads(), QUEUE_NAME);
+    sweeper = executor.scheduleAtFixedRate(this::sweep, 0, 6, TimeUnit.HOURS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> currentSweeper = sweeper;
+    sweeper = null;
+    if (currentSweeper != null) {
+      currentSweeper.cancel(false);
+    }
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+  }
+
+  /** Builds the graph on {@code backend}, reusing cached per-file fragments. */
+  public CodexGraphResponse run(CodexPool backend, CodexGraphInput input)
+      throws RestApiException {
+    Map<String, String> files = splitFiles(input.code);
+    ScheduledExecutorService pool = executor;
+    if (files.isEmpty() || pool == null) {
+      return agentClient.runGraph(backend, input);
+    }
+
+    String options = optionsDigest(input);
+    Map<String, JsonElement> fragments = new LinkedHashMap<>();
+    Map<String, Future<CodexGraphResponse>> pending = new LinkedHashMap<>();
+    Map<String, String> keys = new HashMap<>();
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      String key = fragmentKey(options, file.getKey(), file.getValue());
+      keys.put(file.getKey(), key);
+      JsonElement cached = readFragment(key);
+      if (cached != null) {
+        fragments.put(file.getKey(), cached);
+      } else {
+        fragments.put(file.getKey(), null);
+        CodexGraphInput single = singleFile(input, file.getKey(), file.getValue());
+        pending.put(file.getKey(), pool.submit(() -> agentClient.runGraph(backend, single)));
+      }
+    }
+
+    JsonObject usage = new JsonObject();
+    JsonObject cost = new JsonObject();
+    try {
+      for (Map.Entry<String, Future<CodexGraphResponse>> run : pending.entrySet()) {
+        CodexGraphResponse response = await(run.getKey(), run.getValue());
+        JsonElement graph = response.graph == null ? new JsonObject() : response.graph;
+        fragments.put(run.getKey(), graph);
+        writeFragment(keys.get(run.getKey()), run.getKey(), graph);
+        addNumbers(usage, response.usage);
+        addNumbers(cost, response.cost);
+      }
+    } finally {
+      for (Future<CodexGraphResponse> run : pending.values()) {
+        run.cancel(true);
+      }
+    }
+
+    CodexGraphResponse merged = new CodexGraphResponse();
+    merged.graph = merge(fragments);
+    merged.usage = usage.size() == 0 ? null : usage;
+    merged.cost = cost.size() == 0 ? null : cost;
+    merged.graphedFiles = pending.size();
+    merged.cachedFiles = files.size() - pending.size();
+    return merged;
+  }
+
+  private static CodexGraphResponse await(String path, Future<CodexGraphResponse> run)
+      throws RestApiException {
+    try {
+      return run.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResourceConflictException("Graph of " + path + " was interrupted");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RestApiException) {
+        RestApiException cause = (RestApiException) e.getCause();
+        throw new BadRequestException("Graph of " + path + " failed: " + cause.getMessage());
+      }
+      throw new ResourceConflictException("Graph of " + path + " failed: " + e.getCause());
+    }
+  }
+
+  /** Splits {@code code} into files at its markers; empty unless it starts with one. */
+  static Map<String, String> splitFiles(String code) {
+    Map<String, String> files = new LinkedHashMap<>();
+    if (code == null || !code.startsWith("// FILE: ")) {
+      return files;
+    }
+    Matcher marker = FILE_MARKER.matcher(code);
+    String path = null;
+    int start = 0;
+    while (marker.find()) {
+      if (path != null) {
+        files.put(path, stripSeparator(code.substring(start, marker.start())));
+      }
+      path = marker.group(1).trim();
+      start = marker.end() + 1;
+    }
+    if (path != null && start <= code.length()) {
+      files.put(path, code.substring(start));
+    }
+    return files;
+  }
+
+  /** Drops the blank line the panel puts between files. */
+  private static String stripSeparator(String content) {
+    return content.endsWith("\n\n") ? content.substring(0, content.length() - 2) : content;
+  }
+
+  private static CodexGraphInput singleFile(CodexGraphInput input, String path, String content) {
+    CodexGraphInput single = new CodexGraphInput();
+    single.code = "// FILE: " + path + "\n" + content;
+    single.filePaths = List.of(path);
+    single.frameworkHint = input.frameworkHint;
+    single.metadata = input.metadata;
+    single.httpConnections = input.httpConnections;
+    single.env = input.env;
+    return single;
+  }
+
+  private static String optionsDigest(CodexGraphInput input) {
+    StringBuilder options = new StringBuilder();
+    options.append("frameworkHint=").append(input.frameworkHint).append('\n');
+    options.append("metadata=").append(input.metadata).append('\n');
+    options.append("httpConnections=").append(input.httpConnections).append('\n');
+    options.append("env=").append(input.env == null ? "{}" : new TreeMap<>(input.env)).append('\n');
+    return options.toString();
+  }
+
+  private static String fragmentKey(String options, String path, String content) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(options, StandardCharsets.UTF_8).putByte((byte) 0);
+    hasher.putString(path, StandardCharsets.UTF_8).putByte((byte) 0);
+    hasher.putString(content, StandardCharsets.UTF_8);
+    return hasher.hash().toString();
+  }
+
+  private JsonElement readFragment(String key) {
+    Path file = cacheDir.resolve(key + ".json");
+    try {
+      Fragment fragment = CodexJsonFiles.read(file, Fragment.class);
+      if (fragment == null || fragment.graph == null) {
+        return null;
+      }
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return fragment.graph;
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable graph fragment {}", file, e);
+      return null;
+    }
+  }
+
+  private void writeFragment(String key, String path, JsonElement graph) {
+    Fragment fragment = new Fragment();
+    fragment.path = path;
+    fragment.graph = graph;
+    try {
+      CodexJsonFiles.write(cacheDir.resolve(key + ".json"), fragment);
+    } catch (IOException e) {
+      logger.warn("Failed to cache graph fragment of {}", path, e);
+    }
+  }
+
+  /** Merges per-file graphs; positional ids are scoped to their file first. */
+  static JsonObject merge(Map<String, JsonElement> fragments) {
+    JsonObject merged = new JsonObject();
+    Map<String, JsonObject> nodes = new LinkedHashMap<>();
+    Map<String, JsonObject> edges = new LinkedHashMap<>();
+    Map<String, Set<String>> seenValues = new HashMap<>();
+    for (Map.Entry<String, JsonElement> fragment : fragments.entrySet()) {
+      if (fragment.getValue() == null || !fragment.getValue().isJsonObject()) {
+        continue;
+      }
+      JsonObject graph = fragment.getValue().getAsJsonObject();
+      Map<String, String> ids = scopedIds(fragment.getKey(), graph);
+      for (Map.Entry<String, JsonElement> field : graph.entrySet()) {
+        String name = field.getKey();
+        JsonElement value = field.getValue();
+        if ("nodes".equals(name) && value.isJsonArray()) {
+          for (JsonElement node : value.getAsJsonArray()) {
+            if (node.isJsonObject()) {
+              JsonObject copy = node.getAsJsonObject().deepCopy();
+              String id = rename(copy, "id", ids);
+              nodes.putIfAbsent(id == null ? copy.toString() : id, copy);
+            }
+          }
+        } else if ("edges".equals(name) && value.isJsonArray()) {
+          for (JsonElement edge : value.getAsJsonArray()) {
+            if (edge.isJsonObject()) {
+              JsonObject copy = edge.getAsJsonObject().deepCopy();
+              rename(copy, "source", ids);
+              rename(copy, "target", ids);
+              edges.putIfAbsent(edgeKey(copy), copy);
+            }
+          }
+        } else if (value.isJsonArray()) {
+          JsonArray target =
+              merged.has(name) && merged.get(name).isJsonArray()
+                  ? merged.getAsJsonArray(name)
+                  : new JsonArray();
+          merged.add(name, target);
+          Set<String> seen = seenValues.computeIfAbsent(name, k -> new LinkedHashSet<>());
+          for (JsonElement item : value.getAsJsonArray()) {
+            if (seen.add(identity(item))) {
+              target.add(item.deepCopy());
+            }
+          }
+        } else if (!merged.has(name)) {
+          merged.add(name, value.deepCopy());
+        }
+      }
+    }
+    JsonArray nodeArray = new JsonArray();
+    nodes.values().forEach(nodeArray::add);
+    JsonArray edgeArray = new JsonArray();
+    edges.values().forEach(edgeArray::add);
+    merged.add("nodes", nodeArray);
+    merged.add("edges", edgeArray);
+    return merged;
+  }
+
+  /** Maps the positional node ids of one fragment to file-scoped ids. */
+  private static Map<String, String> scopedIds(String path, JsonObject graph) {
+    Map<String, String> ids = new HashMap<>();
+    if (!graph.has("nodes") || !graph.get("nodes").isJsonArray()) {
+      return ids;
+    }
+    for (JsonElement node : graph.getAsJsonArray("nodes")) {
+      if (node.isJsonObject() && node.getAsJsonObject().has("id")) {
+        JsonElement id = node.getAsJsonObject().get("id");
+        if (id.isJsonPrimitive() && POSITIONAL_ID.matcher(id.getAsString()).matches()) {
+          ids.put(id.getAsString(), path + "#" + id.getAsString());
+        }
+      }
+    }
+    return ids;
+  }
+
+  private static String rename(JsonObject object, String field, Map<String, String> ids) {
+    if (!object.has(field) || !object.get(field).isJsonPrimitive()) {
+      return null;
+    }
+    String id = object.get(field).getAsString();
+    String scoped = ids.get(id);
+    if (scoped != null) {
+      object.add(field, new JsonPrimitive(scoped));
+      return scoped;
+    }
+    return id;
+  }
+
+  private static String edgeKey(JsonObject edge) {
+    if (edge.has("id") && edge.get("id").isJsonPrimitive()) {
+      String id = edge.get("id").getAsString();
+      if (!POSITIONAL_ID.matcher(id).matches()) {
+        return "id:" + id;
+      }
+    }
+    return "edge:" + edge.get("source") + "->" + edge.get("target") + ":" + edge.get("label");
+  }
+
+  private static String identity(JsonElement item) {
+    if (item.isJsonObject() && item.getAsJsonObject().has("id")) {
+      return "id:" + item.getAsJsonObject().get("id");
+    }
+    return item.toString();
+  }
+
+  /** Adds the numeric fields of {@code value} into {@code total}. */
+  private static void addNumbers(JsonObject total, JsonElement value) {
+    if (value == null || !value.isJsonObject()) {
+      return;
+    }
+    for (Map.Entry<String, JsonElement> field : value.getAsJsonObject().entrySet()) {
+      JsonElement number = field.getValue();
+      if (number.isJsonPrimitive() && number.getAsJsonPrimitive().isNumber()) {
+        double previous = total.has(field.getKey()) ? total.get(field.getKey()).getAsDouble() : 0;
+        double sum = previous + number.getAsDouble();
+        total.addProperty(field.getKey(), sum == Math.rint(sum) ? (Number) (long) sum : sum);
+      }
+    }
+  }
+
+  private void sweep() {
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+    List<Path> expired = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir)) {
+      for (Path file : stream) {
+        if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+          expired.add(file);
+        }
+      }
+      for (Path file : expired) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to sweep graph fragments in {}", cacheDir, e);
+    }
+  }
+
+  static class Fragment {
+    String path;
+    JsonElement graph;
+  }
+}
@@ -0,0 +1,237 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.config.CodexPoolConfig;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes every codex.serve pool in the background and keeps its state.
+ *
+ * <p>A pool is {@code healthy} until a probe fails or is slower than {@code healthSlowThreshold};
+ * it is then {@code degraded}. After {@code healthDownAfter} failed probes in a row it is {@code
+ * down}, and requests routed to it fail at once instead of each waiting out the connect timeout.
+ * Only probes bring a pool back: the first one that succeeds makes it degraded again, and {@code
+ * healthUpAfter} fast ones in a row make it healthy. A probe is a {@code GET /models}; any answer
+ * below 500 counts as success.
+ */
+@Singleton
+public class CodexHealth implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexHealth.class);
+  private static final String PROBE_PATH = "/models";
+
+  public enum State {
+    HEALTHY,
+    DEGRADED,
+    DOWN
+  }
+
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+  private final List<ScheduledFuture<?>> probes = new ArrayList<>();
+
+  @Inject
+  CodexHealth(CodexGerritConfig config, CodexPoolConfig poolConfig, WorkQueue workQueue) {
+    this.config = config;
+    this.workQueue = workQueue;
+    for (CodexPoolConfig.Pool pool : poolConfig.pools()) {
+      if (!pool.url.isEmpty()) {
+        endpoints.put(pool.name, new Endpoint(pool));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void start() {
+    long intervalMs = config.getHealthCheckIntervalMs();
+    if (intervalMs <= 0) {
+      return;
+    }
+    for (Endpoint endpoint : endpoints.values()) {
+      probes.add(
+          workQueue
+              .getDefaultQueue()
+              .scheduleWithFixedDelay(
+                  () -> probe(endpoint), 0, intervalMs, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  @Override
+  public synchronized void stop() {
+    for (ScheduledFuture<?> probe : probes) {
+      probe.cancel(true);
+    }
+    probes.clear();
+  }
+
+  /** Fails fast if {@code pool} is down. */
+  void check(CodexPool pool) throws ResourceConflictException {
+    Endpoint endpoint = endpoints.get(pool.name());
+    if (endpoint == null) {
+      return;
+    }
+    Status status = endpoint.status();
+    if (State.DOWN.name().equals(status.state)) {
+      throw new ResourceConflictException(
+          "codex.serve pool "
+              + pool.name()
+              + " is down since "
+              + Instant.ofEpochMilli(status.since)
+              + (status.error == null ? "" : " (" + status.error + ")")
+              + "; try again once it is back");
+    }
+  }
+
+  /** The last probed state of {@code pool}; healthy if it is not probed. */
+  public Status status(CodexPool pool) {
+    Endpoint endpoint = endpoints.get(pool.name());
+    if (endpoint == null) {
+      Status status = new Status();
+      status.pool = pool.name();
+      status.state = State.HEALTHY.name();
+      return status;
+    }
+    return endpoint.status();
+  }
+
+  private void probe(Endpoint endpoint) {
+    long started = System.nanoTime();
+    String error = null;
+    try {
+      int code = request(endpoint.pool.url);
+      if (code >= 500) {
+        error = "HTTP " + code;
+      }
+    } catch (IOException | RuntimeException e) {
+      error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+    long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    State changed = endpoint.record(error, latencyMs);
+    if (changed != null) {
+      logger.warn(
+          "codex.serve pool {} is {} ({} ms{})",
+          endpoint.pool.name,
+          changed.name().toLowerCase(),
+          latencyMs,
+          error == null ? "" : ", " + error);
+    }
+  }
+
+  private int request(String url) throws IOException {
+    int timeoutMs = (int) config.getHealthCheckTimeoutMs();
+    HttpURLConnection conn = CodexUnixConnection.open(url, PROBE_PATH);
+    try {
+      conn.setRequestMethod("GET");
+      conn.setConnectTimeout(timeoutMs);
+      conn.setReadTimeout(timeoutMs);
+      int code = conn.getResponseCode();
+      InputStream body = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+      if (body != null) {
+        body.close();
+      }
+      return code;
+    } finally {
+      conn.disconnect();
+    }
+  }
+
+  private final class Endpoint {
+    private final CodexPoolConfig.Pool pool;
+    private State state = State.HEALTHY;
+    private long since = System.currentTimeMillis();
+    private int failures;
+    private int successes;
+    private long checkedAt;
+    private long latencyMs;
+    private String error;
+
+    private Endpoint(CodexPoolConfig.Pool pool) {
+      this.pool = pool;
+    }
+
+    /** Returns the new state if the probe changed it, else null. */
+    private synchronized State record(String probeError, long probeLatencyMs) {
+      checkedAt = System.currentTimeMillis();
+      latencyMs = probeLatencyMs;
+      error = probeError;
+      State next;
+      if (probeError != null) {
+        successes = 0;
+        failures++;
+        next = failures >= config.getHealthDownAfter() ? State.DOWN : State.DEGRADED;
+      } else if (probeLatencyMs > config.getHealthSlowThresholdMs()) {
+        failures = 0;
+        successes = 0;
+        next = State.DEGRADED;
+      } else {
+        failures = 0;
+        successes++;
+        next =
+            successes >= config.getHealthUpAfter() || state == State.HEALTHY
+                ? State.HEALTHY
+                : State.DEGRADED;
+      }
+      if (next == state) {
+        return null;
+      }
+      state = next;
+      since = checkedAt;
+      return state;
+    }
+
+    private synchronized Status status() {
+      Status status = new Status();
+      status.pool = pool.name;
+      status.state = state.name();
+      status.since = since;
+      status.checkedAt = checkedAt == 0 ? null : checkedAt;
+      status.latencyMs = checkedAt == 0 ? null : latencyMs;
+      status.error = error;
+      return status;
+    }
+  }
+
+  /** Probed state of one pool. */
+  public static class Status {
+    public String pool;
+    /** {@code HEALTHY}, {@code DEGRADED} or {@code DOWN}. */
+    public String state;
+    /** Epoch milliseconds of the last state change. */
+    public long since;
+    /** Epoch milliseconds of the last probe; absent before the first one. */
+    public Long checkedAt;
+    public Long latencyMs;
+    /** Why the last probe failed. */
+    public String error;
+  }
+}
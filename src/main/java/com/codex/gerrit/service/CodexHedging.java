@@ -0,0 +1,357 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hedges agent runs whose first event is late.
+ *
+ * <p>Once a run has waited longer than the {@code hedgePercentile} of the first-event latencies
+ * {@link CodexLatencies} observed for its pool, agent and model (at least {@code
+ * hedgeMinDelayMs}), the same prompt is sent to {@code hedgeModel} on the same pool as a second
+ * session. The stream that emits an event first wins; the other one is disconnected and stopped
+ * upstream. Each run earns {@code hedgeMaxPercent}/100 of a hedge, so hedges never exceed that
+ * share of the load.
+ */
+@Singleton
+public class CodexHedging implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexHedging.class);
+  private static final String QUEUE_NAME = "Codex-Hedge";
+  static final String SESSION_SUFFIX = "-hedge";
+  private static final int MIN_SAMPLES = 20;
+  /** Hedges that may be saved up while runs are fast. */
+  private static final double MAX_BUDGET = 3;
+
+  private static final int NONE = 0;
+  private static final int PRIMARY = 1;
+  private static final int HEDGE = 2;
+
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final CodexLatencies latencies;
+  private final Counter0 issued;
+  private final Counter0 hedgeWins;
+  private final Counter0 primaryWins;
+  private final Counter0 overBudget;
+  private double budget;
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  CodexHedging(
+      CodexGerritConfig config,
+      WorkQueue workQueue,
+      CodexLatencies latencies,
+      MetricMaker metrics) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.latencies = latencies;
+    this.issued =
+        metrics.newCounter(
+            "hedge/issued",
+            new Description("Agent runs duplicated to the hedge model").setRate().setUnit("runs"));
+    this.hedgeWins =
+        metrics.newCounter(
+            "hedge/hedge_wins",
+            new Description("Hedged runs answered by the hedge model").setRate().setUnit("runs"));
+    this.primaryWins =
+        metrics.newCounter(
+            "hedge/primary_wins",
+            new Description("Hedged runs answered by the requested model")
+                .setRate()
+                .setUnit("runs"));
+    this.overBudget =
+        metrics.newCounter(
+            "hedge/over_budget",
+            new Description("Late agent runs not hedged because of hedgeMaxPercent")
+                .setRate()
+                .setUnit("runs"));
+  }
+
+  @Override
+  public void start() {
+    if (!config.getHedgeModel().isEmpty()) {
+      executor = workQueue.createQueue(config.getHedgeThreads(), QUEUE_NAME);
+    }
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a race for a run of {@code agent} on {@code model} in {@code pool}, or null if the run
+   * must not be hedged yet. {@code stopper} stops an upstream session that lost.
+   */
+  Race race(String pool, String agent, String model, Consumer<String> stopper) {
+    if (executor == null) {
+      return null;
+    }
+    synchronized (this) {
+      budget = Math.min(MAX_BUDGET, budget + config.getHedgeMaxPercent() / 100.0);
+    }
+    long percentile =
+        latencies.firstEventPercentile(
+            pool, agent, model, config.getHedgePercentile(), MIN_SAMPLES);
+    if (percentile < 0) {
+      return null;
+    }
+    return new Race(
+        pool, agent, model, Math.max(config.getHedgeMinDelayMs(), percentile), stopper);
+  }
+
+  private synchronized boolean spend() {
+    if (budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    return true;
+  }
+
+  /** Sending side of one agent run; told when the connection opens and the first event arrives. */
+  final class Stream {
+    private final Race race;
+    private final int side;
+    private final String model;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile boolean started;
+
+    private Stream(Race race, int side, String model) {
+      this.race = race;
+      this.side = side;
+      this.model = model;
+    }
+
+    /** Throws if the other stream of the race already won, before anything is sent. */
+    void connected(HttpURLConnection conn) throws IOException {
+      race.connected(side, conn);
+    }
+
+    /** Called on the first event of a successful response; throws if the other stream won. */
+    void started() throws IOException {
+      if (started) {
+        return;
+      }
+      started = true;
+      if (!race.claim(side)) {
+        throw new LostRaceException();
+      }
+    }
+
+    /** The run was cut off before its first event; its wait so far is a lower bound. */
+    private void lost() {
+      if (!started) {
+        started = true;
+        latencies.recordFirstEvent(
+            race.pool, race.agent, model, System.currentTimeMillis() - startedAt);
+      }
+    }
+  }
+
+  /** Runs one stream of a race. */
+  interface Call {
+    CodexOutputBuffer run(Stream stream) throws IOException, RestApiException;
+  }
+
+  /** A primary run and the hedge that is started if its first event is late. */
+  final class Race {
+    private final String pool;
+    private final String agent;
+    private final String model;
+    private final long delayMs;
+    private final Consumer<String> stopper;
+    private final AtomicInteger winner = new AtomicInteger(NONE);
+    private final AtomicReference<HttpURLConnection> primaryConn = new AtomicReference<>();
+    private final AtomicReference<HttpURLConnection> hedgeConn = new AtomicReference<>();
+    private final CompletableFuture<CodexOutputBuffer> hedgeResult = new CompletableFuture<>();
+    private volatile String primarySessionId;
+    private volatile String hedgeSessionId;
+    private volatile Stream primary;
+    private volatile Stream hedge;
+    private volatile ScheduledFuture<?> timer;
+
+    private Race(
+        String pool, String agent, String model, long delayMs, Consumer<String> stopper) {
+      this.pool = pool;
+      this.agent = agent;
+      this.model = model;
+      this.delayMs = delayMs;
+      this.stopper = stopper;
+    }
+
+    /** Schedules {@code call} as the hedge of {@code sessionId} and returns the primary stream. */
+    Stream start(String sessionId, Call call) {
+      primarySessionId = sessionId;
+      primary = new Stream(this, PRIMARY, model);
+      ScheduledExecutorService current = executor;
+      if (current != null) {
+        try {
+          timer = current.schedule(() -> runHedge(sessionId, call), delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+          logger.warn("Hedge queue rejected session {}", sessionId, ex);
+        }
+      }
+      return primary;
+    }
+
+    private void runHedge(String sessionId, Call call) {
+      if (winner.get() != NONE) {
+        return;
+      }
+      if (!spend()) {
+        overBudget.increment();
+        return;
+      }
+      hedgeSessionId = sessionId + SESSION_SUFFIX;
+      hedge = new Stream(this, HEDGE, config.getHedgeModel());
+      issued.increment();
+      logger.info(
+          "Session {} sent no event within {} ms; hedging to model {}",
+          sessionId,
+          delayMs,
+          config.getHedgeModel());
+      CodexOutputBuffer output = null;
+      try {
+        output = call.run(hedge);
+        if (!claim(HEDGE)) {
+          output.close();
+          throw new LostRaceException();
+        }
+        hedgeResult.complete(output);
+      } catch (IOException | RestApiException | RuntimeException ex) {
+        hedgeResult.completeExceptionally(ex);
+      }
+    }
+
+    private void connected(int side, HttpURLConnection conn) throws IOException {
+      (side == PRIMARY ? primaryConn : hedgeConn).set(conn);
+      int current = winner.get();
+      if (current != NONE && current != side) {
+        throw new LostRaceException();
+      }
+    }
+
+    /** Decides the race for {@code side}; returns false if the other stream already won. */
+    private boolean claim(int side) {
+      if (!winner.compareAndSet(NONE, side)) {
+        return winner.get() == side;
+      }
+      ScheduledFuture<?> pending = timer;
+      if (pending != null) {
+        pending.cancel(false);
+      }
+      if (side == PRIMARY) {
+        if (hedge != null) {
+          primaryWins.increment();
+          abort(hedge, hedgeConn, hedgeSessionId);
+        }
+      } else {
+        hedgeWins.increment();
+        logger.info("Hedge of session {} started first; stopping the primary", primarySessionId);
+        abort(primary, primaryConn, primarySessionId);
+      }
+      return true;
+    }
+
+    private void abort(Stream loser, AtomicReference<HttpURLConnection> conn, String sessionId) {
+      loser.lost();
+      HttpURLConnection current = conn.getAndSet(null);
+      if (current != null) {
+        current.disconnect();
+      }
+      ScheduledExecutorService pool = executor;
+      if (pool == null || sessionId == null) {
+        return;
+      }
+      try {
+        pool.execute(() -> stopper.accept(sessionId));
+      } catch (RejectedExecutionException ex) {
+        logger.debug("Could not stop losing session {}", sessionId, ex);
+      }
+    }
+
+    /** True once the hedge has won; the primary's output is then discarded. */
+    boolean hedgeWon() {
+      return winner.get() == HEDGE;
+    }
+
+    /** Waits for the hedge that won; the calling thread stays interruptible by cancellation. */
+    CodexOutputBuffer awaitHedge() throws IOException, RestApiException {
+      try {
+        return hedgeResult.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        abandon();
+        throw new IOException("Interrupted while waiting for hedge " + hedgeSessionId);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        if (cause instanceof RestApiException) {
+          throw (RestApiException) cause;
+        }
+        throw new IOException("Hedge " + hedgeSessionId + " failed", cause);
+      }
+    }
+
+    /**
+     * Ends the race in favour of the primary, which finished, failed or was cancelled, and stops
+     * whatever is left of the hedge.
+     */
+    void abandon() {
+      claim(PRIMARY);
+      if (winner.get() == HEDGE && hedge != null) {
+        abort(hedge, hedgeConn, hedgeSessionId);
+        hedgeResult.thenAccept(CodexOutputBuffer::close);
+      }
+    }
+  }
+
+  /** Thrown into the losing stream's event loop. */
+  static class LostRaceException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    LostRaceException() {
+      super("another stream of the hedged run started first");
+    }
+  }
+}
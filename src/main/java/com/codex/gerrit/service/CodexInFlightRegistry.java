@@ -0,0 +1,205 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.net.HttpURLConnection;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plugin-side work in flight per agent session.
+ *
+ * <p>Cancelling a session disconnects its upstream connection, interrupts the thread running it
+ * (which stops context loading between files) and runs its release hooks, e.g. to free admission
+ * slots. Operations registered with heartbeats are cancelled by a reaper once their client has
+ * stopped sending {@code codex-chat-heartbeat} calls.
+ */
+@Singleton
+public class CodexInFlightRegistry implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexInFlightRegistry.class);
+  private static final long REAP_INTERVAL_SECONDS = 15;
+  static final long HEARTBEAT_TIMEOUT_MS = 45_000;
+
+  private final WorkQueue workQueue;
+  private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+  private volatile ScheduledFuture<?> reaper;
+
+  @Inject
+  CodexInFlightRegistry(WorkQueue workQueue) {
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    reaper =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::reap, REAP_INTERVAL_SECONDS, REAP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> current = reaper;
+    reaper = null;
+    if (current != null) {
+      current.cancel(false);
+    }
+  }
+
+  /**
+   * Registers the calling thread as running {@code sessionId}. An operation still registered under
+   * the same id is cancelled. Close the returned operation when the work is done.
+   */
+  public Operation register(String sessionId, boolean heartbeat) {
+    Operation operation = new Operation(sessionId, Thread.currentThread(), heartbeat);
+    Operation previous = operations.put(sessionId, operation);
+    if (previous != null) {
+      previous.cancel("replaced by a new request");
+    }
+    return operation;
+  }
+
+  /** Returns the running operation of a session, or null. */
+  public Operation get(String sessionId) {
+    return sessionId == null ? null : operations.get(sessionId);
+  }
+
+  /** Cancels the session's operation; returns false if none was running. */
+  public boolean cancel(String sessionId, String reason) {
+    Operation operation = get(sessionId);
+    return operation != null && operation.cancel(reason);
+  }
+
+  /** Records a client heartbeat; returns false if the session is not running. */
+  public boolean heartbeat(String sessionId) {
+    Operation operation = get(sessionId);
+    if (operation == null) {
+      return false;
+    }
+    operation.lastHeartbeat = System.currentTimeMillis();
+    return true;
+  }
+
+  private void reap() {
+    long deadline = System.currentTimeMillis() - HEARTBEAT_TIMEOUT_MS;
+    for (Operation operation : operations.values()) {
+      if (operation.heartbeat && operation.lastHeartbeat < deadline) {
+        logger.info("Reaping session {}: client stopped sending heartbeats", operation.sessionId);
+        operation.cancel("client disconnected");
+      }
+    }
+  }
+
+  public final class Operation implements AutoCloseable {
+    private final String sessionId;
+    private final Thread owner;
+    private final boolean heartbeat;
+    private final AtomicReference<HttpURLConnection> connection = new AtomicReference<>();
+    private final Deque<Runnable> releaseHooks = new ConcurrentLinkedDeque<>();
+    private volatile long lastHeartbeat = System.currentTimeMillis();
+    private volatile String cancelReason;
+    private boolean closed;
+
+    private Operation(String sessionId, Thread owner, boolean heartbeat) {
+      this.sessionId = sessionId;
+      this.owner = owner;
+      this.heartbeat = heartbeat;
+    }
+
+    public String sessionId() {
+      return sessionId;
+    }
+
+    public boolean isCancelled() {
+      return cancelReason != null;
+    }
+
+    public String cancelReason() {
+      return cancelReason;
+    }
+
+    /** Tracks the upstream connection; disconnects it at once if already cancelled. */
+    public void attach(HttpURLConnection conn) {
+      connection.set(conn);
+      if (isCancelled()) {
+        conn.disconnect();
+      }
+    }
+
+    public void detach(HttpURLConnection conn) {
+      connection.compareAndSet(conn, null);
+    }
+
+    /** Runs {@code hook} once, on cancellation or close, whichever comes first. */
+    public void onRelease(Runnable hook) {
+      releaseHooks.push(hook);
+      if (isCancelled()) {
+        release();
+      }
+    }
+
+    private boolean cancel(String reason) {
+      synchronized (this) {
+        if (closed || cancelReason != null) {
+          return false;
+        }
+        cancelReason = reason;
+        owner.interrupt();
+      }
+      HttpURLConnection conn = connection.getAndSet(null);
+      if (conn != null) {
+        conn.disconnect();
+      }
+      release();
+      return true;
+    }
+
+    private void release() {
+      Runnable hook;
+      while ((hook = releaseHooks.poll()) != null) {
+        try {
+          hook.run();
+        } catch (RuntimeException e) {
+          logger.warn("Release hook of session {} failed", sessionId, e);
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (this) {
+        closed = true;
+      }
+      operations.remove(sessionId, this);
+      release();
+      if (isCancelled() && Thread.currentThread() == owner) {
+        // Do not leak the cancellation interrupt into the next request served by this thread.
+        Thread.interrupted();
+      }
+    }
+  }
+}
@@ -0,0 +1,276 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.common.hash.Hashing;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Whole-change reviews that only send files changed since the last review of the change.
+ *
+ * <p>For every change the revision, the SHA-256 of each reviewed file and the findings of the last
+ * review are kept in {@code <plugin-data>/review-state/<change>.json}. A later review reads the
+ * files of the new revision, sends only those whose content hash differs, and summarises the prior
+ * findings on the files it leaves out.
+ */
+@Singleton
+public class CodexIncrementalReview {
+  private static final Logger logger = LoggerFactory.getLogger(CodexIncrementalReview.class);
+  private static final int MAX_LISTED_UNCHANGED_FILES = 20;
+  private static final int MAX_SUMMARY_FINDINGS = 30;
+  private static final int MAX_FINDING_SUMMARY_CHARS = 200;
+
+  private final Path stateDir;
+
+  @Inject
+  CodexIncrementalReview(@PluginData Path pluginData) {
+    this.stateDir = pluginData.resolve("review-state");
+  }
+
+  /**
+   * Reads up to {@code limit} of {@code paths} and compares them with the last recorded review.
+   * With {@code full} set the previous review is ignored and every file is sent.
+   */
+  public Plan plan(
+      String changeId, RevisionApi revisionApi, List<String> paths, int limit, boolean full) {
+    Map<String, String> hashes = new LinkedHashMap<>();
+    Map<String, CodexAgentClient.ContextFile> files = new LinkedHashMap<>();
+    int count = Math.min(paths.size(), limit);
+    for (int index = 0; index < count && !Thread.currentThread().isInterrupted(); index++) {
+      String path = paths.get(index);
+      try {
+        byte[] content = CodexContextFileLoader.readBytes(revisionApi, path);
+        hashes.put(path, Hashing.sha256().hashBytes(content).toString());
+        files.put(
+            path,
+            new CodexAgentClient.ContextFile(
+                path,
+                CodexContextFileLoader.truncate(new String(content, StandardCharsets.UTF_8))));
+      } catch (ResourceNotFoundException ex) {
+        logger.info("Skip context file {} because content is unavailable", path);
+      } catch (RestApiException ex) {
+        logger.warn("Failed to load context file {}", path, ex);
+      }
+    }
+    return new Plan(changeId, hashes, files, full ? null : readState(changeId));
+  }
+
+  /** Stores the outcome of a review made from {@code plan}. */
+  public void record(Plan plan, String revisionId, String reply, CodexPathIndex pathIndex) {
+    record(plan, revisionId, reply, pathIndex, Collections.emptyList());
+  }
+
+  /**
+   * Stores the outcome of a review made from {@code plan} in which {@code unreviewed} files were
+   * not reviewed after all; they are left out, so that the next review sends them again.
+   */
+  public void record(
+      Plan plan,
+      String revisionId,
+      String reply,
+      CodexPathIndex pathIndex,
+      Collection<String> unreviewed) {
+    State state = new State();
+    state.revisionId = revisionId;
+    state.reviewedAt = System.currentTimeMillis();
+    state.fileHashes = new LinkedHashMap<>(plan.fileHashes);
+    state.fileHashes.keySet().removeAll(unreviewed);
+    state.findings = new ArrayList<>();
+    Set<String> changed = new HashSet<>(plan.changedPaths);
+    changed.removeAll(unreviewed);
+    for (CodexFinding finding : CodexFindingParser.parse(reply, pathIndex)) {
+      if (changed.contains(finding.path)) {
+        state.findings.add(finding);
+      }
+    }
+    state.findings.addAll(plan.priorFindings());
+    synchronized (this) {
+      try {
+        CodexJsonFiles.write(stateFile(plan.changeId), state);
+      } catch (IOException ex) {
+        logger.warn("Failed to record review state of change {}", plan.changeId, ex);
+      }
+    }
+  }
+
+  private synchronized State readState(String changeId) {
+    try {
+      State state = CodexJsonFiles.read(stateFile(changeId), State.class);
+      if (state != null && state.fileHashes != null) {
+        return state;
+      }
+    } catch (IOException ex) {
+      logger.warn("Ignoring unreadable review state of change {}", changeId, ex);
+    }
+    return null;
+  }
+
+  private Path stateFile(String changeId) {
+    return stateDir.resolve(changeId + ".json");
+  }
+
+  public static class Plan {
+    private final String changeId;
+    private final Map<String, String> fileHashes;
+    private final Map<String, CodexAgentClient.ContextFile> files;
+    private final State previous;
+    private final List<String> changedPaths = new ArrayList<>();
+    private final List<String> unchangedPaths = new ArrayList<>();
+
+    private Plan(
+        String changeId,
+        Map<String, String> fileHashes,
+        Map<String, CodexAgentClient.ContextFile> files,
+        State previous) {
+      this.changeId = changeId;
+      this.fileHashes = fileHashes;
+      this.files = files;
+      this.previous = previous;
+      for (Map.Entry<String, String> entry : fileHashes.entrySet()) {
+        String previousHash = previous == null ? null : previous.fileHashes.get(entry.getKey());
+        if (entry.getValue().equals(previousHash)) {
+          unchangedPaths.add(entry.getKey());
+        } else {
+          changedPaths.add(entry.getKey());
+        }
+      }
+    }
+
+    /** The same files planned as a full review. */
+    public Plan asFull() {
+      return new Plan(changeId, fileHashes, files, null);
+    }
+
+    /** True if some files are left out because they were reviewed before. */
+    public boolean isIncremental() {
+      return !unchangedPaths.isEmpty();
+    }
+
+    public boolean hasChanges() {
+      return !changedPaths.isEmpty();
+    }
+
+    public List<String> changedPaths() {
+      return Collections.unmodifiableList(changedPaths);
+    }
+
+    public List<String> unchangedPaths() {
+      return Collections.unmodifiableList(unchangedPaths);
+    }
+
+    /** Files to send to the agent. */
+    public List<CodexAgentClient.ContextFile> contextFiles() {
+      List<CodexAgentClient.ContextFile> result = new ArrayList<>(changedPaths.size());
+      for (String path : changedPaths) {
+        result.add(files.get(path));
+      }
+      return result;
+    }
+
+    /** Prompt section describing what was left out, or null for a full review. */
+    public String promptNote() {
+      if (!isIncremental()) {
+        return null;
+      }
+      StringBuilder note = new StringBuilder();
+      note.append("Incremental re-review: this change was last reviewed at revision ")
+          .append(abbreviate(previous.revisionId))
+          .append(". Only files changed since then are included as context.\n");
+      note.append("Unchanged files (already reviewed, out of scope):\n");
+      int listed = Math.min(unchangedPaths.size(), MAX_LISTED_UNCHANGED_FILES);
+      for (int i = 0; i < listed; i++) {
+        note.append("- ").append(unchangedPaths.get(i)).append("\n");
+      }
+      if (unchangedPaths.size() > listed) {
+        note.append("- ... and ").append(unchangedPaths.size() - listed).append(" more\n");
+      }
+      List<CodexFinding> prior = priorFindings();
+      if (!prior.isEmpty()) {
+        note.append("Findings from the previous review on unchanged files:\n");
+        int summarized = Math.min(prior.size(), MAX_SUMMARY_FINDINGS);
+        for (int i = 0; i < summarized; i++) {
+          CodexFinding finding = prior.get(i);
+          note.append("- ")
+              .append(finding.path)
+              .append(":")
+              .append(finding.startLine);
+          if (finding.endLine > finding.startLine) {
+            note.append("-").append(finding.endLine);
+          }
+          note.append(": ").append(oneLine(finding.text)).append("\n");
+        }
+        if (prior.size() > summarized) {
+          note.append("- ... and ").append(prior.size() - summarized).append(" more\n");
+        }
+        note.append("Do not repeat these findings unless the changed files affect them.\n");
+      }
+      return note.toString();
+    }
+
+    private List<CodexFinding> priorFindings() {
+      List<CodexFinding> prior = new ArrayList<>();
+      if (previous == null || previous.findings == null) {
+        return prior;
+      }
+      Set<String> unchanged = new HashSet<>(unchangedPaths);
+      for (CodexFinding finding : previous.findings) {
+        if (finding != null && unchanged.contains(finding.path)) {
+          prior.add(finding);
+        }
+      }
+      return prior;
+    }
+
+    private static String abbreviate(String revisionId) {
+      if (revisionId == null) {
+        return "(unknown)";
+      }
+      return revisionId.length() > 12 ? revisionId.substring(0, 12) : revisionId;
+    }
+
+    private static String oneLine(String text) {
+      String collapsed = text == null ? "" : text.replaceAll("\\s+", " ").trim();
+      if (collapsed.length() <= MAX_FINDING_SUMMARY_CHARS) {
+        return collapsed;
+      }
+      return collapsed.substring(0, MAX_FINDING_SUMMARY_CHARS) + "...";
+    }
+  }
+
+  static class State {
+    String revisionId;
+    long reviewedAt;
+    Map<String, String> fileHashes;
+    List<CodexFinding> findings;
+  }
+}
@@ -0,0 +1,201 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generated insight files, stored by the SHA-256 of their content under {@code
+ * <plugin-data>/insight-artifacts/<project>}.
+ *
+ * <p>{@code codex-insight} answers with a manifest of paths, sizes and hashes; the panel fetches
+ * each file through {@code codex-insight-artifact} when its tab is opened. Since an artifact never
+ * changes under its hash, responses carry the hash as ETag and may be cached by the browser.
+ * Artifacts not stored or read for {@link #RETENTION_DAYS} days are deleted.
+ *
+ * <p>Every project has its own artifacts, so knowing a hash only gives access to artifacts of a
+ * project the caller can already read.
+ */
+@Singleton
+public class CodexInsightArtifactStore implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexInsightArtifactStore.class);
+  private static final Pattern ID = Pattern.compile("[0-9a-f]{64}");
+  private static final long RETENTION_DAYS = 7;
+  private static final long SWEEP_INTERVAL_HOURS = 6;
+
+  private final WorkQueue workQueue;
+  private final Path artifactDir;
+  private volatile ScheduledFuture<?> sweeper;
+
+  @Inject
+  CodexInsightArtifactStore(WorkQueue workQueue, @PluginData Path pluginData) {
+    this.workQueue = workQueue;
+    this.artifactDir = pluginData.resolve("insight-artifacts");
+  }
+
+  @Override
+  public void start() {
+    sweeper =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(this::sweep, 0, SWEEP_INTERVAL_HOURS, TimeUnit.HOURS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> current = sweeper;
+    sweeper = null;
+    if (current != null) {
+      current.cancel(false);
+    }
+  }
+
+  private static String id(byte[] content) {
+    return Hashing.sha256().hashBytes(content).toString();
+  }
+
+  /** Stores {@code content} and returns its id; storing the same content again only touches it. */
+  public String put(Project.NameKey project, String content) throws IOException {
+    byte[] bytes = (content == null ? "" : content).getBytes(StandardCharsets.UTF_8);
+    String id = id(bytes);
+    Path target = file(project, id);
+    if (touch(target)) {
+      return id;
+    }
+    Files.createDirectories(target.getParent());
+    Path tmp = Files.createTempFile(target.getParent(), id + "-", ".tmp");
+    try {
+      Files.write(tmp, bytes);
+      try {
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException ex) {
+      // A concurrent put of the same content won the race; its file is identical.
+      if (!Files.isRegularFile(target)) {
+        throw ex;
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    return id;
+  }
+
+  /** Marks the artifact as used so that it is kept; false if it does not exist. */
+  public boolean touch(Project.NameKey project, String id) {
+    return isId(id) && touch(file(project, id));
+  }
+
+  public String read(Project.NameKey project, String id)
+      throws IOException, ResourceNotFoundException {
+    if (!isId(id)) {
+      throw new ResourceNotFoundException("Invalid insight artifact id: " + id);
+    }
+    Path source = file(project, id);
+    try {
+      byte[] bytes = Files.readAllBytes(source);
+      touch(source);
+      return new String(bytes, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException ex) {
+      throw new ResourceNotFoundException("Insight artifact " + id + " not found or expired");
+    }
+  }
+
+  public static boolean isId(String id) {
+    return id != null && ID.matcher(id).matches();
+  }
+
+  private Path file(Project.NameKey project, String id) {
+    // Encoded to one directory level; project names may contain slashes.
+    return artifactDir
+        .resolve(URLEncoder.encode(project.get(), StandardCharsets.UTF_8))
+        .resolve(id + ".md");
+  }
+
+  private static boolean touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  private void sweep() {
+    if (!Files.isDirectory(artifactDir)) {
+      return;
+    }
+    long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(RETENTION_DAYS);
+    try (DirectoryStream<Path> projects = Files.newDirectoryStream(artifactDir)) {
+      for (Path project : projects) {
+        if (Files.isDirectory(project)) {
+          sweep(project, cutoff);
+        } else {
+          // Left over from before artifacts were kept per project.
+          expire(project, cutoff);
+        }
+      }
+    } catch (IOException ex) {
+      logger.warn("Failed to sweep insight artifacts in {}", artifactDir, ex);
+    }
+  }
+
+  private static void sweep(Path projectDir, long cutoff) throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(projectDir)) {
+      for (Path file : files) {
+        expire(file, cutoff);
+      }
+    }
+    try {
+      Files.deleteIfExists(projectDir);
+    } catch (DirectoryNotEmptyException ex) {
+      // Still holds artifacts in use.
+    }
+  }
+
+  private static void expire(Path file, long cutoff) {
+    try {
+      if (Files.getLastModifiedTime(file).toMillis() < cutoff) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException ex) {
+      logger.warn("Failed to expire insight artifact {}", file, ex);
+    }
+  }
+}
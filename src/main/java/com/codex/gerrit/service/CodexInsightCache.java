@@ -0,0 +1,455 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexInsightInput;
+import com.codex.gerrit.rest.CodexInsightResponse;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs {@code #insight} through an on-disk result cache under {@code <plugin-data>/insight-cache}.
+ *
+ * <p>A run is keyed by a SHA-256 over the sorted (path, content hash) pairs of its input files
+ * and its options ({@code include}, {@code exclude}, {@code maxFilesPerModule}, {@code
+ * maxCharsPerFile}, {@code env}, {@code outPath}). An exact repeat is answered from the cache. The
+ * top-level directory of an input path is its module, and each module is also cached under a key
+ * over its own files. When only some modules changed, only their files are sent to codex.serve and
+ * the result is merged with the cached files of the other modules.
+ *
+ * <p>A generated file belongs to a module if one of its path segments, without extension, is the
+ * module name. Files that match no module (such as an overview) are taken from the latest run. A
+ * module none of whose generated files can be matched is not cached on its own and is always run.
+ *
+ * <p>Entries are evicted least recently used first once they, together with the artifacts they
+ * list, exceed {@code insightCacheMaxBytes}. Evicted artifacts are left to the artifact store's
+ * own expiry.
+ */
+@Singleton
+public class CodexInsightCache {
+  private static final Logger logger = LoggerFactory.getLogger(CodexInsightCache.class);
+  private static final String ROOT_MODULE = "";
+
+  private final CodexAgentClient agentClient;
+  private final CodexInsightArtifactStore artifactStore;
+  private final CodexGerritConfig config;
+  private final Path cacheDir;
+  /** Entry file name to its accounted size, least recently used first. */
+  private LinkedHashMap<String, Long> index;
+  private long totalBytes;
+
+  @Inject
+  CodexInsightCache(
+      CodexAgentClient agentClient,
+      CodexInsightArtifactStore artifactStore,
+      CodexGerritConfig config,
+      @PluginData Path pluginData) {
+    this.agentClient = agentClient;
+    this.artifactStore = artifactStore;
+    this.config = config;
+    this.cacheDir = pluginData.resolve("insight-cache");
+  }
+
+  /**
+   * Returns the insight of {@code project} for {@code input}. Generated files carry {@code sha256}
+   * and {@code size}; {@code content} is only set on files generated by this call. Misses run on
+   * {@code pool}.
+   */
+  public CodexInsightResponse run(
+      Project.NameKey project, CodexPool pool, CodexInsightInput input) throws RestApiException {
+    boolean cacheable = config.getInsightCacheMaxBytes() > 0 && !Boolean.TRUE.equals(input.dryRun);
+    if (!cacheable || input.files == null) {
+      return runFresh(project, pool, input);
+    }
+    // Artifacts are stored per project, so entries are too.
+    String options = "project=" + project.get() + '\n' + optionsDigest(input);
+    Map<String, Map<String, String>> modules = hashFilesByModule(input.files);
+    String runKey = "run-" + digest(options, null, modules);
+
+    if (!Boolean.TRUE.equals(input.refresh)) {
+      Entry cached = lookup(project, runKey);
+      if (cached != null) {
+        CodexInsightResponse response = cached.toResponse();
+        response.cached = true;
+        return response;
+      }
+    }
+
+    Map<String, String> moduleKeys = new TreeMap<>();
+    List<CachedFile> reusedFiles = new ArrayList<>();
+    List<String> reusedModules = new ArrayList<>();
+    for (Map.Entry<String, Map<String, String>> module : modules.entrySet()) {
+      String moduleKey = "module-" + digest(options, module.getKey(), modules);
+      moduleKeys.put(module.getKey(), moduleKey);
+      Entry cached = Boolean.TRUE.equals(input.refresh) ? null : lookup(project, moduleKey);
+      if (cached != null) {
+        reusedFiles.addAll(cached.files);
+        reusedModules.add(module.getKey());
+      }
+    }
+
+    CodexInsightInput remaining = input;
+    if (!reusedModules.isEmpty()) {
+      if (reusedModules.size() == modules.size()) {
+        // Every module is cached, but not this exact set of modules (e.g. one was removed).
+        Entry merged = new Entry();
+        merged.files = reusedFiles;
+        store(runKey, merged);
+        CodexInsightResponse response = merged.toResponse();
+        response.cached = true;
+        response.reusedModules = reusedModules;
+        return response;
+      }
+      remaining = withoutModules(input, reusedModules);
+    }
+
+    CodexInsightResponse response = runFresh(project, pool, remaining);
+    if (response.exitCode != 0) {
+      return response;
+    }
+    Entry run = Entry.of(response);
+    Map<String, List<CachedFile>> byModule = new LinkedHashMap<>();
+    for (String module : modules.keySet()) {
+      if (!reusedModules.contains(module)) {
+        byModule.put(module, new ArrayList<>());
+      }
+    }
+    for (CachedFile file : run.files) {
+      String module = moduleOf(file.path, byModule.keySet());
+      if (module != null) {
+        byModule.get(module).add(file);
+      }
+    }
+    for (Map.Entry<String, List<CachedFile>> module : byModule.entrySet()) {
+      if (!module.getValue().isEmpty()) {
+        Entry moduleEntry = new Entry();
+        moduleEntry.files = module.getValue();
+        store(moduleKeys.get(module.getKey()), moduleEntry);
+      }
+    }
+    run.files.addAll(reusedFiles);
+    store(runKey, run);
+
+    if (!reusedModules.isEmpty()) {
+      for (CachedFile file : reusedFiles) {
+        response.files.add(file.toGeneratedFile());
+      }
+      response.count = response.files.size();
+      response.reusedModules = reusedModules;
+    }
+    return response;
+  }
+
+  private CodexInsightResponse runFresh(
+      Project.NameKey project, CodexPool pool, CodexInsightInput input) throws RestApiException {
+    CodexInsightResponse response = agentClient.runInsight(pool, input);
+    for (CodexInsightResponse.GeneratedFile file : response.files) {
+      String content = file.content == null ? "" : file.content;
+      try {
+        file.sha256 = artifactStore.put(project, content);
+      } catch (IOException e) {
+        throw new ResourceConflictException(
+            "Failed to store insight file " + file.path + ": " + e.getMessage());
+      }
+      file.size = (long) content.getBytes(StandardCharsets.UTF_8).length;
+    }
+    return response;
+  }
+
+  /** Returns the entry if it and every artifact it lists still exist, marking them as used. */
+  private synchronized Entry lookup(Project.NameKey project, String key) {
+    loadIndex();
+    if (!index.containsKey(key)) {
+      return null;
+    }
+    Path file = cacheDir.resolve(key + ".json");
+    try {
+      Entry entry = CodexJsonFiles.read(file, Entry.class);
+      if (entry != null && entry.files != null) {
+        boolean complete = true;
+        for (CachedFile cached : entry.files) {
+          complete &= artifactStore.touch(project, cached.sha256);
+        }
+        if (complete) {
+          index.get(key);
+          Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+          return entry;
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Ignoring unreadable insight cache entry {}", file, e);
+    }
+    remove(key);
+    return null;
+  }
+
+  private synchronized void store(String key, Entry entry) {
+    loadIndex();
+    Path file = cacheDir.resolve(key + ".json");
+    try {
+      CodexJsonFiles.write(file, entry);
+      long bytes = Files.size(file);
+      for (CachedFile cached : entry.files) {
+        bytes += cached.size;
+      }
+      Long previous = index.remove(key);
+      totalBytes += bytes - (previous == null ? 0 : previous);
+      index.put(key, bytes);
+    } catch (IOException e) {
+      logger.warn("Failed to write insight cache entry {}", file, e);
+      return;
+    }
+    Iterator<Map.Entry<String, Long>> eldest = index.entrySet().iterator();
+    while (totalBytes > config.getInsightCacheMaxBytes() && eldest.hasNext()) {
+      Map.Entry<String, Long> evicted = eldest.next();
+      if (evicted.getKey().equals(key)) {
+        continue;
+      }
+      eldest.remove();
+      totalBytes -= evicted.getValue();
+      delete(evicted.getKey());
+    }
+  }
+
+  private void remove(String key) {
+    Long bytes = index.remove(key);
+    if (bytes != null) {
+      totalBytes -= bytes;
+    }
+    delete(key);
+  }
+
+  private void delete(String key) {
+    try {
+      Files.deleteIfExists(cacheDir.resolve(key + ".json"));
+    } catch (IOException e) {
+      logger.warn("Failed to delete insight cache entry {}", key, e);
+    }
+  }
+
+  /** Rebuilds the LRU order from the entry files' modification times. */
+  private void loadIndex() {
+    if (index != null) {
+      return;
+    }
+    index = new LinkedHashMap<>(16, 0.75f, true);
+    totalBytes = 0;
+    if (!Files.isDirectory(cacheDir)) {
+      return;
+    }
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, "*.json")) {
+      stream.forEach(files::add);
+    } catch (IOException e) {
+      logger.warn("Failed to list insight cache {}", cacheDir, e);
+    }
+    Map<Path, Long> modified = new LinkedHashMap<>();
+    for (Path file : files) {
+      try {
+        modified.put(file, Files.getLastModifiedTime(file).toMillis());
+      } catch (IOException e) {
+        modified.put(file, 0L);
+      }
+    }
+    files.sort(Comparator.comparing(modified::get));
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      String key = name.substring(0, name.length() - ".json".length());
+      try {
+        Entry entry = CodexJsonFiles.read(file, Entry.class);
+        long bytes = Files.size(file);
+        if (entry != null && entry.files != null) {
+          for (CachedFile cached : entry.files) {
+            bytes += cached.size;
+          }
+        }
+        index.put(key, bytes);
+        totalBytes += bytes;
+      } catch (IOException e) {
+        logger.warn("Dropping unreadable insight cache entry {}", file, e);
+        delete(key);
+      }
+    }
+  }
+
+  private static Map<String, Map<String, String>> hashFilesByModule(
+      List<CodexInsightInput.InsightFile> files) {
+    Map<String, Map<String, String>> modules = new TreeMap<>();
+    for (CodexInsightInput.InsightFile file : files) {
+      String path = file == null || file.path == null ? "" : file.path.trim();
+      if (path.isEmpty()) {
+        continue;
+      }
+      modules.computeIfAbsent(moduleOf(path), k -> new TreeMap<>()).put(path, contentHash(file));
+    }
+    return modules;
+  }
+
+  private static String contentHash(CodexInsightInput.InsightFile file) {
+    byte[] bytes;
+    if (file.base64Content != null && !file.base64Content.isEmpty()) {
+      try {
+        bytes = Base64.getDecoder().decode(file.base64Content.trim());
+      } catch (IllegalArgumentException e) {
+        bytes = file.base64Content.getBytes(StandardCharsets.UTF_8);
+      }
+    } else {
+      bytes = (file.content == null ? "" : file.content).getBytes(StandardCharsets.UTF_8);
+    }
+    return Hashing.sha256().hashBytes(bytes).toString();
+  }
+
+  /** Digest over the options and either one module's files or, for a null module, all files. */
+  private static String digest(
+      String options, String module, Map<String, Map<String, String>> modules) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putString(options, StandardCharsets.UTF_8);
+    for (Map.Entry<String, Map<String, String>> entry : modules.entrySet()) {
+      if (module != null && !module.equals(entry.getKey())) {
+        continue;
+      }
+      for (Map.Entry<String, String> file : entry.getValue().entrySet()) {
+        hasher.putString(file.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+        hasher.putString(file.getValue(), StandardCharsets.UTF_8).putByte((byte) '\n');
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static String optionsDigest(CodexInsightInput input) {
+    StringBuilder options = new StringBuilder();
+    options.append("include=").append(input.include).append('\n');
+    options.append("exclude=").append(input.exclude).append('\n');
+    options.append("maxFilesPerModule=").append(input.maxFilesPerModule).append('\n');
+    options.append("maxCharsPerFile=").append(input.maxCharsPerFile).append('\n');
+    String outPath = input.outPath == null ? "" : input.outPath.trim();
+    options.append("outPath=").append(outPath).append('\n');
+    options.append("env=").append(input.env == null ? "{}" : new TreeMap<>(input.env)).append('\n');
+    return options.toString();
+  }
+
+  private static String moduleOf(String path) {
+    int slash = path.indexOf('/');
+    return slash <= 0 ? ROOT_MODULE : path.substring(0, slash);
+  }
+
+  /** Module of a generated file, matched by path segment; null if none matches. */
+  private static String moduleOf(String generatedPath, Iterable<String> modules) {
+    List<String> segments = new ArrayList<>();
+    for (String segment : generatedPath.split("/")) {
+      int dot = segment.lastIndexOf('.');
+      segments.add((dot > 0 ? segment.substring(0, dot) : segment).toLowerCase(Locale.ROOT));
+    }
+    for (String module : modules) {
+      if (!module.isEmpty() && segments.contains(module.toLowerCase(Locale.ROOT))) {
+        return module;
+      }
+    }
+    return null;
+  }
+
+  private static CodexInsightInput withoutModules(
+      CodexInsightInput input, List<String> skippedModules) {
+    CodexInsightInput subset = new CodexInsightInput();
+    subset.outPath = input.outPath;
+    subset.include = input.include;
+    subset.exclude = input.exclude;
+    subset.maxFilesPerModule = input.maxFilesPerModule;
+    subset.maxCharsPerFile = input.maxCharsPerFile;
+    subset.dryRun = input.dryRun;
+    subset.env = input.env;
+    subset.files = new ArrayList<>();
+    for (CodexInsightInput.InsightFile file : input.files) {
+      String path = file == null || file.path == null ? "" : file.path.trim();
+      if (!path.isEmpty() && !skippedModules.contains(moduleOf(path))) {
+        subset.files.add(file);
+      }
+    }
+    return subset;
+  }
+
+  static class Entry {
+    String stdout;
+    String stderr;
+    String outputDir;
+    List<CachedFile> files = Collections.emptyList();
+
+    static Entry of(CodexInsightResponse response) {
+      Entry entry = new Entry();
+      entry.stdout = response.stdout;
+      entry.stderr = response.stderr;
+      entry.outputDir = response.outputDir;
+      entry.files = new ArrayList<>();
+      for (CodexInsightResponse.GeneratedFile file : response.files) {
+        CachedFile cached = new CachedFile();
+        cached.path = file.path;
+        cached.sha256 = file.sha256;
+        cached.size = file.size == null ? 0 : file.size;
+        entry.files.add(cached);
+      }
+      return entry;
+    }
+
+    CodexInsightResponse toResponse() {
+      CodexInsightResponse response = new CodexInsightResponse();
+      response.stdout = stdout;
+      response.stderr = stderr;
+      response.outputDir = outputDir;
+      for (CachedFile file : files) {
+        response.files.add(file.toGeneratedFile());
+      }
+      response.count = response.files.size();
+      return response;
+    }
+  }
+
+  static class CachedFile {
+    String path;
+    String sha256;
+    long size;
+
+    CodexInsightResponse.GeneratedFile toGeneratedFile() {
+      CodexInsightResponse.GeneratedFile file = new CodexInsightResponse.GeneratedFile(path, null);
+      file.sha256 = sha256;
+      file.size = size;
+      return file;
+    }
+  }
+}
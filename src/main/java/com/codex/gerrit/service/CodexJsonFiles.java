@@ -0,0 +1,68 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/** Small JSON documents in the plugin data directory, replaced atomically on write. */
+final class CodexJsonFiles {
+  private static final Gson GSON = new Gson();
+
+  private CodexJsonFiles() {}
+
+  static void write(Path target, Object value) throws IOException {
+    Path dir = target.getParent();
+    Files.createDirectories(dir);
+    Path tmp = Files.createTempFile(dir, target.getFileName().toString() + "-", ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        GSON.toJson(value, writer);
+      }
+      try {
+        Files.move(
+            tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ex) {
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Returns null if the file does not exist. */
+  static <T> T read(Path source, Class<T> type) throws IOException {
+    if (!Files.isRegularFile(source)) {
+      return null;
+    }
+    try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+      return GSON.fromJson(reader, type);
+    } catch (JsonParseException ex) {
+      throw new IOException("Malformed JSON in " + source, ex);
+    }
+  }
+
+  static boolean isTempFile(Path file) {
+    return file.getFileName().toString().endsWith(".tmp");
+  }
+}
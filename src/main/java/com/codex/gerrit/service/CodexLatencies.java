@@ -0,0 +1,83 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Recent latencies of agent runs per pool, agent and model: the time to the first event and the
+ * longest silence between two events of a run. Only the last {@link #SAMPLES} runs count.
+ */
+@Singleton
+public class CodexLatencies {
+  private static final int SAMPLES = 200;
+
+  private final ConcurrentMap<String, Ring> firstEvent = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Ring> maxGap = new ConcurrentHashMap<>();
+
+  @Inject
+  CodexLatencies() {}
+
+  void recordFirstEvent(String pool, String agent, String model, long elapsedMs) {
+    firstEvent.computeIfAbsent(key(pool, agent, model), k -> new Ring()).add(elapsedMs);
+  }
+
+  void recordMaxGap(String pool, String agent, String model, long elapsedMs) {
+    maxGap.computeIfAbsent(key(pool, agent, model), k -> new Ring()).add(elapsedMs);
+  }
+
+  /** Returns the first-event latency {@code percentile} in ms, or -1 with fewer samples. */
+  long firstEventPercentile(
+      String pool, String agent, String model, int percentile, int minSamples) {
+    Ring ring = firstEvent.get(key(pool, agent, model));
+    return ring == null ? -1 : ring.percentile(percentile, minSamples);
+  }
+
+  /** Returns the {@code percentile} of the longest gap per run in ms, or -1. */
+  long maxGapPercentile(String pool, String agent, String model, int percentile, int minSamples) {
+    Ring ring = maxGap.get(key(pool, agent, model));
+    return ring == null ? -1 : ring.percentile(percentile, minSamples);
+  }
+
+  private static String key(String pool, String agent, String model) {
+    String normalizedModel = model == null ? "" : model.trim();
+    return pool + ":" + agent + "/" + normalizedModel;
+  }
+
+  private static class Ring {
+    private final long[] samples = new long[SAMPLES];
+    private int count;
+    private int next;
+
+    synchronized void add(long elapsedMs) {
+      samples[next] = elapsedMs;
+      next = (next + 1) % SAMPLES;
+      count = Math.min(SAMPLES, count + 1);
+    }
+
+    synchronized long percentile(int percentile, int minSamples) {
+      if (count < Math.max(1, minSamples)) {
+        return -1;
+      }
+      long[] sorted = Arrays.copyOf(samples, count);
+      Arrays.sort(sorted);
+      return sorted[Math.min(count - 1, (int) Math.ceil(count * percentile / 100.0) - 1)];
+    }
+  }
+}
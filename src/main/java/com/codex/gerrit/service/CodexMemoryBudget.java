@@ -0,0 +1,135 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Plugin-wide budget of payload bytes held on the Gerrit heap.
+ *
+ * <p>Paths that read file contents, source trees, attachments or uploads into memory first take a
+ * {@link Lease} on the bytes they are about to hold, and keep it until the payload has been sent
+ * and dropped. The budget is {@code memoryBudget}; a request that does not fit waits up to {@code
+ * memoryBudgetWait} for others to finish and is then rejected. A payload larger than the whole
+ * budget waits until it can run alone. Bytes are counted in KiB permits of a fair semaphore.
+ */
+@Singleton
+public class CodexMemoryBudget {
+  private static final long UNIT_BYTES = 1024;
+
+  private final long waitMs;
+  private final int totalUnits;
+  private final Semaphore units;
+  private final Counter0 waited;
+  private final Counter0 rejected;
+
+  @Inject
+  CodexMemoryBudget(CodexGerritConfig config, MetricMaker metrics) {
+    this.waitMs = config.getMemoryBudgetWaitMs();
+    long budget = config.getMemoryBudget();
+    this.totalUnits =
+        budget <= 0 ? 0 : (int) Math.min(Integer.MAX_VALUE, Math.max(1, budget / UNIT_BYTES));
+    this.units = totalUnits == 0 ? null : new Semaphore(totalUnits, true);
+    metrics.newCallbackMetric(
+        "memory_budget/used_bytes",
+        Long.class,
+        new Description("Payload bytes held under the memory budget").setGauge().setUnit("bytes"),
+        () -> units == null ? 0L : (totalUnits - units.availablePermits()) * UNIT_BYTES);
+    metrics.newCallbackMetric(
+        "memory_budget/utilization",
+        Integer.class,
+        new Description("Share of the memory budget in use").setGauge().setUnit("percent"),
+        () ->
+            units == null
+                ? 0
+                : (int) ((totalUnits - units.availablePermits()) * 100L / totalUnits));
+    this.waited =
+        metrics.newCounter(
+            "memory_budget/waited",
+            new Description("Payloads that waited for the memory budget")
+                .setRate()
+                .setUnit("requests"));
+    this.rejected =
+        metrics.newCounter(
+            "memory_budget/rejected",
+            new Description("Payloads rejected because the memory budget stayed exhausted")
+                .setRate()
+                .setUnit("requests"));
+  }
+
+  /**
+   * Takes {@code bytes} of the budget for {@code what}, waiting up to {@code memoryBudgetWait}.
+   * Close the lease once the payload is no longer referenced.
+   */
+  public Lease acquire(long bytes, String what) throws ResourceConflictException {
+    if (units == null || bytes <= 0) {
+      return new Lease(0);
+    }
+    int wanted = (int) Math.min(totalUnits, (bytes + UNIT_BYTES - 1) / UNIT_BYTES);
+    if (units.tryAcquire(wanted)) {
+      return new Lease(wanted);
+    }
+    waited.increment();
+    try {
+      if (units.tryAcquire(wanted, waitMs, TimeUnit.MILLISECONDS)) {
+        return new Lease(wanted);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResourceConflictException("Cancelled while waiting for memory for " + what);
+    }
+    rejected.increment();
+    throw new ResourceConflictException(
+        "Not enough memory for "
+            + what
+            + ": "
+            + mib(bytes)
+            + " MiB needed, "
+            + mib(units.availablePermits() * UNIT_BYTES)
+            + " of "
+            + mib(totalUnits * UNIT_BYTES)
+            + " MiB free; try again later");
+  }
+
+  private static long mib(long bytes) {
+    return (bytes + (1 << 20) - 1) >> 20;
+  }
+
+  /** Bytes held by one payload; released once on close. */
+  public final class Lease implements AutoCloseable {
+    private final int held;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Lease(int held) {
+      this.held = held;
+    }
+
+    @Override
+    public void close() {
+      if (held > 0 && released.compareAndSet(false, true)) {
+        units.release(held);
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass scanner for {@code @mention} tokens in a prompt.
+ *
+ * <p>A mention starts with {@code @} at the beginning of the prompt or right after whitespace and
+ * runs until the next whitespace. Trailing punctuation such as {@code ).,!?;:} is stripped, which
+ * matches the previous split-and-regex behaviour without allocating per token.
+ */
+public final class CodexMentionScanner {
+  private CodexMentionScanner() {}
+
+  public static List<String> scan(String prompt) {
+    List<String> mentions = new ArrayList<>();
+    if (prompt == null || prompt.isEmpty()) {
+      return mentions;
+    }
+    int length = prompt.length();
+    int index = 0;
+    while (index < length) {
+      while (index < length && isWhitespace(prompt.charAt(index))) {
+        index++;
+      }
+      int tokenStart = index;
+      while (index < length && !isWhitespace(prompt.charAt(index))) {
+        index++;
+      }
+      if (index - tokenStart < 2 || prompt.charAt(tokenStart) != '@') {
+        continue;
+      }
+      int end = index;
+      while (end > tokenStart + 1 && isTrailingPunctuation(prompt.charAt(end - 1))) {
+        end--;
+      }
+      if (end > tokenStart + 1) {
+        mentions.add(prompt.substring(tokenStart + 1, end));
+      }
+    }
+    return mentions;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+  }
+
+  private static boolean isTrailingPunctuation(char c) {
+    switch (c) {
+      case '[':
+      case ']':
+      case '(':
+      case ')':
+      case '{':
+      case '}':
+      case '.':
+      case ',':
+      case '!':
+      case '?':
+      case ';':
+      case ':':
+        return true;
+      default:
+        return false;
+    }
+  }
+}
@@ -0,0 +1,200 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Text output kept in memory up to a threshold and spooled to a temp file beyond it.
+ *
+ * <p>The in-memory head always holds the first chunks appended, so it doubles as the first page of
+ * a spilled output. The spool file holds the complete UTF-8 output, capped at {@code maxBytes};
+ * output past the cap is dropped and {@link #isTruncated()} is set. Not thread-safe.
+ */
+public final class CodexOutputBuffer implements Closeable {
+  private static final Logger logger = LoggerFactory.getLogger(CodexOutputBuffer.class);
+  static final String TRUNCATED_MARKER = "\n[truncated]";
+
+  private final Path spillDir;
+  private final int memoryChars;
+  private final long maxBytes;
+  private final StringBuilder head = new StringBuilder();
+  private Path file;
+  private OutputStream out;
+  private long bytes;
+  private boolean truncated;
+  private long tokens;
+
+  CodexOutputBuffer(Path spillDir, int memoryChars, long maxBytes) {
+    this.spillDir = spillDir;
+    this.memoryChars = memoryChars;
+    this.maxBytes = maxBytes;
+  }
+
+  public void append(CharSequence chunk) throws IOException {
+    if (chunk == null || chunk.length() == 0 || truncated) {
+      return;
+    }
+    if (file == null && head.length() + chunk.length() <= memoryChars) {
+      head.append(chunk);
+      bytes += utf8Length(chunk);
+      return;
+    }
+    if (file == null) {
+      spill();
+    }
+    byte[] encoded = chunk.toString().getBytes(StandardCharsets.UTF_8);
+    int length = (int) Math.min(encoded.length, maxBytes - bytes);
+    if (length < encoded.length) {
+      truncated = true;
+    }
+    if (length > 0) {
+      out.write(encoded, 0, length);
+      bytes += length;
+    }
+  }
+
+  private void spill() throws IOException {
+    Files.createDirectories(spillDir);
+    file = Files.createTempFile(spillDir, "output-", ".txt");
+    out = new BufferedOutputStream(Files.newOutputStream(file));
+    out.write(head.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Flushes the spool file; call once all output has been appended. */
+  public void finish() throws IOException {
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+  }
+
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /** Tokens the run reported in its usage events. */
+  public long tokens() {
+    return tokens;
+  }
+
+  void addTokens(long count) {
+    tokens += count;
+  }
+
+  /** Size of the complete output in UTF-8 bytes. */
+  public long size() {
+    return bytes;
+  }
+
+  /** The whole output if it was not spilled, otherwise its first page. */
+  public String head() {
+    return head.toString();
+  }
+
+  /** Size of {@link #head()} in UTF-8 bytes, i.e. the offset the second page starts at. */
+  public long headBytes() {
+    return utf8Length(head);
+  }
+
+  /** The head, marked when more output exists than it shows. */
+  public String text() {
+    return isSpilled() || truncated ? head + TRUNCATED_MARKER : head.toString();
+  }
+
+  /** The complete output, read back from the spool file; marked if it was cut at the cap. */
+  public String fullText() throws IOException {
+    if (!isSpilled()) {
+      return text();
+    }
+    StringWriter text = new StringWriter();
+    try (Reader reader = openReader()) {
+      reader.transferTo(text);
+    }
+    if (truncated) {
+      text.write(TRUNCATED_MARKER);
+    }
+    return text.toString();
+  }
+
+  public boolean isBlank() {
+    return bytes == 0 || (!isSpilled() && head.toString().trim().isEmpty());
+  }
+
+  /** Reads the complete output. */
+  public Reader openReader() throws IOException {
+    if (file == null) {
+      return new StringReader(head.toString());
+    }
+    finish();
+    return Files.newBufferedReader(file, StandardCharsets.UTF_8);
+  }
+
+  /** Hands the spool file to the caller, who becomes responsible for deleting it. */
+  Path detachFile() throws IOException {
+    finish();
+    Path detached = file;
+    file = null;
+    return detached;
+  }
+
+  /** Discards the output, deleting the spool file unless it was published. */
+  @Override
+  public void close() {
+    try {
+      finish();
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to discard spooled output {}", file, e);
+    } finally {
+      file = null;
+    }
+  }
+
+  private static long utf8Length(CharSequence text) {
+    long length = 0;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < text.length()) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
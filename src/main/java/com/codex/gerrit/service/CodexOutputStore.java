@@ -0,0 +1,228 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spooled agent output under {@code <plugin-data>/output}, readable in pages for an hour.
+ *
+ * <p>Buffers created here keep up to {@code outputMemoryChars} in memory and spill the rest to
+ * disk, capped at {@code outputSpillMaxBytes}. A spilled chat reply is published under a random
+ * handle bound to its change and requesting account; everything else is deleted once the buffer
+ * is closed. Spool files do not survive a restart.
+ */
+@Singleton
+public class CodexOutputStore implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexOutputStore.class);
+  private static final long TTL_MS = TimeUnit.HOURS.toMillis(1);
+  private static final long REAP_INTERVAL_MINUTES = 5;
+  public static final int MAX_PAGE_BYTES = 1024 * 1024;
+
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final Path outputDir;
+  private final ConcurrentMap<String, Spool> spools = new ConcurrentHashMap<>();
+  private volatile ScheduledFuture<?> reaper;
+
+  @Inject
+  CodexOutputStore(CodexGerritConfig config, WorkQueue workQueue, @PluginData Path pluginData) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.outputDir = pluginData.resolve("output");
+  }
+
+  @Override
+  public void start() {
+    deleteAll();
+    reaper =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::reap, REAP_INTERVAL_MINUTES, REAP_INTERVAL_MINUTES, TimeUnit.MINUTES);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> current = reaper;
+    reaper = null;
+    if (current != null) {
+      current.cancel(false);
+    }
+    spools.clear();
+    deleteAll();
+  }
+
+  public CodexOutputBuffer newBuffer() {
+    return new CodexOutputBuffer(
+        outputDir, config.getOutputMemoryChars(), config.getOutputSpillMaxBytes());
+  }
+
+  /**
+   * Keeps the spool file of {@code buffer} readable through {@link #read}. Returns null if the
+   * buffer was not spilled, i.e. its head is the complete output.
+   */
+  public String publish(CodexOutputBuffer buffer, String changeId, Account.Id owner)
+      throws IOException {
+    Path file = buffer.detachFile();
+    if (file == null) {
+      return null;
+    }
+    String handle = UUID.randomUUID().toString();
+    spools.put(
+        handle,
+        new Spool(
+            file,
+            changeId,
+            owner,
+            buffer.size(),
+            buffer.isTruncated(),
+            System.currentTimeMillis() + TTL_MS));
+    return handle;
+  }
+
+  /**
+   * Reads up to {@code length} bytes starting at {@code offset}. The page ends on a UTF-8
+   * character boundary, so {@link Page#nextOffset} may be a little less than {@code offset +
+   * length}.
+   */
+  public Page read(String handle, String changeId, Account.Id owner, long offset, int length)
+      throws IOException, ResourceNotFoundException {
+    Spool spool = handle == null ? null : spools.get(handle);
+    if (spool == null
+        || spool.expiresAt < System.currentTimeMillis()
+        || !spool.changeId.equals(changeId)
+        || !Objects.equals(spool.owner, owner)) {
+      throw new ResourceNotFoundException("Output " + handle + " not found or expired");
+    }
+    long start = Math.max(0, Math.min(offset, spool.size));
+    int pageBytes = Math.max(1, Math.min(length, MAX_PAGE_BYTES));
+    int wanted = (int) Math.min(pageBytes, spool.size - start);
+    ByteBuffer bytes = ByteBuffer.allocate(wanted + 3);
+    try (FileChannel channel = FileChannel.open(spool.file, StandardOpenOption.READ)) {
+      channel.position(start);
+      while (bytes.hasRemaining() && channel.read(bytes) > 0) {}
+    }
+    int read = Math.min(bytes.position(), wanted);
+    int end = start + read >= spool.size ? read : characterBoundary(bytes.array(), read);
+    Page page = new Page();
+    page.handle = handle;
+    page.offset = start;
+    page.nextOffset = start + end;
+    page.totalBytes = spool.size;
+    page.eof = page.nextOffset >= spool.size;
+    page.truncated = spool.truncated;
+    page.text = new String(bytes.array(), 0, end, StandardCharsets.UTF_8);
+    return page;
+  }
+
+  /** Moves {@code end} back so that it does not split a UTF-8 sequence. */
+  private static int characterBoundary(byte[] bytes, int end) {
+    int boundary = end;
+    while (boundary > 0 && boundary > end - 4 && (bytes[boundary] & 0xC0) == 0x80) {
+      boundary--;
+    }
+    return boundary == 0 ? end : boundary;
+  }
+
+  private void reap() {
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, Spool> e : spools.entrySet()) {
+      if (e.getValue().expiresAt < now && spools.remove(e.getKey(), e.getValue())) {
+        delete(e.getValue().file);
+      }
+    }
+  }
+
+  private void deleteAll() {
+    if (!Files.isDirectory(outputDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(outputDir)) {
+      for (Path file : files) {
+        delete(file);
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to clean output directory {}", outputDir, e);
+    }
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("Failed to delete spooled output {}", file, e);
+    }
+  }
+
+  public static class Page {
+    public String handle;
+    public long offset;
+    public long nextOffset;
+    public long totalBytes;
+    public boolean eof;
+    /** True if the output exceeded {@code outputSpillMaxBytes} and its tail was dropped. */
+    public boolean truncated;
+    public String text;
+  }
+
+  private static class Spool {
+    private final Path file;
+    private final String changeId;
+    private final Account.Id owner;
+    private final long size;
+    private final boolean truncated;
+    private final long expiresAt;
+
+    private Spool(
+        Path file,
+        String changeId,
+        Account.Id owner,
+        long size,
+        boolean truncated,
+        long expiresAt) {
+      this.file = file;
+      this.changeId = changeId;
+      this.owner = owner;
+      this.size = size;
+      this.truncated = truncated;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
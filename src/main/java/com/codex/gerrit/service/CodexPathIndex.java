@@ -0,0 +1,231 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.extensions.common.FileInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable index over the mentionable paths of one revision.
+ *
+ * <p>Paths are stored in a trie keyed by path segment, which serves prefix queries for the mention
+ * dropdown without scanning every path. A basename table resolves short mentions such as {@code
+ * @Foo.java} or {@code @gerrit/Foo.java} to the unique path that ends with them.
+ */
+public final class CodexPathIndex {
+  private static final CodexPathIndex EMPTY = new CodexPathIndex(Collections.emptyList());
+
+  private final List<String> paths;
+  private final Set<String> pathSet;
+  private final Node root = new Node();
+  private final Map<String, List<String>> pathsByBasename = new HashMap<>();
+  private final String[] basenameKeys;
+  private final String[] basenamePaths;
+
+  private CodexPathIndex(Collection<String> sourcePaths) {
+    List<String> sorted = new ArrayList<>(new LinkedHashSet<>(sourcePaths));
+    Collections.sort(sorted);
+    this.paths = Collections.unmodifiableList(sorted);
+    this.pathSet = new HashSet<>(sorted);
+
+    String[][] basenameEntries = new String[sorted.size()][];
+    int index = 0;
+    for (String path : sorted) {
+      Node node = root;
+      for (String segment : path.split("/")) {
+        node = node.children.computeIfAbsent(segment, k -> new Node());
+      }
+      node.path = path;
+
+      String basename = basename(path);
+      pathsByBasename.computeIfAbsent(basename, k -> new ArrayList<>(1)).add(path);
+      basenameEntries[index++] = new String[] {basename.toLowerCase(Locale.ROOT), path};
+    }
+
+    Arrays.sort(basenameEntries, (a, b) -> a[0].compareTo(b[0]));
+    this.basenameKeys = new String[basenameEntries.length];
+    this.basenamePaths = new String[basenameEntries.length];
+    for (int i = 0; i < basenameEntries.length; i++) {
+      basenameKeys[i] = basenameEntries[i][0];
+      basenamePaths[i] = basenameEntries[i][1];
+    }
+  }
+
+  public static CodexPathIndex build(Collection<String> paths) {
+    if (paths == null || paths.isEmpty()) {
+      return EMPTY;
+    }
+    return new CodexPathIndex(paths);
+  }
+
+  /** Paths of a revision file listing that can be mentioned: no magic files, no deletions. */
+  public static List<String> mentionablePaths(Map<String, FileInfo> files) {
+    List<String> availableFiles = new ArrayList<>();
+    if (files == null || files.isEmpty()) {
+      return availableFiles;
+    }
+    for (Map.Entry<String, FileInfo> entry : files.entrySet()) {
+      String file = entry.getKey();
+      if (file == null || file.isEmpty() || file.startsWith("/")) {
+        continue;
+      }
+      if (isDeletedFile(entry.getValue())) {
+        continue;
+      }
+      availableFiles.add(file);
+    }
+    return availableFiles;
+  }
+
+  private static boolean isDeletedFile(FileInfo fileInfo) {
+    return fileInfo != null && fileInfo.status != null && fileInfo.status == 'D';
+  }
+
+  /** All indexed paths, sorted. */
+  public List<String> paths() {
+    return paths;
+  }
+
+  public int size() {
+    return paths.size();
+  }
+
+  /**
+   * Resolves a mention to an indexed path. Exact paths win; otherwise the mention must be the
+   * basename or a segment-aligned suffix of exactly one path. Ambiguous mentions resolve to null.
+   */
+  public String resolve(String mention) {
+    if (mention == null || mention.isEmpty()) {
+      return null;
+    }
+    if (pathSet.contains(mention)) {
+      return mention;
+    }
+    List<String> candidates = pathsByBasename.get(basename(mention));
+    if (candidates == null) {
+      return null;
+    }
+    String suffix = "/" + mention;
+    String match = null;
+    for (String candidate : candidates) {
+      if (candidate.endsWith(suffix)) {
+        if (match != null) {
+          return null;
+        }
+        match = candidate;
+      }
+    }
+    return match;
+  }
+
+  /**
+   * Returns up to {@code limit} paths whose full path or basename starts with {@code prefix},
+   * ignoring case. Full-path matches are listed first.
+   */
+  public List<String> query(String prefix, int limit) {
+    if (limit <= 0) {
+      return Collections.emptyList();
+    }
+    String normalized = prefix == null ? "" : prefix;
+    LinkedHashSet<String> result = new LinkedHashSet<>();
+    collectPathPrefix(normalized, limit, result);
+    if (result.size() < limit && !normalized.isEmpty() && normalized.indexOf('/') < 0) {
+      collectBasenamePrefix(normalized.toLowerCase(Locale.ROOT), limit, result);
+    }
+    return new ArrayList<>(result);
+  }
+
+  private void collectPathPrefix(String prefix, int limit, Set<String> result) {
+    String[] segments = prefix.split("/", -1);
+    List<Node> frontier = Collections.singletonList(root);
+    for (int i = 0; i < segments.length - 1 && !frontier.isEmpty(); i++) {
+      List<Node> next = new ArrayList<>();
+      for (Node node : frontier) {
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+          if (child.getKey().equalsIgnoreCase(segments[i])) {
+            next.add(child.getValue());
+          }
+        }
+      }
+      frontier = next;
+    }
+
+    String partial = segments[segments.length - 1];
+    for (Node node : frontier) {
+      for (Map.Entry<String, Node> child : node.children.entrySet()) {
+        String key = child.getKey();
+        if (key.regionMatches(true, 0, partial, 0, partial.length())
+            && !collect(child.getValue(), limit, result)) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static boolean collect(Node node, int limit, Set<String> result) {
+    if (node.path != null) {
+      result.add(node.path);
+      if (result.size() >= limit) {
+        return false;
+      }
+    }
+    for (Node child : node.children.values()) {
+      if (!collect(child, limit, result)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void collectBasenamePrefix(String lowerPrefix, int limit, Set<String> result) {
+    int low = 0;
+    int high = basenameKeys.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (basenameKeys[mid].compareTo(lowerPrefix) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    for (int i = low; i < basenameKeys.length && result.size() < limit; i++) {
+      if (!basenameKeys[i].startsWith(lowerPrefix)) {
+        break;
+      }
+      result.add(basenamePaths[i]);
+    }
+  }
+
+  private static String basename(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash < 0 ? path : path.substring(slash + 1);
+  }
+
+  private static final class Node {
+    private final TreeMap<String, Node> children = new TreeMap<>();
+    private String path;
+  }
+}
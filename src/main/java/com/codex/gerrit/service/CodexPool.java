@@ -0,0 +1,148 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexPoolConfig;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A codex.serve backend as used by one kind of work. Pools of the same backend share its run
+ * slots, which {@link CodexRunQueue} hands out by priority class and then fairly across projects
+ * and accounts.
+ */
+public final class CodexPool {
+  private final CodexPoolConfig.Pool config;
+  private final CodexScheduler scheduler;
+  private final CodexRunQueue queue;
+  private final CodexPriority priority;
+  private final String project;
+  private final int account;
+  private final int weight;
+
+  CodexPool(CodexPoolConfig.Pool config, CodexScheduler scheduler) {
+    this(
+        config,
+        scheduler,
+        scheduler.newQueue(config.maxConcurrent),
+        CodexPriority.INTERACTIVE,
+        "",
+        0,
+        1);
+  }
+
+  private CodexPool(
+      CodexPoolConfig.Pool config,
+      CodexScheduler scheduler,
+      CodexRunQueue queue,
+      CodexPriority priority,
+      String project,
+      int account,
+      int weight) {
+    this.config = config;
+    this.scheduler = scheduler;
+    this.queue = queue;
+    this.priority = priority;
+    this.project = project;
+    this.account = account;
+    this.weight = weight;
+  }
+
+  /**
+   * The same backend for work of {@code priority} on {@code project} by {@code account} (null for
+   * server-initiated work), weighted by the project's {@code schedulingWeight}.
+   */
+  CodexPool forWork(
+      CodexPriority priority, Project.NameKey project, Account.Id account, int weight) {
+    return new CodexPool(
+        config,
+        scheduler,
+        queue,
+        priority,
+        project.get(),
+        account == null ? 0 : account.get(),
+        weight);
+  }
+
+  public String name() {
+    return config.name;
+  }
+
+  public String url() {
+    return config.url;
+  }
+
+  public CodexPriority priority() {
+    return priority;
+  }
+
+  CodexPoolConfig.Pool config() {
+    return config;
+  }
+
+  /** Waits up to {@code queueTimeout} for a run slot; close the slot when the run ends. */
+  Slot acquire() throws ResourceConflictException {
+    if (queue == null) {
+      return new Slot(null);
+    }
+    long started = System.nanoTime();
+    try {
+      if (!queue.acquire(priority, project, account, weight, config.queueTimeoutMs)) {
+        throw new ResourceConflictException(
+            "codex.serve pool "
+                + config.name
+                + " is busy: "
+                + config.maxConcurrent
+                + " runs in flight, "
+                + queue.waiting(priority)
+                + " "
+                + priority.label()
+                + " runs waiting");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ResourceConflictException("Cancelled while waiting for pool " + config.name);
+    } finally {
+      scheduler.recordWait(priority, System.nanoTime() - started);
+    }
+    return new Slot(queue);
+  }
+
+  /** Returns a run slot if one is free at once and no run waits for it, else null. */
+  Slot tryAcquire() {
+    if (queue == null) {
+      return new Slot(null);
+    }
+    return queue.tryAcquire() ? new Slot(queue) : null;
+  }
+
+  static final class Slot implements AutoCloseable {
+    private final CodexRunQueue queue;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot(CodexRunQueue queue) {
+      this.queue = queue;
+    }
+
+    @Override
+    public void close() {
+      if (queue != null && released.compareAndSet(false, true)) {
+        queue.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.config.CodexPoolConfig;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Routes requests to codex.serve pools by project, branch and agent (see {@link
+ * CodexPoolConfig}). The routing of a project is cached until a {@code refs/meta/config} changes.
+ * A route to a pool that is not configured fails the request rather than falling back, so a
+ * project bound to a dedicated pool never reaches a shared one. The returned pool queues its runs
+ * under the request's {@link CodexPriority}, project and account.
+ */
+@Singleton
+public class CodexPools implements GitReferenceUpdatedListener {
+  private final CodexGerritConfig config;
+  private final CodexPoolConfig poolConfig;
+  private final Map<String, CodexPool> pools = new LinkedHashMap<>();
+  private final ConcurrentMap<Project.NameKey, CodexPoolConfig.Routing> routing =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  CodexPools(CodexGerritConfig config, CodexPoolConfig poolConfig, CodexScheduler scheduler) {
+    this.config = config;
+    this.poolConfig = poolConfig;
+    for (CodexPoolConfig.Pool pool : poolConfig.pools()) {
+      pools.put(pool.name, new CodexPool(pool, scheduler));
+    }
+  }
+
+  public CodexPool defaultPool() {
+    return pools.get(CodexPoolConfig.DEFAULT_POOL);
+  }
+
+  /** Pool for an interactive request on the change of {@code resource}. */
+  public CodexPool forRevision(RevisionResource resource, String agent) throws RestApiException {
+    return forRevision(resource, agent, CodexPriority.INTERACTIVE);
+  }
+
+  /**
+   * Pool for a request of the current user on the change of {@code resource}; {@code agent} is
+   * null if none runs.
+   */
+  public CodexPool forRevision(RevisionResource resource, String agent, CodexPriority priority)
+      throws RestApiException {
+    CurrentUser user = resource.getUser();
+    return route(
+        resource.getProject(),
+        resource.getChange().getDest().branch(),
+        agent,
+        priority,
+        user.isIdentifiedUser() ? user.getAccountId() : null);
+  }
+
+  /** Pool for work of {@code account} (null for server-initiated work) on {@code project}. */
+  public CodexPool route(
+      Project.NameKey project,
+      String branch,
+      String agent,
+      CodexPriority priority,
+      Account.Id account)
+      throws RestApiException {
+    CodexPoolConfig.Routing projectRouting =
+        routing.computeIfAbsent(project, poolConfig::routingFor);
+    if (projectRouting == null) {
+      throw new ResourceNotFoundException("Project " + project + " not found");
+    }
+    String normalizedAgent = agent == null ? null : config.normalizeAgentOrDefault(agent);
+    String name = projectRouting.poolFor(branch, normalizedAgent);
+    CodexPool pool = pools.get(name);
+    if (pool == null) {
+      throw new ResourceConflictException(
+          "Project " + project + " is routed to codex.serve pool " + name + ", which is unknown");
+    }
+    return pool.forWork(priority, project, account, projectRouting.weight());
+  }
+
+  @Override
+  public void onGitReferenceUpdated(Event event) {
+    if (RefNames.REFS_CONFIG.equals(event.getRefName())) {
+      // Routing is inherited, so a parent's change affects every child.
+      routing.clear();
+    }
+  }
+}
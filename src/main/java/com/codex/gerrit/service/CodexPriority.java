@@ -0,0 +1,35 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+/**
+ * Classes of codex.serve work, most urgent first. A waiting run of a class is always started
+ * before any run of a later class.
+ */
+public enum CodexPriority {
+  /** Chat, review and sandbox requests a user is waiting for. */
+  INTERACTIVE,
+  /** Automatic reviews of uploaded patch sets. */
+  REVIEW,
+  /** {@code #insight} and {@code #graph} runs. */
+  INSIGHT,
+  /** Branch precompute and other background work. */
+  BATCH;
+
+  /** Name used in metrics and messages. */
+  public String label() {
+    return name().toLowerCase();
+  }
+}
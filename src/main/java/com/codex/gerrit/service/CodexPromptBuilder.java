@@ -30,6 +30,11 @@ public class CodexPromptBuilder {
   }
 
   public String buildPrompt(ChangeInfo changeInfo, CodexChatInput input) {
+    return buildPrompt(changeInfo, input, null);
+  }
+
+  /** Builds the prompt; {@code reviewNote} describes an incremental re-review when not null. */
+  public String buildPrompt(ChangeInfo changeInfo, CodexChatInput input, String reviewNote) {
     StringBuilder builder = new StringBuilder();
     builder.append("Task: ").append(input.mode).append("\n");
     builder.append("Change: ")
@@ -66,6 +71,10 @@ public class CodexPromptBuilder {
           "If you propose code edits for selected context files, include unified diff output in fenced ```diff blocks with proper file headers (diff --git, ---, +++, @@).\\n");
     }
 
+    if (reviewNote != null) {
+      builder.append("\n").append(reviewNote);
+    }
+
     builder.append("\nUser prompt:\n").append(input.prompt).append("\n");
     if ("chat".equals(input.mode)) {
       builder.append("\nAnswer as a coding assistant for this Gerrit change. Be concise and actionable.\n");
@@ -15,28 +15,293 @@
 package com.codex.gerrit.service;
 
 import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Account;
 import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.ChangeApi;
 import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.google.gerrit.extensions.client.Comment;
+import com.google.gerrit.extensions.common.ChangeMessageInfo;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.UnprocessableEntityException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.OneOffRequestContext;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Posts agent replies as Gerrit reviews from a background queue.
+ *
+ * <p>Each run is posted once, as a single {@link ReviewInput} against the revision that was
+ * reviewed. Findings that point at lines of a revision file become inline comments on those
+ * lines. Failed posts are retried with exponential backoff; before a retry the change messages are
+ * checked so that a post which succeeded server-side but failed client-side is not duplicated.
+ */
 @Singleton
-public class CodexReviewPoster {
+public class CodexReviewPoster implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexReviewPoster.class);
+  private static final String QUEUE_NAME = "Codex-Review-Poster";
+  private static final String TAG_PREFIX = "codex-gerrit/";
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long INITIAL_BACKOFF_MS = 2_000;
+  private static final int MAX_INLINE_COMMENTS = 50;
+
   private final GerritApi gerritApi;
   private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final OneOffRequestContext requestContext;
+  private final Map<String, Boolean> pendingRuns = new ConcurrentHashMap<>();
+  private final Cache<String, Boolean> postedRuns =
+      CacheBuilder.newBuilder().maximumSize(10_000).expireAfterWrite(1, TimeUnit.DAYS).build();
+  private volatile ScheduledExecutorService executor;
 
   @Inject
-  CodexReviewPoster(GerritApi gerritApi, CodexGerritConfig config) {
+  CodexReviewPoster(
+      GerritApi gerritApi,
+      CodexGerritConfig config,
+      WorkQueue workQueue,
+      OneOffRequestContext requestContext) {
     this.gerritApi = gerritApi;
     this.config = config;
+    this.workQueue = workQueue;
+    this.requestContext = requestContext;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(1, QUEUE_NAME);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+    if (!pendingRuns.isEmpty()) {
+      logger.warn("Dropping {} unposted Codex reviews on shutdown", pendingRuns.size());
+      pendingRuns.clear();
+    }
+  }
+
+  /**
+   * Queues a reply for posting. Returns false if the run was already posted or queued.
+   *
+   * @param accountId account the review is posted as; typically the caller of the REST view.
+   * @param revisionId commit SHA or patch set number of the reviewed revision; null for current.
+   * @param pathIndex files of the reviewed revision, used to anchor inline comments.
+   */
+  public boolean submit(
+      String runId,
+      Account.Id accountId,
+      String changeId,
+      String revisionId,
+      String reply,
+      String mode,
+      CodexPathIndex pathIndex) {
+    return submit(runId, accountId, changeId, revisionId, reply, mode, pathIndex, null);
+  }
+
+  /**
+   * Like {@link #submit(String, Account.Id, String, String, String, String, CodexPathIndex)}, and
+   * runs {@code onPosted} on the posting thread once the review is on the change. It does not run
+   * if the post is dropped or gives up.
+   */
+  public boolean submit(
+      String runId,
+      Account.Id accountId,
+      String changeId,
+      String revisionId,
+      String reply,
+      String mode,
+      CodexPathIndex pathIndex,
+      Runnable onPosted) {
+    if (postedRuns.getIfPresent(runId) != null || pendingRuns.putIfAbsent(runId, true) != null) {
+      logger.debug("Review run {} for change {} is already posted or queued", runId, changeId);
+      return false;
+    }
+    ReviewRun run =
+        new ReviewRun(
+            runId,
+            accountId,
+            changeId,
+            revisionId,
+            buildReviewInput(reply, mode, CodexFindingParser.parse(reply, pathIndex)),
+            onPosted);
+    if (!schedule(run, 0)) {
+      pendingRuns.remove(runId);
+      return false;
+    }
+    return true;
+  }
+
+  private boolean schedule(ReviewRun run, long delayMs) {
+    ScheduledExecutorService current = executor;
+    if (current == null) {
+      logger.warn("Review queue is not running; dropping run {}", run.runId);
+      return false;
+    }
+    try {
+      current.schedule(() -> attempt(run), delayMs, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (RejectedExecutionException ex) {
+      logger.warn("Review queue rejected run {}", run.runId, ex);
+      return false;
+    }
+  }
+
+  @SuppressWarnings("try")
+  private void attempt(ReviewRun run) {
+    run.attempts++;
+    try (ManualRequestContext ctx =
+        run.accountId == null ? requestContext.open() : requestContext.openAs(run.accountId)) {
+      ChangeApi change = gerritApi.changes().id(run.changeId);
+      if (run.attempts > 1 && alreadyPosted(change, run.input)) {
+        logger.info("Review run {} was already posted on change {}", run.runId, run.changeId);
+      } else {
+        post(change, run);
+      }
+      complete(run);
+    } catch (ResourceNotFoundException | BadRequestException | UnprocessableEntityException ex) {
+      // Not retryable: the revision is gone or Gerrit rejects the review itself.
+      logger.warn(
+          "Dropping review run {} for change {} revision {}: {}",
+          run.runId,
+          run.changeId,
+          run.revisionId,
+          ex.getMessage());
+      pendingRuns.remove(run.runId);
+    } catch (RestApiException | RuntimeException ex) {
+      if (run.attempts >= MAX_ATTEMPTS) {
+        logger.error(
+            "Giving up on review run {} for change {} after {} attempts",
+            run.runId,
+            run.changeId,
+            run.attempts,
+            ex);
+        pendingRuns.remove(run.runId);
+        return;
+      }
+      long backoffMs = INITIAL_BACKOFF_MS << (run.attempts - 1);
+      logger.warn(
+          "Failed to post review run {} for change {} (attempt {}), retrying in {} ms",
+          run.runId,
+          run.changeId,
+          run.attempts,
+          backoffMs,
+          ex);
+      if (!schedule(run, backoffMs)) {
+        pendingRuns.remove(run.runId);
+      }
+    }
   }
 
-  public void postReview(String changeId, String reply, String mode) throws RestApiException {
+  private void post(ChangeApi change, ReviewRun run) throws RestApiException {
+    try {
+      revision(change, run.revisionId).review(run.input);
+    } catch (BadRequestException | UnprocessableEntityException ex) {
+      if (run.input.comments == null || run.input.comments.isEmpty()) {
+        throw ex;
+      }
+      // A stale line or path must not lose the reply; fall back to the message alone.
+      logger.warn(
+          "Inline comments of review run {} were rejected, posting message only: {}",
+          run.runId,
+          ex.getMessage());
+      run.input.comments = null;
+      revision(change, run.revisionId).review(run.input);
+    }
+  }
+
+  private void complete(ReviewRun run) {
+    postedRuns.put(run.runId, true);
+    pendingRuns.remove(run.runId);
+    if (run.onPosted != null) {
+      try {
+        run.onPosted.run();
+      } catch (RuntimeException ex) {
+        logger.warn("Follow-up of review run {} for change {} failed", run.runId, run.changeId, ex);
+      }
+    }
+  }
+
+  private static RevisionApi revision(
+      ChangeApi change, String revisionId) throws RestApiException {
+    return revisionId == null ? change.current() : change.revision(revisionId);
+  }
+
+  private static boolean alreadyPosted(ChangeApi change, ReviewInput input)
+      throws RestApiException {
+    Collection<ChangeMessageInfo> messages = change.messages();
+    if (messages == null) {
+      return false;
+    }
+    for (ChangeMessageInfo message : messages) {
+      if (input.tag.equals(message.tag)
+          && message.message != null
+          && message.message.endsWith(input.message)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private ReviewInput buildReviewInput(String reply, String mode, List<CodexFinding> findings) {
     ReviewInput reviewInput = new ReviewInput();
     reviewInput.message = withBotPrefix(reply);
-    reviewInput.tag = "codex-gerrit/" + mode;
-    gerritApi.changes().id(changeId).current().review(reviewInput);
+    reviewInput.tag = TAG_PREFIX + mode;
+    if (findings.isEmpty()) {
+      return reviewInput;
+    }
+    Map<String, List<ReviewInput.CommentInput>> comments = new LinkedHashMap<>();
+    int count = 0;
+    for (CodexFinding finding : findings) {
+      if (count++ >= MAX_INLINE_COMMENTS) {
+        break;
+      }
+      ReviewInput.CommentInput comment = new ReviewInput.CommentInput();
+      comment.path = finding.path;
+      comment.line = finding.endLine;
+      if (finding.endLine > finding.startLine) {
+        comment.range = range(finding);
+      }
+      comment.message = finding.text;
+      comment.unresolved = "review".equals(mode);
+      comments.computeIfAbsent(finding.path, k -> new ArrayList<>()).add(comment);
+    }
+    reviewInput.comments = comments;
+    return reviewInput;
+  }
+
+  /**
+   * Whole lines from the start of the first to the end of the last. Gerrit does not check
+   * characters against the line, and the web UI clamps them to the end of the line.
+   */
+  private static Comment.Range range(CodexFinding finding) {
+    Comment.Range range = new Comment.Range();
+    range.startLine = finding.startLine;
+    range.startCharacter = 0;
+    range.endLine = finding.endLine;
+    range.endCharacter = Integer.MAX_VALUE;
+    return range;
   }
 
   private String withBotPrefix(String message) {
@@ -45,4 +310,29 @@ public class CodexReviewPoster {
     }
     return "[bot: " + config.getGerritBotUser() + "]\n" + message;
   }
+
+  private static class ReviewRun {
+    private final String runId;
+    private final Account.Id accountId;
+    private final String changeId;
+    private final String revisionId;
+    private final ReviewInput input;
+    private final Runnable onPosted;
+    private int attempts;
+
+    private ReviewRun(
+        String runId,
+        Account.Id accountId,
+        String changeId,
+        String revisionId,
+        ReviewInput input,
+        Runnable onPosted) {
+      this.runId = runId;
+      this.accountId = accountId;
+      this.changeId = changeId;
+      this.revisionId = revisionId;
+      this.input = input;
+      this.onPosted = onPosted;
+    }
+  }
 }
@@ -0,0 +1,63 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.inject.Singleton;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the file listing of each revision, keyed by commit SHA.
+ *
+ * <p>Revisions are immutable, so config, chat and patchset-files views can share one {@code
+ * files()} diff. Concurrent misses for the same key are coalesced by the underlying cache: one
+ * caller computes the listing and the others wait for it.
+ */
+@Singleton
+public class CodexRevisionFileCache {
+  private static final int MAX_REVISIONS = 256;
+  private static final Pattern COMMIT_SHA = Pattern.compile("[0-9a-f]{40}");
+
+  private final Cache<String, CodexRevisionFiles> cache =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_REVISIONS)
+          .expireAfterAccess(1, TimeUnit.HOURS)
+          .build();
+
+  public CodexRevisionFiles get(CodexRevisionResolver.Revision revision) throws RestApiException {
+    String revisionId = revision.revisionId();
+    if (revisionId == null) {
+      // The current revision moves; only immutable revisions are cached.
+      return CodexRevisionFiles.fromFileInfos(revision.files());
+    }
+    String key =
+        COMMIT_SHA.matcher(revisionId).matches()
+            ? revisionId
+            : revision.changeId() + "/" + revisionId;
+    try {
+      return cache.get(key, () -> CodexRevisionFiles.fromFileInfos(revision.files()));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof RestApiException) {
+        throw (RestApiException) e.getCause();
+      }
+      throw new IllegalStateException("Failed to list files of revision " + revisionId, e.getCause());
+    }
+  }
+}
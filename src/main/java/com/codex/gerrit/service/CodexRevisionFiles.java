@@ -0,0 +1,123 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.extensions.common.FileInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable file listing of one revision together with the data derived from it.
+ *
+ * <p>Built once per revision by {@link CodexRevisionFileCache}, so the sorted path lists and the
+ * mention index are not recomputed by every REST view.
+ */
+public final class CodexRevisionFiles {
+  private final Map<String, Entry> entries;
+  private final List<String> paths;
+  private final CodexPathIndex mentionIndex;
+
+  private CodexRevisionFiles(Map<String, Entry> entries, List<String> mentionablePaths) {
+    this.entries = Collections.unmodifiableMap(entries);
+    this.paths = Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+    this.mentionIndex = CodexPathIndex.build(mentionablePaths);
+  }
+
+  public static CodexRevisionFiles fromFileInfos(Map<String, FileInfo> files) {
+    Map<String, Entry> entries = new TreeMap<>();
+    if (files != null) {
+      for (Map.Entry<String, FileInfo> file : files.entrySet()) {
+        String path = file.getKey();
+        if (path == null || path.isEmpty() || path.startsWith("/")) {
+          continue;
+        }
+        entries.put(path, Entry.from(path, file.getValue()));
+      }
+    }
+    return new CodexRevisionFiles(
+        new LinkedHashMap<>(entries), CodexPathIndex.mentionablePaths(files));
+  }
+
+  /** Sorted paths of all files touched by the revision, including deletions. */
+  public List<String> paths() {
+    return paths;
+  }
+
+  /** Index over the sorted, non-deleted paths that can be {@code @} mentioned. */
+  public CodexPathIndex mentionIndex() {
+    return mentionIndex;
+  }
+
+  public Entry get(String path) {
+    return entries.get(path);
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public static final class Entry {
+    private final String path;
+    private final char status;
+    private final int linesInserted;
+    private final int linesDeleted;
+    private final long size;
+
+    private Entry(String path, char status, int linesInserted, int linesDeleted, long size) {
+      this.path = path;
+      this.status = status;
+      this.linesInserted = linesInserted;
+      this.linesDeleted = linesDeleted;
+      this.size = size;
+    }
+
+    private static Entry from(String path, FileInfo info) {
+      if (info == null) {
+        return new Entry(path, 'M', 0, 0, 0);
+      }
+      return new Entry(
+          path,
+          info.status == null ? 'M' : info.status,
+          info.linesInserted == null ? 0 : info.linesInserted,
+          info.linesDeleted == null ? 0 : info.linesDeleted,
+          info.size);
+    }
+
+    public String path() {
+      return path;
+    }
+
+    /** Gerrit file status letter; {@code M} when Gerrit omits it for modified files. */
+    public char status() {
+      return status;
+    }
+
+    public int linesInserted() {
+      return linesInserted;
+    }
+
+    public int linesDeleted() {
+      return linesDeleted;
+    }
+
+    public long size() {
+      return size;
+    }
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.ChangeApi;
+import com.google.gerrit.extensions.api.changes.RevisionApi;
+import com.google.gerrit.extensions.common.FileInfo;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the revision addressed by a {@link RevisionResource} for the plugin's REST views.
+ *
+ * <p>The patch set accessors differ between Gerrit releases, so they are probed by name. Probing
+ * happens once per concrete class; the resulting {@link MethodHandle}s are cached in a {@link
+ * ClassValue} and reused for every later request.
+ */
+@Singleton
+public class CodexRevisionResolver {
+  private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private static final Accessor PATCH_SET = new Accessor("getPatchSet", "patchSet");
+  private static final Accessor COMMIT_ID = new Accessor("commitId", "getCommitId");
+  private static final Accessor OBJECT_NAME = new Accessor("name", "getName");
+  private static final Accessor PATCH_SET_ID = new Accessor("id", "getId");
+  private static final Accessor PATCH_SET_NUMBER = new Accessor("get", "id", "getId");
+
+  private final GerritApi gerritApi;
+
+  @Inject
+  CodexRevisionResolver(GerritApi gerritApi) {
+    this.gerritApi = gerritApi;
+  }
+
+  /** Returns a per-request view of the revision; API handles and file lists are memoised. */
+  public Revision resolve(RevisionResource resource) {
+    String changeId = String.valueOf(resource.getChangeResource().getId().get());
+    return new Revision(gerritApi, changeId, resolveRevisionId(resource));
+  }
+
+  /** Revision view for background work that has no REST resource; null revision means current. */
+  public Revision resolve(String changeId, String revisionId) {
+    return new Revision(gerritApi, changeId, revisionId);
+  }
+
+  /** Commit SHA of the revision, falling back to the patch set number; null if unknown. */
+  public static String resolveRevisionId(RevisionResource resource) {
+    if (resource == null) {
+      return null;
+    }
+
+    Object patchSet = PATCH_SET.invoke(resource);
+    Object commitId = COMMIT_ID.invoke(patchSet);
+    String revisionFromCommit = normalizeRevisionId(OBJECT_NAME.invoke(commitId));
+    if (revisionFromCommit != null) {
+      return revisionFromCommit;
+    }
+
+    Object patchSetId = PATCH_SET_ID.invoke(patchSet);
+    return normalizeRevisionId(PATCH_SET_NUMBER.invoke(patchSetId));
+  }
+
+  private static String normalizeRevisionId(Object value) {
+    if (value == null) {
+      return null;
+    }
+    String normalized = String.valueOf(value).trim();
+    return normalized.isEmpty() ? null : normalized;
+  }
+
+  public static class Revision {
+    private final GerritApi gerritApi;
+    private final String changeId;
+    private final String revisionId;
+    private ChangeApi changeApi;
+    private RevisionApi revisionApi;
+    private Map<String, FileInfo> files;
+
+    private Revision(GerritApi gerritApi, String changeId, String revisionId) {
+      this.gerritApi = gerritApi;
+      this.changeId = changeId;
+      this.revisionId = revisionId;
+    }
+
+    public String changeId() {
+      return changeId;
+    }
+
+    /** Commit SHA (or patch set number on unexpected API shapes); null means current. */
+    public String revisionId() {
+      return revisionId;
+    }
+
+    public ChangeApi changeApi() throws RestApiException {
+      if (changeApi == null) {
+        changeApi = gerritApi.changes().id(changeId);
+      }
+      return changeApi;
+    }
+
+    public RevisionApi revisionApi() throws RestApiException {
+      if (revisionApi == null) {
+        revisionApi =
+            revisionId == null ? changeApi().current() : changeApi().revision(revisionId);
+      }
+      return revisionApi;
+    }
+
+    public Map<String, FileInfo> files() throws RestApiException {
+      if (files == null) {
+        files = revisionApi().files();
+      }
+      return files;
+    }
+  }
+
+  /** Zero-argument accessor probed by name, resolved once per receiver class. */
+  private static final class Accessor {
+    private final String[] methodNames;
+    private final ClassValue<List<MethodHandle>> handles =
+        new ClassValue<List<MethodHandle>>() {
+          @Override
+          protected List<MethodHandle> computeValue(Class<?> type) {
+            List<MethodHandle> found = new ArrayList<>();
+            for (String methodName : methodNames) {
+              MethodHandle handle = find(type, methodName);
+              if (handle != null) {
+                found.add(handle);
+              }
+            }
+            return found;
+          }
+        };
+
+    private Accessor(String... methodNames) {
+      this.methodNames = methodNames;
+    }
+
+    private Object invoke(Object target) {
+      if (target == null) {
+        return null;
+      }
+      for (MethodHandle handle : handles.get(target.getClass())) {
+        try {
+          Object result = handle.invokeExact(target);
+          if (result != null) {
+            return result;
+          }
+        } catch (Throwable ignored) {
+          // Try the next candidate accessor.
+        }
+      }
+      return null;
+    }
+
+    private static MethodHandle find(Class<?> type, String methodName) {
+      try {
+        return adapt(type.getMethod(methodName));
+      } catch (ReflectiveOperationException | RuntimeException ignored) {
+        // Fall through and retry declared methods.
+      }
+
+      Class<?> currentClass = type;
+      while (currentClass != null) {
+        try {
+          Method declaredMethod = currentClass.getDeclaredMethod(methodName);
+          declaredMethod.setAccessible(true);
+          return adapt(declaredMethod);
+        } catch (ReflectiveOperationException | RuntimeException ignored) {
+          currentClass = currentClass.getSuperclass();
+        }
+      }
+      return null;
+    }
+
+    private static MethodHandle adapt(Method method) throws IllegalAccessException {
+      if (method.getParameterCount() != 0 || method.getReturnType() == void.class) {
+        return null;
+      }
+      return MethodHandles.lookup().unreflect(method).asType(ACCESSOR_TYPE);
+    }
+  }
+}
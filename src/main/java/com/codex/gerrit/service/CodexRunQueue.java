@@ -0,0 +1,235 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The run slots of one pool and the runs waiting for them.
+ *
+ * <p>A freed slot goes to the most urgent {@link CodexPriority} with waiting runs. Within a class,
+ * slots are shared by stride scheduling: each project advances by the inverse of its weight per
+ * started run, and the project that has advanced least goes next; within a project, its accounts
+ * take turns the same way with equal weights. A project or account that starts waiting joins at
+ * the current position rather than where it left, so idle time is not saved up as credit. A burst
+ * of one project therefore only delays its own later runs.
+ */
+final class CodexRunQueue {
+  private static final long STRIDE = 1 << 20;
+
+  private final int maxConcurrent;
+  private final ClassQueue[] classes = new ClassQueue[CodexPriority.values().length];
+  private int running;
+
+  CodexRunQueue(int maxConcurrent) {
+    this.maxConcurrent = maxConcurrent;
+    for (int i = 0; i < classes.length; i++) {
+      classes[i] = new ClassQueue();
+    }
+  }
+
+  /**
+   * Takes a slot, waiting up to {@code timeoutMs} for one. Returns false on timeout.
+   *
+   * @throws InterruptedException if interrupted while waiting; no slot is held then
+   */
+  synchronized boolean acquire(
+      CodexPriority priority, String project, int account, int weight, long timeoutMs)
+      throws InterruptedException {
+    if (running < maxConcurrent && isEmpty()) {
+      running++;
+      return true;
+    }
+    Waiter waiter = classes[priority.ordinal()].add(project, account, weight);
+    long deadline = System.nanoTime() + timeoutMs * 1_000_000;
+    try {
+      while (!waiter.granted) {
+        long remainingMs = (deadline - System.nanoTime()) / 1_000_000;
+        if (remainingMs <= 0) {
+          classes[priority.ordinal()].remove(waiter);
+          return false;
+        }
+        wait(remainingMs);
+      }
+      return true;
+    } catch (InterruptedException e) {
+      if (waiter.granted) {
+        release();
+      } else {
+        classes[priority.ordinal()].remove(waiter);
+      }
+      throw e;
+    }
+  }
+
+  /** Takes a slot only if one is free and no run is waiting. */
+  synchronized boolean tryAcquire() {
+    if (running < maxConcurrent && isEmpty()) {
+      running++;
+      return true;
+    }
+    return false;
+  }
+
+  synchronized void release() {
+    running--;
+    boolean granted = false;
+    while (running < maxConcurrent) {
+      Waiter next = poll();
+      if (next == null) {
+        break;
+      }
+      next.granted = true;
+      running++;
+      granted = true;
+    }
+    if (granted) {
+      notifyAll();
+    }
+  }
+
+  /** Runs of {@code priority} waiting for a slot. */
+  synchronized int waiting(CodexPriority priority) {
+    return classes[priority.ordinal()].size;
+  }
+
+  private boolean isEmpty() {
+    for (ClassQueue queue : classes) {
+      if (queue.size > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Waiter poll() {
+    for (ClassQueue queue : classes) {
+      if (queue.size > 0) {
+        return queue.poll();
+      }
+    }
+    return null;
+  }
+
+  private static final class Waiter {
+    final String project;
+    final int account;
+    boolean granted;
+
+    Waiter(String project, int account) {
+      this.project = project;
+      this.account = account;
+    }
+  }
+
+  private static final class ClassQueue {
+    final Map<String, ProjectFlow> projects = new LinkedHashMap<>();
+    long virtualTime;
+    int size;
+
+    Waiter add(String project, int account, int weight) {
+      ProjectFlow flow = projects.get(project);
+      if (flow == null) {
+        flow = new ProjectFlow(virtualTime);
+        projects.put(project, flow);
+      }
+      flow.stride = STRIDE / Math.max(1, weight);
+      AccountFlow accountFlow = flow.accounts.get(account);
+      if (accountFlow == null) {
+        accountFlow = new AccountFlow(flow.virtualTime);
+        flow.accounts.put(account, accountFlow);
+      }
+      Waiter waiter = new Waiter(project, account);
+      accountFlow.waiters.add(waiter);
+      size++;
+      return waiter;
+    }
+
+    Waiter poll() {
+      ProjectFlow flow = min(projects.values().iterator());
+      AccountFlow accountFlow = min(flow.accounts.values().iterator());
+      Waiter waiter = accountFlow.waiters.poll();
+      size--;
+      virtualTime = flow.pass;
+      flow.pass += flow.stride;
+      flow.virtualTime = accountFlow.pass;
+      accountFlow.pass += STRIDE;
+      prune(waiter);
+      return waiter;
+    }
+
+    void remove(Waiter waiter) {
+      ProjectFlow flow = projects.get(waiter.project);
+      if (flow != null) {
+        AccountFlow accountFlow = flow.accounts.get(waiter.account);
+        if (accountFlow != null && accountFlow.waiters.remove(waiter)) {
+          size--;
+          prune(waiter);
+        }
+      }
+    }
+
+    private void prune(Waiter waiter) {
+      ProjectFlow flow = projects.get(waiter.project);
+      AccountFlow accountFlow = flow.accounts.get(waiter.account);
+      if (accountFlow.waiters.isEmpty()) {
+        flow.accounts.remove(waiter.account);
+        if (flow.accounts.isEmpty()) {
+          projects.remove(waiter.project);
+        }
+      }
+    }
+
+    private static <F extends Flow> F min(Iterator<F> flows) {
+      F best = flows.next();
+      while (flows.hasNext()) {
+        F flow = flows.next();
+        if (flow.pass < best.pass) {
+          best = flow;
+        }
+      }
+      return best;
+    }
+  }
+
+  private abstract static class Flow {
+    long pass;
+
+    Flow(long pass) {
+      this.pass = pass;
+    }
+  }
+
+  private static final class ProjectFlow extends Flow {
+    final Map<Integer, AccountFlow> accounts = new LinkedHashMap<>();
+    long stride = STRIDE;
+    long virtualTime;
+
+    ProjectFlow(long pass) {
+      super(pass);
+    }
+  }
+
+  private static final class AccountFlow extends Flow {
+    final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    AccountFlow(long pass) {
+      super(pass);
+    }
+  }
+}
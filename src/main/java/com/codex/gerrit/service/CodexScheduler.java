@@ -0,0 +1,77 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the {@link CodexRunQueue} of each pool and exports, per {@link CodexPriority}, how many
+ * runs wait for a slot and how long they waited.
+ */
+@Singleton
+public class CodexScheduler {
+  private final List<CodexRunQueue> queues = new CopyOnWriteArrayList<>();
+  private final Timer0[] waitTimes = new Timer0[CodexPriority.values().length];
+
+  @Inject
+  CodexScheduler(MetricMaker metrics) {
+    for (CodexPriority priority : CodexPriority.values()) {
+      String label = priority.label();
+      metrics.newCallbackMetric(
+          "scheduler/" + label + "/queue_depth",
+          Integer.class,
+          new Description("Runs of class " + label + " waiting for a codex.serve slot")
+              .setGauge()
+              .setUnit("runs"),
+          () -> waiting(priority));
+      waitTimes[priority.ordinal()] =
+          metrics.newTimer(
+              "scheduler/" + label + "/wait_time",
+              new Description("Time runs of class " + label + " waited for a codex.serve slot")
+                  .setCumulative()
+                  .setUnit(Units.MILLISECONDS));
+    }
+  }
+
+  /** Returns the queue of a pool with {@code maxConcurrent} slots, or null if it is unbounded. */
+  CodexRunQueue newQueue(int maxConcurrent) {
+    if (maxConcurrent <= 0) {
+      return null;
+    }
+    CodexRunQueue queue = new CodexRunQueue(maxConcurrent);
+    queues.add(queue);
+    return queue;
+  }
+
+  void recordWait(CodexPriority priority, long waitedNanos) {
+    waitTimes[priority.ordinal()].record(waitedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private int waiting(CodexPriority priority) {
+    int waiting = 0;
+    for (CodexRunQueue queue : queues) {
+      waiting += queue.waiting(priority);
+    }
+    return waiting;
+  }
+}
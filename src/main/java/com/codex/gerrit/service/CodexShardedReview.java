@@ -0,0 +1,417 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reviews a large {@code @all} change as several concurrent agent runs.
+ *
+ * <p>Files are grouped by directory, in path order, and packed into shards of at most {@code
+ * reviewShardMaxFiles} files and {@code reviewShardMaxChars} characters; a directory is only split
+ * when it alone exceeds a shard. Shards run on a pool of {@code reviewShardThreads}, each as its
+ * own upstream session. Their located findings are merged, duplicates (same file, lines and text)
+ * are dropped, and the remaining remarks of each shard follow under a heading with its timing.
+ */
+@Singleton
+public class CodexShardedReview implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexShardedReview.class);
+  private static final String QUEUE_NAME = "Codex-Review-Shard";
+
+  private final CodexGerritConfig config;
+  private final CodexAgentClient agentClient;
+  private final CodexInFlightRegistry inFlight;
+  private final WorkQueue workQueue;
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  CodexShardedReview(
+      CodexGerritConfig config,
+      CodexAgentClient agentClient,
+      CodexInFlightRegistry inFlight,
+      WorkQueue workQueue) {
+    this.config = config;
+    this.agentClient = agentClient;
+    this.inFlight = inFlight;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.getReviewShardThreads(), QUEUE_NAME);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdownNow();
+    }
+  }
+
+  /** Partitions {@code files} by directory and the configured shard budget. */
+  public List<List<CodexAgentClient.ContextFile>> partition(
+      List<CodexAgentClient.ContextFile> files) {
+    return partition(files, config.getReviewShardMaxFiles(), config.getReviewShardMaxChars());
+  }
+
+  static List<List<CodexAgentClient.ContextFile>> partition(
+      List<CodexAgentClient.ContextFile> files, int maxFiles, long maxChars) {
+    List<CodexAgentClient.ContextFile> sorted = new ArrayList<>();
+    for (CodexAgentClient.ContextFile file : files) {
+      if (file != null && file.path != null) {
+        sorted.add(file);
+      }
+    }
+    sorted.sort(Comparator.comparing(file -> file.path));
+    Map<String, List<CodexAgentClient.ContextFile>> byDirectory = new LinkedHashMap<>();
+    for (CodexAgentClient.ContextFile file : sorted) {
+      byDirectory.computeIfAbsent(directoryOf(file.path), k -> new ArrayList<>()).add(file);
+    }
+
+    List<List<CodexAgentClient.ContextFile>> shards = new ArrayList<>();
+    List<CodexAgentClient.ContextFile> current = new ArrayList<>();
+    long currentChars = 0;
+    for (List<CodexAgentClient.ContextFile> directory : byDirectory.values()) {
+      long directoryChars = 0;
+      for (CodexAgentClient.ContextFile file : directory) {
+        directoryChars += chars(file);
+      }
+      boolean fits =
+          current.size() + directory.size() <= maxFiles
+              && currentChars + directoryChars <= maxChars;
+      if (!fits && !current.isEmpty()) {
+        shards.add(current);
+        current = new ArrayList<>();
+        currentChars = 0;
+      }
+      for (CodexAgentClient.ContextFile file : directory) {
+        long fileChars = chars(file);
+        boolean full = current.size() >= maxFiles || currentChars + fileChars > maxChars;
+        if (full && !current.isEmpty()) {
+          shards.add(current);
+          current = new ArrayList<>();
+          currentChars = 0;
+        }
+        current.add(file);
+        currentChars += fileChars;
+      }
+    }
+    if (!current.isEmpty()) {
+      shards.add(current);
+    }
+    return shards;
+  }
+
+  /**
+   * Runs every shard and returns the merged reply. {@code prompts} builds the prompt of a shard
+   * from the paths it covers; {@code shared} files (e.g. attachments) are sent with every shard.
+   * Shards run on {@code backend}. If {@code parent} is cancelled, all shard sessions are stopped.
+   */
+  @SuppressWarnings("try")
+  public Result run(
+      CodexPool backend,
+      List<List<CodexAgentClient.ContextFile>> shards,
+      List<CodexAgentClient.ContextFile> shared,
+      Function<Shard, String> prompts,
+      String model,
+      String agent,
+      CodexPathIndex pathIndex,
+      CodexInFlightRegistry.Operation parent)
+      throws RestApiException {
+    ScheduledExecutorService pool = executor;
+    if (pool == null) {
+      throw new ResourceConflictException("Sharded review is not available: plugin is stopping");
+    }
+    String baseSession =
+        parent != null ? parent.sessionId() : "review-" + UUID.randomUUID().toString();
+    List<Shard> plan = new ArrayList<>();
+    for (int i = 0; i < shards.size(); i++) {
+      plan.add(new Shard(i + 1, shards.size(), baseSession + "-shard-" + (i + 1), shards.get(i)));
+    }
+    if (parent != null) {
+      parent.onRelease(
+          () -> {
+            if (parent.isCancelled()) {
+              cancel(plan, parent.cancelReason());
+            }
+          });
+    }
+
+    List<Future<String>> futures = new ArrayList<>();
+    long started = System.currentTimeMillis();
+    try {
+      for (Shard shard : plan) {
+        List<CodexAgentClient.ContextFile> files = new ArrayList<>(shard.files);
+        files.addAll(shared);
+        String prompt = prompts.apply(shard);
+        futures.add(
+            pool.submit(
+                () -> {
+                  long shardStarted = System.currentTimeMillis();
+                  try (CodexInFlightRegistry.Operation operation =
+                          inFlight.register(shard.sessionId, false);
+                      CodexOutputBuffer output =
+                          agentClient.runOutput(
+                              backend, prompt, model, agent, shard.sessionId, files)) {
+                    shard.tokens = output.tokens();
+                    return output.fullText().trim();
+                  } finally {
+                    shard.elapsedMs = System.currentTimeMillis() - shardStarted;
+                  }
+                }));
+      }
+    } catch (RejectedExecutionException ex) {
+      futures.forEach(future -> future.cancel(true));
+      throw new ResourceConflictException("Sharded review queue rejected the request");
+    }
+
+    List<String> replies = new ArrayList<>();
+    RestApiException firstError = null;
+    for (int i = 0; i < plan.size(); i++) {
+      Shard shard = plan.get(i);
+      try {
+        replies.add(futures.get(i).get());
+      } catch (InterruptedException ex) {
+        futures.forEach(future -> future.cancel(true));
+        Thread.currentThread().interrupt();
+        throw new ResourceConflictException("Sharded review was cancelled");
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        shard.error = cause == null ? ex.getMessage() : cause.getMessage();
+        if (firstError == null) {
+          firstError =
+              cause instanceof RestApiException
+                  ? (RestApiException) cause
+                  : new ResourceConflictException("Review shard failed: " + shard.error);
+        }
+        replies.add(null);
+        logger.warn("Review shard {} of {} failed", shard.index, shard.count, cause);
+      }
+    }
+    if (firstError != null && replies.stream().allMatch(reply -> reply == null)) {
+      throw firstError;
+    }
+    return merge(plan, replies, pathIndex, System.currentTimeMillis() - started);
+  }
+
+  private void cancel(List<Shard> plan, String reason) {
+    for (Shard shard : plan) {
+      if (inFlight.cancel(shard.sessionId, reason)) {
+        workQueue
+            .getDefaultQueue()
+            .execute(
+                () -> {
+                  try {
+                    agentClient.stopSession(shard.sessionId);
+                  } catch (RestApiException ex) {
+                    logger.debug("Failed to stop review shard {}", shard.sessionId, ex);
+                  }
+                });
+      }
+    }
+  }
+
+  static Result merge(
+      List<Shard> plan, List<String> replies, CodexPathIndex pathIndex, long elapsedMs) {
+    Map<String, CodexFinding> findings = new LinkedHashMap<>();
+    List<List<String>> remarks = new ArrayList<>();
+    int fileCount = 0;
+    for (int i = 0; i < plan.size(); i++) {
+      Shard shard = plan.get(i);
+      fileCount += shard.files.size();
+      String reply = replies.get(i);
+      List<CodexFinding> parsed = CodexFindingParser.parse(reply, pathIndex);
+      shard.findings = parsed.size();
+      for (CodexFinding finding : parsed) {
+        findings.putIfAbsent(findingKey(finding), finding);
+      }
+      remarks.add(CodexFindingParser.remarks(reply, pathIndex));
+    }
+    List<CodexFinding> merged = new ArrayList<>(findings.values());
+    merged.sort(
+        Comparator.comparing((CodexFinding f) -> f.path)
+            .thenComparingInt(f -> f.startLine)
+            .thenComparingInt(f -> f.endLine));
+
+    StringBuilder reply = new StringBuilder();
+    reply.append("Sharded review of ")
+        .append(files(fileCount))
+        .append(" in ")
+        .append(plan.size())
+        .append(" shards (")
+        .append(seconds(elapsedMs))
+        .append(" wall clock).\n");
+    if (!merged.isEmpty()) {
+      reply.append("\n## Findings\n\n");
+      for (CodexFinding finding : merged) {
+        // The finding text still carries its file reference, so the merged reply parses alike.
+        reply.append("- ").append(finding.text).append('\n');
+      }
+    }
+    for (int i = 0; i < plan.size(); i++) {
+      Shard shard = plan.get(i);
+      reply.append("\n## Shard ")
+          .append(shard.index)
+          .append(": ")
+          .append(String.join(", ", shard.directories()))
+          .append(" (")
+          .append(files(shard.files.size()))
+          .append(", ")
+          .append(seconds(shard.elapsedMs))
+          .append(")\n\n");
+      if (shard.error != null) {
+        reply.append("Failed: ").append(shard.error).append('\n');
+        continue;
+      }
+      for (String remark : remarks.get(i)) {
+        reply.append(remark).append("\n\n");
+      }
+    }
+
+    Result result = new Result();
+    result.reply = reply.toString().trim();
+    result.shards = new ArrayList<>();
+    result.failedPaths = new ArrayList<>();
+    for (Shard shard : plan) {
+      result.shards.add(shard.summary());
+      result.tokens += shard.tokens;
+      if (shard.error != null) {
+        result.failedPaths.addAll(shard.paths());
+      }
+    }
+    return result;
+  }
+
+  private static String findingKey(CodexFinding finding) {
+    String text = finding.text == null ? "" : finding.text;
+    return finding.path
+        + ":"
+        + finding.startLine
+        + "-"
+        + finding.endLine
+        + ":"
+        + text.replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+  }
+
+  private static String directoryOf(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash <= 0 ? "" : path.substring(0, slash);
+  }
+
+  private static long chars(CodexAgentClient.ContextFile file) {
+    if (file.base64Content != null) {
+      return file.base64Content.length();
+    }
+    return file.content == null ? 0 : file.content.length();
+  }
+
+  private static String files(int count) {
+    return count + (count == 1 ? " file" : " files");
+  }
+
+  private static String seconds(long millis) {
+    return String.format(Locale.ROOT, "%.1f s", millis / 1000.0);
+  }
+
+  /** One shard of a review, as handed to the prompt builder. */
+  public static class Shard {
+    public final int index;
+    public final int count;
+    private final String sessionId;
+    private final List<CodexAgentClient.ContextFile> files;
+    private volatile long elapsedMs;
+    private volatile long tokens;
+    private volatile String error;
+    private int findings;
+
+    Shard(int index, int count, String sessionId, List<CodexAgentClient.ContextFile> files) {
+      this.index = index;
+      this.count = count;
+      this.sessionId = sessionId;
+      this.files = files;
+    }
+
+    public List<String> paths() {
+      List<String> paths = new ArrayList<>();
+      for (CodexAgentClient.ContextFile file : files) {
+        paths.add(file.path);
+      }
+      return paths;
+    }
+
+    List<String> directories() {
+      Set<String> directories = new LinkedHashSet<>();
+      for (CodexAgentClient.ContextFile file : files) {
+        String directory = directoryOf(file.path);
+        directories.add(directory.isEmpty() ? "/" : directory);
+      }
+      return new ArrayList<>(directories);
+    }
+
+    ShardSummary summary() {
+      ShardSummary summary = new ShardSummary();
+      summary.index = index;
+      summary.files = paths();
+      summary.elapsedMs = elapsedMs;
+      summary.tokens = tokens;
+      summary.findings = findings;
+      summary.error = error;
+      return summary;
+    }
+  }
+
+  public static class ShardSummary {
+    public int index;
+    public List<String> files;
+    public long elapsedMs;
+    public long tokens;
+    /** Located findings in this shard's reply, before deduplication. */
+    public int findings;
+    public String error;
+  }
+
+  public static class Result {
+    public String reply;
+    public List<ShardSummary> shards;
+    /** Tokens reported by all shards. */
+    public long tokens;
+    /** Files of the shards that failed; they were not reviewed. */
+    public List<String> failedPaths;
+  }
+}
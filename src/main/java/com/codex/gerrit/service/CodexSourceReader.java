@@ -0,0 +1,277 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.codex.gerrit.rest.CodexInsightInput;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.change.RevisionResource;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+/**
+ * Reads source files of a revision straight from the repository, so that {@code #graph} and
+ * {@code #insight} do not depend on what the browser can read and upload.
+ *
+ * <p>{@code include} and {@code exclude} are glob patterns. A pattern without {@code /} matches
+ * the file or directory name at any depth, otherwise the path from the repository root; {@code *}
+ * and {@code ?} stay within one path segment and {@code **} spans segments. Excluded directories
+ * are not descended into. Binary files, submodules, symlinks and files larger than {@code
+ * sourceMaxFileBytes} are skipped; the walk stops once {@code sourceMaxBytes} have been read.
+ *
+ * <p>File contents are only loaded once the {@link CodexMemoryBudget} grants the bytes they will
+ * take; the returned {@link Sources} hold that lease until they are closed.
+ */
+@Singleton
+public class CodexSourceReader {
+  private final GitRepositoryManager repoManager;
+  private final CodexGerritConfig config;
+  private final CodexMemoryBudget memoryBudget;
+
+  @Inject
+  CodexSourceReader(
+      GitRepositoryManager repoManager,
+      CodexGerritConfig config,
+      CodexMemoryBudget memoryBudget) {
+    this.repoManager = repoManager;
+    this.config = config;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /** Reads the files of the patch set addressed by {@code resource}; close the result. */
+  public Sources read(RevisionResource resource, List<String> include, List<String> exclude)
+      throws IOException, RestApiException {
+    return read(resource.getProject(), commitOf(resource), include, exclude);
+  }
+
+  public static ObjectId commitOf(RevisionResource resource) throws ResourceConflictException {
+    String revision = CodexRevisionResolver.resolveRevisionId(resource);
+    if (revision == null || !ObjectId.isId(revision)) {
+      throw new ResourceConflictException("Cannot resolve the commit of revision " + revision);
+    }
+    return ObjectId.fromString(revision);
+  }
+
+  /** Tree id of {@code commit}; equal trees have equal sources. */
+  public ObjectId treeOf(Project.NameKey project, ObjectId commit) throws IOException {
+    try (Repository repo = repoManager.openRepository(project);
+        RevWalk rw = new RevWalk(repo)) {
+      return rw.parseCommit(commit).getTree().copy();
+    }
+  }
+
+  public Sources read(
+      Project.NameKey project, ObjectId commit, List<String> include, List<String> exclude)
+      throws IOException, RestApiException {
+    List<Glob> includes = compile(include);
+    List<Glob> excludes = compile(exclude);
+    long maxFileBytes = config.getSourceMaxFileBytes();
+    long maxBytes = config.getSourceMaxBytes();
+    Sources sources = new Sources();
+    try (Repository repo = repoManager.openRepository(project);
+        ObjectReader reader = repo.newObjectReader();
+        RevWalk rw = new RevWalk(reader);
+        TreeWalk tw = new TreeWalk(reader)) {
+      List<Candidate> candidates = new ArrayList<>();
+      long candidateBytes = 0;
+      tw.addTree(rw.parseCommit(commit).getTree());
+      tw.setRecursive(false);
+      while (tw.next()) {
+        String path = tw.getPathString();
+        if (matchesAny(excludes, path)) {
+          continue;
+        }
+        if (tw.isSubtree()) {
+          tw.enterSubtree();
+          continue;
+        }
+        int mode = tw.getRawMode(0);
+        if (mode != FileMode.REGULAR_FILE.getBits()
+            && mode != FileMode.EXECUTABLE_FILE.getBits()) {
+          continue;
+        }
+        if (!includes.isEmpty() && !matchesAny(includes, path)) {
+          continue;
+        }
+        ObjectId blob = tw.getObjectId(0);
+        long size = reader.getObjectSize(blob, Constants.OBJ_BLOB);
+        if (size > maxFileBytes) {
+          sources.skippedFiles++;
+          continue;
+        }
+        candidates.add(new Candidate(path, blob.copy(), size));
+        candidateBytes += size;
+      }
+
+      // Binary files are only recognized once loaded, so the walk may read less than this.
+      sources.lease = memoryBudget.acquire(Math.min(candidateBytes, maxBytes), "revision sources");
+      try {
+        for (Candidate candidate : candidates) {
+          if (sources.bytes + candidate.size > maxBytes) {
+            sources.truncated = true;
+            break;
+          }
+          byte[] bytes =
+              reader.open(candidate.blob, Constants.OBJ_BLOB).getCachedBytes((int) maxFileBytes);
+          if (RawText.isBinary(bytes)) {
+            sources.skippedFiles++;
+            continue;
+          }
+          sources.bytes += bytes.length;
+          sources.files.add(
+              new SourceFile(candidate.path, new String(bytes, StandardCharsets.UTF_8)));
+        }
+      } catch (IOException | RuntimeException e) {
+        sources.close();
+        throw e;
+      }
+    }
+    return sources;
+  }
+
+  private static class Candidate {
+    private final String path;
+    private final ObjectId blob;
+    private final long size;
+
+    private Candidate(String path, ObjectId blob, long size) {
+      this.path = path;
+      this.blob = blob;
+      this.size = size;
+    }
+  }
+
+  private static boolean matchesAny(List<Glob> globs, String path) {
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    for (Glob glob : globs) {
+      if (glob.pattern.matcher(glob.anchored ? path : name).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<Glob> compile(List<String> globs) {
+    List<Glob> patterns = new ArrayList<>();
+    if (globs == null) {
+      return patterns;
+    }
+    for (String glob : globs) {
+      String trimmed = glob == null ? "" : glob.trim();
+      while (trimmed.startsWith("/") || trimmed.startsWith("./")) {
+        trimmed = trimmed.substring(trimmed.startsWith("/") ? 1 : 2);
+      }
+      if (trimmed.endsWith("/")) {
+        trimmed = trimmed + "**";
+      }
+      if (!trimmed.isEmpty()) {
+        patterns.add(new Glob(Pattern.compile(toRegex(trimmed)), trimmed.contains("/")));
+      }
+    }
+    return patterns;
+  }
+
+  private static String toRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+        i++;
+        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+          // "**/" also matches no directory at all.
+          i++;
+          regex.append("(?:.*/)?");
+        } else {
+          regex.append(".*");
+        }
+      } else if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+        regex.append('\\').append(c);
+      } else {
+        regex.append(c);
+      }
+    }
+    return regex.toString();
+  }
+
+  private static class Glob {
+    private final Pattern pattern;
+    /** Patterns with a {@code /} match the whole path, others the last segment. */
+    private final boolean anchored;
+
+    private Glob(Pattern pattern, boolean anchored) {
+      this.pattern = pattern;
+      this.anchored = anchored;
+    }
+  }
+
+  /** Files read from a revision; closing releases their share of the memory budget. */
+  public static class Sources implements AutoCloseable {
+    public final List<SourceFile> files = new ArrayList<>();
+    public long bytes;
+    /** Binary files and files over {@code sourceMaxFileBytes}. */
+    public int skippedFiles;
+    /** True if the walk stopped at {@code sourceMaxBytes}. */
+    public boolean truncated;
+    private CodexMemoryBudget.Lease lease;
+
+    public List<CodexInsightInput.InsightFile> toInsightFiles() {
+      List<CodexInsightInput.InsightFile> insightFiles = new ArrayList<>();
+      for (SourceFile source : files) {
+        CodexInsightInput.InsightFile file = new CodexInsightInput.InsightFile();
+        file.path = source.path;
+        file.content = source.content;
+        insightFiles.add(file);
+      }
+      return insightFiles;
+    }
+
+    @Override
+    public void close() {
+      if (lease != null) {
+        lease.close();
+      }
+    }
+  }
+
+  public static class SourceFile {
+    public final String path;
+    public final String content;
+
+    SourceFile(String path, String content) {
+      this.path = path;
+      this.content = content;
+    }
+  }
+}
@@ -0,0 +1,336 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in recorder for codex.serve traffic.
+ *
+ * <p>Each exchange is written as one JSON line in its own gzip member, appended to a daily file
+ * {@code traffic-YYYY-MM-DD.ndjson.gz}. Concatenated gzip members are read back transparently by
+ * {@link java.util.zip.GZIPInputStream}, so files stay compact without a rewrite step. Request
+ * bodies are redacted (prompt text and file contents are replaced by their length and digest);
+ * response chunks are kept verbatim together with their offset from the request start so that
+ * {@link CodexTrafficReplayServer} can reproduce the original timing.
+ *
+ * <p>Request threads only hand finished records to a bounded queue; a single writer thread
+ * compresses and appends them. Records that find the queue full are dropped and counted. The
+ * chunks of one exchange are kept up to {@link #MAX_EVENT_CHARS}; later chunks are only counted.
+ */
+@Singleton
+public class CodexTrafficRecorder implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexTrafficRecorder.class);
+  private static final Gson GSON = new Gson();
+  static final String FILE_PREFIX = "traffic-";
+  static final String FILE_SUFFIX = ".ndjson.gz";
+  private static final Set<String> REDACTED_FIELDS =
+      Set.of("stdin", "prompt", "content", "base64Content", "code");
+  private static final String QUEUE_NAME = "Codex-Traffic-Recorder";
+  private static final int MAX_PENDING_RECORDS = 256;
+  static final int MAX_EVENT_CHARS = 1024 * 1024;
+  private static final Exchange NOOP = new Exchange(null, null, null, null);
+
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final Path directory;
+  private final AtomicLong bytesWritten = new AtomicLong(-1);
+  private final BlockingQueue<JsonObject> pending = new ArrayBlockingQueue<>(MAX_PENDING_RECORDS);
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private final Counter0 dropped;
+  private volatile ScheduledExecutorService executor;
+
+  @Inject
+  CodexTrafficRecorder(
+      CodexGerritConfig config,
+      WorkQueue workQueue,
+      MetricMaker metrics,
+      @PluginData Path pluginData) {
+    this.config = config;
+    this.workQueue = workQueue;
+    String configured = config.getTrafficRecordDir();
+    this.directory =
+        configured.isEmpty() ? pluginData.resolve("traffic") : pluginData.resolve(configured);
+    this.dropped =
+        metrics.newCounter(
+            "traffic/dropped",
+            new Description("Recorded exchanges dropped because the writer fell behind")
+                .setRate()
+                .setUnit("exchanges"));
+  }
+
+  @Override
+  public void start() {
+    if (config.isTrafficRecordingEnabled()) {
+      executor = workQueue.createQueue(1, QUEUE_NAME);
+    }
+  }
+
+  @Override
+  public void stop() {
+    ScheduledExecutorService current = executor;
+    executor = null;
+    if (current != null) {
+      current.shutdown();
+    }
+    // Write what is still queued; the writer thread no longer picks it up.
+    drain();
+  }
+
+  /** Starts recording one exchange, or returns a no-op recorder when recording is disabled. */
+  public Exchange begin(String method, String path, JsonObject requestBody) {
+    if (!config.isTrafficRecordingEnabled()) {
+      return NOOP;
+    }
+    JsonObject request = new JsonObject();
+    request.addProperty("id", UUID.randomUUID().toString());
+    request.addProperty("ts", System.currentTimeMillis());
+    request.addProperty("method", method);
+    request.addProperty("path", path);
+    if (requestBody != null) {
+      request.add("body", redact(requestBody));
+    }
+    return new Exchange(this, request, new JsonArray(), System.nanoTime());
+  }
+
+  private void submit(JsonObject record) {
+    ScheduledExecutorService current = executor;
+    if (current == null || !pending.offer(record)) {
+      dropped.increment();
+      return;
+    }
+    if (draining.compareAndSet(false, true)) {
+      try {
+        current.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        draining.set(false);
+      }
+    }
+  }
+
+  private synchronized void drain() {
+    try {
+      JsonObject record;
+      while ((record = pending.poll()) != null) {
+        write(record);
+      }
+    } finally {
+      draining.set(false);
+    }
+    // A record queued after the last poll but before the flag was cleared needs a new drain.
+    ScheduledExecutorService current = executor;
+    if (!pending.isEmpty() && current != null && draining.compareAndSet(false, true)) {
+      try {
+        current.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        draining.set(false);
+      }
+    }
+  }
+
+  private void write(JsonObject record) {
+    try {
+      Files.createDirectories(directory);
+      if (bytesWritten.get() < 0) {
+        bytesWritten.set(currentDirectorySize());
+      }
+      if (bytesWritten.get() >= config.getTrafficRecordMaxBytes()) {
+        return;
+      }
+      String day = LocalDate.now(ZoneOffset.UTC).toString();
+      Path file = directory.resolve(FILE_PREFIX + day + FILE_SUFFIX);
+      long before = Files.exists(file) ? Files.size(file) : 0;
+      try (OutputStream out =
+              Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+          GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+        gzip.write((GSON.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8));
+      }
+      bytesWritten.addAndGet(Files.size(file) - before);
+    } catch (IOException e) {
+      logger.warn("Failed to record codex.serve exchange", e);
+    }
+  }
+
+  private long currentDirectorySize() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(p -> p.getFileName().toString().startsWith(FILE_PREFIX))
+          .mapToLong(
+              p -> {
+                try {
+                  return Files.size(p);
+                } catch (IOException e) {
+                  return 0;
+                }
+              })
+          .sum();
+    }
+  }
+
+  static JsonElement redact(JsonElement element) {
+    if (element == null || element.isJsonNull()) {
+      return element;
+    }
+    if (element.isJsonArray()) {
+      JsonArray copy = new JsonArray();
+      for (JsonElement item : element.getAsJsonArray()) {
+        copy.add(redact(item));
+      }
+      return copy;
+    }
+    if (!element.isJsonObject()) {
+      return element;
+    }
+    JsonObject copy = new JsonObject();
+    for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+      String key = entry.getKey();
+      JsonElement value = entry.getValue();
+      if ("env".equals(key) && value.isJsonObject()) {
+        JsonObject env = new JsonObject();
+        for (String envKey : value.getAsJsonObject().keySet()) {
+          env.addProperty(envKey, "<redacted>");
+        }
+        copy.add(key, env);
+      } else if (REDACTED_FIELDS.contains(key)
+          && value.isJsonPrimitive()
+          && value.getAsJsonPrimitive().isString()) {
+        copy.add(key, new JsonPrimitive(placeholder(value.getAsString())));
+      } else {
+        copy.add(key, redact(value));
+      }
+    }
+    return copy;
+  }
+
+  private static String placeholder(String value) {
+    return "<redacted:len=" + value.length() + ",sha256=" + shortDigest(value) + ">";
+  }
+
+  private static String shortDigest(String value) {
+    try {
+      byte[] hash =
+          MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (int i = 0; i < 8; i++) {
+        hex.append(String.format("%02x", hash[i]));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      return "unavailable";
+    }
+  }
+
+  /** Timed capture of one request/response exchange. Not thread-safe; one per connection. */
+  public static class Exchange {
+    private final CodexTrafficRecorder recorder;
+    private final JsonObject record;
+    private final JsonArray events;
+    private final Long startNanos;
+    private long eventChars;
+    private int droppedEvents;
+    private boolean finished;
+
+    private Exchange(
+        CodexTrafficRecorder recorder, JsonObject record, JsonArray events, Long startNanos) {
+      this.recorder = recorder;
+      this.record = record;
+      this.events = events;
+      this.startNanos = startNanos;
+    }
+
+    public boolean isRecording() {
+      return recorder != null;
+    }
+
+    public void response(int statusCode) {
+      if (!isRecording()) {
+        return;
+      }
+      record.addProperty("status", statusCode);
+      record.addProperty("ttfbMs", elapsedMs());
+    }
+
+    public void chunk(String data) {
+      if (!isRecording() || data == null) {
+        return;
+      }
+      if (eventChars + data.length() > MAX_EVENT_CHARS) {
+        droppedEvents++;
+        return;
+      }
+      eventChars += data.length();
+      JsonArray event = new JsonArray();
+      event.add(elapsedMs());
+      event.add(data);
+      events.add(event);
+    }
+
+    public void finish(String error) {
+      if (!isRecording() || finished) {
+        return;
+      }
+      finished = true;
+      record.addProperty("durationMs", elapsedMs());
+      if (error != null) {
+        record.addProperty("error", error);
+      }
+      record.add("events", events);
+      if (droppedEvents > 0) {
+        record.addProperty("droppedEvents", droppedEvents);
+      }
+      recorder.submit(record);
+    }
+
+    private long elapsedMs() {
+      return (System.nanoTime() - startNanos) / 1_000_000L;
+    }
+  }
+}
@@ -0,0 +1,219 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-alone HTTP server that replays exchanges captured by {@link CodexTrafficRecorder}.
+ *
+ * <p>Point {@code codexServeUrl} of the plugin build under test at this server. Incoming requests
+ * are matched by method and path (session ids in {@code /sessions/<id>/stop} are ignored) and
+ * answered round-robin from the recorded exchanges, writing every recorded chunk at its original
+ * offset from the request start.
+ *
+ * <pre>
+ * java -cp codex-gerrit.jar:gerrit-plugin-api.jar \
+ *     com.codex.gerrit.service.CodexTrafficReplayServer &lt;recording file or dir&gt; [port] [speed]
+ * </pre>
+ *
+ * <p>{@code speed} scales the recorded timing; {@code 2} replays twice as fast, {@code 0} sends
+ * everything immediately.
+ *
+ * <p>Exchanges the recorder had to cut short ({@code droppedEvents}) would replay truncated, so
+ * they are skipped with a warning.
+ */
+public class CodexTrafficReplayServer {
+  private static final Gson GSON = new Gson();
+  private static final String SESSION_STOP_PATTERN = "^/sessions/[^/]+/stop$";
+
+  private final Map<String, List<JsonObject>> exchangesByRoute = new HashMap<>();
+  private final Map<String, AtomicInteger> cursors = new HashMap<>();
+  private final double speed;
+
+  CodexTrafficReplayServer(List<JsonObject> exchanges, double speed) {
+    this.speed = speed;
+    for (JsonObject exchange : exchanges) {
+      String route = routeKey(getString(exchange, "method"), getString(exchange, "path"));
+      exchangesByRoute.computeIfAbsent(route, k -> new ArrayList<>()).add(exchange);
+      cursors.putIfAbsent(route, new AtomicInteger());
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println(
+          "usage: CodexTrafficReplayServer <recording file or dir> [port] [speed]");
+      System.exit(2);
+    }
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+    double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+    List<JsonObject> exchanges = load(Paths.get(args[0]));
+    CodexTrafficReplayServer replay = new CodexTrafficReplayServer(exchanges, speed);
+
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/", replay::handle);
+    server.start();
+    System.out.println(
+        "Replaying " + exchanges.size() + " exchanges on port " + port + " at speed " + speed);
+  }
+
+  static List<JsonObject> load(Path source) throws IOException {
+    List<Path> files = new ArrayList<>();
+    if (Files.isDirectory(source)) {
+      try (Stream<Path> listing = Files.list(source)) {
+        listing
+            .filter(p -> p.getFileName().toString().endsWith(CodexTrafficRecorder.FILE_SUFFIX))
+            .sorted()
+            .forEach(files::add);
+      }
+    } else {
+      files.add(source);
+    }
+
+    List<JsonObject> exchanges = new ArrayList<>();
+    int truncated = 0;
+    for (Path file : files) {
+      try (InputStream in = new GZIPInputStream(Files.newInputStream(file));
+          BufferedReader reader =
+              new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.trim().isEmpty()) {
+            continue;
+          }
+          JsonObject exchange = GSON.fromJson(line, JsonObject.class);
+          if (exchange == null || !exchange.has("path")) {
+            continue;
+          }
+          if (getLong(exchange, "droppedEvents") > 0) {
+            truncated++;
+            continue;
+          }
+          exchanges.add(exchange);
+        }
+      }
+    }
+    if (truncated > 0) {
+      System.err.println(
+          "Skipping "
+              + truncated
+              + " exchanges recorded without all of their events (droppedEvents > 0)");
+    }
+    return exchanges;
+  }
+
+  private void handle(HttpExchange http) throws IOException {
+    try (InputStream requestBody = http.getRequestBody()) {
+      requestBody.transferTo(OutputStream.nullOutputStream());
+    }
+
+    String route = routeKey(http.getRequestMethod(), http.getRequestURI().getPath());
+    List<JsonObject> candidates = exchangesByRoute.get(route);
+    if (candidates == null || candidates.isEmpty()) {
+      byte[] body = ("{\"detail\":\"no recording for " + route + "\"}").getBytes(StandardCharsets.UTF_8);
+      http.sendResponseHeaders(404, body.length);
+      try (OutputStream out = http.getResponseBody()) {
+        out.write(body);
+      }
+      return;
+    }
+    JsonObject exchange =
+        candidates.get(Math.floorMod(cursors.get(route).getAndIncrement(), candidates.size()));
+
+    long start = System.nanoTime();
+    sleepUntil(start, getLong(exchange, "ttfbMs"));
+    int status = exchange.has("status") ? exchange.get("status").getAsInt() : 502;
+    http.getResponseHeaders().set("Content-Type", contentType(exchange));
+    http.sendResponseHeaders(status, 0);
+
+    JsonArray events =
+        exchange.has("events") && exchange.get("events").isJsonArray()
+            ? exchange.getAsJsonArray("events")
+            : new JsonArray();
+    try (OutputStream out = http.getResponseBody()) {
+      for (JsonElement element : events) {
+        JsonArray event = element.getAsJsonArray();
+        sleepUntil(start, event.get(0).getAsLong());
+        out.write(event.get(1).getAsString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      }
+    } catch (IOException e) {
+      // Client went away mid-stream; nothing more to replay for this exchange.
+    }
+  }
+
+  private void sleepUntil(long startNanos, long offsetMs) {
+    if (speed <= 0 || offsetMs <= 0) {
+      return;
+    }
+    long targetNanos = startNanos + (long) (offsetMs * 1_000_000L / speed);
+    long remainingMs = (targetNanos - System.nanoTime()) / 1_000_000L;
+    if (remainingMs <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(remainingMs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String contentType(JsonObject exchange) {
+    return "/agent/run".equals(getString(exchange, "path"))
+        ? "application/x-ndjson"
+        : "application/json";
+  }
+
+  private static String routeKey(String method, String path) {
+    String normalizedPath = path == null ? "" : path;
+    if (normalizedPath.matches(SESSION_STOP_PATTERN)) {
+      normalizedPath = "/sessions/*/stop";
+    }
+    return (method == null ? "GET" : method.toUpperCase()) + " " + normalizedPath;
+  }
+
+  private static String getString(JsonObject json, String field) {
+    return json.has(field) && json.get(field).isJsonPrimitive() ? json.get(field).getAsString() : null;
+  }
+
+  private static long getLong(JsonObject json, String field) {
+    return json.has(field) && json.get(field).isJsonPrimitive() ? json.get(field).getAsLong() : 0;
+  }
+}
@@ -0,0 +1,520 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.URL;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP/1.1 over a Unix domain socket, for a codex.serve on the same host.
+ *
+ * <p>A pool whose URL is {@code unix:///path/to/socket} is reached through this connection instead
+ * of TCP. It speaks the same requests as {@link HttpURLConnection}: the body is buffered and sent
+ * with a {@code Content-Length} when the response is first asked for, and the response body,
+ * chunked or not, is streamed as it arrives, so NDJSON events are read as they come. Each request
+ * uses its own socket and closes it afterwards. The socket is non-blocking and every wait goes
+ * through a selector: connecting is bounded by the connect timeout, since a listener with a full
+ * backlog does not refuse but stalls the connect, and every read and write by the read timeout.
+ * {@link #disconnect} from another thread aborts any of these waits, as the deadline watchdog and
+ * session cancellation expect.
+ */
+final class CodexUnixConnection extends HttpURLConnection {
+  static final String SCHEME = "unix://";
+  private static final int MAX_HEADER_LINE = 16 * 1024;
+  private static final long CONNECT_RETRY_MS = 10;
+
+  private final Path socketPath;
+  private final String target;
+  private final ByteArrayOutputStream requestBody = new ByteArrayOutputStream();
+  private final List<String[]> responseHeaders = new ArrayList<>();
+  private volatile SocketChannel channel;
+  private volatile Selector selector;
+  private volatile boolean aborted;
+  private SelectionKey key;
+  private boolean sent;
+  private InputStream body;
+
+  private CodexUnixConnection(Path socketPath, String target) throws IOException {
+    super(new URL("http", "localhost", target));
+    this.socketPath = socketPath;
+    this.target = target;
+  }
+
+  static boolean isUnix(String url) {
+    return url.startsWith(SCHEME);
+  }
+
+  /** Opens {@code path} on {@code baseUrl}, over a Unix socket for {@code unix://} URLs. */
+  static HttpURLConnection open(String baseUrl, String path) throws IOException {
+    if (isUnix(baseUrl)) {
+      return new CodexUnixConnection(Paths.get(baseUrl.substring(SCHEME.length())), path);
+    }
+    return (HttpURLConnection) new URL(baseUrl + path).openConnection();
+  }
+
+  @Override
+  public void connect() throws IOException {
+    if (connected) {
+      return;
+    }
+    selector = Selector.open();
+    long timeoutMs = getConnectTimeout();
+    long started = System.nanoTime();
+    try {
+      while (!open()) {
+        long left = remaining(timeoutMs, started);
+        if (left < 0) {
+          throw new SocketTimeoutException("Connect timed out on " + socketPath);
+        }
+        await(0, left == 0 ? CONNECT_RETRY_MS : Math.min(left, CONNECT_RETRY_MS), null);
+      }
+      while (!channel.finishConnect()) {
+        long left = remaining(timeoutMs, started);
+        if (left < 0) {
+          throw new SocketTimeoutException("Connect timed out on " + socketPath);
+        }
+        await(SelectionKey.OP_CONNECT, left, "Connect");
+      }
+    } catch (IOException e) {
+      disconnect();
+      if (e instanceof SocketTimeoutException) {
+        throw e;
+      }
+      throw new IOException("Cannot connect to " + socketPath + ": " + e.getMessage(), e);
+    }
+    connected = true;
+  }
+
+  /**
+   * Starts connecting a fresh socket. Returns false if the server is busy: Linux reports a full
+   * backlog of a Unix socket as {@code EAGAIN} rather than as a pending connect, so the caller
+   * retries until the connect timeout.
+   */
+  private boolean open() throws IOException {
+    // Published before waiting, so that disconnect() can abort the connect.
+    channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+    if (aborted) {
+      throw new IOException("Connection to " + socketPath + " was aborted");
+    }
+    channel.configureBlocking(false);
+    key = channel.register(selector, 0);
+    try {
+      channel.connect(UnixDomainSocketAddress.of(socketPath));
+      return true;
+    } catch (ConnectException e) {
+      throw e;
+    } catch (SocketException e) {
+      if (!Files.exists(socketPath)) {
+        throw e;
+      }
+      return false;
+    }
+  }
+
+  /** Returns the milliseconds left before the timeout, 0 if there is none, or -1 once it passed. */
+  private static long remaining(long timeoutMs, long started) {
+    if (timeoutMs <= 0) {
+      return 0;
+    }
+    long left = timeoutMs - (System.nanoTime() - started) / 1_000_000L;
+    return left > 0 ? left : -1;
+  }
+
+  /**
+   * Waits until the socket is ready for {@code ops}, for at most {@code timeoutMs} (0 waits
+   * forever), and fails with a timeout naming {@code what} if it is not. Without {@code what} it
+   * only pauses. Either way, fails if {@link #disconnect} closed the connection meanwhile.
+   */
+  private void await(int ops, long timeoutMs, String what) throws IOException {
+    long started = System.nanoTime();
+    int ready;
+    try {
+      if (key.isValid()) {
+        key.interestOps(ops);
+      }
+      ready = selector.select(timeoutMs);
+      selector.selectedKeys().clear();
+    } catch (ClosedSelectorException | CancelledKeyException e) {
+      ready = 0;
+    }
+    // A refused connect closes the socket by itself; only a pause may outlive it.
+    if (aborted || (ops != 0 && !channel.isOpen())) {
+      throw new IOException("Connection to " + socketPath + " was aborted");
+    }
+    if (what != null
+        && ready == 0
+        && timeoutMs > 0
+        && System.nanoTime() - started >= timeoutMs * 1_000_000L) {
+      throw new SocketTimeoutException(what + " timed out on " + socketPath);
+    }
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    if (!doOutput) {
+      throw new ProtocolException("Output is not enabled; call setDoOutput(true)");
+    }
+    if (sent) {
+      throw new ProtocolException("Cannot write output after reading input");
+    }
+    return requestBody;
+  }
+
+  @Override
+  public int getResponseCode() throws IOException {
+    exchange();
+    return responseCode;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    exchange();
+    if (responseCode == HTTP_NOT_FOUND || responseCode == HTTP_GONE) {
+      throw new FileNotFoundException(target);
+    }
+    if (responseCode >= 400) {
+      throw new IOException(
+          "Server returned HTTP response code: " + responseCode + " for " + target);
+    }
+    return body;
+  }
+
+  @Override
+  public InputStream getErrorStream() {
+    return sent && responseCode >= 400 ? body : null;
+  }
+
+  @Override
+  public String getHeaderField(String name) {
+    String value = null;
+    for (String[] header : responseHeaders) {
+      if (header[0].equalsIgnoreCase(name)) {
+        value = header[1];
+      }
+    }
+    return value;
+  }
+
+  @Override
+  public String getHeaderFieldKey(int n) {
+    return n > 0 && n <= responseHeaders.size() ? responseHeaders.get(n - 1)[0] : null;
+  }
+
+  @Override
+  public String getHeaderField(int n) {
+    return n > 0 && n <= responseHeaders.size() ? responseHeaders.get(n - 1)[1] : null;
+  }
+
+  @Override
+  public void disconnect() {
+    aborted = true;
+    SocketChannel current = channel;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        // Already closed.
+      }
+    }
+    Selector currentSelector = selector;
+    if (currentSelector != null) {
+      try {
+        // Also wakes up a thread blocked in select().
+        currentSelector.close();
+      } catch (IOException e) {
+        // Already closed.
+      }
+    }
+  }
+
+  @Override
+  public boolean usingProxy() {
+    return false;
+  }
+
+  private synchronized void exchange() throws IOException {
+    if (sent) {
+      return;
+    }
+    sent = true;
+    // Request properties can only be read before connecting.
+    byte[] head = head();
+    connect();
+    try {
+      write(ByteBuffer.wrap(head));
+      write(ByteBuffer.wrap(requestBody.toByteArray()));
+      ChannelInput input = new ChannelInput();
+      readHead(input);
+      body = bodyOf(input);
+    } catch (IOException e) {
+      disconnect();
+      throw e;
+    }
+  }
+
+  private byte[] head() {
+    StringBuilder head = new StringBuilder();
+    head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+    head.append("Host: localhost\r\n");
+    head.append("Connection: close\r\n");
+    for (Map.Entry<String, List<String>> property : getRequestProperties().entrySet()) {
+      if (property.getKey() == null) {
+        continue;
+      }
+      for (String value : property.getValue()) {
+        head.append(property.getKey()).append(": ").append(value).append("\r\n");
+      }
+    }
+    if (doOutput || requestBody.size() > 0) {
+      head.append("Content-Length: ").append(requestBody.size()).append("\r\n");
+    }
+    head.append("\r\n");
+    return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.write(buffer) == 0) {
+        await(SelectionKey.OP_WRITE, getReadTimeout(), "Write");
+      }
+    }
+  }
+
+  private void readHead(ChannelInput input) throws IOException {
+    String status = input.readLine();
+    String[] parts = status.split(" ", 3);
+    if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+      throw new ProtocolException("Invalid status line from " + socketPath + ": " + status);
+    }
+    try {
+      responseCode = Integer.parseInt(parts[1]);
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("Invalid status line from " + socketPath + ": " + status);
+    }
+    responseMessage = parts.length > 2 ? parts[2] : "";
+    String line;
+    while (!(line = input.readLine()).isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        responseHeaders.add(
+            new String[] {line.substring(0, colon).trim(), line.substring(colon + 1).trim()});
+      }
+    }
+  }
+
+  private InputStream bodyOf(ChannelInput input) throws IOException {
+    if ("HEAD".equals(method)
+        || responseCode == HTTP_NO_CONTENT
+        || responseCode == HTTP_NOT_MODIFIED
+        || (responseCode >= 100 && responseCode < 200)) {
+      return new FixedInput(input, 0);
+    }
+    String encoding = getHeaderField("Transfer-Encoding");
+    if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+      return new ChunkedInput(input);
+    }
+    String length = getHeaderField("Content-Length");
+    if (length != null) {
+      try {
+        return new FixedInput(input, Long.parseLong(length));
+      } catch (NumberFormatException e) {
+        throw new ProtocolException("Invalid Content-Length from " + socketPath + ": " + length);
+      }
+    }
+    return input;
+  }
+
+  /** Buffered reads from the socket, bounded by the read timeout. */
+  private final class ChannelInput extends InputStream {
+    private final ByteBuffer buffer = ByteBuffer.allocate(8192).flip();
+    private boolean eof;
+
+    @Override
+    public int read() throws IOException {
+      return fill() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+      disconnect();
+    }
+
+    private boolean fill() throws IOException {
+      while (!buffer.hasRemaining() && !eof) {
+        buffer.clear();
+        int read = channel.read(buffer);
+        buffer.flip();
+        if (read < 0) {
+          eof = true;
+        } else if (read == 0) {
+          await(SelectionKey.OP_READ, getReadTimeout(), "Read");
+        }
+      }
+      return buffer.hasRemaining();
+    }
+
+    private String readLine() throws IOException {
+      StringBuilder line = new StringBuilder();
+      int c;
+      while ((c = read()) != '\n') {
+        if (c < 0) {
+          throw new EOFException("Connection to " + socketPath + " closed in the response head");
+        }
+        if (line.length() >= MAX_HEADER_LINE) {
+          throw new ProtocolException("Response header line too long from " + socketPath);
+        }
+        line.append((char) c);
+      }
+      int end = line.length();
+      if (end > 0 && line.charAt(end - 1) == '\r') {
+        line.setLength(end - 1);
+      }
+      return line.toString();
+    }
+  }
+
+  /** A body of known length. */
+  private static final class FixedInput extends InputStream {
+    private final ChannelInput input;
+    private long remaining;
+
+    private FixedInput(ChannelInput input, long length) {
+      this.input = input;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int read = input.read(bytes, offset, (int) Math.min(length, remaining));
+      if (read < 0) {
+        throw new EOFException("Response body ended " + remaining + " bytes early");
+      }
+      remaining -= read;
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+
+  /** A {@code Transfer-Encoding: chunked} body, decoded as chunks arrive. */
+  private static final class ChunkedInput extends InputStream {
+    private final ChannelInput input;
+    private long chunkRemaining;
+    private boolean done;
+
+    private ChunkedInput(ChannelInput input) {
+      this.input = input;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (done) {
+        return -1;
+      }
+      if (chunkRemaining == 0) {
+        String size = input.readLine();
+        int extension = size.indexOf(';');
+        try {
+          chunkRemaining =
+              Long.parseLong((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException e) {
+          throw new ProtocolException("Invalid chunk size: " + size);
+        }
+        if (chunkRemaining == 0) {
+          while (!input.readLine().isEmpty()) {
+            // Skip trailers.
+          }
+          done = true;
+          return -1;
+        }
+      }
+      int read = input.read(bytes, offset, (int) Math.min(length, chunkRemaining));
+      if (read < 0) {
+        throw new EOFException("Response body ended inside a chunk");
+      }
+      chunkRemaining -= read;
+      if (chunkRemaining == 0) {
+        input.readLine();
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      input.close();
+    }
+  }
+}
@@ -0,0 +1,294 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.quota.QuotaException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limits and usage accounting per account and project.
+ *
+ * <p>Each limit is a token bucket holding up to its hourly allowance and refilling continuously.
+ * An admitted request takes one unit from the request buckets of its account and project. Tokens
+ * are only known once a run ends, so they are debited afterwards and a token bucket may go into
+ * debt; until it has refilled, new requests are rejected. Rejections are {@link QuotaException}s,
+ * which Gerrit answers with 429, and happen before any payload is built. Buckets are a single
+ * {@link AtomicLong} updated by compare-and-set, so admission takes no lock. Full buckets hold no
+ * state beyond a new one, so they are dropped every {@link #SWEEP_INTERVAL_NANOS} to keep the map
+ * to the accounts and projects seen recently.
+ *
+ * <p>Admitted requests and their tokens are added to the {@link CodexUsageLedger}.
+ */
+@Singleton
+public class CodexUsage {
+  private static final long PERIOD_NANOS = TimeUnit.HOURS.toNanos(1);
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final CodexGerritConfig config;
+  private final CodexUsageLedger ledger;
+  private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+
+  @Inject
+  CodexUsage(CodexGerritConfig config, CodexUsageLedger ledger) {
+    this.config = config;
+    this.ledger = ledger;
+  }
+
+  /**
+   * Admits a request of {@code account} (null if anonymous) on {@code project}, or throws if one
+   * of their budgets is exhausted.
+   */
+  public Charge admit(Account.Id account, Project.NameKey project) throws QuotaException {
+    long now = System.nanoTime();
+    sweep(now);
+    String accountName = account == null ? null : "account " + account.get();
+    String projectName = "project " + project.get();
+    Bucket accountRequests = null;
+    Bucket accountTokens = null;
+    if (account != null) {
+      accountRequests = bucket(accountName + " requests", config.getAccountRequestsPerHour());
+      accountTokens = bucket(accountName + " tokens", config.getAccountTokensPerHour());
+    }
+    Bucket projectRequests = bucket(projectName + " requests", config.getProjectRequestsPerHour());
+    Bucket projectTokens = bucket(projectName + " tokens", config.getProjectTokensPerHour());
+
+    checkCredit(accountTokens, now, accountName, config.getAccountTokensPerHour());
+    checkCredit(projectTokens, now, projectName, config.getProjectTokensPerHour());
+    take(accountRequests, now, accountName, config.getAccountRequestsPerHour());
+    try {
+      take(projectRequests, now, projectName, config.getProjectRequestsPerHour());
+    } catch (QuotaException e) {
+      if (accountRequests != null) {
+        accountRequests.giveBack();
+      }
+      throw e;
+    }
+    ledger.record(account, project, 1, 0);
+    return new Charge(account, project, accountTokens, projectTokens);
+  }
+
+  /** Accounts server-initiated work on {@code project} without limiting it. */
+  public Charge charge(Project.NameKey project) {
+    sweep(System.nanoTime());
+    ledger.record(null, project, 1, 0);
+    return new Charge(
+        null,
+        project,
+        null,
+        bucket("project " + project.get() + " tokens", config.getProjectTokensPerHour()));
+  }
+
+  /** Drops full buckets, at most once per interval and without blocking admission. */
+  private void sweep(long now) {
+    long due = nextSweep.get();
+    if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+      return;
+    }
+    // A request racing with the removal is counted on a dropped bucket that was full anyway.
+    buckets.values().removeIf(bucket -> bucket.isFull(now));
+  }
+
+  private Bucket bucket(String key, long perHour) {
+    if (perHour <= 0) {
+      return null;
+    }
+    return buckets.computeIfAbsent(key, k -> new Bucket(perHour, System.nanoTime()));
+  }
+
+  private static void checkCredit(Bucket bucket, long now, String owner, long perHour)
+      throws QuotaException {
+    if (bucket != null && bucket.isEmpty(now)) {
+      long retryAfterSeconds = bucket.retryAfterSeconds(now);
+      throw new LimitExceededException(
+          "Token budget of "
+              + owner
+              + " exhausted: "
+              + perHour
+              + " tokens per hour; retry in "
+              + retryAfterSeconds
+              + " s",
+          retryAfterSeconds);
+    }
+  }
+
+  private static void take(Bucket bucket, long now, String owner, long perHour)
+      throws QuotaException {
+    if (bucket != null && !bucket.tryTake(now)) {
+      long retryAfterSeconds = bucket.retryAfterSeconds(now);
+      throw new LimitExceededException(
+          "Rate limit of "
+              + owner
+              + " exceeded: "
+              + perHour
+              + " requests per hour; retry in "
+              + retryAfterSeconds
+              + " s",
+          retryAfterSeconds);
+    }
+  }
+
+  /**
+   * Tokens in a codex.serve {@code usage} object: {@code total_tokens}, else input plus output
+   * tokens. A nested {@code usage} member is followed, so whole events can be passed.
+   */
+  static long tokens(JsonElement usage) {
+    if (usage == null || !usage.isJsonObject()) {
+      return 0;
+    }
+    JsonObject object = usage.getAsJsonObject();
+    if (object.has("usage")) {
+      return tokens(object.get("usage"));
+    }
+    long total = number(object, "total_tokens", "totalTokens");
+    if (total > 0) {
+      return total;
+    }
+    return number(object, "input_tokens", "inputTokens", "prompt_tokens", "promptTokens")
+        + number(object, "output_tokens", "outputTokens", "completion_tokens", "completionTokens");
+  }
+
+  private static long number(JsonObject object, String... names) {
+    for (String name : names) {
+      JsonElement value = object.get(name);
+      if (value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber()) {
+        return Math.max(0, value.getAsLong());
+      }
+    }
+    return 0;
+  }
+
+  /** A rejected request; background work can wait {@link #retryAfterSeconds} and try again. */
+  public static class LimitExceededException extends QuotaException {
+    private static final long serialVersionUID = 1L;
+    private final long retryAfterSeconds;
+
+    private LimitExceededException(String message, long retryAfterSeconds) {
+      super(message);
+      this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long retryAfterSeconds() {
+      return retryAfterSeconds;
+    }
+  }
+
+  /** The usage of one admitted request; add its tokens as runs report them. */
+  public final class Charge {
+    private final Account.Id account;
+    private final Project.NameKey project;
+    private final Bucket accountTokens;
+    private final Bucket projectTokens;
+
+    private Charge(
+        Account.Id account,
+        Project.NameKey project,
+        Bucket accountTokens,
+        Bucket projectTokens) {
+      this.account = account;
+      this.project = project;
+      this.accountTokens = accountTokens;
+      this.projectTokens = projectTokens;
+    }
+
+    public void tokens(long count) {
+      if (count <= 0) {
+        return;
+      }
+      long now = System.nanoTime();
+      if (accountTokens != null) {
+        accountTokens.debit(count, now);
+      }
+      if (projectTokens != null) {
+        projectTokens.debit(count, now);
+      }
+      ledger.record(account, project, 0, count);
+    }
+
+    /** Adds the tokens of a codex.serve {@code usage} object. */
+    public void usage(JsonElement usage) {
+      tokens(CodexUsage.tokens(usage));
+    }
+  }
+
+  /**
+   * A token bucket kept as the time at which it is full again. A bucket whose full time is a
+   * whole period or more ahead is empty.
+   */
+  private static final class Bucket {
+    private final long intervalNanos;
+    private final AtomicLong fullAt;
+
+    Bucket(long perHour, long now) {
+      this.intervalNanos = Math.max(1, PERIOD_NANOS / perHour);
+      this.fullAt = new AtomicLong(now);
+    }
+
+    boolean tryTake(long now) {
+      while (true) {
+        long current = fullAt.get();
+        long next = Math.max(current, now) + intervalNanos;
+        if (next - now > PERIOD_NANOS) {
+          return false;
+        }
+        if (fullAt.compareAndSet(current, next)) {
+          return true;
+        }
+      }
+    }
+
+    void giveBack() {
+      fullAt.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * Takes {@code count} units even if that leaves the bucket in debt. The total debt is capped at
+     * two periods, so that oversized runs cannot lock their owner out for longer.
+     */
+    void debit(long count, long now) {
+      long cost = Math.min(count, 2 * PERIOD_NANOS / intervalNanos) * intervalNanos;
+      while (true) {
+        long current = fullAt.get();
+        long next = Math.min(Math.max(current, now) + cost, now + 3 * PERIOD_NANOS);
+        if (fullAt.compareAndSet(current, Math.max(current, next))) {
+          return;
+        }
+      }
+    }
+
+    boolean isFull(long now) {
+      return fullAt.get() - now <= 0;
+    }
+
+    boolean isEmpty(long now) {
+      return fullAt.get() - now >= PERIOD_NANOS;
+    }
+
+    long retryAfterSeconds(long now) {
+      long waitNanos = fullAt.get() - now - PERIOD_NANOS + intervalNanos;
+      return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos));
+    }
+  }
+}
@@ -0,0 +1,323 @@
+// Copyright (C) 2026
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.codex.gerrit.service;
+
+import com.codex.gerrit.config.CodexGerritConfig;
+import com.google.gerrit.entities.Account;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginData;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Requests and tokens per account, project and UTC day under {@code <plugin-data>/usage}.
+ *
+ * <p>Each day is one small JSON file with a row per account and project. The current day is
+ * counted in memory and written every {@link #FLUSH_INTERVAL_SECONDS} seconds and on stop; older
+ * days are read back only for reports. Days older than {@code usageRetentionDays} are deleted.
+ */
+@Singleton
+public class CodexUsageLedger implements LifecycleListener {
+  private static final Logger logger = LoggerFactory.getLogger(CodexUsageLedger.class);
+  private static final long FLUSH_INTERVAL_SECONDS = 60;
+  private static final String SUFFIX = ".json";
+
+  private final CodexGerritConfig config;
+  private final WorkQueue workQueue;
+  private final Path usageDir;
+  private final ConcurrentMap<LocalDate, Day> days = new ConcurrentHashMap<>();
+  private volatile ScheduledFuture<?> flusher;
+
+  @Inject
+  CodexUsageLedger(CodexGerritConfig config, WorkQueue workQueue, @PluginData Path pluginData) {
+    this.config = config;
+    this.workQueue = workQueue;
+    this.usageDir = pluginData.resolve("usage");
+  }
+
+  @Override
+  public void start() {
+    flusher =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                this::flush, FLUSH_INTERVAL_SECONDS, FLUSH_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void stop() {
+    ScheduledFuture<?> current = flusher;
+    flusher = null;
+    if (current != null) {
+      current.cancel(false);
+    }
+    flush();
+  }
+
+  /** Adds to today's row of {@code account} (null for server-initiated work) and project. */
+  void record(Account.Id account, Project.NameKey project, long requests, long tokens) {
+    if (requests <= 0 && tokens <= 0) {
+      return;
+    }
+    Day day = days.computeIfAbsent(today(), this::load);
+    Key key = new Key(account == null ? 0 : account.get(), project.get());
+    day.totals.computeIfAbsent(key, k -> new Totals()).add(requests, tokens);
+    day.dirty = true;
+  }
+
+  /**
+   * Sums the last {@code dayCount} days, today included, optionally restricted to one account or
+   * project.
+   */
+  public Report report(int dayCount, Account.Id account, Project.NameKey project) {
+    LocalDate to = today();
+    LocalDate from = to.minusDays(Math.max(1, dayCount) - 1);
+    Report report = new Report();
+    report.from = from.toString();
+    report.to = to.toString();
+    Map<Integer, Entry> byAccount = new LinkedHashMap<>();
+    Map<String, Entry> byProject = new LinkedHashMap<>();
+    for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+      Day day = days.get(date);
+      if (day == null) {
+        day = load(date);
+      }
+      for (Map.Entry<Key, Totals> row : day.totals.entrySet()) {
+        Key key = row.getKey();
+        if ((account != null && key.account != account.get())
+            || (project != null && !key.project.equals(project.get()))) {
+          continue;
+        }
+        long requests = row.getValue().requests.sum();
+        long tokens = row.getValue().tokens.sum();
+        report.requests += requests;
+        report.tokens += tokens;
+        byAccount.computeIfAbsent(key.account, Entry::account).add(requests, tokens);
+        byProject.computeIfAbsent(key.project, Entry::project).add(requests, tokens);
+      }
+    }
+    report.accounts = sorted(byAccount.values());
+    report.projects = sorted(byProject.values());
+    return report;
+  }
+
+  private static List<Entry> sorted(Iterable<Entry> entries) {
+    List<Entry> list = new ArrayList<>();
+    entries.forEach(list::add);
+    list.sort(
+        Comparator.comparingLong((Entry e) -> e.tokens)
+            .thenComparingLong(e -> e.requests)
+            .reversed());
+    return list;
+  }
+
+  private synchronized void flush() {
+    LocalDate today = today();
+    for (Map.Entry<LocalDate, Day> entry : days.entrySet()) {
+      Day day = entry.getValue();
+      if (day.dirty) {
+        day.dirty = false;
+        try {
+          CodexJsonFiles.write(fileOf(entry.getKey()), day.toFile());
+        } catch (IOException e) {
+          day.dirty = true;
+          logger.warn("Failed to write usage of {}", entry.getKey(), e);
+        }
+      }
+      if (entry.getKey().isBefore(today) && !day.dirty) {
+        days.remove(entry.getKey(), day);
+      }
+    }
+    sweep(today.minusDays(config.getUsageRetentionDays()));
+  }
+
+  private void sweep(LocalDate before) {
+    if (!Files.isDirectory(usageDir)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(usageDir)) {
+      for (Path file : files) {
+        LocalDate date = dateOf(file);
+        if (CodexJsonFiles.isTempFile(file) || (date != null && date.isBefore(before))) {
+          Files.deleteIfExists(file);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to sweep usage ledger", e);
+    }
+  }
+
+  private Day load(LocalDate date) {
+    Day day = new Day();
+    try {
+      DayFile file = CodexJsonFiles.read(fileOf(date), DayFile.class);
+      if (file != null && file.rows != null) {
+        for (Row row : file.rows) {
+          if (row != null && row.project != null) {
+            day.totals
+                .computeIfAbsent(new Key(row.account, row.project), k -> new Totals())
+                .add(row.requests, row.tokens);
+          }
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to read usage of {}", date, e);
+    }
+    return day;
+  }
+
+  private Path fileOf(LocalDate date) {
+    return usageDir.resolve(date + SUFFIX);
+  }
+
+  private static LocalDate dateOf(Path file) {
+    String name = file.getFileName().toString();
+    if (!name.endsWith(SUFFIX)) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(name.substring(0, name.length() - SUFFIX.length()));
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private static LocalDate today() {
+    return LocalDate.now(ZoneOffset.UTC);
+  }
+
+  private static class Day {
+    final ConcurrentMap<Key, Totals> totals = new ConcurrentHashMap<>();
+    volatile boolean dirty;
+
+    DayFile toFile() {
+      DayFile file = new DayFile();
+      file.rows = new ArrayList<>();
+      for (Map.Entry<Key, Totals> entry : totals.entrySet()) {
+        Row row = new Row();
+        row.account = entry.getKey().account;
+        row.project = entry.getKey().project;
+        row.requests = entry.getValue().requests.sum();
+        row.tokens = entry.getValue().tokens.sum();
+        file.rows.add(row);
+      }
+      return file;
+    }
+  }
+
+  private static class Key {
+    final int account;
+    final String project;
+
+    Key(int account, String project) {
+      this.account = account;
+      this.project = project;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) other;
+      return account == key.account && project.equals(key.project);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(account, project);
+    }
+  }
+
+  private static class Totals {
+    final LongAdder requests = new LongAdder();
+    final LongAdder tokens = new LongAdder();
+
+    void add(long requestCount, long tokenCount) {
+      requests.add(requestCount);
+      tokens.add(tokenCount);
+    }
+  }
+
+  private static class DayFile {
+    List<Row> rows;
+  }
+
+  private static class Row {
+    /** 0 for server-initiated work. */
+    int account;
+    String project;
+    long requests;
+    long tokens;
+  }
+
+  /** Usage over a range of days. */
+  public static class Report {
+    public String from;
+    public String to;
+    public long requests;
+    public long tokens;
+    /** Most tokens first. */
+    public List<Entry> accounts;
+    public List<Entry> projects;
+  }
+
+  public static class Entry {
+    /** Account id; absent for server-initiated work such as branch insight. */
+    public Integer account;
+    public String project;
+    public long requests;
+    public long tokens;
+
+    static Entry account(int account) {
+      Entry entry = new Entry();
+      entry.account = account == 0 ? null : account;
+      return entry;
+    }
+
+    static Entry project(String project) {
+      Entry entry = new Entry();
+      entry.project = project;
+      return entry;
+    }
+
+    void add(long requestCount, long tokenCount) {
+      requests += requestCount;
+      tokens += tokenCount;
+    }
+  }
+}
@@ -18,6 +18,9 @@ Gerrit.install(plugin => {
   const logPrefix = '[codex-gerrit]';
   const mentionAllKeyword = 'all';
   const defaultHashCommands = ['insight', 'graph'];
+  const chatHeartbeatIntervalMs = 15000;
+  const healthRefreshIntervalMs = 30000;
+  const outputPageBytes = 256 * 1024;
   const fallbackAgents = ['codex'];
   const sandboxTimeoutSeconds = 3;
   const codespacesActions = [
@@ -46,6 +49,9 @@ Gerrit.install(plugin => {
       this.isBusyState = false;
       this.isShellRunning = false;
       this.activeSessionId = null;
+      // One codex.serve session per conversation, so that context files sent once are reused.
+      this.conversationSessionId = null;
+      this.conversationChangeId = null;
       this.activeGraphAbortController = null;
       this.isGraphRequestActive = false;
       this.graphStopRequested = false;
@@ -61,6 +67,8 @@ Gerrit.install(plugin => {
       this.insightDialogOverlay = null;
       this.insightDialogTitle = null;
       this.insightDialogBody = null;
+      this.insightArtifactPath = '';
+      this.insightArtifacts = new Map();
       this.graphSelectionDialogOverlay = null;
       this.graphSelectionDialogFileButton = null;
       this.graphSelectionDialogCancelButton = null;
@@ -78,12 +86,15 @@ Gerrit.install(plugin => {
       this.shellOutput = null;
       this.shellDialogOverlay = null;
       this.isCollapsed = false;
+      this.healthBadge = null;
+      this.healthTimer = null;
     }
 
     connectedCallback() {
       log('Panel connectedCallback invoked.');
       if (this.shadowRoot) {
         log('Panel already has shadowRoot, skipping render.');
+        this.startHealthRefresh();
         return;
       }
       this.attachShadow({ mode: 'open' });
@@ -91,6 +102,13 @@ Gerrit.install(plugin => {
       this.render();
     }
 
+    disconnectedCallback() {
+      if (this.healthTimer) {
+        clearInterval(this.healthTimer);
+        this.healthTimer = null;
+      }
+    }
+
     render() {
       log('Rendering panel UI.');
       const wrapper = document.createElement('div');
@@ -106,6 +124,9 @@ Gerrit.install(plugin => {
       headerTitle.className = 'codex-header-title';
       headerTitle.textContent = '🤖 Codex Chat';
 
+      const healthBadge = document.createElement('span');
+      healthBadge.className = 'codex-health-badge hidden';
+
       const helpButton = document.createElement('button');
       helpButton.type = 'button';
       helpButton.className = 'codex-button outline codex-small-button codex-help-button';
@@ -121,6 +142,7 @@ Gerrit.install(plugin => {
       collapseButton.setAttribute('aria-label', 'Collapse Codex Chat');
 
       headerLeft.appendChild(headerTitle);
+      headerLeft.appendChild(healthBadge);
       header.appendChild(headerLeft);
       headerActions.appendChild(helpButton);
       headerActions.appendChild(collapseButton);
@@ -704,6 +726,7 @@ Gerrit.install(plugin => {
       this.shellOutput = shellOutput;
       this.shellDialogOverlay = shellDialogOverlay;
       this.collapseButton = collapseButton;
+      this.healthBadge = healthBadge;
 
       this.setQueueStatus('idle');
       this.setOverflowStatus('ready');
@@ -712,6 +735,15 @@ Gerrit.install(plugin => {
 
       this.showWelcomeMessage();
       this.loadConfig();
+      this.startHealthRefresh();
+    }
+
+    startHealthRefresh() {
+      if (this.healthTimer) {
+        return;
+      }
+      this.loadHealth();
+      this.healthTimer = setInterval(() => this.loadHealth(), healthRefreshIntervalMs);
     }
 
     toggleCollapsed() {
@@ -799,12 +831,17 @@ Gerrit.install(plugin => {
           log('No models returned.');
         }
 
+        // Large changes omit the file list; mentions are then served by the codex-files query.
+        this.patchsetFilesComplete = !response || response.patchsetFilesComplete !== false;
         if (patchsetFiles && patchsetFiles.length > 0) {
           this.patchsetFiles = patchsetFiles.slice();
           log('Patchset files loaded for @ mentions.', { count: this.patchsetFiles.length });
         } else {
           this.patchsetFiles = [];
-          log('No patchset files returned for @ mentions.');
+          log('No inline patchset files returned for @ mentions.', {
+            total: response ? response.patchsetFileCount : 0,
+            complete: this.patchsetFilesComplete
+          });
         }
 
         const configuredCommands = this.normalizeHashCommands(
@@ -819,6 +856,34 @@ Gerrit.install(plugin => {
       }
     }
 
+    // Reads the backend state cached by the server-side prober; it never waits on codex.serve.
+    async loadHealth() {
+      const changeId = this.getChangeId();
+      if (!changeId || !this.healthBadge) {
+        return;
+      }
+      try {
+        const path = this.buildRevisionRestPath(changeId, this.getRevisionId(), 'codex-health');
+        const status = await plugin.restApi().get(path);
+        const state = status && status.state ? String(status.state).toLowerCase() : 'healthy';
+        const badge = this.healthBadge;
+        badge.classList.toggle('hidden', state === 'healthy');
+        badge.classList.toggle('is-degraded', state === 'degraded');
+        badge.classList.toggle('is-down', state === 'down');
+        badge.textContent = state === 'down' ? 'Backend down' : 'Backend degraded';
+        const details = [`codex.serve pool ${status && status.pool ? status.pool : 'default'}: ${state}`];
+        if (status && status.since) {
+          details.push(`since ${new Date(status.since).toLocaleString()}`);
+        }
+        if (status && status.error) {
+          details.push(status.error);
+        }
+        badge.title = details.join(' · ');
+      } catch (err) {
+        warn('Failed to load backend health.', err);
+      }
+    }
+
     normalizeHashCommands(commands) {
       if (!Array.isArray(commands) || commands.length === 0) {
         return [];
@@ -1737,8 +1802,15 @@ Gerrit.install(plugin => {
         }
         return payload;
       });
-      const sessionId = this.createSessionId();
+      const sessionId = this.getConversationSessionId(changeId);
+      const runId = postAsReview ? this.createSessionId() : undefined;
       this.activeSessionId = sessionId;
+      const heartbeatPath = this.buildRevisionRestPath(changeId, revision, 'codex-chat-heartbeat');
+      const heartbeatTimer = setInterval(() => {
+        plugin.restApi().post(heartbeatPath, { sessionId, session_id: sessionId }).catch(err => {
+          log('Chat heartbeat failed.', err);
+        });
+      }, chatHeartbeatIntervalMs);
 
       try {
         const path = this.buildRevisionRestPath(changeId, revision, 'codex-chat');
@@ -1747,17 +1819,24 @@ Gerrit.install(plugin => {
           prompt,
           mode,
           postAsReview,
+          runId,
           agent,
           model,
           sessionId,
           session_id: sessionId,
+          heartbeat: true,
           contextFiles,
           attachedFiles
         });
         log('Chat REST response received.', response);
+        if (response && response.outputHandle) {
+          response.reply = await this.loadRemainingOutput(changeId, revision, response);
+        }
         if (response && response.reply) {
           this.appendMessage('assistant', response.reply);
-          const fileChanges = this.extractFileChangesFromReply(response.reply, contextFiles);
+          const resolvedContextFiles =
+            Array.isArray(response.contextFiles) ? response.contextFiles : contextFiles;
+          const fileChanges = this.extractFileChangesFromReply(response.reply, resolvedContextFiles);
           if (fileChanges.length > 0) {
             this.showFileChangesDialog(fileChanges);
             this.setStatus(`Detected ${fileChanges.length} changed file(s). Review dialog opened for Keep/Undo.`);
@@ -1792,6 +1871,7 @@ Gerrit.install(plugin => {
         this.appendMessage('assistant', `Request failed: ${errorMessage}`);
         this.setStatus(`Request failed: ${errorMessage}`);
       } finally {
+        clearInterval(heartbeatTimer);
         this.activeSessionId = null;
         this.setBusy(false);
         // Clear attached files after each submission so they are not re-sent.
@@ -1863,6 +1943,7 @@ Gerrit.install(plugin => {
       if (this.fileInput) {
         this.fileInput.value = '';
       }
+      this.conversationSessionId = null;
       this.setQueueStatus('idle');
       this.setOverflowStatus('ready');
       this.setStatus('Chat panel cleared.');
@@ -2529,6 +2610,34 @@ Gerrit.install(plugin => {
       }
     }
 
+    async loadRemainingOutput(changeId, revision, response) {
+      const path = this.buildRevisionRestPath(changeId, revision, 'codex-output');
+      let reply = response.reply || '';
+      let offset = response.outputHeadBytes || 0;
+      this.setStatus('Loading the rest of a large reply...');
+      try {
+        while (true) {
+          const page = await plugin.restApi().get(
+            `${path}?handle=${encodeURIComponent(response.outputHandle)}&offset=${offset}&length=${outputPageBytes}`);
+          if (!page) {
+            break;
+          }
+          reply += page.text || '';
+          if (page.eof || page.nextOffset <= offset) {
+            if (page.truncated) {
+              reply += '\n[truncated]';
+            }
+            break;
+          }
+          offset = page.nextOffset;
+        }
+      } catch (err) {
+        logError('Failed to load the rest of the reply.', err);
+        reply += '\n[truncated: failed to load the rest of the reply]';
+      }
+      return reply;
+    }
+
     extractFileChangesFromReply(reply, contextFiles) {
       const blocks = this.extractDiffBlocks(reply || '');
       const merged = new Map();
@@ -2884,6 +2993,22 @@ Gerrit.install(plugin => {
 
       const renderActiveFile = () => {
         const activeFile = insightFiles[activeIndex] || insightFiles[0];
+        if (activeFile && activeFile.sha256) {
+          const requestedIndex = activeIndex;
+          filename.textContent = activeFile.path;
+          visualizeButton.hidden = true;
+          content.classList.add('markdown-preview');
+          content.innerHTML = this.renderMarkdown('Loading...');
+          Array.from(tabs.children).forEach((tabButton, index) => {
+            tabButton.classList.toggle('active', index === activeIndex);
+          });
+          this.loadInsightArtifact(activeFile).then(() => {
+            if (activeIndex === requestedIndex) {
+              renderActiveFile();
+            }
+          });
+          return;
+        }
         const graphPayload = this.extractGraphPayloadForVisualization(activeFile);
         const canVisualize = !!graphPayload;
         if (!canVisualize) {
@@ -2931,8 +3056,9 @@ Gerrit.install(plugin => {
         renderActiveFile();
       });
 
-      downloadButton.addEventListener('click', () => {
+      downloadButton.addEventListener('click', async () => {
         const activeFile = insightFiles[activeIndex] || insightFiles[0];
+        await this.loadInsightArtifact(activeFile);
         this.downloadInsightFile(activeFile, activeIndex);
       });
 
@@ -3020,7 +3146,8 @@ Gerrit.install(plugin => {
       const tokens = this.tokenizeCommandArgs(argsPart);
       const command = {
         frameworkHint: '',
-        selectMode: ''
+        selectMode: '',
+        fromRevision: false
       };
 
       for (let i = 0; i < tokens.length; i += 1) {
@@ -3036,6 +3163,10 @@ Gerrit.install(plugin => {
         }
         if (token === '--folder' || token === '--dir' || token === '--directory') {
           command.selectMode = 'file';
+          continue;
+        }
+        if (token === '--revision') {
+          command.fromRevision = true;
         }
       }
 
@@ -3053,7 +3184,8 @@ Gerrit.install(plugin => {
       const command = {
         repoPath: '',
         outPath: '',
-        dryRun: false
+        dryRun: false,
+        fromRevision: false
       };
 
       for (let i = 0; i < tokens.length; i += 1) {
@@ -3062,6 +3194,10 @@ Gerrit.install(plugin => {
           command.dryRun = true;
           continue;
         }
+        if (token === '--revision') {
+          command.fromRevision = true;
+          continue;
+        }
         if (token === '--repo') {
           command.repoPath = i + 1 < tokens.length ? tokens[i + 1] : '';
           i += 1;
@@ -3137,6 +3273,10 @@ Gerrit.install(plugin => {
       };
 
       try {
+        if (command && command.fromRevision) {
+          await this.submitRevisionGraph(changeId, revision, command);
+          return;
+        }
         const selectedFiles = await this.pickGraphFilesForCommand(command);
         ensureGraphNotStopped();
         const validFiles = (selectedFiles || []).filter(file => {
@@ -3263,6 +3403,42 @@ Gerrit.install(plugin => {
       }
     }
 
+    async submitRevisionGraph(changeId, revision, command) {
+      const path = this.buildRevisionRestPath(changeId, revision, 'codex-graph');
+      const requestBody = { fromRevision: true };
+      const frameworkHint = command && command.frameworkHint ? String(command.frameworkHint).trim() : '';
+      if (frameworkHint) {
+        requestBody.framework_hint = frameworkHint;
+      }
+
+      this.activeGraphAbortController = new AbortController();
+      this.setStatus('Running #graph on the revision...');
+      log('Submitting revision graph request.', { path, frameworkHint });
+      const response = await this.postJsonToGerrit(path, requestBody, this.activeGraphAbortController.signal);
+      if (this.graphStopRequested) {
+        throw new Error('Graph request canceled by user.');
+      }
+      const filesCount = response && typeof response.sourceFiles === 'number' ? response.sourceFiles : 0;
+      const graphDialogFiles = this.buildGraphDialogFiles(response, filesCount, 0);
+      const dialogFileCount = this.openInsightDialog(graphDialogFiles, null, 'Codex Insight & Graph');
+      this.appendMessage(
+          'assistant',
+          `Graph generated from ${filesCount} revision file${filesCount === 1 ? '' : 's'}${this.formatSourceNote(response)}. Opened in popup dialog.`);
+      this.setStatus(`Graph generated (${dialogFileCount} file${dialogFileCount === 1 ? '' : 's'}).`);
+    }
+
+    formatSourceNote(response) {
+      const notes = [];
+      const skipped = response && typeof response.skippedFiles === 'number' ? response.skippedFiles : 0;
+      if (skipped > 0) {
+        notes.push(`${skipped} binary or oversized skipped`);
+      }
+      if (response && response.sourceTruncated) {
+        notes.push('stopped at the size limit');
+      }
+      return notes.length > 0 ? ` (${notes.join(', ')})` : '';
+    }
+
     buildGraphDialogFiles(response, filesCount, codeChars) {
       const graph = response && response.graph && typeof response.graph === 'object' ? response.graph : null;
       const nodesCount = graph && Array.isArray(graph.nodes) ? graph.nodes.length : 0;
@@ -3284,6 +3460,13 @@ Gerrit.install(plugin => {
       if (llms.length > 0) {
         summaryLines.push(`- LLMs detected: ${llms.join(', ')}`);
       }
+      if (response && typeof response.cachedFiles === 'number') {
+        const totalFiles = response.cachedFiles + (response.graphedFiles || 0);
+        summaryLines.push(`- Cached files: ${response.cachedFiles} of ${totalFiles}`);
+      }
+      if (response && typeof response.skippedFiles === 'number') {
+        summaryLines.push(`- Skipped files: ${response.skippedFiles}${response.sourceTruncated ? ' (size limit reached)' : ''}`);
+      }
 
       let payloadText = '';
       try {
@@ -3375,6 +3558,10 @@ Gerrit.install(plugin => {
       this.hideMentionDropdown();
 
       try {
+        if (command && command.fromRevision) {
+          await this.submitRevisionInsight(changeId, revision, command);
+          return;
+        }
         const directoryFiles = await this.pickInsightFilesFromDirectory();
         const validFiles = (directoryFiles || []).filter(file => {
           if (!file || !file.path) {
@@ -3400,6 +3587,7 @@ Gerrit.install(plugin => {
         }
 
         const path = this.buildRevisionRestPath(changeId, revision, 'codex-insight');
+        this.insightArtifactPath = this.buildRevisionRestPath(changeId, revision, 'codex-insight-artifact');
         const requestBody = {
           dryRun: !!(command && command.dryRun),
           files: validFiles
@@ -3416,11 +3604,7 @@ Gerrit.install(plugin => {
           filesCount: validFiles.length
         });
         const response = await plugin.restApi().post(path, requestBody);
-        const files = response && Array.isArray(response.files) ? response.files : [];
-        this.openInsightDialog(files, response);
-        const fileCount = files.length;
-        this.appendMessage('assistant', `Insight generated (${fileCount} file${fileCount === 1 ? '' : 's'}). Opened in popup dialog.`);
-        this.setStatus(`Insight generated (${fileCount} file${fileCount === 1 ? '' : 's'}).`);
+        this.showInsightResponse(response, '');
       } catch (error) {
         logError('Insight request failed.', error);
         const message = this.getErrorMessage(error);
@@ -3431,6 +3615,41 @@ Gerrit.install(plugin => {
       }
     }
 
+    async submitRevisionInsight(changeId, revision, command) {
+      const path = this.buildRevisionRestPath(changeId, revision, 'codex-insight');
+      this.insightArtifactPath = this.buildRevisionRestPath(changeId, revision, 'codex-insight-artifact');
+      const requestBody = {
+        dryRun: !!(command && command.dryRun),
+        fromRevision: true
+      };
+      const outPath = (command && command.outPath ? command.outPath : '').trim();
+      if (outPath) {
+        requestBody.outPath = outPath;
+      }
+
+      this.setStatus('Running #insight on the revision...');
+      log('Submitting revision insight request.', { path, dryRun: requestBody.dryRun, outPath });
+      const response = await plugin.restApi().post(path, requestBody);
+      this.showInsightResponse(response, this.formatSourceNote(response));
+    }
+
+    showInsightResponse(response, sourceNote) {
+      const files = response && Array.isArray(response.files) ? response.files : [];
+      this.openInsightDialog(files, response);
+      const fileCount = files.length;
+      const reusedCount = response && Array.isArray(response.reusedModules) ? response.reusedModules.length : 0;
+      let cacheNote = '';
+      if (response && response.precomputedBranch) {
+        cacheNote = ` precomputed for ${response.precomputedBranch}`;
+      } else if (response && response.cached) {
+        cacheNote = ' from cache';
+      } else if (reusedCount > 0) {
+        cacheNote = `, ${reusedCount} unchanged module${reusedCount === 1 ? '' : 's'} from cache`;
+      }
+      this.appendMessage('assistant', `Insight generated (${fileCount} file${fileCount === 1 ? '' : 's'}${cacheNote})${sourceNote || ''}. Opened in popup dialog.`);
+      this.setStatus(`Insight generated (${fileCount} file${fileCount === 1 ? '' : 's'}${cacheNote}).`);
+    }
+
     normalizeInsightFiles(files, response) {
       const safeFiles = Array.isArray(files) ? files : [];
       const markdownFiles = safeFiles.filter(file => this.isMarkdownInsightFile(file));
@@ -3442,7 +3661,9 @@ Gerrit.install(plugin => {
           const path = rawPath || `Insight-${index + 1}.md`;
           const label = this.getInsightFileLabel(path, index);
           const content = file && file.content ? String(file.content) : '';
-          return { path, label, content };
+          // Files from codex-insight carry only a hash; their content is fetched per tab.
+          const sha256 = file && file.sha256 && !file.content ? String(file.sha256) : '';
+          return { path, label, content, sha256 };
         });
       }
 
@@ -3462,6 +3683,27 @@ Gerrit.install(plugin => {
       }];
     }
 
+    async loadInsightArtifact(file) {
+      if (!file || !file.sha256) {
+        return;
+      }
+      const sha256 = file.sha256;
+      let pending = this.insightArtifacts.get(sha256);
+      if (!pending) {
+        const path = `${this.insightArtifactPath}?id=${encodeURIComponent(sha256)}`;
+        pending = plugin.restApi().get(path).then(artifact => (artifact && artifact.content) || '');
+        this.insightArtifacts.set(sha256, pending);
+      }
+      try {
+        file.content = await pending;
+      } catch (error) {
+        this.insightArtifacts.delete(sha256);
+        logError('Failed to load insight file.', error);
+        file.content = `# Insight\n\nFailed to load ${file.path}: ${this.getErrorMessage(error)}`;
+      }
+      file.sha256 = '';
+    }
+
     isMarkdownInsightFile(file) {
       if (!file || !file.path) {
         return true;
@@ -4346,6 +4588,14 @@ Gerrit.install(plugin => {
           .replace(/'/g, '&#39;');
     }
 
+    getConversationSessionId(changeId) {
+      if (!this.conversationSessionId || this.conversationChangeId !== changeId) {
+        this.conversationSessionId = this.createSessionId();
+        this.conversationChangeId = changeId;
+      }
+      return this.conversationSessionId;
+    }
+
     createSessionId() {
       if (window.crypto && typeof window.crypto.randomUUID === 'function') {
         return window.crypto.randomUUID();
@@ -4367,14 +4617,14 @@ Gerrit.install(plugin => {
       this.currentMentionTrigger = mentionInfo.trigger;
       const query = mentionInfo.query.toLowerCase();
       if (mentionInfo.trigger === '@') {
+        if (this.patchsetFilesComplete === false) {
+          this.queryMentionFiles(mentionInfo.query);
+          return;
+        }
         const mentionCandidates = this.patchsetFiles
             .filter(file => file.toLowerCase().includes(query))
             .slice(0, 20);
-        const normalizedCandidates =
-          mentionAllKeyword.includes(query) || query.includes(mentionAllKeyword)
-            ? [mentionAllKeyword, ...mentionCandidates.filter(file => file !== mentionAllKeyword)]
-            : mentionCandidates;
-        this.filteredMentionFiles = normalizedCandidates.map(file => `@${file}`);
+        this.filteredMentionFiles = this.withMentionAllKeyword(query, mentionCandidates);
       } else if (mentionInfo.trigger === '#') {
         const commandCandidates = this.hashCommands
             .filter(command => command.toLowerCase().includes(query))
@@ -4391,6 +4641,48 @@ Gerrit.install(plugin => {
       this.renderMentionDropdown();
     }
 
+    withMentionAllKeyword(query, mentionCandidates) {
+      const normalizedCandidates =
+        mentionAllKeyword.includes(query) || query.includes(mentionAllKeyword)
+          ? [mentionAllKeyword, ...mentionCandidates.filter(file => file !== mentionAllKeyword)]
+          : mentionCandidates;
+      return normalizedCandidates.map(file => `@${file}`);
+    }
+
+    queryMentionFiles(rawQuery) {
+      if (this.mentionQueryTimer) {
+        clearTimeout(this.mentionQueryTimer);
+      }
+      const requestSeq = (this.mentionQuerySeq || 0) + 1;
+      this.mentionQuerySeq = requestSeq;
+      this.mentionQueryTimer = setTimeout(async () => {
+        const changeId = this.getChangeId();
+        if (!changeId) {
+          return;
+        }
+        const revision = this.getRevisionId();
+        const basePath = this.buildRevisionRestPath(changeId, revision, 'codex-files');
+        const path = `${basePath}?q=${encodeURIComponent(rawQuery)}&n=20`;
+        let files = [];
+        try {
+          const response = await plugin.restApi().get(path);
+          files = response && Array.isArray(response.files) ? response.files : [];
+        } catch (err) {
+          warn('Failed to query patchset files for @ mention.', err);
+        }
+        if (requestSeq !== this.mentionQuerySeq || !this.currentMentionRange) {
+          return;
+        }
+        this.filteredMentionFiles = this.withMentionAllKeyword(rawQuery.toLowerCase(), files);
+        if (this.filteredMentionFiles.length === 0) {
+          this.hideMentionDropdown();
+          return;
+        }
+        this.activeMentionIndex = 0;
+        this.renderMentionDropdown();
+      }, 120);
+    }
+
     handleInputKeydown(event) {
       const isArrowUp =
         event.code === 'ArrowUp' || event.key === 'ArrowUp' || event.key === 'Up' || event.keyCode === 38;